@@ -0,0 +1,52 @@
+package com.paymybuddy.paymybuddy.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+/**
+ * Gives long streamed downloads, such as transaction history exports, their own timeout. Other asynchronous
+ * requests keep the default one.
+ */
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+	/**
+	 * Request attribute marking a request whose streamed response gets the export timeout.
+	 */
+	private static final String EXPORT_REQUEST = AsyncConfig.class.getName() + ".EXPORT_REQUEST";
+
+	/**
+	 * How long an export may take to be written.
+	 */
+	@Value("${paymybuddy.export.timeout:PT1H}")
+	Duration exportTimeout;
+
+	/**
+	 * Marks a request whose response body is an export, to be called by the handler before it returns.
+	 */
+	public static void markExport(NativeWebRequest request) {
+		request.setAttribute(EXPORT_REQUEST, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+	}
+
+	@Override
+	public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+		configurer.registerCallableInterceptors(new CallableProcessingInterceptor() {
+			@Override
+			public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+				// Called before the asynchronous processing starts, while its timeout can still be changed
+				if (request.getAttribute(EXPORT_REQUEST, RequestAttributes.SCOPE_REQUEST) != null &&
+				    request instanceof AsyncWebRequest asyncRequest) {
+					asyncRequest.setTimeout(exportTimeout.toMillis());
+				}
+			}
+		});
+	}
+}
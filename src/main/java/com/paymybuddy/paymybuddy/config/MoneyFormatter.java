@@ -0,0 +1,24 @@
+package com.paymybuddy.paymybuddy.config;
+
+import com.paymybuddy.paymybuddy.model.Money;
+import org.springframework.format.Formatter;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Binds Money from request parameters and form fields, and prints it back in Thymeleaf fields.
+ * Amounts are printed with a dot so that they can be read again by number inputs.
+ */
+@Component
+public class MoneyFormatter implements Formatter<Money> {
+	@Override
+	public Money parse(String text, Locale locale) {
+		return Money.parse(text);
+	}
+
+	@Override
+	public String print(Money money, Locale locale) {
+		return money.toString();
+	}
+}
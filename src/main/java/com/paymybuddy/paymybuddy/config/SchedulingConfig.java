@@ -0,0 +1,12 @@
+package com.paymybuddy.paymybuddy.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Runs background jobs such as the ledger compaction.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -3,8 +3,10 @@ package com.paymybuddy.paymybuddy.config;
 import com.paymybuddy.paymybuddy.repository.UserRepository;
 import com.paymybuddy.paymybuddy.service.DBUserDetailsService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
@@ -14,6 +16,8 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 
+import java.util.Set;
+
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
@@ -25,9 +29,15 @@ public class SecurityConfig {
 	@Autowired
 	private UserRepository userRepository;
 
+	/**
+	 * Emails of the users allowed on /admin endpoints.
+	 */
+	@Value("${paymybuddy.admin.emails:}")
+	private Set<String> adminEmails;
+
 	@Bean
 	public UserDetailsService userDetailsService() {
-		return new DBUserDetailsService(userRepository);
+		return new DBUserDetailsService(userRepository, adminEmails);
 	}
 	@Bean
 	public DaoAuthenticationProvider authenticationProvider() {
@@ -44,6 +54,10 @@ public class SecurityConfig {
 				.authenticationProvider(authenticationProvider())
 				.authorizeHttpRequests((requests) -> requests
 						.mvcMatchers("/login", "/signup").permitAll()
+						.mvcMatchers("/admin/**").hasRole("ADMIN")
+						.mvcMatchers(HttpMethod.GET, "/user", "/user/dump", "/transaction", "/transaction/dump",
+						             "/connection", "/connection/dump").hasRole("ADMIN")
+						.mvcMatchers(HttpMethod.POST, "/connection/import").hasRole("ADMIN")
 						.anyRequest().authenticated())
 				.formLogin((form) -> form
 						.loginPage("/login")
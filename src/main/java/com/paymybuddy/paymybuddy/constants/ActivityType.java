@@ -0,0 +1,15 @@
+package com.paymybuddy.paymybuddy.constants;
+
+/**
+ * Event recorded in the activity feed of a user.
+ */
+public enum ActivityType {
+	/**
+	 * Transaction the user issued or received, the event ID is the transaction ID.
+	 */
+	TRANSACTION,
+	/**
+	 * Connection the user initialized or received, the event ID is the connection ID.
+	 */
+	CONNECTION
+}
@@ -0,0 +1,56 @@
+package com.paymybuddy.paymybuddy.constants;
+
+/**
+ * Width of the time buckets in which payment analytics are counted. Buckets start on multiples of their width
+ * from the epoch, so days are UTC days.
+ */
+public enum AnalyticsResolution {
+	/**
+	 * One bucket per minute, the last day kept in memory.
+	 */
+	MINUTE(60, 1440),
+	/**
+	 * One bucket per hour, the last 31 days kept in memory.
+	 */
+	HOUR(3_600, 744),
+	/**
+	 * One bucket per day, the last 366 days kept in memory.
+	 */
+	DAY(86_400, 366);
+
+	private final long seconds;
+	private final int  ringSize;
+
+	AnalyticsResolution(long seconds, int ringSize) {
+		this.seconds = seconds;
+		this.ringSize = ringSize;
+	}
+
+	/**
+	 * @return width of a bucket in seconds
+	 */
+	public long getSeconds() {
+		return seconds;
+	}
+
+	/**
+	 * @return number of most recent buckets kept in memory
+	 */
+	public int getRingSize() {
+		return ringSize;
+	}
+
+	/**
+	 * @return number of the bucket holding a time
+	 */
+	public long bucketOf(long epochSecond) {
+		return Math.floorDiv(epochSecond, seconds);
+	}
+
+	/**
+	 * @return first second of a bucket
+	 */
+	public long startOf(long bucket) {
+		return bucket * seconds;
+	}
+}
@@ -0,0 +1,15 @@
+package com.paymybuddy.paymybuddy.constants;
+
+/**
+ * Format of a transaction history export, one transaction per line.
+ */
+public enum ExportFormat {
+	/**
+	 * Header line, then comma separated ID, date, issuer, payee, amount and description.
+	 */
+	CSV,
+	/**
+	 * One JSON object per line with id, date, issuer, payee, amount and description fields.
+	 */
+	NDJSON
+}
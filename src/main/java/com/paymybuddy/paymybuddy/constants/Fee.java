@@ -9,4 +9,12 @@ public class Fee {
 	 * Fee to be applied for each transaction.
 	 */
 	public static final double       TRANSACTION_FEE       = 0.005;
+	/**
+	 * Fee to be applied for each transaction, in basis points of the transaction amount.
+	 */
+	public static final long         TRANSACTION_FEE_BPS   = 50;
+	/**
+	 * Number of basis points in a whole.
+	 */
+	public static final long         BPS_PER_UNIT          = 10_000;
 }
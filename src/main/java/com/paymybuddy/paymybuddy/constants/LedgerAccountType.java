@@ -0,0 +1,19 @@
+package com.paymybuddy.paymybuddy.constants;
+
+/**
+ * Kind of account money is moved between in the ledger.
+ */
+public enum LedgerAccountType {
+	/**
+	 * Pay My Buddy balance of a user, identified by the user ID.
+	 */
+	USER,
+	/**
+	 * External bank account of a user, identified by the bank account ID.
+	 */
+	BANK_ACCOUNT,
+	/**
+	 * Fees collected by Pay My Buddy, a single account with ID 0.
+	 */
+	FEES
+}
@@ -0,0 +1,23 @@
+package com.paymybuddy.paymybuddy.constants;
+
+/**
+ * Operation that wrote a ledger entry.
+ */
+public enum LedgerEntryKind {
+	/**
+	 * Amount sent from a buddy to another one.
+	 */
+	PAYMENT,
+	/**
+	 * Fee charged to the issuer of payments.
+	 */
+	FEE,
+	/**
+	 * Money moved from a bank account to a user's balance.
+	 */
+	DEPOSIT,
+	/**
+	 * Money moved from a user's balance to their bank account.
+	 */
+	WITHDRAWAL
+}
@@ -0,0 +1,15 @@
+package com.paymybuddy.paymybuddy.constants;
+
+/**
+ * Format of a bulk payout file, one payment per line.
+ */
+public enum PayoutFormat {
+	/**
+	 * Comma separated email, amount and description, with an optional header line.
+	 */
+	CSV,
+	/**
+	 * One JSON object per line with email, amount and description fields.
+	 */
+	NDJSON
+}
@@ -0,0 +1,19 @@
+package com.paymybuddy.paymybuddy.constants;
+
+/**
+ * State of a bulk payout run.
+ */
+public enum PayoutStatus {
+	/**
+	 * File is being processed, or processing stopped unexpectedly.
+	 */
+	IN_PROGRESS,
+	/**
+	 * Every line of the file was processed.
+	 */
+	COMPLETED,
+	/**
+	 * A chunk could not be paid, the run can be resumed from its first line.
+	 */
+	FAILED
+}
@@ -0,0 +1,36 @@
+package com.paymybuddy.paymybuddy.constants;
+
+/**
+ * Concurrency control used by the transfer engine when moving money between two buddies.
+ */
+public enum TransferStrategy {
+	/**
+	 * Both user rows are locked with SELECT ... FOR UPDATE, lowest user ID first.
+	 */
+	PESSIMISTIC,
+	/**
+	 * Both users are read without locks and the balances are written with a version check,
+	 * the transfer is retried with jitter when another payment won the race.
+	 */
+	OPTIMISTIC,
+	/**
+	 * Balances are moved with single UPDATE statements guarded by the balance check,
+	 * lowest user ID first.
+	 */
+	CONDITIONAL_UPDATE,
+	/**
+	 * Balances are moved in memory by a single writer thread and journaled to disk, then saved in database
+	 * in batches by a background thread.
+	 *
+	 * @see com.paymybuddy.paymybuddy.service.InMemoryTransferEngine
+	 */
+	IN_MEMORY,
+	/**
+	 * Balances are held by the ledger: the snapshot of the issuer's ledger account is locked and its balance read
+	 * from the snapshot plus the entries written since, then the payment only inserts entries. User rows are
+	 * neither locked nor written.
+	 *
+	 * @see com.paymybuddy.paymybuddy.service.LedgerService
+	 */
+	LEDGER
+}
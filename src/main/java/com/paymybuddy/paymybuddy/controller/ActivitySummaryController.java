@@ -0,0 +1,27 @@
+package com.paymybuddy.paymybuddy.controller;
+
+import com.paymybuddy.paymybuddy.service.ActivitySummaryService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@Slf4j
+@RestController
+@RequestMapping("/admin/activity-summaries")
+public class ActivitySummaryController {
+    @Autowired
+    ActivitySummaryService activitySummaryService;
+
+    /**
+     * Recomputes every activity summary from the transaction and connection tables, without waiting for the nightly
+     * rebuild.
+     *
+     * @return number of summaries recomputed
+     */
+    @PostMapping("/rebuild")
+    public int rebuild() {
+        return activitySummaryService.rebuild();
+    }
+}
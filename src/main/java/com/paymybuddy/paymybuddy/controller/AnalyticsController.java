@@ -0,0 +1,44 @@
+package com.paymybuddy.paymybuddy.controller;
+
+import com.paymybuddy.paymybuddy.constants.AnalyticsResolution;
+import com.paymybuddy.paymybuddy.model.viewmodel.AnalyticsBucketViewModel;
+import com.paymybuddy.paymybuddy.service.AnalyticsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Slf4j
+@RestController
+@RequestMapping("/admin/analytics")
+public class AnalyticsController {
+    @Autowired
+    AnalyticsService analyticsService;
+
+    /**
+     * Gets the payment count, volume and fees of each bucket of a time range.
+     *
+     * @param resolution
+     *         MINUTE, HOUR or DAY buckets
+     * @param from
+     *         first time, none for as many buckets as allowed before the end
+     * @param to
+     *         last time, none for now
+     *
+     * @return the buckets in time order, empty ones included
+     */
+    @GetMapping
+    public List<AnalyticsBucketViewModel> getBuckets(@RequestParam(defaultValue = "MINUTE") AnalyticsResolution resolution,
+                                                     @RequestParam(required = false)
+                                                     @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                     @RequestParam(required = false)
+                                                     @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        return analyticsService.getBuckets(resolution, from, to);
+    }
+}
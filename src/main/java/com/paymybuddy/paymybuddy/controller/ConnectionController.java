@@ -1,15 +1,29 @@
 package com.paymybuddy.paymybuddy.controller;
 
+import com.paymybuddy.paymybuddy.model.ConnectionFilter;
+import com.paymybuddy.paymybuddy.model.viewmodel.ConnectionImportReportViewModel;
 import com.paymybuddy.paymybuddy.model.viewmodel.ConnectionViewModel;
+import com.paymybuddy.paymybuddy.service.ConnectionImportService;
 import com.paymybuddy.paymybuddy.service.ConnectionService;
+import com.paymybuddy.paymybuddy.service.ListDumpService;
+import com.paymybuddy.paymybuddy.service.PaginationService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.List;
+import java.io.IOException;
 import java.util.Optional;
 
 @Slf4j
@@ -17,16 +31,70 @@ import java.util.Optional;
 @RequestMapping("/connection")
 public class ConnectionController {
     @Autowired
-    ConnectionService connectionService;
+    ConnectionService       connectionService;
+    @Autowired
+    PaginationService       paginationService;
+    @Autowired
+    ListDumpService         listDumpService;
+    @Autowired
+    ConnectionImportService connectionImportService;
 
     /**
-     * Lists all connections.
+     * Lists a page of connections, users included.
      *
-     * @return List of all connections.
+     * @param filter
+     *         user and starting date range, each optional
+     * @param page
+     *         page number, starting at 0
+     * @param size
+     *         number of connections per page
+     * @param sort
+     *         properties to sort by, as sort=startingDate,desc
+     *
+     * @return the page of connections, and whether there is a next one
      */
     @GetMapping
-    public List<ConnectionViewModel> getConnections() {
-        return connectionService.getConnections();
+    public Slice<ConnectionViewModel> getConnections(ConnectionFilter filter, @RequestParam int page,
+                                                     @RequestParam int size, Sort sort) {
+        Pageable pageable = paginationService.getPageRequest(page, size, sort, ConnectionService.SORTABLE_PROPERTIES);
+        return connectionService.getConnections(filter, pageable);
+    }
+
+    /**
+     * Downloads every connection matching a filter as NDJSON, written as they are read from the database.
+     *
+     * @param filter
+     *         user and starting date range, each optional
+     * @param sort
+     *         properties to sort by, as sort=startingDate,desc
+     *
+     * @return the connections, one JSON object per line
+     */
+    @GetMapping("/dump")
+    public ResponseEntity<StreamingResponseBody> dumpConnections(ConnectionFilter filter, Sort sort) {
+        // Checked before the response starts, an error can not be reported once rows are written
+        Sort order = paginationService.getSort(sort, ConnectionService.SORTABLE_PROPERTIES);
+        StreamingResponseBody body = output -> listDumpService.dump(
+                () -> connectionService.streamConnections(filter, order), output);
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    /**
+     * Connects many pairs of users at once, from a CSV file with the emails of an initializer and a receiver on each
+     * line. An optional first line starting with "initializer" is a header.
+     *
+     * @param file
+     *         the pairs to connect
+     *
+     * @return how many connections were created, how many pairs were skipped as given twice or already connected,
+     *         and the failed lines
+     *
+     * @throws IOException
+     *         if the file can not be read
+     */
+    @PostMapping("/import")
+    public ConnectionImportReportViewModel importConnections(@RequestParam MultipartFile file) throws IOException {
+        return connectionImportService.importConnections(file.getInputStream());
     }
 
     /**
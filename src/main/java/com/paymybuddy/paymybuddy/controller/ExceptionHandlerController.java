@@ -64,6 +64,41 @@ public class ExceptionHandlerController {
         return "Illegal argument value:\n" + emailAlreadyUsedException.getMessage();
     }
 
+    @ExceptionHandler(InvalidPageException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String illegalValueException(InvalidPageException invalidPageException) {
+        log.error("Illegal argument value.", invalidPageException);
+        return "Illegal argument value:\n" + invalidPageException.getMessage();
+    }
+
+    @ExceptionHandler(PaymentInProgressException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public String paymentInProgressException(PaymentInProgressException paymentInProgressException) {
+        log.error("Payment in progress.", paymentInProgressException);
+        return "Payment in progress:\n" + paymentInProgressException.getMessage();
+    }
+
+    @ExceptionHandler(PaymentNotAcceptedException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String paymentNotAcceptedException(PaymentNotAcceptedException paymentNotAcceptedException) {
+        log.error("Payment not accepted.", paymentNotAcceptedException);
+        return "Payment not accepted:\n" + paymentNotAcceptedException.getMessage();
+    }
+
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    @ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+    public String idempotencyKeyReusedException(IdempotencyKeyReusedException idempotencyKeyReusedException) {
+        log.error("Idempotency key reused.", idempotencyKeyReusedException);
+        return "Idempotency key reused:\n" + idempotencyKeyReusedException.getMessage();
+    }
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    public String tooManyRequestsException(TooManyRequestsException tooManyRequestsException) {
+        log.error("Too many requests.", tooManyRequestsException);
+        return "Too many requests:\n" + tooManyRequestsException.getMessage();
+    }
+
     @ExceptionHandler(NotAuthenticatedException.class)
     @ResponseStatus(HttpStatus.UNAUTHORIZED)
     public String notAuthenticatedException(NotAuthenticatedException notAuthenticatedException) {
@@ -1,6 +1,7 @@
 package com.paymybuddy.paymybuddy.controller;
 
 import com.paymybuddy.paymybuddy.constants.Pagination;
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.User;
 import com.paymybuddy.paymybuddy.service.ConnectionService;
 import com.paymybuddy.paymybuddy.service.TransactionService;
@@ -45,7 +46,7 @@ public class ProfileController {
 
 
         model.addAttribute("user", connectedUser);
-        model.addAttribute("balance", connectedUser.getBalance());
+        model.addAttribute("balance", userService.getBalance(connectedUser));
         model.addAttribute("page", "profile");
 
         return "profile";
@@ -53,22 +54,23 @@ public class ProfileController {
 
     @GetMapping("/update-balance")
     public String showUpdateBalancePage(Model model) {
+        User connectedUser = userService.getAuthenticatedUser();
         model.addAttribute("page", "update-balance");
-        model.addAttribute("user", userService.getAuthenticatedUser());
+        model.addAttribute("user", connectedUser);
+        model.addAttribute("balance", userService.getBalance(connectedUser));
         return "update-balance";
     }
 
     @PostMapping("/update-balance")
-    public String updateBalance(@RequestParam String action, double amount, Model model,
+    public String updateBalance(@RequestParam String action, @RequestParam Money amount, Model model,
                                 RedirectAttributes redirAttrs) {
         try {
-            String strAmount = String.valueOf(amount);
             switch (action) {
-                case "deposit" -> userService.deposit(userService.getAuthenticatedUser(), strAmount);
-                case "withdrawal" -> userService.withdraw(userService.getAuthenticatedUser(), strAmount);
+                case "deposit" -> userService.deposit(userService.getAuthenticatedUser(), amount);
+                case "withdrawal" -> userService.withdraw(userService.getAuthenticatedUser(), amount);
             }
             redirAttrs.addFlashAttribute("success",
-                                         "Your " + action + " of " + strAmount + "€ was successful!");
+                                         "Your " + action + " of " + amount + "€ was successful!");
         } catch (Exception e) {
             redirAttrs.addFlashAttribute("error", e.getMessage());
             return "redirect:/update-balance";
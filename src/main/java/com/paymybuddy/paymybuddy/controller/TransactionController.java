@@ -1,15 +1,24 @@
 package com.paymybuddy.paymybuddy.controller;
 
+import com.paymybuddy.paymybuddy.model.TransactionFilter;
 import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
 import com.paymybuddy.paymybuddy.service.TransactionService;
+import com.paymybuddy.paymybuddy.service.ListDumpService;
+import com.paymybuddy.paymybuddy.service.PaginationService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.List;
 import java.util.Optional;
 
 @Slf4j
@@ -18,14 +27,48 @@ import java.util.Optional;
 public class TransactionController {
     @Autowired
     TransactionService transactionService;
+    @Autowired
+    PaginationService  paginationService;
+    @Autowired
+    ListDumpService    listDumpService;
     /**
-     * Lists all transactions.
+     * Lists a page of transactions, users included.
+     *
+     * @param filter
+     *         user, date range and amount range, each optional
+     * @param page
+     *         page number, starting at 0
+     * @param size
+     *         number of transactions per page
+     * @param sort
+     *         properties to sort by, as sort=date,desc
      *
-     * @return List of all transactions.
+     * @return the page of transactions, and whether there is a next one
      */
     @GetMapping
-    public List<TransactionViewModel> getTransactions() {
-        return transactionService.getTransactions();
+    public Slice<TransactionViewModel> getTransactions(TransactionFilter filter, @RequestParam int page,
+                                                       @RequestParam int size, Sort sort) {
+        Pageable pageable = paginationService.getPageRequest(page, size, sort, TransactionService.SORTABLE_PROPERTIES);
+        return transactionService.getTransactions(filter, pageable);
+    }
+
+    /**
+     * Downloads every transaction matching a filter as NDJSON, written as they are read from the database.
+     *
+     * @param filter
+     *         user, date range and amount range, each optional
+     * @param sort
+     *         properties to sort by, as sort=date,desc
+     *
+     * @return the transactions, one JSON object per line
+     */
+    @GetMapping("/dump")
+    public ResponseEntity<StreamingResponseBody> dumpTransactions(TransactionFilter filter, Sort sort) {
+        // Checked before the response starts, an error can not be reported once rows are written
+        Sort order = paginationService.getSort(sort, TransactionService.SORTABLE_PROPERTIES);
+        StreamingResponseBody body = output -> listDumpService.dump(
+                () -> transactionService.streamTransactions(filter, order), output);
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
     }
 
     /**
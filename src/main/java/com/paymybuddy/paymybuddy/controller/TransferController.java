@@ -3,28 +3,39 @@ package com.paymybuddy.paymybuddy.controller;
 import com.paymybuddy.paymybuddy.constants.Pagination;
 import com.paymybuddy.paymybuddy.exceptions.AlreadyABuddyException;
 import com.paymybuddy.paymybuddy.exceptions.BuddyNotFoundException;
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
 import com.paymybuddy.paymybuddy.model.viewmodel.TransferViewModel;
 import com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel;
 import com.paymybuddy.paymybuddy.service.ConnectionService;
+import com.paymybuddy.paymybuddy.service.FeeCalculator;
+import com.paymybuddy.paymybuddy.service.IdempotencyService;
 import com.paymybuddy.paymybuddy.service.TransactionService;
 import com.paymybuddy.paymybuddy.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import java.util.List;
+import java.util.UUID;
 
 @Controller
 @RequestMapping("/transfer")
 public class TransferController {
+    /**
+     * Buddies suggested on the add connection page.
+     */
+    private static final int SUGGESTIONS = 5;
 
     @Autowired
     private UserService        userService;
@@ -32,11 +43,16 @@ public class TransferController {
     private TransactionService transactionService;
     @Autowired
     private ConnectionService  connectionService;
+    @Autowired
+    private FeeCalculator      feeCalculator;
+    @Autowired
+    private IdempotencyService idempotencyService;
 
     @GetMapping
     public String showTransferPage(Model model,
                                    @RequestParam(value = "page", required = false) Integer page,
-                                   @RequestParam(value = "size", required = false) Integer size) {
+                                   @RequestParam(value = "size", required = false) Integer size,
+                                   @RequestParam(value = "cursor", required = false) String cursor) {
         // Connected user
         User connectedUser = userService.getAuthenticatedUser();
 
@@ -44,11 +60,21 @@ public class TransferController {
         int currentPage = page == null ? Pagination.DEFAULT_PAGE : page;
         int pageSize    = size == null ? Pagination.DEFAULT_SIZE : size;
 
-        Page<?> pagedList = transactionService.getPaginatedUserTransactions(
-                PageRequest.of(currentPage - 1, pageSize), connectedUser.getId());
-
-        model.addAttribute("pagedList", pagedList);
-        model.addAttribute("totalTransactionItems", pagedList.getTotalElements());
+        if (cursor == null) {
+            Page<TransactionViewModel> pagedList = transactionService.getPaginatedUserTransactions(
+                    PageRequest.of(currentPage - 1, pageSize), connectedUser.getId());
+            model.addAttribute("pagedList", pagedList);
+            model.addAttribute("totalTransactionItems", pagedList.getTotalElements());
+            // Older transactions are read by keyset from here on, instead of by an ever larger offset
+            model.addAttribute("nextCursor", TransactionService.nextCursor(pagedList));
+        } else {
+            // Keyset pagination, the history is not counted
+            Slice<TransactionViewModel> slicedList = transactionService.getUserTransactionsAfter(
+                    connectedUser.getId(), cursor, pageSize);
+            model.addAttribute("pagedList", slicedList);
+            model.addAttribute("nextCursor", TransactionService.nextCursor(slicedList));
+        }
+        model.addAttribute("cursor", cursor);
 
         List<UserViewModel> userConnections = connectionService.getUserConnections(connectedUser);
 
@@ -62,7 +88,10 @@ public class TransferController {
 
     @GetMapping("/add-connection")
     public String showAddConnectionPage(Model model) {
+        User user = userService.getAuthenticatedUser();
         model.addAttribute("page", "add-connection");
+        model.addAttribute("userId", user.getId());
+        model.addAttribute("suggestions", connectionService.getSuggestions(user, SUGGESTIONS));
         return "add-connection";
     }
 
@@ -82,32 +111,46 @@ public class TransferController {
     @GetMapping("/pay")
     public String showPayPage(TransferViewModel transferForm, Model model) {
         model.addAttribute("page", "pay");
+        model.addAttribute("idempotencyKey", UUID.randomUUID().toString());
         return "pay";
     }
 
     @PostMapping("/pay")
     public String pay(@RequestParam String action, TransferViewModel transferForm, Model model,
+                      @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKeyHeader,
+                      @RequestParam(name = "idempotencyKey", required = false) String idempotencyKeyField,
                       RedirectAttributes redirAttrs) {
         try {
             model.addAttribute("page", "pay");
             switch (action) {
                 case "pay" -> {
-                    if (userService.getUserByEmail(transferForm.getPayeeEmail()).isEmpty()) {
-                        throw new BuddyNotFoundException(
-                                "Buddy with email (" + transferForm.getPayeeEmail() + ") does not exist.");
+                    User payee = userService.getUserByEmail(transferForm.getPayeeEmail()).orElseThrow(
+                            () -> new BuddyNotFoundException(
+                                    "Buddy with email (" + transferForm.getPayeeEmail() + ") does not exist."));
+                    User issuer = userService.getAuthenticatedUser();
+                    // Browsers can not set headers on form posts, the pay page sends the key as a hidden field
+                    String idempotencyKey = idempotencyKeyHeader != null ? idempotencyKeyHeader : idempotencyKeyField;
+                    if (idempotencyKey == null || idempotencyKey.isBlank()) {
+                        transactionService.createTransaction(issuer, payee, transferForm.getDescription(),
+                                                             transferForm.getAmount());
+                    } else {
+                        idempotencyService.execute(issuer.getId(), idempotencyKey,
+                                                   IdempotencyService.requestHash(payee.getId(),
+                                                                                  transferForm.getAmount(),
+                                                                                  transferForm.getDescription()),
+                                                   () -> transactionService.createTransaction(issuer, payee,
+                                                                                              transferForm.getDescription(),
+                                                                                              transferForm.getAmount())
+                                                                           .getId());
                     }
-                    transactionService.createTransaction(userService.getAuthenticatedUser(),
-                                                         userService.getUserByEmail(transferForm.getPayeeEmail()).get(),
-                                                         transferForm.getDescription(),
-                                                         transferForm.getAmount());
                     redirAttrs.addFlashAttribute("success",
                                                  "You successfully transferred " + transferForm.getAmount() + "€ to " + transferForm.getPayeeEmail());
                 }
                 case "redirect" -> {
                     model.addAttribute("transferForm", transferForm);
+                    model.addAttribute("idempotencyKey", UUID.randomUUID().toString());
                     model.addAttribute("amountWithFee",
-                                       transactionService.calculateAmountWithFee(transferForm.getAmount()).get("amountWithFee")
-                                                         .toString());
+                                       feeCalculator.quote(transferForm.getAmount()).getTotal().toString());
                     return "pay";
                 }
             }
@@ -116,4 +159,18 @@ public class TransferController {
         }
         return "redirect:/transfer";
     }
+
+    @PostMapping("/split")
+    public String split(@RequestParam List<String> payeeEmails, @RequestParam Money amount,
+                        @RequestParam String description, RedirectAttributes redirAttrs) {
+        try {
+            transactionService.createSplitTransaction(userService.getAuthenticatedUser(), description,
+                                                      TransactionService.splitEqually(amount, payeeEmails));
+            redirAttrs.addFlashAttribute("success",
+                                         "You successfully split " + amount + "€ between " + payeeEmails.size() + " buddies");
+        } catch (Exception e) {
+            redirAttrs.addFlashAttribute("error", e.getMessage());
+        }
+        return "redirect:/transfer";
+    }
 }
@@ -1,20 +1,58 @@
 package com.paymybuddy.paymybuddy.controller;
 
+import com.paymybuddy.paymybuddy.config.AsyncConfig;
+import com.paymybuddy.paymybuddy.constants.ExportFormat;
+import com.paymybuddy.paymybuddy.constants.PayoutFormat;
 import com.paymybuddy.paymybuddy.exceptions.BuddyNotFoundException;
+import com.paymybuddy.paymybuddy.exceptions.NotAuthenticatedException;
+import com.paymybuddy.paymybuddy.model.LedgerAccount;
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.UserFilter;
+import com.paymybuddy.paymybuddy.model.viewmodel.BuddySuggestionViewModel;
 import com.paymybuddy.paymybuddy.model.viewmodel.ConnectionViewModel;
+import com.paymybuddy.paymybuddy.model.viewmodel.LedgerViewModel;
+import com.paymybuddy.paymybuddy.model.viewmodel.PayoutReportViewModel;
+import com.paymybuddy.paymybuddy.model.viewmodel.SplitPaymentViewModel;
+import com.paymybuddy.paymybuddy.model.viewmodel.SyncViewModel;
 import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
 import com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel;
+import com.paymybuddy.paymybuddy.service.ConditionalGetService;
 import com.paymybuddy.paymybuddy.service.ConnectionService;
+import com.paymybuddy.paymybuddy.service.IdempotencyService;
+import com.paymybuddy.paymybuddy.service.LedgerService;
+import com.paymybuddy.paymybuddy.service.ListDumpService;
+import com.paymybuddy.paymybuddy.service.PaginationService;
+import com.paymybuddy.paymybuddy.service.PayoutService;
+import com.paymybuddy.paymybuddy.service.SyncService;
+import com.paymybuddy.paymybuddy.service.TransactionExportService;
+import com.paymybuddy.paymybuddy.service.TransactionSearchService;
 import com.paymybuddy.paymybuddy.service.TransactionService;
+import com.paymybuddy.paymybuddy.service.UserAutocompleteService;
 import com.paymybuddy.paymybuddy.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
 
 @Slf4j
 @RestController
@@ -28,6 +66,26 @@ public class UserController {
     private ConnectionService  connectionService;
     @Autowired
     private TransactionService transactionService;
+    @Autowired
+    private IdempotencyService idempotencyService;
+    @Autowired
+    private PayoutService      payoutService;
+    @Autowired
+    private LedgerService      ledgerService;
+    @Autowired
+    private TransactionExportService transactionExportService;
+    @Autowired
+    private SyncService              syncService;
+    @Autowired
+    private TransactionSearchService transactionSearchService;
+    @Autowired
+    private PaginationService        paginationService;
+    @Autowired
+    private ListDumpService          listDumpService;
+    @Autowired
+    private ConditionalGetService    conditionalGetService;
+    @Autowired
+    private UserAutocompleteService  userAutocompleteService;
 
     /**
      * Add new user.
@@ -43,13 +101,43 @@ public class UserController {
     }
 
     /**
-     * Lists all users.
+     * Lists a page of users.
      *
-     * @return List of all users.
+     * @param filter
+     *         start of the email and balance range, each optional
+     * @param page
+     *         page number, starting at 0
+     * @param size
+     *         number of users per page
+     * @param sort
+     *         properties to sort by, as sort=balance,desc
+     *
+     * @return the page of users, and whether there is a next one
      */
     @GetMapping
-    public List<UserViewModel> getUsers() {
-        return userService.getUsers();
+    public Slice<UserViewModel> getUsers(UserFilter filter, @RequestParam int page, @RequestParam int size,
+                                         Sort sort) {
+        Pageable pageable = paginationService.getPageRequest(page, size, sort, UserService.SORTABLE_PROPERTIES);
+        return userService.getUsers(filter, pageable);
+    }
+
+    /**
+     * Downloads every user matching a filter as NDJSON, written as they are read from the database.
+     *
+     * @param filter
+     *         start of the email and balance range, each optional
+     * @param sort
+     *         properties to sort by, as sort=balance,desc
+     *
+     * @return the users, one JSON object per line
+     */
+    @GetMapping("/dump")
+    public ResponseEntity<StreamingResponseBody> dumpUsers(UserFilter filter, Sort sort) {
+        // Checked before the response starts, an error can not be reported once rows are written
+        Sort order = paginationService.getSort(sort, UserService.SORTABLE_PROPERTIES);
+        StreamingResponseBody body = output -> listDumpService.dump(() -> userService.streamUsers(filter, order),
+                                                                    output);
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
     }
 
 
@@ -59,13 +147,21 @@ public class UserController {
      * @param id
      *         email of user to find
      *
+     * @param request
+     *         request, answered with 304 Not Modified when the ETag of the client is still valid
+     *
      * @return optional user
      */
     @GetMapping("/{id}")
-    public Optional<UserViewModel> getUserById(@PathVariable(name = "id") Integer id) {
+    public Optional<UserViewModel> getUserById(@PathVariable(name = "id") Integer id, ServletWebRequest request) {
         Optional<User> userById = userService.getUserById(id);
         if (userById.isEmpty())  return Optional.empty();
-        return Optional.of(UserService.userToViewModel(userById.get()));
+        UserViewModel user = userService.userToViewModelWithBalance(userById.get());
+        if (conditionalGetService.checkUser(request, userById.get(), user.getBalance())) {
+            // 304 Not Modified, there is nothing to write
+            return null;
+        }
+        return Optional.of(user);
     }
 
 
@@ -76,9 +172,9 @@ public class UserController {
      *         amount to deposit
      */
     @PutMapping("/deposit")
-    public UserViewModel deposit(@RequestParam String amount) {
+    public UserViewModel deposit(@RequestParam Money amount) {
         userService.deposit(userService.getAuthenticatedUser(), amount);
-        return UserService.userToViewModel(userService.getAuthenticatedUser());
+        return userService.userToViewModelWithBalance(userService.getAuthenticatedUser());
     }
 
     /**
@@ -88,9 +184,9 @@ public class UserController {
      *         amount to withdraw
      */
     @PutMapping("/withdraw")
-    public UserViewModel withdraw(@RequestParam String amount) {
+    public UserViewModel withdraw(@RequestParam Money amount) {
         userService.withdraw(userService.getAuthenticatedUser(), amount);
-        return UserService.userToViewModel(userService.getAuthenticatedUser());
+        return userService.userToViewModelWithBalance(userService.getAuthenticatedUser());
     }
 
     /**
@@ -113,14 +209,61 @@ public class UserController {
      *
      * @param id
      *         user for which the connections are wanted
+     * @param request
+     *         request, answered with 304 Not Modified when the connections did not change since the client's copy
      *
      * @return a list of connections
      */
     @GetMapping("/{id}/connections")
-    public List<UserViewModel> getConnections(@PathVariable Integer id) {
+    public List<UserViewModel> getConnections(@PathVariable Integer id, ServletWebRequest request) {
+        if (conditionalGetService.checkConnections(request, id)) {
+            return null;
+        }
         return connectionService.getUserConnections(getUser(id));
     }
 
+    /**
+     * Suggests new buddies to a user, among the buddies of their buddies.
+     *
+     * @param id
+     *         user to suggest buddies to
+     * @param limit
+     *         maximum number of suggestions, at most 50
+     *
+     * @return suggested users with their number of buddies in common, most first
+     */
+    @GetMapping("/{id}/suggestions")
+    public List<BuddySuggestionViewModel> getSuggestions(@PathVariable Integer id,
+                                                         @RequestParam(defaultValue = "10") int limit) {
+        return connectionService.getSuggestions(getUser(id), Math.max(1, Math.min(limit, 50)));
+    }
+
+    /**
+     * Completes the first letters of an email or a name into users to add as buddies. Users only complete for
+     * themselves, the users found depending on their buddies.
+     *
+     * @param id
+     *         user adding a buddy, the authenticated one
+     * @param q
+     *         first letters of an email, a firstname, a lastname or a full name, or the whole email of a user
+     *         without buddies in common
+     * @param limit
+     *         maximum number of users, at most 20
+     *
+     * @return matching users who share buddies with the user but are not buddies yet, the ones with more buddies in
+     * common first
+     */
+    @GetMapping("/{id}/autocomplete")
+    public List<BuddySuggestionViewModel> autocomplete(@PathVariable Integer id, @RequestParam String q,
+                                                       @RequestParam(defaultValue = "10") int limit) {
+        User user = userService.getAuthenticatedUser();
+        if (!user.getId().equals(id)) {
+            throw new NotAuthenticatedException("User " + user.getId() + " can not complete emails for user " + id +
+                                                ".");
+        }
+        return userAutocompleteService.complete(user, q, Math.max(1, Math.min(limit, 20)));
+    }
+
     /**
      * Creates a transaction involving the user and the buddy behind the specified email.
      *
@@ -130,6 +273,9 @@ public class UserController {
      *         short description for transaction
      * @param amount
      *         amount of transaction
+     * @param idempotencyKey
+     *         optional key identifying the payment, a retry with the same key returns the first transaction,
+     *         a blank key is ignored
      *
      * @return a transaction object
      */
@@ -137,17 +283,83 @@ public class UserController {
     @ResponseStatus(HttpStatus.CREATED)
     public TransactionViewModel payABuddy(@RequestParam String email,
                                  @RequestParam String description,
-                                 @RequestParam double amount) {
-        if (userService.getUserByEmail(email).isEmpty()) {
+                                 @RequestParam Money amount,
+                                 @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) {
+        Optional<User> payee = userService.getUserByEmail(email);
+        if (payee.isEmpty()) {
             String errorMessage = "The buddy with " +
                                   "email (" + email + ") does not exist.";
             log.error(errorMessage);
             throw new BuddyNotFoundException(errorMessage);
         }
-        return TransactionService.transactionToViewModel(transactionService.createTransaction(userService.getAuthenticatedUser(),
-                                                    userService.getUserByEmail(email).get(),
-                                                    description,
-                                                    amount));
+        User issuer = userService.getAuthenticatedUser();
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return TransactionService.transactionToViewModel(transactionService.createTransaction(issuer,
+                                                        payee.get(),
+                                                        description,
+                                                        amount));
+        }
+        Integer transactionId = idempotencyService.execute(issuer.getId(), idempotencyKey,
+                                                           IdempotencyService.requestHash(payee.get().getId(),
+                                                                                          amount, description),
+                                                           () -> transactionService.createTransaction(issuer,
+                                                                   payee.get(),
+                                                                   description,
+                                                                   amount).getId());
+        return transactionService.getTransactionById(transactionId).orElseThrow();
+    }
+
+    /**
+     * Pays several buddies at once for the same expense. Either all transactions are made or none.
+     *
+     * @param splitPayment
+     *         description and amount paid to each buddy
+     *
+     * @return the transactions made
+     */
+    @PostMapping("/pay-split")
+    @ResponseStatus(HttpStatus.CREATED)
+    public List<TransactionViewModel> payBuddies(@RequestBody SplitPaymentViewModel splitPayment) {
+        return transactionService.createSplitTransaction(userService.getAuthenticatedUser(),
+                                                         splitPayment.getDescription(),
+                                                         splitPayment.getShares())
+                                 .stream()
+                                 .map(TransactionService::transactionToViewModel)
+                                 .toList();
+    }
+
+    /**
+     * Pays every buddy listed in an uploaded CSV or NDJSON file, one payment per line.
+     *
+     * @param file
+     *         file with email, amount and description on each line
+     * @param format
+     *         file format, guessed from the file name when missing
+     * @param runId
+     *         run to resume after a failure, lines already paid by this run are skipped
+     *
+     * @return payments made, failed lines and throughput
+     */
+    @PostMapping("/payouts")
+    public PayoutReportViewModel payout(@RequestParam MultipartFile file,
+                                        @RequestParam(required = false) PayoutFormat format,
+                                        @RequestParam(required = false) Integer runId) throws IOException {
+        PayoutFormat fileFormat = format != null ? format : PayoutService.formatOf(file.getOriginalFilename());
+        return payoutService.pay(userService.getAuthenticatedUser(), file.getInputStream(), fileFormat, runId);
+    }
+
+    /**
+     * Gives the ledger balance and the last ledger entries of the authenticated user, most recent first.
+     *
+     * @param limit
+     *         maximum number of entries, at most 500
+     *
+     * @return balance of the user's ledger account, and debits and credits of the user's balance
+     */
+    @GetMapping("/ledger")
+    public LedgerViewModel getLedger(@RequestParam(defaultValue = "50") int limit) {
+        return ledgerService.getLedger(LedgerAccount.ofUser(userService.getAuthenticatedUser().getId()),
+                                        Math.max(1, Math.min(limit, 500)));
     }
 
     /**
@@ -155,14 +367,115 @@ public class UserController {
      *
      * @param id
      *         user for which the transactions are wanted
+     * @param request
+     *         request, answered with 304 Not Modified when the transactions did not change since the client's copy
      *
      * @return a list of transactions
      */
     @GetMapping("/{id}/transactions")
-    public List<TransactionViewModel> getTransactions(@PathVariable Integer id) {
+    public List<TransactionViewModel> getTransactions(@PathVariable Integer id, ServletWebRequest request) {
+        if (conditionalGetService.checkTransactions(request, id)) {
+            return null;
+        }
         return transactionService.getUserTransactions(id);
     }
 
+    /**
+     * Searches the transactions of a user by the words of their description.
+     *
+     * @param id
+     *         user for which the transactions are wanted
+     * @param q
+     *         words the description must all contain, none to only filter on amount and date
+     * @param minAmount
+     *         smallest amount, none for no minimum
+     * @param maxAmount
+     *         largest amount, none for no maximum
+     * @param from
+     *         first day, none for no start
+     * @param to
+     *         last day, none for no end
+     * @param limit
+     *         maximum number of transactions returned
+     *
+     * @return the matching transactions, newest first
+     */
+    @GetMapping("/{id}/transactions/search")
+    public List<TransactionViewModel> searchTransactions(@PathVariable Integer id,
+                                                         @RequestParam(required = false) String q,
+                                                         @RequestParam(required = false) Money minAmount,
+                                                         @RequestParam(required = false) Money maxAmount,
+                                                         @RequestParam(required = false)
+                                                         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                         @RequestParam(required = false)
+                                                         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                         @RequestParam(defaultValue = "20") int limit) {
+        return transactionSearchService.search(getUser(id), q, minAmount, maxAmount, from, to, limit);
+    }
+
+    /**
+     * Downloads the whole transaction history of a user, oldest first. Rows are written as they are read from
+     * the database, so that histories of any length can be exported.
+     *
+     * @param id
+     *         user for which the transactions are wanted
+     * @param format
+     *         CSV or NDJSON
+     * @param gzip
+     *         whether the file is compressed
+     * @param request
+     *         current request, given the export timeout instead of the default one
+     *
+     * @return the history file
+     */
+    @GetMapping("/{id}/transactions/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(@PathVariable Integer id,
+                                                                    @RequestParam(defaultValue = "CSV") ExportFormat format,
+                                                                    @RequestParam(defaultValue = "false") boolean gzip,
+                                                                    ServletWebRequest request) {
+        // Checked before the response starts, an error can not be reported once rows are written
+        User   user     = getUser(id);
+        AsyncConfig.markExport(request);
+        String fileName = "transactions-" + id + (format == ExportFormat.CSV ? ".csv" : ".ndjson") +
+                          (gzip ? ".gz" : "");
+        StreamingResponseBody body = output -> {
+            if (gzip) {
+                GZIPOutputStream compressed = new GZIPOutputStream(output, 8192);
+                transactionExportService.export(user, format, compressed);
+                compressed.finish();
+            } else {
+                transactionExportService.export(user, format, output);
+            }
+        };
+        MediaType contentType = gzip ? MediaType.parseMediaType("application/gzip")
+                                     : format == ExportFormat.CSV ? MediaType.parseMediaType("text/csv")
+                                                                  : MediaType.parseMediaType("application/x-ndjson");
+        return ResponseEntity.ok()
+                             .header(HttpHeaders.CONTENT_DISPOSITION,
+                                     ContentDisposition.attachment().filename(fileName).build().toString())
+                             .contentType(contentType)
+                             .body(body);
+    }
+
+    /**
+     * Gets the transactions and connections of a user created since the last synchronization. When there are none
+     * yet, the request can wait for some instead of being repeated.
+     *
+     * @param id
+     *         user to synchronize
+     * @param cursor
+     *         cursor returned by the last synchronization, none for the first one
+     * @param wait
+     *         seconds to wait for new activity, 0 to answer right away
+     *
+     * @return the changes and the cursor of the next synchronization
+     */
+    @GetMapping("/{id}/changes")
+    public DeferredResult<SyncViewModel> getChanges(@PathVariable Integer id,
+                                                    @RequestParam(required = false) String cursor,
+                                                    @RequestParam(defaultValue = "0") int wait) {
+        return syncService.waitForChanges(getUser(id), cursor, Duration.ofSeconds(wait));
+    }
 
     /**
      * Useful function to get a User object thanks to an ID
@@ -0,0 +1,26 @@
+package com.paymybuddy.paymybuddy.event;
+
+import com.paymybuddy.paymybuddy.model.Connection;
+
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Connections saved in a database transaction, a single one or a chunk of an import, published in that transaction.
+ *
+ * @param connections saved connections with their IDs
+ */
+public record ConnectionAdded(List<Connection> connections) {
+	/**
+	 * @return IDs of the users of every connection, in ascending order
+	 */
+	public SortedSet<Integer> userIds() {
+		SortedSet<Integer> userIds = new TreeSet<>();
+		for (Connection connection : connections) {
+			userIds.add(connection.getInitializer().getId());
+			userIds.add(connection.getReceiver().getId());
+		}
+		return userIds;
+	}
+}
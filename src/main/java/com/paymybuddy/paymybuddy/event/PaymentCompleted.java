@@ -0,0 +1,29 @@
+package com.paymybuddy.paymybuddy.event;
+
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Payments of one issuer saved in a database transaction, published in that transaction. Listeners writing to the
+ * database run in it, those updating memory or waking clients up wait for it to commit.
+ *
+ * @param transactions saved transactions with their IDs, all from the same issuer
+ * @param debit        amount withdrawn from the issuer, fees of all transactions included
+ */
+public record PaymentCompleted(List<Transaction> transactions, Money debit) {
+	/**
+	 * @return IDs of the issuer and of every payee, in ascending order
+	 */
+	public SortedSet<Integer> userIds() {
+		SortedSet<Integer> userIds = new TreeSet<>();
+		for (Transaction transaction : transactions) {
+			userIds.add(transaction.getIssuer().getId());
+			userIds.add(transaction.getPayee().getId());
+		}
+		return userIds;
+	}
+}
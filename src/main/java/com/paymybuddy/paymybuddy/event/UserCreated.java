@@ -0,0 +1,11 @@
+package com.paymybuddy.paymybuddy.event;
+
+import com.paymybuddy.paymybuddy.model.User;
+
+/**
+ * User saved in a database transaction, published in that transaction.
+ *
+ * @param user saved user with their ID
+ */
+public record UserCreated(User user) {
+}
@@ -0,0 +1,11 @@
+package com.paymybuddy.paymybuddy.event;
+
+import com.paymybuddy.paymybuddy.model.User;
+
+/**
+ * User deleted in a database transaction, published in that transaction.
+ *
+ * @param user deleted user, with their ID, email and names
+ */
+public record UserDeleted(User user) {
+}
@@ -0,0 +1,17 @@
+package com.paymybuddy.paymybuddy.exceptions;
+
+/**
+ * Idempotency key already used for another request exception.
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+	/**
+	 * Exception thrown when a payment is sent with the Idempotency-Key of an earlier payment of the same user that
+	 * had another payee, amount or description.
+	 *
+	 * @param message Exception message.
+	 */
+	public IdempotencyKeyReusedException(String message) {
+		super(message);
+	}
+}
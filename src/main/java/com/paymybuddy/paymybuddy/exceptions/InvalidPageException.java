@@ -0,0 +1,16 @@
+package com.paymybuddy.paymybuddy.exceptions;
+
+/**
+ * Exception for when a requested page is out of bounds or sorted by an unknown property.
+ */
+public class InvalidPageException extends RuntimeException {
+
+	/**
+	 * Exception thrown when a page request is not valid.
+	 *
+	 * @param message Exception message.
+	 */
+	public InvalidPageException(String message) {
+		super(message);
+	}
+}
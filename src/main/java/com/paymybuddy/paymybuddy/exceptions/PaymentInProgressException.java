@@ -0,0 +1,17 @@
+package com.paymybuddy.paymybuddy.exceptions;
+
+/**
+ * Payment with the same idempotency key is still running exception.
+ */
+public class PaymentInProgressException extends RuntimeException {
+
+	/**
+	 * Exception thrown when a retried payment waited too long for the first request with the same
+	 * idempotency key to finish.
+	 *
+	 * @param message Exception message.
+	 */
+	public PaymentInProgressException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,17 @@
+package com.paymybuddy.paymybuddy.exceptions;
+
+/**
+ * Payment not taken by the transfer engine in time exception.
+ */
+public class PaymentNotAcceptedException extends RuntimeException {
+
+	/**
+	 * Exception thrown when a payment was cancelled before the transfer engine took it, so that it was not applied
+	 * and can be sent again.
+	 *
+	 * @param message Exception message.
+	 */
+	public PaymentNotAcceptedException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,16 @@
+package com.paymybuddy.paymybuddy.exceptions;
+
+/**
+ * Too many requests of a user exception.
+ */
+public class TooManyRequestsException extends RuntimeException {
+
+	/**
+	 * Exception thrown when a user sends more requests of a kind than allowed in a while.
+	 *
+	 * @param message Exception message.
+	 */
+	public TooManyRequestsException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,60 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * Activity of a user kept up to date by every payment and connection, so that the home page reads one row
+ * instead of the whole history. It can be recomputed from the transaction and connection tables at any time.
+ */
+@Entity
+@Table(name = "activity_summary")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class ActivitySummary {
+	@Id
+	@Column(name = "fk_user_id")
+	private Integer userId;
+
+	private long connectionCount;
+
+	/**
+	 * Most recent connection of the user, the one with the highest ID.
+	 */
+	private Integer latestConnectionId;
+
+	private long transactionCount;
+
+	/**
+	 * Most recent transaction of the user, the one with the latest date, then the highest ID.
+	 */
+	private Integer latestTransactionId;
+
+	/**
+	 * Date of the most recent transaction, compared with the dates of the transactions recorded next.
+	 */
+	private LocalDateTime latestTransactionDate;
+
+	private Money totalSent;
+
+	private Money totalReceived;
+
+	/**
+	 * When a transaction or connection of the user was last recorded, none for a user without any.
+	 */
+	private LocalDateTime modifiedAt;
+
+	public static ActivitySummary empty(Integer userId) {
+		return new ActivitySummary(userId, 0, null, 0, null, null, Money.ZERO, Money.ZERO, null);
+	}
+}
@@ -0,0 +1,27 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+/**
+ * Part of the credits received by a hot account and not folded into its balance yet.
+ * Spreading credits over several rows lets concurrent payments to the same user lock different rows.
+ */
+@Entity
+@Table(name = "balance_stripe")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class BalanceStripe {
+	@EmbeddedId
+	private BalanceStripeId id;
+
+	private Money amount;
+}
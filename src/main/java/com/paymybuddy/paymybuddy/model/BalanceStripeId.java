@@ -0,0 +1,28 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import java.io.Serializable;
+
+/**
+ * One of the stripes of a hot account.
+ */
+@Embeddable
+@Getter
+@EqualsAndHashCode
+@ToString
+@AllArgsConstructor
+@NoArgsConstructor
+public class BalanceStripeId implements Serializable {
+	@Column(name = "fk_user_id")
+	private Integer userId;
+
+	@Column(name = "slot")
+	private Integer slot;
+}
@@ -15,7 +15,6 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
-import java.math.BigDecimal;
 
 @Entity
 @Table(name = "bank_account")
@@ -25,7 +24,7 @@ import java.math.BigDecimal;
 @AllArgsConstructor
 @NoArgsConstructor
 public class BankAccount {
-    public BankAccount(User user, String bankName, String iban, BigDecimal balance) {
+    public BankAccount(User user, String bankName, String iban, Money balance) {
         this.user = user;
         this.bankName = bankName;
         this.iban = iban;
@@ -46,5 +45,5 @@ public class BankAccount {
 
     private String iban;
 
-    private BigDecimal balance;
+    private Money balance;
 }
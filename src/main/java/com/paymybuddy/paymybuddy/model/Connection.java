@@ -1,6 +1,5 @@
 package com.paymybuddy.paymybuddy.model;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -9,10 +8,10 @@ import javax.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "connection")
+@Table(name = "connection",
+       uniqueConstraints = @UniqueConstraint(columnNames = {"min_user_id", "max_user_id"}))
 @Getter
 @Setter
-@AllArgsConstructor
 @NoArgsConstructor
 public class Connection {
 	@Id
@@ -29,4 +28,30 @@ public class Connection {
 	private User receiver;
 
 	private LocalDateTime startingDate;
+
+	/**
+	 * Lower ID of the two users, the same whoever initialized the connection. With {@link #maxUserId}, it is unique:
+	 * two users are connected once, and whether they are is a single index lookup.
+	 */
+	@Column(name = "min_user_id", updatable = false)
+	private Integer minUserId;
+
+	/**
+	 * Higher ID of the two users.
+	 */
+	@Column(name = "max_user_id", updatable = false)
+	private Integer maxUserId;
+
+	public Connection(Integer id, User initializer, User receiver, LocalDateTime startingDate) {
+		this.id = id;
+		this.initializer = initializer;
+		this.receiver = receiver;
+		this.startingDate = startingDate;
+	}
+
+	@PrePersist
+	void setPairKey() {
+		minUserId = Math.min(initializer.getId(), receiver.getId());
+		maxUserId = Math.max(initializer.getId(), receiver.getId());
+	}
 }
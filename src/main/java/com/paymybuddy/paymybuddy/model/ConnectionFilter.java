@@ -0,0 +1,44 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+
+/**
+ * Criteria of a connection list, unset ones match every connection.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class ConnectionFilter {
+	/**
+	 * Either side of the connection, read from the (fk_initializer_id, connection_id) and
+	 * (fk_receiver_id, connection_id) indexes.
+	 */
+	private Integer       userId;
+	/**
+	 * First starting date, read from the (starting_date, connection_id) index.
+	 */
+	@DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+	private LocalDateTime from;
+	/**
+	 * Last starting date.
+	 */
+	@DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+	private LocalDateTime to;
+
+	public Specification<Connection> toSpecification() {
+		return (connection, query, builder) -> builder.and(
+				userId == null ? builder.conjunction()
+				               : builder.or(builder.equal(connection.get("initializer").get("id"), userId),
+				                            builder.equal(connection.get("receiver").get("id"), userId)),
+				from == null ? builder.conjunction()
+				             : builder.greaterThanOrEqualTo(connection.<LocalDateTime>get("startingDate"), from),
+				to == null ? builder.conjunction()
+				           : builder.lessThanOrEqualTo(connection.<LocalDateTime>get("startingDate"), to));
+	}
+}
@@ -0,0 +1,29 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Last journal sequence of the in-memory transfer engine whose effects are saved in database.
+ * Updated in the same database transaction as the balances and transactions it covers.
+ */
+@Entity
+@Table(name = "engine_checkpoint")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class EngineCheckpoint {
+	@Id
+	@Column(name = "engine_checkpoint_id")
+	private Integer id;
+
+	private long appliedSequence;
+}
@@ -0,0 +1,32 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * Instance running the in-memory transfer engine, until its lease expires. Extended in the same database
+ * transaction as each write-back, so that an instance which lost it saves nothing more.
+ */
+@Entity
+@Table(name = "engine_lease")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class EngineLease {
+	@Id
+	@Column(name = "engine_lease_id")
+	private Integer id;
+
+	private String owner;
+
+	private LocalDateTime expiresAt;
+}
@@ -0,0 +1,22 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.Value;
+
+/**
+ * Fee information for a transaction amount.
+ */
+@Value
+public class FeeQuote {
+	/**
+	 * Amount received by the payee.
+	 */
+	Money amount;
+	/**
+	 * Fee kept by PayMyBuddy.
+	 */
+	Money fee;
+	/**
+	 * Amount debited from the issuer, that is amount plus fee.
+	 */
+	Money total;
+}
@@ -0,0 +1,29 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Next value of IDs handed out in blocks, such as the transaction IDs the in-memory transfer engine reserves
+ * before it saves the transactions.
+ */
+@Entity
+@Table(name = "id_sequence")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class IdSequence {
+	@Id
+	@Column(name = "sequence_name")
+	private String name;
+
+	private int nextValue;
+}
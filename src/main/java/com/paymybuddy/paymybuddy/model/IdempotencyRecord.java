@@ -0,0 +1,42 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Transaction created by a payment request carrying an Idempotency-Key header.
+ */
+@Entity
+@Table(name = "idempotency_key",
+       uniqueConstraints = @UniqueConstraint(columnNames = {"fk_user_id", "idempotency_key"}))
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class IdempotencyRecord {
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Column(name = "idempotency_key_id")
+	private Integer id;
+
+	@Column(name = "fk_user_id")
+	private Integer userId;
+
+	@Column(name = "idempotency_key")
+	private String idempotencyKey;
+
+	/**
+	 * SHA-256 of the payee, amount and description of the request, in hexadecimal.
+	 */
+	private String requestHash;
+
+	@Column(name = "fk_transaction_id")
+	private Integer transactionId;
+
+	private LocalDateTime createdAt;
+}
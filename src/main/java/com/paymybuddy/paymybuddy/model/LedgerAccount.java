@@ -0,0 +1,42 @@
+package com.paymybuddy.paymybuddy.model;
+
+import com.paymybuddy.paymybuddy.constants.LedgerAccountType;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import java.io.Serializable;
+
+/**
+ * Account of the ledger, a user's balance, a bank account or the fee account.
+ */
+@Embeddable
+@Getter
+@EqualsAndHashCode
+@ToString
+@AllArgsConstructor
+@NoArgsConstructor
+public class LedgerAccount implements Serializable {
+	public static final LedgerAccount FEES = new LedgerAccount(LedgerAccountType.FEES, 0);
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "account_type")
+	private LedgerAccountType accountType;
+
+	@Column(name = "account_id")
+	private Integer accountId;
+
+	public static LedgerAccount ofUser(Integer userId) {
+		return new LedgerAccount(LedgerAccountType.USER, userId);
+	}
+
+	public static LedgerAccount ofBankAccount(Integer bankAccountId) {
+		return new LedgerAccount(LedgerAccountType.BANK_ACCOUNT, bankAccountId);
+	}
+}
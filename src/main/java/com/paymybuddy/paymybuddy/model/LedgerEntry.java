@@ -0,0 +1,43 @@
+package com.paymybuddy.paymybuddy.model;
+
+import com.paymybuddy.paymybuddy.constants.LedgerEntryKind;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Immutable debit (negative amount) or credit (positive amount) of a ledger account.
+ * Entries written by the same operation share a posting ID and their amounts add up to zero.
+ */
+@Entity
+@Table(name = "ledger_entry",
+       indexes = @Index(columnList = "account_type, account_id, ledger_entry_id"))
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class LedgerEntry {
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Column(name = "ledger_entry_id")
+	private Long id;
+
+	private String postingId;
+
+	@Embedded
+	private LedgerAccount account;
+
+	@Enumerated(EnumType.STRING)
+	private LedgerEntryKind kind;
+
+	private Money amount;
+
+	@Column(name = "fk_transaction_id")
+	private Integer transactionId;
+
+	private LocalDateTime createdAt;
+}
@@ -0,0 +1,36 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Balance of a ledger account including every entry up to lastEntryId.
+ * The current balance is the snapshot balance plus the entries written after it.
+ */
+@Entity
+@Table(name = "ledger_snapshot")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class LedgerSnapshot {
+	@EmbeddedId
+	private LedgerAccount account;
+
+	private Money balance;
+
+	private long lastEntryId;
+
+	private LocalDateTime takenAt;
+
+	/**
+	 * Makes two concurrent compactions of the same account fail instead of adding the same entries twice.
+	 */
+	@Version
+	private Long version;
+}
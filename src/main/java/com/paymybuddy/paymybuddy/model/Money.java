@@ -0,0 +1,154 @@
+package com.paymybuddy.paymybuddy.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.paymybuddy.paymybuddy.constants.Fee;
+import org.springframework.util.Assert;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Immutable amount of euros stored as a whole number of cents.
+ * Arithmetic is exact, the only rounding happens when a rate is applied and is always HALF_UP.
+ */
+public final class Money implements Comparable<Money> {
+	/**
+	 * Zero euro.
+	 */
+	public static final Money ZERO = new Money(0);
+
+	private static final long CENTS_PER_UNIT = 100;
+
+	private final long cents;
+
+	private Money(long cents) {
+		this.cents = cents;
+	}
+
+	/**
+	 * Creates an amount from a number of cents.
+	 *
+	 * @param cents amount in cents
+	 * @return the amount
+	 */
+	public static Money ofCents(long cents) {
+		return cents == 0 ? ZERO : new Money(cents);
+	}
+
+	/**
+	 * Creates an amount from a decimal value, rounded HALF_UP to the cent.
+	 *
+	 * @param amount decimal amount in euros
+	 * @return the amount
+	 */
+	@JsonCreator
+	public static Money of(BigDecimal amount) {
+		Assert.notNull(amount, "Amount must not be null");
+		return ofCents(amount.setScale(Fee.SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact());
+	}
+
+	/**
+	 * Parses an amount typed by a user, such as "15", "15.5", "15,50" or "15.50 €".
+	 *
+	 * @param text amount to parse
+	 * @return the amount
+	 * @throws NumberFormatException if the text is not a decimal number
+	 */
+	public static Money parse(String text) {
+		Assert.notNull(text, "Amount must not be null");
+		String normalized = text.replace("€", "").replace(',', '.').strip();
+		return of(new BigDecimal(normalized));
+	}
+
+	public long getCents() {
+		return cents;
+	}
+
+	/**
+	 * @return the amount as a decimal with two digits after the decimal point
+	 */
+	@JsonValue
+	public BigDecimal toBigDecimal() {
+		return BigDecimal.valueOf(cents, Fee.SCALE);
+	}
+
+	public Money plus(Money other) {
+		return ofCents(Math.addExact(cents, other.cents));
+	}
+
+	public Money minus(Money other) {
+		return ofCents(Math.subtractExact(cents, other.cents));
+	}
+
+	public Money abs() {
+		return cents < 0 ? ofCents(Math.negateExact(cents)) : this;
+	}
+
+	/**
+	 * Multiplies the amount by numerator / denominator, rounding HALF_UP to the cent.
+	 *
+	 * @param numerator   rate numerator
+	 * @param denominator rate denominator, strictly positive
+	 * @return the rounded amount
+	 */
+	public Money multiply(long numerator, long denominator) {
+		return ofCents(divideHalfUp(Math.multiplyExact(cents, numerator), denominator));
+	}
+
+	public boolean isZero() {
+		return cents == 0;
+	}
+
+	public boolean isNegative() {
+		return cents < 0;
+	}
+
+	public boolean isLessThan(Money other) {
+		return cents < other.cents;
+	}
+
+	/**
+	 * Divides two longs and rounds the quotient HALF_UP, that is away from zero on ties.
+	 *
+	 * @param dividend    value to divide
+	 * @param divisor     strictly positive divisor
+	 * @return the rounded quotient
+	 */
+	public static long divideHalfUp(long dividend, long divisor) {
+		Assert.isTrue(divisor > 0, "Divisor must be positive");
+		long quotient  = dividend / divisor;
+		long remainder = Math.abs(dividend % divisor);
+		if (remainder >= divisor - remainder) {
+			quotient += dividend < 0 ? -1 : 1;
+		}
+		return quotient;
+	}
+
+	@Override
+	public int compareTo(Money other) {
+		return Long.compare(cents, other.cents);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		return cents == ((Money) o).cents;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(cents);
+	}
+
+	/**
+	 * @return the amount with two digits after the decimal point, such as "15.50"
+	 */
+	@Override
+	public String toString() {
+		long units = Math.abs(cents / CENTS_PER_UNIT);
+		long rest  = Math.abs(cents % CENTS_PER_UNIT);
+		return (cents < 0 ? "-" : "") + units + (rest < 10 ? ".0" : ".") + rest;
+	}
+}
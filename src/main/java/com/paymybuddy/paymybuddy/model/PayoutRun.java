@@ -0,0 +1,43 @@
+package com.paymybuddy.paymybuddy.model;
+
+import com.paymybuddy.paymybuddy.constants.PayoutStatus;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Progress of a bulk payout file, saved with each committed chunk so that the file can be resumed.
+ */
+@Entity
+@Table(name = "payout_run")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class PayoutRun {
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Column(name = "payout_run_id")
+	private Integer id;
+
+	@Column(name = "fk_issuer_id")
+	private Integer issuerId;
+
+	/**
+	 * Number of lines of the file whose chunk was committed.
+	 */
+	private long committedLines;
+
+	private long paymentsMade;
+
+	@Enumerated(EnumType.STRING)
+	private PayoutStatus status;
+
+	private LocalDateTime startedAt;
+
+	private LocalDateTime updatedAt;
+}
@@ -0,0 +1,99 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Watermark of a client that synchronizes its transactions and connections. IDs are given in insertion order but
+ * rows are committed in any order, so a row may show up below IDs already received: every ID up to the watermark was
+ * received, and the IDs received above it are kept to be skipped when they are read again. It is handed to clients
+ * as an opaque string, and the next synchronization returns what was created after it.
+ */
+@Value
+public class SyncCursor {
+	/**
+	 * Cursor of a client that never synchronized, everything is created after it.
+	 */
+	public static final SyncCursor START = new SyncCursor(0, 0, List.of(), List.of());
+
+	/**
+	 * ID up to which every transaction was received.
+	 */
+	Integer       transactionId;
+	/**
+	 * ID up to which every connection was received.
+	 */
+	Integer       connectionId;
+	/**
+	 * IDs of the transactions received above the transaction watermark, in ascending order.
+	 */
+	List<Integer> transactionIds;
+	/**
+	 * IDs of the connections received above the connection watermark, in ascending order.
+	 */
+	List<Integer> connectionIds;
+
+	/**
+	 * Returns the cursor after receiving more transactions and connections. Watermarks move to the given number of
+	 * IDs below the highest one received: a row committed after that many newer rows is not looked for anymore.
+	 *
+	 * @param lookback number of IDs below the highest one received that are read again
+	 */
+	public SyncCursor next(List<Integer> receivedTransactionIds, List<Integer> receivedConnectionIds, int lookback) {
+		int nextTransactionId = watermark(transactionId, transactionIds, receivedTransactionIds, lookback);
+		int nextConnectionId  = watermark(connectionId, connectionIds, receivedConnectionIds, lookback);
+		return new SyncCursor(nextTransactionId, nextConnectionId,
+		                      above(nextTransactionId, transactionIds, receivedTransactionIds),
+		                      above(nextConnectionId, connectionIds, receivedConnectionIds));
+	}
+
+	/**
+	 * @return the cursor as an URL safe string
+	 */
+	public String encode() {
+		String cursor = transactionId + "|" + connectionId + "|" + join(transactionIds) + "|" + join(connectionIds);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads a cursor sent back by a client.
+	 *
+	 * @throws IllegalArgumentException when the cursor was not produced by {@link #encode()}
+	 */
+	public static SyncCursor decode(String cursor) {
+		String   decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+		String[] parts   = decoded.split("\\|", -1);
+		// Cursors handed out before received IDs were kept only hold the watermarks
+		if (parts.length != 2 && parts.length != 4) {
+			throw new IllegalArgumentException("Invalid cursor: " + cursor);
+		}
+		return new SyncCursor(Integer.valueOf(parts[0]), Integer.valueOf(parts[1]),
+		                      parts.length == 4 ? split(parts[2]) : List.of(),
+		                      parts.length == 4 ? split(parts[3]) : List.of());
+	}
+
+	private static int watermark(int watermark, List<Integer> seen, List<Integer> received, int lookback) {
+		int highest = Stream.concat(seen.stream(), received.stream()).mapToInt(Integer::intValue).max()
+		                    .orElse(watermark);
+		return Math.max(watermark, highest - lookback);
+	}
+
+	private static List<Integer> above(int watermark, List<Integer> seen, List<Integer> received) {
+		return Stream.concat(seen.stream(), received.stream()).filter(id -> id > watermark).distinct().sorted()
+		             .toList();
+	}
+
+	private static String join(List<Integer> ids) {
+		return ids.stream().map(String::valueOf).collect(Collectors.joining("."));
+	}
+
+	private static List<Integer> split(String ids) {
+		return ids.isEmpty() ? List.of() : Arrays.stream(ids.split("\\.")).map(Integer::valueOf).toList();
+	}
+}
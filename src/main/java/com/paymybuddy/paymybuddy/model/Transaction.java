@@ -6,7 +6,6 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 import javax.persistence.*;
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Entity
@@ -31,7 +30,7 @@ public class Transaction {
 
 	private LocalDateTime date;
 
-	private BigDecimal amount;
+	private Money amount;
 
 	private String description;
 }
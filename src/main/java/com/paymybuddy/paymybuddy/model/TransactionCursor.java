@@ -0,0 +1,54 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position in a transfer history ordered by date then ID, newest first. It is handed to clients as an opaque
+ * string, and the next page holds the transactions that come after it.
+ */
+@Value
+public class TransactionCursor {
+	/**
+	 * Date of the last transaction read.
+	 */
+	LocalDateTime date;
+	/**
+	 * ID of the last transaction read, breaks ties between transactions of the same date.
+	 */
+	Integer       id;
+
+	public static TransactionCursor after(LocalDateTime date, Integer id) {
+		return new TransactionCursor(date, id);
+	}
+
+	/**
+	 * @return the cursor as an URL safe string
+	 */
+	public String encode() {
+		return Base64.getUrlEncoder().withoutPadding()
+		             .encodeToString((date + "|" + id).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads a cursor sent back by a client.
+	 *
+	 * @throws IllegalArgumentException when the cursor was not produced by {@link #encode()}
+	 */
+	public static TransactionCursor decode(String cursor) {
+		try {
+			String   decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+			String[] parts   = decoded.split("\\|");
+			if (parts.length != 2) {
+				throw new IllegalArgumentException("Invalid cursor: " + cursor);
+			}
+			return new TransactionCursor(LocalDateTime.parse(parts[0]), Integer.valueOf(parts[1]));
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+
+/**
+ * Criteria of a transaction list, unset ones match every transaction.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class TransactionFilter {
+	/**
+	 * Issuer or payee, read from the (fk_issuer_id, transaction_id) and (fk_payee_id, transaction_id) indexes.
+	 */
+	private Integer       userId;
+	/**
+	 * First date, read from the (date, transaction_id) index.
+	 */
+	@DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+	private LocalDateTime from;
+	/**
+	 * Last date.
+	 */
+	@DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+	private LocalDateTime to;
+	private Money         minAmount;
+	private Money         maxAmount;
+
+	public Specification<Transaction> toSpecification() {
+		return (transaction, query, builder) -> builder.and(
+				userId == null ? builder.conjunction()
+				               : builder.or(builder.equal(transaction.get("issuer").get("id"), userId),
+				                            builder.equal(transaction.get("payee").get("id"), userId)),
+				from == null ? builder.conjunction()
+				             : builder.greaterThanOrEqualTo(transaction.<LocalDateTime>get("date"), from),
+				to == null ? builder.conjunction()
+				           : builder.lessThanOrEqualTo(transaction.<LocalDateTime>get("date"), to),
+				minAmount == null ? builder.conjunction()
+				                  : builder.greaterThanOrEqualTo(transaction.<Money>get("amount"), minAmount),
+				maxAmount == null ? builder.conjunction()
+				                  : builder.lessThanOrEqualTo(transaction.<Money>get("amount"), maxAmount));
+	}
+}
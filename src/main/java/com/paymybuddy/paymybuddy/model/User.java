@@ -7,7 +7,6 @@ import lombok.Setter;
 import org.hibernate.annotations.DynamicUpdate;
 
 import javax.persistence.*;
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,6 +18,21 @@ import java.util.List;
 @AllArgsConstructor
 @NoArgsConstructor
 public class User {
+	public User(Integer id, String email, String password, String firstName, String lastName, Money balance,
+				List<Connection> initializedConnections, List<Connection> receivedConnections,
+				List<Transaction> initiatedTransactions, List<Transaction> receivedTransactions) {
+		this.id = id;
+		this.email = email;
+		this.password = password;
+		this.firstName = firstName;
+		this.lastName = lastName;
+		this.balance = balance;
+		this.initializedConnections = initializedConnections;
+		this.receivedConnections = receivedConnections;
+		this.initiatedTransactions = initiatedTransactions;
+		this.receivedTransactions = receivedTransactions;
+	}
+
 	@Id
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
 	@Column(name = "user_id")
@@ -35,7 +49,13 @@ public class User {
 	private String lastName;
 
 	@Column(name = "balance")
-	private BigDecimal balance;
+	private Money balance;
+
+	/**
+	 * Row version checked by the optimistic transfer strategy.
+	 */
+	@Version
+	private long version;
 
 	@OneToMany(mappedBy = "initializer")
 	private List<Connection> initializedConnections = new ArrayList<>();
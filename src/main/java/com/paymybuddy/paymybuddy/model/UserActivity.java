@@ -0,0 +1,25 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+/**
+ * One event of the activity feed of a user. A transaction or a connection has one row per user involved, so
+ * that a user's history is one range of the feed instead of a search on two foreign keys.
+ */
+@Entity
+@Table(name = "user_activity")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserActivity {
+	@EmbeddedId
+	private UserActivityId id;
+}
@@ -0,0 +1,39 @@
+package com.paymybuddy.paymybuddy.model;
+
+import com.paymybuddy.paymybuddy.constants.ActivityType;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Key of an activity feed row, in the order the rows are clustered: by user, then by date.
+ */
+@Embeddable
+@Getter
+@EqualsAndHashCode
+@ToString
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserActivityId implements Serializable {
+	@Column(name = "fk_user_id")
+	private Integer userId;
+
+	@Column(name = "occurred_at")
+	private LocalDateTime occurredAt;
+
+	@Column(name = "event_id")
+	private Integer eventId;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "event_type")
+	private ActivityType eventType;
+}
@@ -0,0 +1,35 @@
+package com.paymybuddy.paymybuddy.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Criteria of a user list, unset ones match every user.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class UserFilter {
+	/**
+	 * Start of the email, read from the unique email index.
+	 */
+	private String email;
+	private Money  minBalance;
+	private Money  maxBalance;
+
+	public Specification<User> toSpecification() {
+		return (user, query, builder) -> builder.and(
+				email == null || email.isBlank() ? builder.conjunction()
+				                                 : builder.like(user.<String>get("email"), likePrefix(email), '\\'),
+				minBalance == null ? builder.conjunction()
+				                   : builder.greaterThanOrEqualTo(user.<Money>get("balance"), minBalance),
+				maxBalance == null ? builder.conjunction()
+				                   : builder.lessThanOrEqualTo(user.<Money>get("balance"), maxBalance));
+	}
+
+	private static String likePrefix(String prefix) {
+		return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+	}
+}
@@ -0,0 +1,23 @@
+package com.paymybuddy.paymybuddy.model.viewmodel;
+
+import com.paymybuddy.paymybuddy.model.Money;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * What the home page shows of a user's activity.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ActivitySummaryViewModel {
+    private long                 connectionCount;
+    private ConnectionViewModel  latestConnection;
+    private long                 transactionCount;
+    private TransactionViewModel latestTransaction;
+    private Money                totalSent;
+    private Money                totalReceived;
+}
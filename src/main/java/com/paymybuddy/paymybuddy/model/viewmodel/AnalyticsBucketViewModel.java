@@ -0,0 +1,23 @@
+package com.paymybuddy.paymybuddy.model.viewmodel;
+
+import com.paymybuddy.paymybuddy.model.Money;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Payments made during one analytics bucket.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class AnalyticsBucketViewModel {
+    private LocalDateTime start;
+    private long          payments;
+    private Money         volume;
+    private Money         fees;
+}
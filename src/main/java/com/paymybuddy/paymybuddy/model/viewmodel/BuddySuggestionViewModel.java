@@ -0,0 +1,21 @@
+package com.paymybuddy.paymybuddy.model.viewmodel;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * User who is not a buddy yet but shares buddies with the user. Balances of strangers are not shown.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BuddySuggestionViewModel {
+    private Integer id;
+    private String  email;
+    private String  firstname;
+    private String  lastname;
+    private int     mutualBuddies;
+}
@@ -0,0 +1,29 @@
+package com.paymybuddy.paymybuddy.model.viewmodel;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk connection import.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConnectionImportReportViewModel {
+    private long                                 pairsRead;
+    private long                                 connectionsCreated;
+    /**
+     * Pairs already given earlier in the file, or already connected.
+     */
+    private long                                 pairsSkipped;
+    private long                                 pairsFailed;
+    /**
+     * First failed lines, up to the configured limit.
+     */
+    private List<ConnectionImportErrorViewModel> errors;
+}
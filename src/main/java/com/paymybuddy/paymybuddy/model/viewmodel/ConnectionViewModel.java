@@ -1,5 +1,6 @@
 package com.paymybuddy.paymybuddy.model.viewmodel;
 
+import com.paymybuddy.paymybuddy.model.Money;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -18,6 +19,22 @@ public class ConnectionViewModel {
     private UserViewModel receiver;
     private LocalDateTime startingDate;
 
+    /**
+     * Flat constructor for JPQL projections, which can not build the user view models themselves.
+     */
+    public ConnectionViewModel(Integer id,
+                               Integer initializerId, String initializerEmail, String initializerFirstname,
+                               String initializerLastname, Money initializerBalance,
+                               Integer receiverId, String receiverEmail, String receiverFirstname,
+                               String receiverLastname, Money receiverBalance,
+                               LocalDateTime startingDate) {
+        this(id,
+             new UserViewModel(initializerId, initializerEmail, initializerFirstname, initializerLastname,
+                               initializerBalance),
+             new UserViewModel(receiverId, receiverEmail, receiverFirstname, receiverLastname, receiverBalance),
+             startingDate);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
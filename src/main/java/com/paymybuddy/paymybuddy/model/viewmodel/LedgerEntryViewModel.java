@@ -0,0 +1,32 @@
+package com.paymybuddy.paymybuddy.model.viewmodel;
+
+import com.paymybuddy.paymybuddy.constants.LedgerEntryKind;
+import com.paymybuddy.paymybuddy.model.Money;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Debit (negative amount) or credit (positive amount) of a user's ledger account.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class LedgerEntryViewModel {
+    private Long            id;
+    /**
+     * Shared by the entries written by the same operation.
+     */
+    private String          postingId;
+    private LedgerEntryKind kind;
+    private Money           amount;
+    /**
+     * Transaction of a payment or a fee, null for deposits, withdrawals and fees of split payments.
+     */
+    private Integer         transactionId;
+    private LocalDateTime   createdAt;
+}
@@ -0,0 +1,27 @@
+package com.paymybuddy.paymybuddy.model.viewmodel;
+
+import com.paymybuddy.paymybuddy.model.Money;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Ledger account of a user: its balance and its last entries.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class LedgerViewModel {
+    /**
+     * Sum of every entry of the account, to be reconciled with the user's balance.
+     */
+    private Money                      balance;
+    /**
+     * Last entries, most recent first.
+     */
+    private List<LedgerEntryViewModel> entries;
+}
@@ -0,0 +1,37 @@
+package com.paymybuddy.paymybuddy.model.viewmodel;
+
+import com.paymybuddy.paymybuddy.constants.PayoutStatus;
+import com.paymybuddy.paymybuddy.model.Money;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk payout run.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class PayoutReportViewModel {
+    /**
+     * Run to give back to resume the file.
+     */
+    private Integer                    runId;
+    private PayoutStatus               status;
+    /**
+     * Lines read during this request, skipped lines of a resumed run excluded.
+     */
+    private long                       linesRead;
+    private long                       paymentsMade;
+    private Money                      totalPaid;
+    private long                       linesFailed;
+    /**
+     * First failed lines, up to the configured limit.
+     */
+    private List<PayoutErrorViewModel> errors;
+    private double                     paymentsPerMinute;
+}
@@ -0,0 +1,20 @@
+package com.paymybuddy.paymybuddy.model.viewmodel;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Payment of several buddies at once, for the same expense.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SplitPaymentViewModel {
+    String                      description;
+    List<PaymentShareViewModel> shares;
+}
@@ -0,0 +1,34 @@
+package com.paymybuddy.paymybuddy.model.viewmodel;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Transactions and connections of a user created since the cursor a client sent.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SyncViewModel {
+    /**
+     * New transactions, in ID order.
+     */
+    private List<TransactionViewModel> transactions;
+    /**
+     * New connections, in ID order.
+     */
+    private List<ConnectionViewModel>  connections;
+    /**
+     * Cursor to send with the next synchronization.
+     */
+    private String                     cursor;
+    /**
+     * Whether more changes are waiting, the client should synchronize again right away.
+     */
+    private boolean                    hasMore;
+}
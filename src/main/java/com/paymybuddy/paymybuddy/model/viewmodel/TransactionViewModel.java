@@ -1,11 +1,11 @@
 package com.paymybuddy.paymybuddy.model.viewmodel;
 
+import com.paymybuddy.paymybuddy.model.Money;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.Objects;
 
@@ -20,10 +20,24 @@ public class TransactionViewModel {
 
     private LocalDateTime date;
 
-    private BigDecimal amount;
+    private Money amount;
 
     private String description;
 
+    /**
+     * Flat constructor for JPQL projections, which can not build the user view models themselves.
+     */
+    public TransactionViewModel(Integer id,
+                                Integer issuerId, String issuerEmail, String issuerFirstname, String issuerLastname,
+                                Money issuerBalance,
+                                Integer payeeId, String payeeEmail, String payeeFirstname, String payeeLastname,
+                                Money payeeBalance,
+                                LocalDateTime date, Money amount, String description) {
+        this(id, new UserViewModel(issuerId, issuerEmail, issuerFirstname, issuerLastname, issuerBalance),
+             new UserViewModel(payeeId, payeeEmail, payeeFirstname, payeeLastname, payeeBalance),
+             date, amount, description);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -1,11 +1,11 @@
 package com.paymybuddy.paymybuddy.model.viewmodel;
 
+import com.paymybuddy.paymybuddy.model.Money;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
-import java.math.BigDecimal;
 import java.util.Objects;
 
 @Getter
@@ -17,14 +17,14 @@ public class UserViewModel {
     private String     email;
     private String     firstname;
     private String     lastname;
-    private BigDecimal balance;
+    private Money      balance;
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         UserViewModel userViewModel = (UserViewModel) o;
-        if (userViewModel.balance == null) userViewModel.balance = new BigDecimal("0.00"); // add check of null value
+        if (userViewModel.balance == null) userViewModel.balance = Money.ZERO; // add check of null value
         return (id.equals(userViewModel.id) &&
                 email.equalsIgnoreCase(userViewModel.email) &&
                 firstname.equalsIgnoreCase(userViewModel.firstname) &&
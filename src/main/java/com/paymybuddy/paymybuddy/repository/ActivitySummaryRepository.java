@@ -0,0 +1,56 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.ActivitySummary;
+import com.paymybuddy.paymybuddy.model.Money;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface ActivitySummaryRepository extends CrudRepository<ActivitySummary, Integer> {
+	/**
+	 * Adds transactions to the summary of a user.
+	 *
+	 * @param count    number of transactions the user issued or received
+	 * @param sent     amount the user paid in them
+	 * @param received amount the user was paid in them
+	 * @param latestId   ID of the latest of them, by date then ID
+	 * @param latestDate date of the latest of them
+	 * @param modifiedAt time the transactions are recorded
+	 * @return 1 if the summary was updated, 0 if the user has none yet
+	 */
+	@Modifying
+	// The ID is set before the date: MySQL assigns from left to right, later expressions see the new values
+	@Query("update ActivitySummary s set s.transactionCount = s.transactionCount + :count, " +
+	       "s.totalSent = s.totalSent + :sent, s.totalReceived = s.totalReceived + :received, " +
+	       "s.latestTransactionId = case when s.latestTransactionDate is null " +
+	       "or s.latestTransactionDate < :latestDate " +
+	       "or (s.latestTransactionDate = :latestDate and s.latestTransactionId < :latestId) " +
+	       "then :latestId else s.latestTransactionId end, " +
+	       "s.latestTransactionDate = case when s.latestTransactionDate is null " +
+	       "or s.latestTransactionDate < :latestDate then :latestDate else s.latestTransactionDate end, " +
+	       "s.modifiedAt = :modifiedAt where s.userId = :userId")
+	int addTransactions(@Param("userId") Integer userId, @Param("count") long count, @Param("sent") Money sent,
+	                    @Param("received") Money received, @Param("latestId") Integer latestId,
+	                    @Param("latestDate") LocalDateTime latestDate,
+	                    @Param("modifiedAt") LocalDateTime modifiedAt);
+
+	/**
+	 * Adds connections to the summary of a user.
+	 *
+	 * @param count    number of connections the user is part of
+	 * @param latestId highest ID among them
+	 * @return 1 if the summary was updated, 0 if the user has none yet
+	 */
+	@Modifying
+	@Query("update ActivitySummary s set s.connectionCount = s.connectionCount + :count, " +
+	       "s.latestConnectionId = case when s.latestConnectionId is null or s.latestConnectionId < :latestId " +
+	       "then :latestId else s.latestConnectionId end, s.modifiedAt = :modifiedAt " +
+	       "where s.userId = :userId")
+	int addConnections(@Param("userId") Integer userId, @Param("count") long count, @Param("latestId") Integer latestId,
+	                   @Param("modifiedAt") LocalDateTime modifiedAt);
+}
@@ -0,0 +1,41 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.BalanceStripe;
+import com.paymybuddy.paymybuddy.model.BalanceStripeId;
+import com.paymybuddy.paymybuddy.model.Money;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.util.List;
+
+@Repository
+public interface BalanceStripeRepository extends CrudRepository<BalanceStripe, BalanceStripeId> {
+	/**
+	 * Adds an amount to one stripe of a hot account.
+	 *
+	 * @return 1 if the stripe was credited, 0 if the account is not striped anymore
+	 */
+	@Modifying
+	@Query("update BalanceStripe s set s.amount = s.amount + :amount " +
+	       "where s.id.userId = :userId and s.id.slot = :slot")
+	int credit(@Param("userId") Integer userId, @Param("slot") Integer slot, @Param("amount") Money amount);
+
+	/**
+	 * Reads and locks every stripe of an account, so that no credit is written while they are folded.
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select s from BalanceStripe s where s.id.userId = :userId order by s.id.slot")
+	List<BalanceStripe> findByUserIdForUpdate(@Param("userId") Integer userId);
+
+	@Query("select distinct s.id.userId from BalanceStripe s")
+	List<Integer> findStripedUserIds();
+
+	@Modifying
+	@Query("delete from BalanceStripe s where s.id.userId = :userId")
+	int deleteByUserId(@Param("userId") Integer userId);
+}
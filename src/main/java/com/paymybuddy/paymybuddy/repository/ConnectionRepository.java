@@ -2,15 +2,93 @@ package com.paymybuddy.paymybuddy.repository;
 
 import com.paymybuddy.paymybuddy.model.Connection;
 import com.paymybuddy.paymybuddy.model.User;
-import org.springframework.data.repository.CrudRepository;
+import com.paymybuddy.paymybuddy.model.viewmodel.ConnectionViewModel;
+import com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface ConnectionRepository extends CrudRepository<Connection, Integer> {
+public interface ConnectionRepository extends PagingAndSortingRepository<Connection, Integer>,
+                                              JpaSpecificationExecutor<Connection>, ConnectionViewRepository {
     List<Connection> findByInitializerOrReceiver(User initializer, User receiver);
 
     Optional<Connection> findById(Integer id);
+
+    boolean existsByMinUserIdAndMaxUserId(Integer minUserId, Integer maxUserId);
+
+    /**
+     * Tells whether two users are connected, whichever initiated the connection, with a single lookup of the
+     * (min_user_id, max_user_id) unique index.
+     */
+    default boolean existsBetween(Integer userId, Integer buddyId) {
+        return existsByMinUserIdAndMaxUserId(Math.min(userId, buddyId), Math.max(userId, buddyId));
+    }
+
+    /**
+     * Lists the connections whose pair key is made of the given lower and higher user IDs, read from the
+     * (min_user_id, max_user_id) unique index. Every combination of the IDs is matched, callers keep the pairs they
+     * asked for.
+     */
+    @Query("select c from Connection c where c.minUserId in :minUserIds and c.maxUserId in :maxUserIds")
+    List<Connection> findByPairKeysAmong(@Param("minUserIds") Collection<Integer> minUserIds,
+                                         @Param("maxUserIds") Collection<Integer> maxUserIds);
+
+    /**
+     * Keeps, among the given users, those who are connected to a user.
+     *
+     * @param userId   user whose connections are checked
+     * @param buddyIds users to check
+     * @return IDs of the given users who are connected to the user
+     */
+    @Query("select case when c.initializer.id = :userId then c.receiver.id else c.initializer.id end " +
+           "from Connection c " +
+           "where (c.initializer.id = :userId and c.receiver.id in :buddyIds) " +
+           "or (c.receiver.id = :userId and c.initializer.id in :buddyIds)")
+    List<Integer> findBuddyIdsAmong(@Param("userId") Integer userId, @Param("buddyIds") Collection<Integer> buddyIds);
+
+    /**
+     * Selects the columns of a {@link ConnectionViewModel} in one query, users included.
+     */
+    String VIEW = "select new com.paymybuddy.paymybuddy.model.viewmodel.ConnectionViewModel(c.id, " +
+                  "i.id, i.email, i.firstName, i.lastName, i.balance, " +
+                  "r.id, r.email, r.firstName, r.lastName, r.balance, " +
+                  "c.startingDate) " +
+                  "from Connection c join c.initializer i join c.receiver r ";
+
+    @Query(VIEW + "where c.id = :id")
+    Optional<ConnectionViewModel> findViewById(@Param("id") Integer id);
+
+    /**
+     * Lists the users connected to a user, whichever side initiated the connection.
+     */
+    @Query("select new com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel(u.id, u.email, u.firstName, " +
+           "u.lastName, u.balance) " +
+           "from Connection c, User u " +
+           "where (c.initializer.id = :userId and u.id = c.receiver.id) " +
+           "or (c.receiver.id = :userId and u.id = c.initializer.id) " +
+           "order by c.id")
+    List<UserViewModel> findBuddiesOf(@Param("userId") Integer userId);
+
+    /**
+     * Connections initiated by a user since a connection ID, in ID order, read from the
+     * (fk_initializer_id, connection_id) index.
+     */
+    @Query(VIEW + "where c.initializer.id = :userId and c.id > :afterId order by c.id")
+    List<ConnectionViewModel> findInitializedAfterId(@Param("userId") Integer userId,
+                                                     @Param("afterId") Integer afterId, Pageable pageable);
+
+    /**
+     * Connections received by a user since a connection ID, in ID order.
+     */
+    @Query(VIEW + "where c.receiver.id = :userId and c.id > :afterId order by c.id")
+    List<ConnectionViewModel> findReceivedAfterId(@Param("userId") Integer userId,
+                                                  @Param("afterId") Integer afterId, Pageable pageable);
 }
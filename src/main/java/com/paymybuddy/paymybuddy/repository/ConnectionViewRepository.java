@@ -0,0 +1,22 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.viewmodel.ConnectionViewModel;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.stream.Stream;
+
+/**
+ * Reads connections as {@link ConnectionViewModel}s, users included, filtered by a {@link Specification}.
+ */
+public interface ConnectionViewRepository {
+	Slice<ConnectionViewModel> findViews(Specification<Connection> specification, Pageable pageable);
+
+	/**
+	 * Streams every matching view. The stream must be read inside a transaction and closed.
+	 */
+	Stream<ConnectionViewModel> streamViews(Specification<Connection> specification, Sort sort);
+}
@@ -0,0 +1,47 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.ConnectionViewModel;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.util.stream.Stream;
+
+class ConnectionViewRepositoryImpl implements ConnectionViewRepository {
+	@PersistenceContext
+	EntityManager entityManager;
+
+	@Override
+	public Slice<ConnectionViewModel> findViews(Specification<Connection> specification, Pageable pageable) {
+		return SpecificationViews.findSlice(entityManager, Connection.class, ConnectionViewModel.class,
+		                                    ConnectionViewRepositoryImpl::columns, specification, pageable);
+	}
+
+	@Override
+	public Stream<ConnectionViewModel> streamViews(Specification<Connection> specification, Sort sort) {
+		return SpecificationViews.stream(entityManager, Connection.class, ConnectionViewModel.class,
+		                                 ConnectionViewRepositoryImpl::columns, specification, sort);
+	}
+
+	/**
+	 * Same columns as {@link ConnectionRepository#VIEW}.
+	 */
+	private static Selection<?>[] columns(Root<Connection> connection) {
+		Join<Connection, User> initializer = connection.join("initializer");
+		Join<Connection, User> receiver    = connection.join("receiver");
+		return new Selection<?>[]{connection.get("id"),
+		                          initializer.get("id"), initializer.get("email"), initializer.get("firstName"),
+		                          initializer.get("lastName"), initializer.get("balance"),
+		                          receiver.get("id"), receiver.get("email"), receiver.get("firstName"),
+		                          receiver.get("lastName"), receiver.get("balance"),
+		                          connection.get("startingDate")};
+	}
+}
@@ -0,0 +1,9 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.EngineCheckpoint;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface EngineCheckpointRepository extends CrudRepository<EngineCheckpoint, Integer> {
+}
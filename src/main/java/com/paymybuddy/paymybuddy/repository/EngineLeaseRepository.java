@@ -0,0 +1,21 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.EngineLease;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.util.Optional;
+
+@Repository
+public interface EngineLeaseRepository extends CrudRepository<EngineLease, Integer> {
+	/**
+	 * Reads and locks a lease, so that two instances do not take it at the same time.
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select l from EngineLease l where l.id = :id")
+	Optional<EngineLease> findByIdForUpdate(@Param("id") Integer id);
+}
@@ -0,0 +1,21 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.IdSequence;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.util.Optional;
+
+@Repository
+public interface IdSequenceRepository extends CrudRepository<IdSequence, String> {
+	/**
+	 * Reads and locks a sequence, so that no other block of IDs is reserved until the current transaction ends.
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select s from IdSequence s where s.name = :name")
+	Optional<IdSequence> findByNameForUpdate(@Param("name") String name);
+}
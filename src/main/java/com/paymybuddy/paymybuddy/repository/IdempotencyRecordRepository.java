@@ -0,0 +1,12 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.IdempotencyRecord;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface IdempotencyRecordRepository extends CrudRepository<IdempotencyRecord, Integer> {
+	Optional<IdempotencyRecord> findByUserIdAndIdempotencyKey(Integer userId, String idempotencyKey);
+}
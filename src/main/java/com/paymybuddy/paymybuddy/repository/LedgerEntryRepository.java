@@ -0,0 +1,14 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.LedgerAccount;
+import com.paymybuddy.paymybuddy.model.LedgerEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface LedgerEntryRepository extends CrudRepository<LedgerEntry, Long> {
+	List<LedgerEntry> findByAccountOrderByIdDesc(LedgerAccount account, Pageable pageable);
+}
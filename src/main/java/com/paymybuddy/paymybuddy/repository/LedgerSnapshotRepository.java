@@ -0,0 +1,29 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.LedgerAccount;
+import com.paymybuddy.paymybuddy.model.LedgerSnapshot;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.util.Optional;
+
+@Repository
+public interface LedgerSnapshotRepository extends CrudRepository<LedgerSnapshot, LedgerAccount> {
+	/**
+	 * @return ID of the last entry included in snapshots, 0 if nothing was compacted yet
+	 */
+	@Query("select coalesce(max(s.lastEntryId), 0) from LedgerSnapshot s")
+	long findLastCompactedEntryId();
+
+	/**
+	 * Reads and locks the snapshot of an account, so that two debits of the account do not check its balance at the
+	 * same time.
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select s from LedgerSnapshot s where s.account = :account")
+	Optional<LedgerSnapshot> findByIdForUpdate(@Param("account") LedgerAccount account);
+}
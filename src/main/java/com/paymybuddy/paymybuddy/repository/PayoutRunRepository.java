@@ -0,0 +1,55 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.constants.PayoutStatus;
+import com.paymybuddy.paymybuddy.model.PayoutRun;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface PayoutRunRepository extends CrudRepository<PayoutRun, Integer> {
+	/**
+	 * Takes over a run to resume it. Only one request can claim a run: a failed one, or one left in progress by a
+	 * request that stopped updating it.
+	 *
+	 * @param staleBefore a run in progress not updated since is considered stopped
+	 * @return 1 if the run was claimed, 0 if it does not exist, belongs to another issuer, is completed or is run by
+	 * another request
+	 */
+	@Modifying
+	@Query("update PayoutRun r set r.status = com.paymybuddy.paymybuddy.constants.PayoutStatus.IN_PROGRESS, " +
+	       "r.updatedAt = :now where r.id = :id and r.issuerId = :issuerId " +
+	       "and (r.status = com.paymybuddy.paymybuddy.constants.PayoutStatus.FAILED " +
+	       "or (r.status = com.paymybuddy.paymybuddy.constants.PayoutStatus.IN_PROGRESS " +
+	       "and r.updatedAt < :staleBefore))")
+	int claim(@Param("id") Integer id, @Param("issuerId") Integer issuerId, @Param("now") LocalDateTime now,
+	          @Param("staleBefore") LocalDateTime staleBefore);
+
+	/**
+	 * Saves the progress of a run, in the transaction of the chunk it paid, unless another request moved it since.
+	 *
+	 * @param expectedLines committed lines the chunk was read after
+	 * @return 1 if the progress was saved, 0 if the run does not start at the chunk anymore
+	 */
+	@Modifying
+	@Query("update PayoutRun r set r.committedLines = :committedLines, r.paymentsMade = r.paymentsMade + :payments, " +
+	       "r.updatedAt = :now where r.id = :id and r.committedLines = :expectedLines")
+	int advance(@Param("id") Integer id, @Param("expectedLines") long expectedLines,
+	            @Param("committedLines") long committedLines, @Param("payments") long payments,
+	            @Param("now") LocalDateTime now);
+
+	/**
+	 * Ends a run, unless another request moved it since.
+	 *
+	 * @return 1 if the status was saved, 0 otherwise
+	 */
+	@Modifying
+	@Query("update PayoutRun r set r.status = :status, r.updatedAt = :now " +
+	       "where r.id = :id and r.committedLines = :committedLines")
+	int finish(@Param("id") Integer id, @Param("committedLines") long committedLines,
+	           @Param("status") PayoutStatus status, @Param("now") LocalDateTime now);
+}
@@ -0,0 +1,77 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import org.hibernate.jpa.QueryHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reads view models matching a {@link Specification} with a criteria query selecting their columns only, where
+ * {@link org.springframework.data.jpa.repository.JpaSpecificationExecutor} would load whole entities.
+ */
+final class SpecificationViews {
+	private SpecificationViews() {
+	}
+
+	/**
+	 * Columns of a view model read from the root entity, in the order of its constructor.
+	 */
+	interface Columns<T> {
+		Selection<?>[] of(Root<T> root);
+	}
+
+	/**
+	 * Reads a page of views without counting the matching rows.
+	 */
+	static <T, V> Slice<V> findSlice(EntityManager entityManager, Class<T> entityClass, Class<V> viewClass,
+	                                 Columns<T> columns, Specification<T> specification, Pageable pageable) {
+		TypedQuery<V> query = query(entityManager, entityClass, viewClass, columns, specification,
+		                            pageable.getSort());
+		query.setFirstResult((int) pageable.getOffset());
+		// One more row tells whether there is a next page, a count would read every matching row
+		query.setMaxResults(pageable.getPageSize() + 1);
+		List<V>  rows    = query.getResultList();
+		boolean hasNext = rows.size() > pageable.getPageSize();
+		return new SliceImpl<>(hasNext ? rows.subList(0, pageable.getPageSize()) : rows, pageable, hasNext);
+	}
+
+	/**
+	 * Streams every matching view from a database cursor. The stream must be read inside a transaction and closed.
+	 */
+	static <T, V> Stream<V> stream(EntityManager entityManager, Class<T> entityClass, Class<V> viewClass,
+	                               Columns<T> columns, Specification<T> specification, Sort sort) {
+		TypedQuery<V> query = query(entityManager, entityClass, viewClass, columns, specification, sort);
+		query.setHint(QueryHints.HINT_FETCH_SIZE, 1000);
+		query.setHint(QueryHints.HINT_READONLY, true);
+		return query.getResultStream();
+	}
+
+	private static <T, V> TypedQuery<V> query(EntityManager entityManager, Class<T> entityClass, Class<V> viewClass,
+	                                          Columns<T> columns, Specification<T> specification, Sort sort) {
+		CriteriaBuilder  builder  = entityManager.getCriteriaBuilder();
+		CriteriaQuery<V> criteria = builder.createQuery(viewClass);
+		Root<T>          root     = criteria.from(entityClass);
+		criteria.select(builder.construct(viewClass, columns.of(root)));
+		if (specification != null) {
+			Predicate predicate = specification.toPredicate(root, criteria, builder);
+			if (predicate != null) {
+				criteria.where(predicate);
+			}
+		}
+		criteria.orderBy(QueryUtils.toOrders(sort, root, builder));
+		return entityManager.createQuery(criteria);
+	}
+}
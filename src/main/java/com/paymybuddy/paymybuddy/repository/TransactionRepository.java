@@ -2,14 +2,56 @@ package com.paymybuddy.paymybuddy.repository;
 
 import com.paymybuddy.paymybuddy.model.Transaction;
 import com.paymybuddy.paymybuddy.model.User;
-import org.springframework.data.repository.CrudRepository;
+import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
-public interface TransactionRepository extends CrudRepository<Transaction, Integer> {
+public interface TransactionRepository extends PagingAndSortingRepository<Transaction, Integer>,
+                                               JpaSpecificationExecutor<Transaction>, TransactionViewRepository {
 	List<Transaction> findByIssuerOrPayee(User issuer, User payee);
 	List<Transaction> findByIssuer(User issuer);
 	List<Transaction> findByPayee(User payee);
+
+	/**
+	 * Columns of a {@link TransactionViewModel}, read from a transaction t, its issuer i and its payee p.
+	 */
+	String VIEW_COLUMNS = "select new com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel(t.id, " +
+	                      "i.id, i.email, i.firstName, i.lastName, i.balance, " +
+	                      "p.id, p.email, p.firstName, p.lastName, p.balance, " +
+	                      "t.date, t.amount, t.description) ";
+
+	/**
+	 * Selects the columns of a {@link TransactionViewModel} in one query, users included.
+	 */
+	String VIEW = VIEW_COLUMNS + "from Transaction t join t.issuer i join t.payee p ";
+
+	@Query(VIEW + "where t.id = :id")
+	Optional<TransactionViewModel> findViewById(@Param("id") Integer id);
+
+	@Query(VIEW + "where t.id in :ids")
+	List<TransactionViewModel> findViewsByIds(@Param("ids") Collection<Integer> ids);
+
+	/**
+	 * Transactions issued by a user since a transaction ID, in ID order, read from the
+	 * (fk_issuer_id, transaction_id) index.
+	 */
+	@Query(VIEW + "where t.issuer = :user and t.id > :afterId order by t.id")
+	List<TransactionViewModel> findIssuedAfterId(@Param("user") User user, @Param("afterId") Integer afterId,
+	                                             Pageable pageable);
+
+	/**
+	 * Transactions received by a user since a transaction ID, in ID order.
+	 */
+	@Query(VIEW + "where t.payee = :user and t.id > :afterId order by t.id")
+	List<TransactionViewModel> findReceivedAfterId(@Param("user") User user, @Param("afterId") Integer afterId,
+	                                               Pageable pageable);
 }
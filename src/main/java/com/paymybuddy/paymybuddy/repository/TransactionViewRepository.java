@@ -0,0 +1,22 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.stream.Stream;
+
+/**
+ * Reads transactions as {@link TransactionViewModel}s, users included, filtered by a {@link Specification}.
+ */
+public interface TransactionViewRepository {
+	Slice<TransactionViewModel> findViews(Specification<Transaction> specification, Pageable pageable);
+
+	/**
+	 * Streams every matching view. The stream must be read inside a transaction and closed.
+	 */
+	Stream<TransactionViewModel> streamViews(Specification<Transaction> specification, Sort sort);
+}
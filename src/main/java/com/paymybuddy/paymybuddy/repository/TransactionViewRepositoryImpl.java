@@ -0,0 +1,47 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.util.stream.Stream;
+
+class TransactionViewRepositoryImpl implements TransactionViewRepository {
+	@PersistenceContext
+	EntityManager entityManager;
+
+	@Override
+	public Slice<TransactionViewModel> findViews(Specification<Transaction> specification, Pageable pageable) {
+		return SpecificationViews.findSlice(entityManager, Transaction.class, TransactionViewModel.class,
+		                                    TransactionViewRepositoryImpl::columns, specification, pageable);
+	}
+
+	@Override
+	public Stream<TransactionViewModel> streamViews(Specification<Transaction> specification, Sort sort) {
+		return SpecificationViews.stream(entityManager, Transaction.class, TransactionViewModel.class,
+		                                 TransactionViewRepositoryImpl::columns, specification, sort);
+	}
+
+	/**
+	 * Same columns as {@link TransactionRepository#VIEW_COLUMNS}.
+	 */
+	private static Selection<?>[] columns(Root<Transaction> transaction) {
+		Join<Transaction, User> issuer = transaction.join("issuer");
+		Join<Transaction, User> payee  = transaction.join("payee");
+		return new Selection<?>[]{transaction.get("id"),
+		                          issuer.get("id"), issuer.get("email"), issuer.get("firstName"),
+		                          issuer.get("lastName"), issuer.get("balance"),
+		                          payee.get("id"), payee.get("email"), payee.get("firstName"),
+		                          payee.get("lastName"), payee.get("balance"),
+		                          transaction.get("date"), transaction.get("amount"), transaction.get("description")};
+	}
+}
@@ -0,0 +1,64 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.UserActivity;
+import com.paymybuddy.paymybuddy.model.UserActivityId;
+import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reads the history of a user from the activity feed: one range of the (fk_user_id, occurred_at) primary key,
+ * each row joined to its transaction by primary key.
+ */
+@Repository
+public interface UserActivityRepository extends CrudRepository<UserActivity, UserActivityId> {
+	/**
+	 * Selects the transactions of the feed of :userId as {@link TransactionViewModel}s.
+	 */
+	String TRANSACTIONS = TransactionRepository.VIEW_COLUMNS +
+	                      "from UserActivity a join Transaction t on t.id = a.id.eventId " +
+	                      "join t.issuer i join t.payee p " +
+	                      "where a.id.userId = :userId " +
+	                      "and a.id.eventType = com.paymybuddy.paymybuddy.constants.ActivityType.TRANSACTION ";
+
+	@Query(TRANSACTIONS + "order by a.id.occurredAt, a.id.eventId")
+	List<TransactionViewModel> findTransactions(@Param("userId") Integer userId);
+
+	/**
+	 * Streams every transaction of a user, oldest first. Rows are fetched from a database cursor by batches and
+	 * are not kept by the persistence context, the stream must be read inside a transaction and closed.
+	 * With MySQL the fetch size is only honoured when the connection URL sets useCursorFetch=true.
+	 */
+	@QueryHints({@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"),
+	             @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true")})
+	@Query(TRANSACTIONS + "order by a.id.occurredAt, a.id.eventId")
+	Stream<TransactionViewModel> streamTransactions(@Param("userId") Integer userId);
+
+	/**
+	 * Most recent transactions of a user, newest first.
+	 */
+	@Query(TRANSACTIONS + "order by a.id.occurredAt desc, a.id.eventId desc")
+	List<TransactionViewModel> findLatestTransactions(@Param("userId") Integer userId, Pageable pageable);
+
+	/**
+	 * Transactions of a user that come after the given one in the newest first order.
+	 */
+	@Query(TRANSACTIONS + "and (a.id.occurredAt < :date or (a.id.occurredAt = :date and a.id.eventId < :id)) " +
+	       "order by a.id.occurredAt desc, a.id.eventId desc")
+	List<TransactionViewModel> findTransactionsBefore(@Param("userId") Integer userId,
+	                                                  @Param("date") LocalDateTime date, @Param("id") Integer id,
+	                                                  Pageable pageable);
+
+	@Query("select count(a) from UserActivity a where a.id.userId = :userId " +
+	       "and a.id.eventType = com.paymybuddy.paymybuddy.constants.ActivityType.TRANSACTION")
+	long countTransactions(@Param("userId") Integer userId);
+}
@@ -1,16 +1,74 @@
 package com.paymybuddy.paymybuddy.repository;
 
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.User;
-import org.springframework.data.repository.CrudRepository;
+import com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface UserRepository extends CrudRepository<User, Integer> {
+public interface UserRepository extends PagingAndSortingRepository<User, Integer>, JpaSpecificationExecutor<User>,
+                                        UserViewRepository {
     Optional<User> findById(Integer id);
 
     Optional<User> findByEmail(String email);
 
+    List<User> findByEmailIn(Collection<String> emails);
+
     Optional<User> findByFirstNameAndLastName(String firstName, String lastName);
+
+    /**
+     * Lists user IDs in ascending order, a page at a time.
+     *
+     * @param afterId last ID of the previous page, 0 for the first one
+     */
+    @Query("select u.id from User u where u.id > :afterId order by u.id")
+    List<Integer> findIdsAfter(@Param("afterId") Integer afterId, Pageable pageable);
+
+    /**
+     * Lists users in ascending ID order, a page at a time, only the view columns read.
+     *
+     * @param afterId last ID of the previous page, 0 for the first one
+     */
+    @Query("select new com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel(u.id, u.email, u.firstName, " +
+           "u.lastName, u.balance) from User u where u.id > :afterId order by u.id")
+    List<UserViewModel> findViewsAfter(@Param("afterId") Integer afterId, Pageable pageable);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select u from User u where u.id = :id")
+    Optional<User> findByIdForUpdate(@Param("id") Integer id);
+
+    /**
+     * Withdraws an amount from a user's balance only if the balance covers it.
+     *
+     * @param id     user to debit
+     * @param amount amount to withdraw
+     * @return 1 if the user was debited, 0 if the balance was insufficient or the user does not exist
+     */
+    @Modifying
+    @Query("update User u set u.balance = u.balance - :amount, u.version = u.version + 1 " +
+           "where u.id = :id and u.balance >= :amount")
+    int debitIfSufficient(@Param("id") Integer id, @Param("amount") Money amount);
+
+    /**
+     * Adds an amount to a user's balance.
+     *
+     * @param id     user to credit
+     * @param amount amount to add
+     * @return 1 if the user was credited, 0 if the user does not exist
+     */
+    @Modifying
+    @Query("update User u set u.balance = u.balance + :amount, u.version = u.version + 1 where u.id = :id")
+    int credit(@Param("id") Integer id, @Param("amount") Money amount);
 }
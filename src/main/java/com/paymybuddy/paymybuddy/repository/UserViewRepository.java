@@ -0,0 +1,22 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.stream.Stream;
+
+/**
+ * Reads users as {@link UserViewModel}s filtered by a {@link Specification}.
+ */
+public interface UserViewRepository {
+	Slice<UserViewModel> findViews(Specification<User> specification, Pageable pageable);
+
+	/**
+	 * Streams every matching view. The stream must be read inside a transaction and closed.
+	 */
+	Stream<UserViewModel> streamViews(Specification<User> specification, Sort sort);
+}
@@ -0,0 +1,36 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.util.stream.Stream;
+
+class UserViewRepositoryImpl implements UserViewRepository {
+	@PersistenceContext
+	EntityManager entityManager;
+
+	@Override
+	public Slice<UserViewModel> findViews(Specification<User> specification, Pageable pageable) {
+		return SpecificationViews.findSlice(entityManager, User.class, UserViewModel.class,
+		                                    UserViewRepositoryImpl::columns, specification, pageable);
+	}
+
+	@Override
+	public Stream<UserViewModel> streamViews(Specification<User> specification, Sort sort) {
+		return SpecificationViews.stream(entityManager, User.class, UserViewModel.class,
+		                                 UserViewRepositoryImpl::columns, specification, sort);
+	}
+
+	private static Selection<?>[] columns(Root<User> user) {
+		return new Selection<?>[]{user.get("id"), user.get("email"), user.get("firstName"), user.get("lastName"),
+		                          user.get("balance")};
+	}
+}
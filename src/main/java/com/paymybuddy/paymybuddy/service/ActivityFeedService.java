@@ -0,0 +1,213 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.constants.ActivityType;
+import com.paymybuddy.paymybuddy.event.ConnectionAdded;
+import com.paymybuddy.paymybuddy.event.PaymentCompleted;
+import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes the activity feed: one user_activity row per user involved in a transaction or a connection, in the
+ * database transaction that creates it. History views read the feed instead of the transaction table.
+ * A backfill fills the feed from the existing transactions and connections, by ID ranges handled in parallel.
+ */
+@Service
+@Slf4j
+public class ActivityFeedService {
+	@Autowired
+	JdbcTemplate               jdbcTemplate;
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	private static final String INSERT_ACTIVITY = "insert into user_activity (fk_user_id, occurred_at, event_id, " +
+	                                              "event_type) values (?, ?, ?, ?)";
+
+	/**
+	 * Copies one side of an ID range of a table into the feed, skipping the rows already there.
+	 * Formatted with the user, date and ID columns, the event type and the table.
+	 */
+	private static final String BACKFILL = "insert into user_activity (fk_user_id, occurred_at, event_id, " +
+	                                       "event_type) " +
+	                                       "select e.%1$s, e.%2$s, e.%3$s, '%4$s' from %5$s e " +
+	                                       "where e.%3$s between ? and ? and not exists (" +
+	                                       "select 1 from user_activity a where a.fk_user_id = e.%1$s " +
+	                                       "and a.occurred_at = e.%2$s and a.event_id = e.%3$s " +
+	                                       "and a.event_type = '%4$s')";
+
+	private static final List<String> BACKFILL_TRANSACTIONS = List.of(
+			backfill("fk_issuer_id", "date", "transaction_id", ActivityType.TRANSACTION, "transaction"),
+			backfill("fk_payee_id", "date", "transaction_id", ActivityType.TRANSACTION, "transaction"));
+
+	private static final List<String> BACKFILL_CONNECTIONS = List.of(
+			backfill("fk_initializer_id", "starting_date", "connection_id", ActivityType.CONNECTION, "connection"),
+			backfill("fk_receiver_id", "starting_date", "connection_id", ActivityType.CONNECTION, "connection"));
+
+	/**
+	 * Whether the feed is backfilled when the application starts.
+	 */
+	@Value("${paymybuddy.feed.backfill-on-startup:false}")
+	boolean backfillOnStartup;
+	/**
+	 * Threads copying ID ranges during a backfill.
+	 */
+	@Value("${paymybuddy.feed.backfill-threads:4}")
+	int     backfillThreads;
+	/**
+	 * IDs copied in one database transaction during a backfill.
+	 */
+	@Value("${paymybuddy.feed.backfill-chunk-size:10000}")
+	int     backfillChunkSize;
+
+	private TransactionTemplate transactionTemplate;
+
+	@PostConstruct
+	void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+
+	/**
+	 * Adds completed payments to the feeds in their database transaction.
+	 */
+	@EventListener
+	void onPaymentCompleted(PaymentCompleted event) {
+		recordPayments(event.transactions());
+	}
+
+	/**
+	 * Adds saved connections to the feeds in their database transaction.
+	 */
+	@EventListener
+	void onConnectionAdded(ConnectionAdded event) {
+		recordConnections(event.connections());
+	}
+
+	/**
+	 * Adds saved transactions to the feeds of their issuers and payees, in the current database transaction.
+	 */
+	public void recordPayments(List<Transaction> transactions) {
+		Assert.notEmpty(transactions, "Transactions must not be empty");
+		List<Object[]> rows = new ArrayList<>(transactions.size() * 2);
+		for (Transaction transaction : transactions) {
+			rows.add(row(transaction.getIssuer().getId(), transaction.getDate(), transaction.getId(),
+			             ActivityType.TRANSACTION));
+			rows.add(row(transaction.getPayee().getId(), transaction.getDate(), transaction.getId(),
+			             ActivityType.TRANSACTION));
+		}
+		jdbcTemplate.batchUpdate(INSERT_ACTIVITY, rows);
+	}
+
+	/**
+	 * Adds saved connections to the feeds of their users, in the current database transaction.
+	 */
+	public void recordConnections(List<Connection> connections) {
+		Assert.notEmpty(connections, "Connections must not be empty");
+		List<Object[]> rows = new ArrayList<>(connections.size() * 2);
+		for (Connection connection : connections) {
+			rows.add(row(connection.getInitializer().getId(), connection.getStartingDate(), connection.getId(),
+			             ActivityType.CONNECTION));
+			rows.add(row(connection.getReceiver().getId(), connection.getStartingDate(), connection.getId(),
+			             ActivityType.CONNECTION));
+		}
+		jdbcTemplate.batchUpdate(INSERT_ACTIVITY, rows);
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	void backfillOnStartup() {
+		if (backfillOnStartup) {
+			try {
+				backfill();
+			} catch (RuntimeException e) {
+				log.error("Activity feed backfill failed.", e);
+			}
+		}
+	}
+
+	/**
+	 * Copies every existing transaction and connection into the feed. Rows already in the feed are skipped, so a
+	 * backfill can run again, and while the application writes new activity.
+	 *
+	 * @return number of feed rows written
+	 */
+	public long backfill() {
+		ExecutorService executor = Executors.newFixedThreadPool(backfillThreads, runnable -> {
+			Thread thread = new Thread(runnable, "paymybuddy-feed-backfill");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<CompletableFuture<Integer>> chunks = new ArrayList<>();
+			chunks.addAll(submitChunks(executor, "transaction", "transaction_id", BACKFILL_TRANSACTIONS));
+			chunks.addAll(submitChunks(executor, "connection", "connection_id", BACKFILL_CONNECTIONS));
+			long written = chunks.stream().mapToLong(CompletableFuture::join).sum();
+			log.info("Activity feed backfilled with " + written + " row(s) from " + chunks.size() + " chunk(s).");
+			return written;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private List<CompletableFuture<Integer>> submitChunks(ExecutorService executor, String table, String idColumn,
+	                                                      List<String> statements) {
+		Integer first = jdbcTemplate.queryForObject("select min(" + idColumn + ") from " + table, Integer.class);
+		Integer last  = jdbcTemplate.queryForObject("select max(" + idColumn + ") from " + table, Integer.class);
+		List<CompletableFuture<Integer>> chunks = new ArrayList<>();
+		if (first == null || last == null) {
+			return chunks;
+		}
+		for (long from = first; from <= last; from += backfillChunkSize) {
+			int chunkFrom = (int) from;
+			int chunkTo   = (int) Math.min(from + backfillChunkSize - 1, last);
+			chunks.add(CompletableFuture.supplyAsync(() -> copyChunk(statements, chunkFrom, chunkTo), executor));
+		}
+		return chunks;
+	}
+
+	private int copyChunk(List<String> statements, int from, int to) {
+		try {
+			return copyChunkOnce(statements, from, to);
+		} catch (DuplicateKeyException e) {
+			// A payment or connection of the range committed its own rows meanwhile, they are skipped this time
+			return copyChunkOnce(statements, from, to);
+		}
+	}
+
+	private int copyChunkOnce(List<String> statements, int from, int to) {
+		Integer written = transactionTemplate.execute(status -> {
+			int rows = 0;
+			for (String sql : statements) {
+				rows += jdbcTemplate.update(sql, from, to);
+			}
+			return rows;
+		});
+		return written == null ? 0 : written;
+	}
+
+	private static Object[] row(Integer userId, LocalDateTime occurredAt, Integer eventId, ActivityType type) {
+		return new Object[]{userId, Timestamp.valueOf(occurredAt), eventId, type.name()};
+	}
+
+	private static String backfill(String userColumn, String dateColumn, String idColumn, ActivityType type,
+	                               String table) {
+		return String.format(BACKFILL, userColumn, dateColumn, idColumn, type.name(), table);
+	}
+}
@@ -0,0 +1,325 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.event.ConnectionAdded;
+import com.paymybuddy.paymybuddy.event.PaymentCompleted;
+import com.paymybuddy.paymybuddy.model.ActivitySummary;
+import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.ActivitySummaryViewModel;
+import com.paymybuddy.paymybuddy.repository.ActivitySummaryRepository;
+import com.paymybuddy.paymybuddy.repository.ConnectionRepository;
+import com.paymybuddy.paymybuddy.repository.TransactionRepository;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one {@link ActivitySummary} row per user, updated once every payment and connection commits, in a database
+ * transaction of its own: a user paid by many others at once does not make their payments wait for each other on
+ * the summary row, only the short summary updates do. Summaries are locked in user ID order, the same order for
+ * every writer. The users of a summary update that fails are remembered, and their summaries are recomputed from
+ * the transaction and connection tables by the next repair, a few seconds later. A nightly rebuild recomputes every
+ * summary, for updates lost with the instance that failed them.
+ */
+@Service
+@Slf4j
+public class ActivitySummaryService {
+	@Autowired
+	ActivitySummaryRepository  activitySummaryRepository;
+	@Autowired
+	TransactionRepository      transactionRepository;
+	@Autowired
+	ConnectionRepository       connectionRepository;
+	@Autowired
+	UserRepository             userRepository;
+	@Autowired
+	JdbcTemplate               jdbcTemplate;
+	@Autowired
+	EntityManager              entityManager;
+	@Autowired
+	PlatformTransactionManager transactionManager;
+	@Autowired
+	Clock                      clock;
+
+	private static final String RECOMPUTE = "update activity_summary s set " +
+	                                        "connection_count = (select count(*) from connection c " +
+	                                        "where c.fk_initializer_id = s.fk_user_id " +
+	                                        "or c.fk_receiver_id = s.fk_user_id), " +
+	                                        "latest_connection_id = (select max(c.connection_id) " +
+	                                        "from connection c where c.fk_initializer_id = s.fk_user_id " +
+	                                        "or c.fk_receiver_id = s.fk_user_id), " +
+	                                        "transaction_count = (select count(*) from transaction t " +
+	                                        "where t.fk_issuer_id = s.fk_user_id " +
+	                                        "or t.fk_payee_id = s.fk_user_id), " +
+	                                        "latest_transaction_id = (select t.transaction_id " +
+	                                        "from transaction t where t.fk_issuer_id = s.fk_user_id " +
+	                                        "or t.fk_payee_id = s.fk_user_id " +
+	                                        "order by t.date desc, t.transaction_id desc limit 1), " +
+	                                        "latest_transaction_date = (select max(t.date) " +
+	                                        "from transaction t where t.fk_issuer_id = s.fk_user_id " +
+	                                        "or t.fk_payee_id = s.fk_user_id), " +
+	                                        "total_sent = (select coalesce(sum(t.amount), 0) from transaction t " +
+	                                        "where t.fk_issuer_id = s.fk_user_id), " +
+	                                        "total_received = (select coalesce(sum(t.amount), 0) " +
+	                                        "from transaction t where t.fk_payee_id = s.fk_user_id), " +
+	                                        "modified_at = ? " +
+	                                        "where s.fk_user_id between ? and ?";
+
+	/**
+	 * Users whose summaries are recomputed in one database transaction by a rebuild.
+	 */
+	@Value("${paymybuddy.activity.rebuild-chunk-size:500}")
+	int rebuildChunkSize;
+
+	private TransactionTemplate transactionTemplate;
+	private TransactionTemplate afterCommitTemplate;
+
+	/**
+	 * Users whose summary missed an update, to be recomputed by the next repair.
+	 */
+	private final Set<Integer> behindUserIds = ConcurrentHashMap.newKeySet();
+
+	@PostConstruct
+	void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		// The transaction of the event has committed but is still bound to the thread
+		afterCommitTemplate = new TransactionTemplate(transactionManager);
+		afterCommitTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+	}
+
+	/**
+	 * Creates the empty summary of a new user.
+	 */
+	public void createSummary(User user) {
+		activitySummaryRepository.save(ActivitySummary.empty(user.getId()));
+	}
+
+	/**
+	 * Deletes the summary of a user about to be deleted.
+	 */
+	public void deleteSummary(User user) {
+		if (activitySummaryRepository.existsById(user.getId())) {
+			activitySummaryRepository.deleteById(user.getId());
+		}
+	}
+
+	/**
+	 * Reads the summary of a user and its latest transaction and connection, each by primary key.
+	 */
+	public ActivitySummaryViewModel getSummary(User user) {
+		ActivitySummary summary = activitySummaryRepository.findById(user.getId())
+		                                                   .orElseGet(() -> ActivitySummary.empty(user.getId()));
+		Integer latestConnectionId  = summary.getLatestConnectionId();
+		Integer latestTransactionId = summary.getLatestTransactionId();
+		return new ActivitySummaryViewModel(
+				summary.getConnectionCount(),
+				latestConnectionId == null ? null : connectionRepository.findViewById(latestConnectionId).orElse(null),
+				summary.getTransactionCount(),
+				latestTransactionId == null ? null
+				                            : transactionRepository.findViewById(latestTransactionId).orElse(null),
+				summary.getTotalSent(),
+				summary.getTotalReceived());
+	}
+
+	/**
+	 * Adds completed payments to the summaries once their database transaction commits.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	void onPaymentCompleted(PaymentCompleted event) {
+		afterCommit("payments", event.userIds(), () -> recordPayments(event.transactions()));
+	}
+
+	/**
+	 * Adds saved connections to the summaries once their database transaction commits.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	void onConnectionAdded(ConnectionAdded event) {
+		afterCommit("connections", event.userIds(), () -> recordConnections(event.connections()));
+	}
+
+	private void afterCommit(String activity, Set<Integer> userIds, Runnable update) {
+		try {
+			afterCommitTemplate.executeWithoutResult(status -> update.run());
+		} catch (RuntimeException e) {
+			// The activity is committed anyway, only its summaries are behind until the next repair
+			behindUserIds.addAll(userIds);
+			log.error("Activity summaries of the " + activity + " of users " + userIds + " were not updated.", e);
+		}
+	}
+
+	/**
+	 * Adds saved transactions to the summaries of their issuers and payees, in the current database transaction.
+	 * The latest transaction of a summary is the one with the latest date, whatever the order transactions are
+	 * recorded in.
+	 */
+	public void recordPayments(List<Transaction> transactions) {
+		Assert.notEmpty(transactions, "Transactions must not be empty");
+		SortedMap<Integer, Delta> deltas = new TreeMap<>();
+		for (Transaction transaction : transactions) {
+			Money amount = transaction.getAmount();
+			deltas.computeIfAbsent(transaction.getIssuer().getId(), id -> new Delta())
+			      .add(transaction.getId(), transaction.getDate(), amount, Money.ZERO);
+			deltas.computeIfAbsent(transaction.getPayee().getId(), id -> new Delta())
+			      .add(transaction.getId(), transaction.getDate(), Money.ZERO, amount);
+		}
+		LocalDateTime now = LocalDateTime.now(clock);
+		deltas.forEach((userId, delta) -> {
+			if (activitySummaryRepository.addTransactions(userId, delta.count, delta.sent, delta.received,
+			                                              delta.latestId, delta.latestDate, now) == 0) {
+				log.warn("User with ID " + userId + " has no activity summary, it will be created by the next rebuild.");
+			}
+		});
+	}
+
+	/**
+	 * Adds saved connections to the summaries of their users, one update per user, in the current database
+	 * transaction.
+	 */
+	public void recordConnections(List<Connection> connections) {
+		Assert.notEmpty(connections, "Connections must not be empty");
+		SortedMap<Integer, Delta> deltas = new TreeMap<>();
+		for (Connection connection : connections) {
+			deltas.computeIfAbsent(connection.getInitializer().getId(), id -> new Delta())
+			      .add(connection.getId(), connection.getStartingDate(), Money.ZERO, Money.ZERO);
+			deltas.computeIfAbsent(connection.getReceiver().getId(), id -> new Delta())
+			      .add(connection.getId(), connection.getStartingDate(), Money.ZERO, Money.ZERO);
+		}
+		LocalDateTime now = LocalDateTime.now(clock);
+		deltas.forEach((userId, delta) -> {
+			if (activitySummaryRepository.addConnections(userId, delta.count, delta.latestId, now) == 0) {
+				log.warn("User with ID " + userId + " has no activity summary, it will be created by the next rebuild.");
+			}
+		});
+	}
+
+	@Scheduled(initialDelayString = "${paymybuddy.activity.repair-interval:PT10S}",
+	           fixedDelayString = "${paymybuddy.activity.repair-interval:PT10S}")
+	void scheduledRepair() {
+		try {
+			repair();
+		} catch (RuntimeException e) {
+			log.error("Activity summary repair failed.", e);
+		}
+	}
+
+	/**
+	 * Recomputes the summaries that missed an update, each in a database transaction of its own. A summary whose
+	 * recomputation fails too is tried again by the next repair.
+	 *
+	 * @return number of summaries recomputed
+	 */
+	public int repair() {
+		int repaired = 0;
+		for (Integer userId : new TreeSet<>(behindUserIds)) {
+			// Removed first, so that an update failing meanwhile marks the user behind again
+			behindUserIds.remove(userId);
+			try {
+				// A user deleted meanwhile has no summary to repair
+				if (userRepository.existsById(userId)) {
+					repaired += recompute(List.of(userId));
+				}
+			} catch (RuntimeException e) {
+				behindUserIds.add(userId);
+				log.error("Activity summary of user with ID " + userId + " was not repaired.", e);
+			}
+		}
+		if (repaired > 0) {
+			log.info("Repaired " + repaired + " activity summaries.");
+		}
+		return repaired;
+	}
+
+	@Scheduled(cron = "${paymybuddy.activity.rebuild-cron:0 0 3 * * *}")
+	void scheduledRebuild() {
+		try {
+			rebuild();
+		} catch (RuntimeException e) {
+			log.error("Activity summary rebuild failed.", e);
+		}
+	}
+
+	/**
+	 * Recomputes every summary from the transaction and connection tables, creating the missing ones.
+	 * Users are handled by chunks, each in a database transaction of its own. Recomputed summaries are marked as
+	 * modified, so that clients holding lists validated by a drifted summary read them again.
+	 *
+	 * @return number of summaries recomputed
+	 */
+	public int rebuild() {
+		int     rebuilt = 0;
+		Integer afterId = 0;
+		while (true) {
+			List<Integer> userIds = userRepository.findIdsAfter(afterId, PageRequest.of(0, rebuildChunkSize));
+			if (userIds.isEmpty()) {
+				break;
+			}
+			rebuilt += recompute(userIds);
+			afterId = userIds.get(userIds.size() - 1);
+		}
+		log.info("Rebuilt " + rebuilt + " activity summaries.");
+		return rebuilt;
+	}
+
+	/**
+	 * Recomputes the summaries of the users whose IDs range from the first to the last of the given ones, creating
+	 * the missing ones, in one database transaction.
+	 *
+	 * @param userIds IDs of existing users, in ascending order
+	 * @return number of summaries recomputed
+	 */
+	private int recompute(List<Integer> userIds) {
+		Integer updated = transactionTemplate.execute(status -> {
+			Set<Integer> missing = new HashSet<>(userIds);
+			activitySummaryRepository.findAllById(userIds)
+			                         .forEach(summary -> missing.remove(summary.getUserId()));
+			activitySummaryRepository.saveAll(missing.stream().map(ActivitySummary::empty).toList());
+			// The recomputation is plain SQL, new summaries must be written before it
+			entityManager.flush();
+			return jdbcTemplate.update(RECOMPUTE, Timestamp.valueOf(LocalDateTime.now(clock)), userIds.get(0),
+			                           userIds.get(userIds.size() - 1));
+		});
+		return updated == null ? 0 : updated;
+	}
+
+	/**
+	 * What a set of transactions or connections adds to the summary of one user.
+	 */
+	private static class Delta {
+		private long          count;
+		private Money         sent     = Money.ZERO;
+		private Money         received = Money.ZERO;
+		private Integer       latestId;
+		private LocalDateTime latestDate;
+
+		void add(Integer id, LocalDateTime date, Money sent, Money received) {
+			count++;
+			this.sent = this.sent.plus(sent);
+			this.received = this.received.plus(received);
+			if (latestId == null || latestDate.isBefore(date) || latestDate.equals(date) && latestId < id) {
+				latestId = id;
+				latestDate = date;
+			}
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.constants.AnalyticsResolution;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Analytics buckets written to disk in columnar files, one file per resolution and period: a day of minutes,
+ * a month of hours or a year of days. After a header holding the bucket count and range, a file stores the sorted
+ * bucket numbers, then the payment counts, the volumes and the fees, each as a column of longs. A reader only
+ * opens the files whose range it needs and only reads the rows of its range from each column.
+ * Files are rewritten whole into a temporary file and moved over the previous one.
+ */
+final class AnalyticsArchive {
+	private static final int    MAGIC       = 0x504D4241;
+	/**
+	 * Magic number, bucket count, first and last bucket.
+	 */
+	private static final int    HEADER_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES;
+	private static final int    COLUMNS     = 4;
+	private static final String EXTENSION   = ".col";
+
+	private final Path directory;
+
+	AnalyticsArchive(Path directory) throws IOException {
+		this.directory = directory;
+		Files.createDirectories(directory);
+	}
+
+	/**
+	 * Stores buckets in their files.
+	 *
+	 * @param add whether the values are added to the stored ones instead of replacing them
+	 */
+	synchronized void write(AnalyticsResolution resolution, AnalyticsBuckets buckets, boolean add)
+			throws IOException {
+		Map<String, Map<Long, long[]>> changes = new TreeMap<>();
+		for (int i = 0; i < buckets.size; i++) {
+			Map<Long, long[]> file = changes.computeIfAbsent(fileName(resolution, buckets.buckets[i]),
+			                                                 name -> new TreeMap<>());
+			long[] values = {buckets.payments[i], buckets.volumes[i], buckets.fees[i]};
+			if (add) {
+				file.merge(buckets.buckets[i], values, AnalyticsArchive::sum);
+			} else {
+				// Later snapshots of a bucket are newer
+				file.put(buckets.buckets[i], values);
+			}
+		}
+		for (Map.Entry<String, Map<Long, long[]>> change : changes.entrySet()) {
+			Path                  path   = directory.resolve(change.getKey());
+			TreeMap<Long, long[]> stored = new TreeMap<>();
+			if (Files.exists(path)) {
+				AnalyticsBuckets existing = new AnalyticsBuckets();
+				readFile(path, Long.MIN_VALUE, Long.MAX_VALUE, existing);
+				for (int i = 0; i < existing.size; i++) {
+					stored.put(existing.buckets[i],
+					           new long[]{existing.payments[i], existing.volumes[i], existing.fees[i]});
+				}
+			}
+			change.getValue().forEach((bucket, values) -> {
+				if (add) {
+					stored.merge(bucket, values, AnalyticsArchive::sum);
+				} else {
+					stored.put(bucket, values);
+				}
+			});
+			writeFile(path, stored);
+		}
+	}
+
+	/**
+	 * Reads the stored buckets of a range.
+	 */
+	AnalyticsBuckets read(AnalyticsResolution resolution, long from, long to) throws IOException {
+		AnalyticsBuckets buckets = new AnalyticsBuckets();
+		String           prefix  = resolution.name().toLowerCase(Locale.ROOT) + "-";
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + EXTENSION)) {
+			for (Path file : files) {
+				readFile(file, from, to, buckets);
+			}
+		}
+		return buckets;
+	}
+
+	private static void readFile(Path path, long from, long to, AnalyticsBuckets target) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer header = read(channel, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("Not an analytics file: " + path);
+			}
+			int  count = header.getInt();
+			long first = header.getLong();
+			long last  = header.getLong();
+			if (count == 0 || last < from || first > to) {
+				return;
+			}
+			long[] buckets = column(channel, count, 0, 0, count);
+			int    start   = lowerBound(buckets, from);
+			int    end     = lowerBound(buckets, to == Long.MAX_VALUE ? to : to + 1);
+			if (start >= end) {
+				return;
+			}
+			long[] payments = column(channel, count, 1, start, end);
+			long[] volumes  = column(channel, count, 2, start, end);
+			long[] fees     = column(channel, count, 3, start, end);
+			for (int i = 0; i < end - start; i++) {
+				target.add(buckets[start + i], payments[i], volumes[i], fees[i]);
+			}
+		}
+	}
+
+	private static void writeFile(Path path, TreeMap<Long, long[]> buckets) throws IOException {
+		int        count  = buckets.size();
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + COLUMNS * count * Long.BYTES);
+		buffer.putInt(MAGIC);
+		buffer.putInt(count);
+		buffer.putLong(buckets.firstKey());
+		buffer.putLong(buckets.lastKey());
+		buckets.keySet().forEach(buffer::putLong);
+		for (int column = 0; column < COLUMNS - 1; column++) {
+			for (long[] values : buckets.values()) {
+				buffer.putLong(values[column]);
+			}
+		}
+		buffer.flip();
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		                                            StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads the rows from start to end, excluded, of a column.
+	 */
+	private static long[] column(FileChannel channel, int count, int column, int start, int end)
+			throws IOException {
+		ByteBuffer buffer = read(channel, HEADER_SIZE + ((long) column * count + start) * Long.BYTES,
+		                         (end - start) * Long.BYTES);
+		long[] values = new long[end - start];
+		buffer.asLongBuffer().get(values);
+		return values;
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Truncated analytics file");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * @return index of the first value not lower than the key
+	 */
+	private static int lowerBound(long[] values, long key) {
+		int index = Arrays.binarySearch(values, key);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	private static long[] sum(long[] first, long[] second) {
+		return new long[]{first[0] + second[0], first[1] + second[1], first[2] + second[2]};
+	}
+
+	private static String fileName(AnalyticsResolution resolution, long bucket) {
+		LocalDate day = LocalDate.ofEpochDay(Math.floorDiv(resolution.startOf(bucket), 86_400));
+		String period = switch (resolution) {
+			case MINUTE -> day.toString();
+			case HOUR -> YearMonth.from(day).toString();
+			case DAY -> String.valueOf(day.getYear());
+		};
+		return resolution.name().toLowerCase(Locale.ROOT) + "-" + period + EXTENSION;
+	}
+}
@@ -0,0 +1,39 @@
+package com.paymybuddy.paymybuddy.service;
+
+import java.util.Arrays;
+
+/**
+ * Growable columns of analytics buckets: bucket number, payment count, volume and fees in cents.
+ */
+final class AnalyticsBuckets {
+	long[] buckets  = new long[16];
+	long[] payments = new long[16];
+	long[] volumes  = new long[16];
+	long[] fees     = new long[16];
+	int    size;
+
+	void add(long bucket, long payments, long volume, long fee) {
+		if (size == buckets.length) {
+			int capacity = size * 2;
+			buckets = Arrays.copyOf(buckets, capacity);
+			this.payments = Arrays.copyOf(this.payments, capacity);
+			volumes = Arrays.copyOf(volumes, capacity);
+			fees = Arrays.copyOf(fees, capacity);
+		}
+		buckets[size] = bucket;
+		this.payments[size] = payments;
+		volumes[size] = volume;
+		fees[size] = fee;
+		size++;
+	}
+
+	void addAll(AnalyticsBuckets other) {
+		for (int i = 0; i < other.size; i++) {
+			add(other.buckets[i], other.payments[i], other.volumes[i], other.fees[i]);
+		}
+	}
+
+	void clear() {
+		size = 0;
+	}
+}
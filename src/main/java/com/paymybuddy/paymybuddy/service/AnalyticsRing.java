@@ -0,0 +1,150 @@
+package com.paymybuddy.paymybuddy.service;
+
+import org.springframework.util.Assert;
+
+import java.util.Arrays;
+
+/**
+ * Most recent analytics buckets of one resolution, in preallocated primitive arrays indexed by bucket number
+ * modulo the ring size. A slot is reused by the next bucket mapping to it, its previous bucket is then kept
+ * aside until archived if it changed since the last archive.
+ * Payments older than every bucket the ring can hold are kept aside too, as increments of the archived value.
+ */
+final class AnalyticsRing {
+	private final long[]    buckets;
+	private final long[]    payments;
+	private final long[]    volumes;
+	private final long[]    fees;
+	/**
+	 * Whether a slot changed since it was last archived.
+	 */
+	private final boolean[] dirty;
+
+	/**
+	 * Buckets that left the ring before being archived, with their whole value.
+	 */
+	private final AnalyticsBuckets evicted = new AnalyticsBuckets();
+	/**
+	 * Payments too old for the ring, to add to the archived value of their bucket.
+	 */
+	private final AnalyticsBuckets late    = new AnalyticsBuckets();
+
+	AnalyticsRing(int size) {
+		Assert.isTrue(size > 0, "Ring size must be positive");
+		buckets = new long[size];
+		payments = new long[size];
+		volumes = new long[size];
+		fees = new long[size];
+		dirty = new boolean[size];
+		Arrays.fill(buckets, Long.MIN_VALUE);
+	}
+
+	synchronized void add(long bucket, long payments, long volume, long fee) {
+		int slot = slot(bucket);
+		if (buckets[slot] > bucket) {
+			late.add(bucket, payments, volume, fee);
+			return;
+		}
+		if (buckets[slot] != bucket) {
+			if (dirty[slot]) {
+				evicted.add(buckets[slot], this.payments[slot], volumes[slot], fees[slot]);
+			}
+			reset(slot, bucket, 0, 0, 0);
+		}
+		this.payments[slot] += payments;
+		volumes[slot] += volume;
+		fees[slot] += fee;
+		dirty[slot] = true;
+	}
+
+	/**
+	 * Fills the ring with archived buckets, where it does not hold a newer one.
+	 */
+	synchronized void load(AnalyticsBuckets archived) {
+		for (int i = 0; i < archived.size; i++) {
+			int slot = slot(archived.buckets[i]);
+			if (buckets[slot] < archived.buckets[i]) {
+				reset(slot, archived.buckets[i], archived.payments[i], archived.volumes[i], archived.fees[i]);
+			}
+		}
+	}
+
+	/**
+	 * Takes what changed since the last call.
+	 *
+	 * @param snapshots  receives the whole value of the changed buckets, oldest changes first
+	 * @param increments receives the payments to add to archived buckets
+	 */
+	synchronized void drain(AnalyticsBuckets snapshots, AnalyticsBuckets increments) {
+		snapshots.addAll(evicted);
+		evicted.clear();
+		for (int slot = 0; slot < buckets.length; slot++) {
+			if (dirty[slot]) {
+				snapshots.add(buckets[slot], payments[slot], volumes[slot], fees[slot]);
+				dirty[slot] = false;
+			}
+		}
+		increments.addAll(late);
+		late.clear();
+	}
+
+	/**
+	 * Gives back what could not be archived, so that the next drain takes it again.
+	 */
+	synchronized void requeue(AnalyticsBuckets snapshots, AnalyticsBuckets increments) {
+		AnalyticsBuckets newer = new AnalyticsBuckets();
+		newer.addAll(evicted);
+		evicted.clear();
+		evicted.addAll(snapshots);
+		evicted.addAll(newer);
+		late.addAll(increments);
+	}
+
+	/**
+	 * Writes the buckets from a number onwards over archived values, then adds the late payments.
+	 *
+	 * @param from first bucket, at index 0 of the arrays
+	 */
+	synchronized void read(long from, long[] payments, long[] volumes, long[] fees) {
+		long to = from + payments.length - 1;
+		for (int i = 0; i < evicted.size; i++) {
+			long bucket = evicted.buckets[i];
+			if (bucket >= from && bucket <= to) {
+				int index = (int) (bucket - from);
+				payments[index] = evicted.payments[i];
+				volumes[index] = evicted.volumes[i];
+				fees[index] = evicted.fees[i];
+			}
+		}
+		for (int slot = 0; slot < buckets.length; slot++) {
+			long bucket = buckets[slot];
+			if (bucket >= from && bucket <= to) {
+				int index = (int) (bucket - from);
+				payments[index] = this.payments[slot];
+				volumes[index] = this.volumes[slot];
+				fees[index] = this.fees[slot];
+			}
+		}
+		for (int i = 0; i < late.size; i++) {
+			long bucket = late.buckets[i];
+			if (bucket >= from && bucket <= to) {
+				int index = (int) (bucket - from);
+				payments[index] += late.payments[i];
+				volumes[index] += late.volumes[i];
+				fees[index] += late.fees[i];
+			}
+		}
+	}
+
+	private void reset(int slot, long bucket, long payments, long volume, long fee) {
+		buckets[slot] = bucket;
+		this.payments[slot] = payments;
+		volumes[slot] = volume;
+		fees[slot] = fee;
+		dirty[slot] = false;
+	}
+
+	private int slot(long bucket) {
+		return (int) Math.floorMod(bucket, (long) buckets.length);
+	}
+}
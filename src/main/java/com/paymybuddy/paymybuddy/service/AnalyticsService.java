@@ -0,0 +1,185 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.constants.AnalyticsResolution;
+import com.paymybuddy.paymybuddy.event.PaymentCompleted;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.viewmodel.AnalyticsBucketViewModel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts payments, their volume and their fees per minute, hour and day, so that dashboards are answered from
+ * memory and files instead of aggregate queries on the transaction table.
+ * Recent buckets of each resolution are kept in a ring of primitive arrays, updated when a payment commits.
+ * Changed buckets are regularly written to columnar files, read back when a query goes past the rings and
+ * when the application starts, so the directory must be on a persistent volume.
+ * <p>
+ * Each instance only counts the payments it handles in its own directory: with several instances, the counts of
+ * one are not those of the whole application and are not aggregated.
+ */
+@Service
+@Slf4j
+public class AnalyticsService {
+	@Autowired
+	Clock clock;
+
+	/**
+	 * Directory of the analytics files.
+	 */
+	@Value("${paymybuddy.analytics.directory:data/analytics}")
+	String directory;
+	/**
+	 * Maximum number of buckets returned by one query.
+	 */
+	@Value("${paymybuddy.analytics.max-buckets:1440}")
+	int    maxBuckets;
+
+	private final Map<AnalyticsResolution, AnalyticsRing> rings = new EnumMap<>(AnalyticsResolution.class);
+	private       AnalyticsArchive                        archive;
+
+	@PostConstruct
+	void init() throws IOException {
+		archive = new AnalyticsArchive(Path.of(directory));
+		long now = clock.instant().getEpochSecond();
+		for (AnalyticsResolution resolution : AnalyticsResolution.values()) {
+			AnalyticsRing ring    = new AnalyticsRing(resolution.getRingSize());
+			long          current = resolution.bucketOf(now);
+			// Counting goes on from what was archived before the last stop
+			ring.load(archive.read(resolution, current - resolution.getRingSize() + 1, current));
+			rings.put(resolution, ring);
+		}
+	}
+
+	@PreDestroy
+	void stop() {
+		archive();
+	}
+
+	/**
+	 * Counts completed payments once their database transaction commits.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	void onPaymentCompleted(PaymentCompleted event) {
+		recordPayments(event.transactions(), event.debit());
+	}
+
+	/**
+	 * Counts payments of the same issuer.
+	 *
+	 * @param debit amount withdrawn from the issuer, the fees being what was not paid to payees
+	 */
+	public void recordPayments(List<Transaction> transactions, Money debit) {
+		Assert.notEmpty(transactions, "Transactions must not be empty");
+		long paid = 0;
+		for (Transaction transaction : transactions) {
+			paid += transaction.getAmount().getCents();
+		}
+		long epochSecond = transactions.get(0).getDate().atZone(clock.getZone()).toEpochSecond();
+		add(epochSecond, transactions.size(), paid, debit.getCents() - paid);
+	}
+
+	/**
+	 * Returns the buckets of a time range, empty ones included.
+	 *
+	 * @param from first time, or null for as many buckets as allowed before the end
+	 * @param to   last time, or null for now
+	 * @return buckets in time order, at most the configured number, the latest ones if the range has more
+	 */
+	public List<AnalyticsBucketViewModel> getBuckets(AnalyticsResolution resolution, LocalDateTime from,
+	                                                 LocalDateTime to) {
+		Assert.notNull(resolution, "Resolution must not be null");
+		long last  = resolution.bucketOf(to == null ? clock.instant().getEpochSecond() : epochSecond(to));
+		long first = Math.max(from == null ? Long.MIN_VALUE : resolution.bucketOf(epochSecond(from)),
+		                      last - maxBuckets + 1);
+		if (first > last) {
+			return List.of();
+		}
+		int    size     = (int) (last - first + 1);
+		long[] payments = new long[size];
+		long[] volumes  = new long[size];
+		long[] fees     = new long[size];
+		AnalyticsBuckets archived;
+		try {
+			archived = archive.read(resolution, first, last);
+		} catch (IOException e) {
+			log.error("Analytics files of " + resolution + " could not be read.", e);
+			throw new UncheckedIOException(e);
+		}
+		for (int i = 0; i < archived.size; i++) {
+			int index = (int) (archived.buckets[i] - first);
+			payments[index] = archived.payments[i];
+			volumes[index] = archived.volumes[i];
+			fees[index] = archived.fees[i];
+		}
+		// Buckets in memory are at least as recent as their archived copy
+		rings.get(resolution).read(first, payments, volumes, fees);
+
+		List<AnalyticsBucketViewModel> buckets = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			LocalDateTime start = LocalDateTime.ofInstant(Instant.ofEpochSecond(resolution.startOf(first + i)),
+			                                              clock.getZone());
+			buckets.add(new AnalyticsBucketViewModel(start, payments[i], Money.ofCents(volumes[i]),
+			                                         Money.ofCents(fees[i])));
+		}
+		return buckets;
+	}
+
+	@Scheduled(initialDelayString = "${paymybuddy.analytics.archive-interval:PT1M}",
+	           fixedDelayString = "${paymybuddy.analytics.archive-interval:PT1M}")
+	void scheduledArchive() {
+		try {
+			archive();
+		} catch (RuntimeException e) {
+			log.error("Analytics archive failed.", e);
+		}
+	}
+
+	/**
+	 * Writes the buckets changed since the last archive to their files.
+	 */
+	public void archive() {
+		for (Map.Entry<AnalyticsResolution, AnalyticsRing> entry : rings.entrySet()) {
+			AnalyticsBuckets snapshots  = new AnalyticsBuckets();
+			AnalyticsBuckets increments = new AnalyticsBuckets();
+			entry.getValue().drain(snapshots, increments);
+			try {
+				archive.write(entry.getKey(), snapshots, false);
+				archive.write(entry.getKey(), increments, true);
+			} catch (IOException e) {
+				log.error("Analytics of " + entry.getKey() + " could not be archived, they are kept for next time.",
+				          e);
+				entry.getValue().requeue(snapshots, increments);
+			}
+		}
+	}
+
+	private void add(long epochSecond, long payments, long volume, long fee) {
+		for (Map.Entry<AnalyticsResolution, AnalyticsRing> entry : rings.entrySet()) {
+			entry.getValue().add(entry.getKey().bucketOf(epochSecond), payments, volume, fee);
+		}
+	}
+
+	private long epochSecond(LocalDateTime date) {
+		return date.atZone(clock.getZone()).toEpochSecond();
+	}
+}
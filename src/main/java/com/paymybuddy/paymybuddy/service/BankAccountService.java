@@ -1,6 +1,8 @@
 package com.paymybuddy.paymybuddy.service;
 
 import com.paymybuddy.paymybuddy.model.BankAccount;
+import com.paymybuddy.paymybuddy.model.LedgerAccount;
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.User;
 import com.paymybuddy.paymybuddy.repository.BankAccountRepository;
 import lombok.extern.slf4j.Slf4j;
@@ -9,7 +11,6 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
 import javax.transaction.Transactional;
-import java.math.BigDecimal;
 import java.time.Clock;
 import java.util.List;
 import java.util.Optional;
@@ -24,16 +25,20 @@ public class BankAccountService {
 	@Autowired
 	PaginationService paginationService;
 	@Autowired
+	LedgerService         ledgerService;
+	@Autowired
 	Clock                 clock;
 
 	/**
 	 * Saves a new bank account.
 	 */
 	@Transactional
-	public BankAccount createBankAccount(User user, String bankName, String iban, BigDecimal balance) {
+	public BankAccount createBankAccount(User user, String bankName, String iban, Money balance) {
 		Assert.notNull(user, "User must not be null");
 		Assert.notNull(balance, "Balance must not be null");
-		return bankAccountRepository.save(new BankAccount(user, bankName, iban, balance));
+		BankAccount bankAccount = bankAccountRepository.save(new BankAccount(user, bankName, iban, balance));
+		ledgerService.open(LedgerAccount.ofBankAccount(bankAccount.getId()), balance);
+		return bankAccount;
 	}
 
 	/**
@@ -0,0 +1,576 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.event.ConnectionAdded;
+import com.paymybuddy.paymybuddy.event.UserDeleted;
+import com.paymybuddy.paymybuddy.model.Connection;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Connections between users held in memory, to answer graph questions without a query per user.
+ * The connection table is loaded at startup, ID ranges read in parallel, into a compressed sparse row structure:
+ * the buddies of every user, sorted, one row after the other in a single int array, and the offset of each row in
+ * another. Connections saved afterwards go to small per-user rows, folded into the sorted rows once they grow.
+ * Connections committed by other instances are picked up by a periodic refresh. The connections of a deleted user are
+ * removed by rebuilding the sorted rows without them.
+ * <p>
+ * User IDs index the arrays directly, 0 is never a user ID.
+ */
+@Service
+@Slf4j
+public class BuddyGraph {
+	@Autowired
+	JdbcTemplate  jdbcTemplate;
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	private static final String SELECT_MAX_ID  = "select max(connection_id) from connection";
+	private static final String SELECT_BETWEEN = "select fk_initializer_id, fk_receiver_id from connection " +
+	                                             "where connection_id > ? and connection_id <= ?";
+	private static final String SELECT_AFTER   = "select connection_id, fk_initializer_id, fk_receiver_id " +
+	                                             "from connection where connection_id > ? order by connection_id";
+
+	/**
+	 * Connection IDs below the highest one loaded that a refresh reads again, in case they were committed late.
+	 */
+	private static final int REFRESH_LOOKBACK = 1000;
+
+	/**
+	 * Connections added since the load below which they are not folded into the sorted rows.
+	 */
+	private static final int MIN_FOLDED_CONNECTIONS = 1024;
+
+	/**
+	 * Marks the user and its buddies among the counted candidates, they are not suggested.
+	 */
+	private static final int EXCLUDED = -1;
+
+	/**
+	 * Threads reading the connection table at startup.
+	 */
+	@Value("${paymybuddy.graph.load-threads:4}")
+	int loadThreads;
+
+	/**
+	 * Most friends of friends counted by one suggestion, which bounds the memory it uses.
+	 */
+	@Value("${paymybuddy.graph.max-candidates:10000}")
+	int maxCandidates;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Guarded by lock
+	private Rows    rows           = Rows.EMPTY;
+	private int[][] addedBuddies   = new int[0][];
+	private int[]   addedDegrees   = new int[0];
+	private int     addedCount;
+	private int     highestLoadedId;
+
+	@PostConstruct
+	void init() {
+		meterRegistry.gauge("paymybuddy.graph.connections", this, BuddyGraph::getConnectionCount);
+		load();
+	}
+
+	/**
+	 * Loads every connection from the connection table, replacing the graph.
+	 *
+	 * @return number of connections loaded
+	 */
+	public int load() {
+		long    start   = System.nanoTime();
+		Integer maxId   = jdbcTemplate.queryForObject(SELECT_MAX_ID, Integer.class);
+		int     highest = maxId == null ? 0 : maxId;
+
+		// Each thread reads a range of connection IDs into arrays of its own
+		int             partitions = Math.max(1, loadThreads);
+		int             rangeSize  = highest / partitions + 1;
+		List<IntPairs>  parts      = new ArrayList<>();
+		ExecutorService executor   = Executors.newFixedThreadPool(partitions);
+		try {
+			List<CompletableFuture<IntPairs>> loads = new ArrayList<>();
+			for (int partition = 0; partition < partitions; partition++) {
+				int from = partition * rangeSize;
+				loads.add(CompletableFuture.supplyAsync(() -> {
+					IntPairs pairs = new IntPairs();
+					jdbcTemplate.query(SELECT_BETWEEN, resultSet -> {
+						pairs.add(resultSet.getInt(1), resultSet.getInt(2));
+					}, from, from + rangeSize);
+					return pairs;
+				}, executor));
+			}
+			loads.forEach(load -> parts.add(load.join()));
+		} finally {
+			executor.shutdown();
+		}
+		Rows loaded = Rows.of(parts);
+
+		lock.writeLock().lock();
+		try {
+			rows = loaded;
+			addedBuddies = new int[0][];
+			addedDegrees = new int[0];
+			addedCount = 0;
+			highestLoadedId = highest;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		log.info("Loaded " + loaded.connectionCount() + " connections of " + loaded.userCount() + " users in " +
+		         (System.nanoTime() - start) / 1_000_000 + " ms.");
+		return loaded.connectionCount();
+	}
+
+	/**
+	 * Adds saved connections once their database transaction commits.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	void onConnectionAdded(ConnectionAdded event) {
+		for (Connection connection : event.connections()) {
+			connect(connection.getInitializer().getId(), connection.getReceiver().getId());
+		}
+	}
+
+	/**
+	 * Adds a saved connection.
+	 */
+	public void connect(Integer userId, Integer buddyId) {
+		Assert.notNull(userId, "User ID must not be null");
+		Assert.notNull(buddyId, "Buddy ID must not be null");
+		add(userId, buddyId);
+	}
+
+	/**
+	 * Removes the connections of a deleted user once their database transaction commits.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	void onUserDeleted(UserDeleted event) {
+		disconnect(event.user().getId());
+	}
+
+	/**
+	 * Removes every connection of a user. The sorted rows are rebuilt without them, which reads the whole graph:
+	 * users are rarely deleted.
+	 *
+	 * @return number of connections removed
+	 */
+	public int disconnect(Integer userId) {
+		Assert.notNull(userId, "User ID must not be null");
+		lock.writeLock().lock();
+		try {
+			int degree = degreeOf(userId);
+			if (degree > 0) {
+				fold(userId);
+			}
+			return degree;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Scheduled(initialDelayString = "${paymybuddy.graph.refresh-interval:PT10S}",
+	           fixedDelayString = "${paymybuddy.graph.refresh-interval:PT10S}")
+	void scheduledRefresh() {
+		try {
+			refresh();
+		} catch (RuntimeException e) {
+			log.error("Buddy graph refresh failed.", e);
+		}
+	}
+
+	/**
+	 * Adds the connections saved since the last refresh, by this instance or by another one.
+	 *
+	 * @return number of connections newly added
+	 */
+	public int refresh() {
+		int   from    = highestLoadedId();
+		int[] added   = new int[1];
+		int[] highest = {from};
+		jdbcTemplate.query(SELECT_AFTER, resultSet -> {
+			highest[0] = Math.max(highest[0], resultSet.getInt(1));
+			if (add(resultSet.getInt(2), resultSet.getInt(3))) {
+				added[0]++;
+			}
+		}, Math.max(0, from - REFRESH_LOOKBACK));
+		lock.writeLock().lock();
+		try {
+			highestLoadedId = Math.max(highestLoadedId, highest[0]);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return added[0];
+	}
+
+	/**
+	 * Tells whether two users are connected, searching the buddies of the one with fewer.
+	 */
+	public boolean isConnected(int userId, int buddyId) {
+		lock.readLock().lock();
+		try {
+			return degreeOf(userId) <= degreeOf(buddyId) ? contains(userId, buddyId) : contains(buddyId, userId);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Number of buddies of a user.
+	 */
+	public int degree(int userId) {
+		lock.readLock().lock();
+		try {
+			return degreeOf(userId);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Number of buddies two users have in common, searching the buddies of one among those of the other.
+	 */
+	public int mutualBuddies(int userId, int otherId) {
+		lock.readLock().lock();
+		try {
+			int   walked   = degreeOf(userId) <= degreeOf(otherId) ? userId : otherId;
+			int   searched = walked == userId ? otherId : userId;
+			int[] count    = new int[1];
+			forEachBuddy(walked, buddyId -> {
+				if (contains(searched, buddyId)) {
+					count[0]++;
+				}
+			});
+			return count[0];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int getConnectionCount() {
+		lock.readLock().lock();
+		try {
+			return rows.connectionCount() + addedCount;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the users who are buddies of the buddies of a user, but not of the user, by their number of buddies in
+	 * common. At most {@link #maxCandidates} of them are counted, the first ones met.
+	 *
+	 * @param limit maximum number of users returned
+	 * @return the users with most buddies in common first, then by ID
+	 */
+	public List<Suggestion> suggest(int userId, int limit) {
+		Assert.isTrue(limit > 0, "Limit must be positive");
+		lock.readLock().lock();
+		try {
+			MutualCounts counts = new MutualCounts(degreeOf(userId) + 1, maxCandidates);
+			counts.exclude(userId);
+			forEachBuddy(userId, counts::exclude);
+			forEachBuddy(userId, buddyId -> forEachBuddy(buddyId, counts::count));
+			long[] ranked = counts.ranked();
+			List<Suggestion> suggestions = new ArrayList<>(Math.min(limit, ranked.length));
+			for (int i = ranked.length - 1; i >= 0 && suggestions.size() < limit; i--) {
+				suggestions.add(new Suggestion(Integer.MAX_VALUE - (int) ranked[i], (int) (ranked[i] >>> 32)));
+			}
+			return suggestions;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds a connection unless it is known already.
+	 *
+	 * @return whether it was added
+	 */
+	private boolean add(int userId, int buddyId) {
+		lock.writeLock().lock();
+		try {
+			if (contains(userId, buddyId)) {
+				return false;
+			}
+			append(userId, buddyId);
+			append(buddyId, userId);
+			addedCount++;
+			if (addedCount > Math.max(MIN_FOLDED_CONNECTIONS, rows.connectionCount() / 8)) {
+				fold(0);
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void append(int userId, int buddyId) {
+		if (userId >= addedBuddies.length) {
+			int length = Math.max(userId + 1, addedBuddies.length * 2);
+			addedBuddies = Arrays.copyOf(addedBuddies, length);
+			addedDegrees = Arrays.copyOf(addedDegrees, length);
+		}
+		int[] buddies = addedBuddies[userId];
+		int   degree  = addedDegrees[userId];
+		if (buddies == null || degree == buddies.length) {
+			buddies = addedBuddies[userId] = Arrays.copyOf(buddies == null ? new int[0] : buddies,
+			                                               Math.max(4, degree * 2));
+		}
+		buddies[degree] = buddyId;
+		addedDegrees[userId] = degree + 1;
+	}
+
+	/**
+	 * Rebuilds the sorted rows with the connections added since, which are then forgotten.
+	 *
+	 * @param removedUserId user whose connections are left out, 0 to keep them all
+	 */
+	private void fold(int removedUserId) {
+		IntPairs added = new IntPairs();
+		for (int userId = 0; userId < addedBuddies.length; userId++) {
+			for (int i = 0; i < addedDegrees[userId]; i++) {
+				int buddyId = addedBuddies[userId][i];
+				if (userId < buddyId && userId != removedUserId && buddyId != removedUserId) {
+					added.add(userId, buddyId);
+				}
+			}
+		}
+		rows = Rows.of(List.of(rows.toPairs(removedUserId), added));
+		addedBuddies = new int[0][];
+		addedDegrees = new int[0];
+		addedCount = 0;
+	}
+
+	private boolean contains(int userId, int buddyId) {
+		if (rows.contains(userId, buddyId)) {
+			return true;
+		}
+		if (userId < addedBuddies.length) {
+			for (int i = 0; i < addedDegrees[userId]; i++) {
+				if (addedBuddies[userId][i] == buddyId) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private int degreeOf(int userId) {
+		return rows.degree(userId) + (userId < addedDegrees.length ? addedDegrees[userId] : 0);
+	}
+
+	private void forEachBuddy(int userId, IntConsumer action) {
+		rows.forEach(userId, action);
+		if (userId < addedBuddies.length) {
+			for (int i = 0; i < addedDegrees[userId]; i++) {
+				action.accept(addedBuddies[userId][i]);
+			}
+		}
+	}
+
+	private int highestLoadedId() {
+		lock.readLock().lock();
+		try {
+			return highestLoadedId;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * User who shares buddies with the user a suggestion was made to.
+	 */
+	public record Suggestion(int userId, int mutualBuddies) {
+	}
+
+	/**
+	 * Sorted buddies of every user, row after row. Never modified once built.
+	 */
+	private record Rows(int[] offsets, int[] buddies) {
+		static final Rows EMPTY = new Rows(new int[1], new int[0]);
+
+		/**
+		 * Builds the rows of connections given as pairs of user IDs, each pair once.
+		 */
+		static Rows of(List<IntPairs> parts) {
+			int userCount = 0;
+			for (IntPairs pairs : parts) {
+				userCount = Math.max(userCount, pairs.highest() + 1);
+			}
+			int[] offsets = new int[userCount + 1];
+			for (IntPairs pairs : parts) {
+				for (int i = 0; i < pairs.size; i++) {
+					offsets[pairs.first[i] + 1]++;
+					offsets[pairs.second[i] + 1]++;
+				}
+			}
+			for (int userId = 0; userId < userCount; userId++) {
+				offsets[userId + 1] += offsets[userId];
+			}
+			int[] buddies = new int[offsets[userCount]];
+			int[] next    = Arrays.copyOf(offsets, userCount);
+			for (IntPairs pairs : parts) {
+				for (int i = 0; i < pairs.size; i++) {
+					buddies[next[pairs.first[i]]++] = pairs.second[i];
+					buddies[next[pairs.second[i]]++] = pairs.first[i];
+				}
+			}
+			// Rows do not overlap, they are sorted in parallel
+			IntStream.range(0, userCount).parallel()
+			         .forEach(userId -> Arrays.sort(buddies, offsets[userId], offsets[userId + 1]));
+			return new Rows(offsets, buddies);
+		}
+
+		int userCount() {
+			return offsets.length - 1;
+		}
+
+		int connectionCount() {
+			return buddies.length / 2;
+		}
+
+		int degree(int userId) {
+			return userId < userCount() ? offsets[userId + 1] - offsets[userId] : 0;
+		}
+
+		boolean contains(int userId, int buddyId) {
+			return userId < userCount() &&
+			       Arrays.binarySearch(buddies, offsets[userId], offsets[userId + 1], buddyId) >= 0;
+		}
+
+		void forEach(int userId, IntConsumer action) {
+			if (userId < userCount()) {
+				for (int i = offsets[userId]; i < offsets[userId + 1]; i++) {
+					action.accept(buddies[i]);
+				}
+			}
+		}
+
+		/**
+		 * Lists every connection once, but those of a removed user, 0 for none.
+		 */
+		IntPairs toPairs(int removedUserId) {
+			IntPairs pairs = new IntPairs();
+			for (int userId = 0; userId < userCount(); userId++) {
+				if (userId == removedUserId) {
+					continue;
+				}
+				for (int i = offsets[userId]; i < offsets[userId + 1]; i++) {
+					if (userId < buddies[i] && buddies[i] != removedUserId) {
+						pairs.add(userId, buddies[i]);
+					}
+				}
+			}
+			return pairs;
+		}
+	}
+
+	/**
+	 * Growable list of pairs of user IDs.
+	 */
+	private static final class IntPairs {
+		private int[] first  = new int[16];
+		private int[] second = new int[16];
+		private int   size;
+		private int   highest;
+
+		void add(int userId, int buddyId) {
+			if (size == first.length) {
+				first = Arrays.copyOf(first, size * 2);
+				second = Arrays.copyOf(second, size * 2);
+			}
+			first[size] = userId;
+			second[size] = buddyId;
+			size++;
+			highest = Math.max(highest, Math.max(userId, buddyId));
+		}
+
+		int highest() {
+			return highest;
+		}
+	}
+
+	/**
+	 * Open addressing map from user ID to number of buddies in common, of a capacity fixed at creation.
+	 * Once full of candidates, users met for the first time are not counted anymore.
+	 */
+	private static final class MutualCounts {
+		private final int[] userIds;
+		private final int[] counts;
+		private final int   mask;
+		private final int   maxCandidates;
+		private       int   candidates;
+
+		MutualCounts(int excluded, int maxCandidates) {
+			int capacity = Integer.highestOneBit(Math.max(1, (excluded + maxCandidates) * 2 - 1)) << 1;
+			userIds = new int[capacity];
+			counts = new int[capacity];
+			mask = capacity - 1;
+			this.maxCandidates = maxCandidates;
+		}
+
+		void exclude(int userId) {
+			int slot = slotOf(userId);
+			userIds[slot] = userId;
+			counts[slot] = EXCLUDED;
+		}
+
+		void count(int userId) {
+			int slot = slotOf(userId);
+			if (userIds[slot] == 0) {
+				if (candidates == maxCandidates) {
+					return;
+				}
+				userIds[slot] = userId;
+				candidates++;
+			}
+			if (counts[slot] != EXCLUDED) {
+				counts[slot]++;
+			}
+		}
+
+		/**
+		 * Counted users in ascending order of count then descending order of ID, each as its count in the high
+		 * bits and its ID subtracted from the largest int in the low bits.
+		 */
+		long[] ranked() {
+			long[] ranked = new long[candidates];
+			int    size   = 0;
+			for (int slot = 0; slot < userIds.length; slot++) {
+				if (userIds[slot] != 0 && counts[slot] > 0) {
+					ranked[size++] = (long) counts[slot] << 32 | (Integer.MAX_VALUE - userIds[slot]);
+				}
+			}
+			ranked = Arrays.copyOf(ranked, size);
+			Arrays.sort(ranked);
+			return ranked;
+		}
+
+		private int slotOf(int userId) {
+			int slot = (userId * 0x9E3779B9) & mask;
+			while (userIds[slot] != 0 && userIds[slot] != userId) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+	}
+}
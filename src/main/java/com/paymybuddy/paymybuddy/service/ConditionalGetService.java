@@ -0,0 +1,98 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.model.ActivitySummary;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.ActivitySummaryRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Answers polls of per-user resources with 304 Not Modified when they did not change since the copy of the client.
+ * Validators come from the user row or its {@link ActivitySummary}, read by primary key before any list is queried.
+ * <p>
+ * Lists embed the buddies as they are now, balance included, which the validators do not follow: list ETags are
+ * weak, they tell that the same transactions or connections would be returned.
+ */
+@Service
+public class ConditionalGetService {
+	/**
+	 * Last-Modified has a precision of one second, a change that recent could be followed by another one in the same
+	 * second that If-Modified-Since would not see.
+	 */
+	private static final Duration LAST_MODIFIED_DELAY = Duration.ofSeconds(1);
+
+	private static final String CACHE_CONTROL = CacheControl.noCache().cachePrivate().getHeaderValue();
+
+	@Autowired
+	ActivitySummaryRepository activitySummaryRepository;
+	@Autowired
+	Clock                     clock;
+
+	/**
+	 * Checks the request against the version and balance of a user. Balances written by the in-memory transfer
+	 * engine do not change the version, and those held by the ledger are not in the user row, hence the balance in
+	 * the ETag.
+	 *
+	 * @param balance balance of the user as answered, see {@link UserService#getBalance(User)}
+	 * @return whether the response was set to 304 Not Modified, the user must then not be written
+	 */
+	public boolean checkUser(ServletWebRequest request, User user, Money balance) {
+		return check(request, "\"" + user.getVersion() + "-" + balance.getCents() + "\"", null);
+	}
+
+	/**
+	 * Checks the request against the number and latest ID of the transactions of a user.
+	 *
+	 * @return whether the response was set to 304 Not Modified, the transactions must then not be read
+	 */
+	public boolean checkTransactions(ServletWebRequest request, Integer userId) {
+		ActivitySummary summary = activitySummaryRepository.findById(userId).orElse(null);
+		if (summary == null) {
+			// Unknown user, or a summary still to be created by a rebuild: the list is read as usual
+			return false;
+		}
+		return check(request, "W/\"" + summary.getTransactionCount() + "-" + summary.getLatestTransactionId() + "\"",
+		             summary.getModifiedAt());
+	}
+
+	/**
+	 * Checks the request against the number and latest ID of the connections of a user.
+	 *
+	 * @return whether the response was set to 304 Not Modified, the connections must then not be read
+	 */
+	public boolean checkConnections(ServletWebRequest request, Integer userId) {
+		ActivitySummary summary = activitySummaryRepository.findById(userId).orElse(null);
+		if (summary == null) {
+			// Unknown user, or a summary still to be created by a rebuild: the list is read as usual
+			return false;
+		}
+		return check(request, "W/\"" + summary.getConnectionCount() + "-" + summary.getLatestConnectionId() + "\"",
+		             summary.getModifiedAt());
+	}
+
+	/**
+	 * Sets the validators on the response and compares them with the request, the ETag first.
+	 *
+	 * @param modifiedAt
+	 *         time of the last change, none when unknown
+	 */
+	private boolean check(ServletWebRequest request, String etag, LocalDateTime modifiedAt) {
+		long lastModified = -1;
+		if (modifiedAt != null && modifiedAt.isBefore(LocalDateTime.now(clock).minus(LAST_MODIFIED_DELAY))) {
+			lastModified = modifiedAt.atZone(clock.getZone()).toInstant().toEpochMilli();
+		}
+		// Clients may keep the response, but must ask whether it is still valid before using it
+		if (request.getResponse() != null) {
+			request.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+		}
+		return request.checkNotModified(etag, lastModified);
+	}
+}
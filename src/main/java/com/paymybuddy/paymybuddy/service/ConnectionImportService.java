@@ -0,0 +1,298 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.event.ConnectionAdded;
+import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.ConnectionImportErrorViewModel;
+import com.paymybuddy.paymybuddy.model.viewmodel.ConnectionImportReportViewModel;
+import com.paymybuddy.paymybuddy.repository.ConnectionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Connects many pairs of users from an uploaded CSV file of emails, one pair per line, emails possibly quoted.
+ * The file is read line by line and imported in chunks: the users of a chunk are resolved with one query, the pairs
+ * already connected with another one on the (min_user_id, max_user_id) unique index, and the new connections are
+ * inserted with one JDBC batch, in one database transaction per chunk. Pairs given twice in the file, in either
+ * order, are only connected once.
+ */
+@Service
+@Slf4j
+public class ConnectionImportService {
+	private static final String INSERT_CONNECTION = "insert into connection (fk_initializer_id, fk_receiver_id, " +
+	                                                "starting_date, min_user_id, max_user_id) values (?, ?, ?, ?, ?)";
+
+	@Autowired
+	UserService                userService;
+	@Autowired
+	ConnectionRepository       connectionRepository;
+	@Autowired
+	ApplicationEventPublisher  eventPublisher;
+	@Autowired
+	JdbcTemplate               jdbcTemplate;
+	@Autowired
+	PlatformTransactionManager transactionManager;
+	@Autowired
+	Clock                      clock;
+
+	/**
+	 * Number of lines imported in one database transaction.
+	 */
+	@Value("${paymybuddy.connection-import.chunk-size:500}")
+	int chunkSize;
+	/**
+	 * Maximum number of failed lines listed in a report, further failures are only counted.
+	 */
+	@Value("${paymybuddy.connection-import.max-reported-errors:1000}")
+	int maxReportedErrors;
+
+	private TransactionTemplate transactionTemplate;
+
+	@PostConstruct
+	void init() {
+		Assert.isTrue(chunkSize > 0, "Chunk size must be positive");
+		transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+
+	/**
+	 * Connects the pairs of users of every line of a file, as {@code initializer email,receiver email}.
+	 * A chunk that can not be saved is reported as failed, and the next chunks are still imported.
+	 *
+	 * @param input file content, read once as a stream
+	 * @return how many pairs were connected, skipped and failed
+	 * @throws IOException if the file can not be read
+	 */
+	public ConnectionImportReportViewModel importConnections(InputStream input) throws IOException {
+		Assert.notNull(input, "Input must not be null");
+		ConnectionImportReportViewModel report = new ConnectionImportReportViewModel(0, 0, 0, 0, new ArrayList<>());
+		// Pair keys of the file, so that a pair given again in a later chunk is skipped without a query
+		Set<Long> seenPairs = new HashSet<>();
+		long      start     = System.nanoTime();
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+			List<ImportLine> chunk      = new ArrayList<>(chunkSize);
+			long             lineNumber = 0;
+			String           line;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (lineNumber == 1) {
+					line = CsvLine.stripByteOrderMark(line);
+				}
+				if (line.isBlank() || (lineNumber == 1 && isHeader(line))) {
+					continue;
+				}
+				report.setPairsRead(report.getPairsRead() + 1);
+				ImportLine importLine = parse(lineNumber, line, report);
+				if (importLine != null) {
+					chunk.add(importLine);
+				}
+				if (chunk.size() == chunkSize) {
+					importChunk(chunk, seenPairs, report);
+					chunk.clear();
+				}
+			}
+			importChunk(chunk, seenPairs, report);
+		}
+		log.info(String.format("Connection import: %d pairs read, %d connections created, %d skipped, %d failed in "
+		                       + "%d ms.", report.getPairsRead(), report.getConnectionsCreated(),
+		                       report.getPairsSkipped(), report.getPairsFailed(),
+		                       (System.nanoTime() - start) / 1_000_000));
+		return report;
+	}
+
+	/**
+	 * Resolves the users of a chunk with one query, then connects its new pairs in one database transaction.
+	 */
+	private void importChunk(List<ImportLine> chunk, Set<Long> seenPairs, ConnectionImportReportViewModel report) {
+		if (chunk.isEmpty()) {
+			return;
+		}
+		Set<String> emails = new HashSet<>();
+		chunk.forEach(importLine -> {
+			emails.add(importLine.initializerEmail());
+			emails.add(importLine.receiverEmail());
+		});
+		Map<String, User> usersByEmail = new HashMap<>();
+		userService.getUsersByEmails(emails)
+		           .forEach(user -> usersByEmail.put(user.getEmail().toLowerCase(Locale.ROOT), user));
+
+		List<ImportPair> pairs = new ArrayList<>(chunk.size());
+		for (ImportLine importLine : chunk) {
+			User initializer = usersByEmail.get(importLine.initializerEmail().toLowerCase(Locale.ROOT));
+			User receiver    = usersByEmail.get(importLine.receiverEmail().toLowerCase(Locale.ROOT));
+			if (initializer == null || receiver == null) {
+				String email = initializer == null ? importLine.initializerEmail() : importLine.receiverEmail();
+				reportError(report, importLine.number(), "Email " + email + " does not match any buddy.");
+			} else if (initializer.getId().equals(receiver.getId())) {
+				reportError(report, importLine.number(), "A user can not be their own buddy.");
+			} else if (!seenPairs.add(pairKey(initializer.getId(), receiver.getId()))) {
+				report.setPairsSkipped(report.getPairsSkipped() + 1);
+			} else {
+				pairs.add(new ImportPair(importLine.number(), initializer, receiver));
+			}
+		}
+		if (pairs.isEmpty()) {
+			return;
+		}
+
+		// A pair connected concurrently fails the batch on the unique pair key, the second attempt skips it
+		for (int attempt = 1; ; attempt++) {
+			try {
+				int created = transactionTemplate.execute(status -> connect(pairs));
+				report.setConnectionsCreated(report.getConnectionsCreated() + created);
+				report.setPairsSkipped(report.getPairsSkipped() + pairs.size() - created);
+				return;
+			} catch (DataIntegrityViolationException e) {
+				if (attempt < 2) {
+					log.warn("Some pairs of lines " + pairs.get(0).number() + " to " +
+					         pairs.get(pairs.size() - 1).number() + " were connected concurrently, trying again.");
+					continue;
+				}
+				failChunk(pairs, e, report);
+				return;
+			} catch (RuntimeException e) {
+				failChunk(pairs, e, report);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Inserts the pairs that are not connected yet, and publishes the new connections like a single one is.
+	 * Called in a database transaction.
+	 *
+	 * @return number of connections created
+	 */
+	private int connect(List<ImportPair> pairs) {
+		Set<Long>        existing = pairKeysOf(findAmong(pairs));
+		LocalDateTime    date     = LocalDateTime.now(clock);
+		List<ImportPair> newPairs = new ArrayList<>(pairs.size());
+		Set<Long>        newKeys  = new HashSet<>();
+		List<Object[]>   rows     = new ArrayList<>(pairs.size());
+		for (ImportPair pair : pairs) {
+			Integer initializerId = pair.initializer().getId();
+			Integer receiverId    = pair.receiver().getId();
+			if (!existing.contains(pairKey(initializerId, receiverId))) {
+				newPairs.add(pair);
+				newKeys.add(pairKey(initializerId, receiverId));
+				rows.add(new Object[]{initializerId, receiverId, Timestamp.valueOf(date),
+				                      Math.min(initializerId, receiverId), Math.max(initializerId, receiverId)});
+			}
+		}
+		if (newPairs.isEmpty()) {
+			return 0;
+		}
+		jdbcTemplate.batchUpdate(INSERT_CONNECTION, rows);
+
+		// Batched inserts do not return their IDs, the new connections are read back by their pair keys
+		List<Connection> connections = new ArrayList<>(newPairs.size());
+		for (Connection connection : findAmong(newPairs)) {
+			if (newKeys.contains(pairKey(connection.getMinUserId(), connection.getMaxUserId()))) {
+				connections.add(connection);
+			}
+		}
+		if (!connections.isEmpty()) {
+			eventPublisher.publishEvent(new ConnectionAdded(connections));
+		}
+		return newPairs.size();
+	}
+
+	/**
+	 * Reads the connections between the users of the pairs with one query. Other connections between these users
+	 * may be read too.
+	 */
+	private List<Connection> findAmong(List<ImportPair> pairs) {
+		Set<Integer> minUserIds = new HashSet<>();
+		Set<Integer> maxUserIds = new HashSet<>();
+		for (ImportPair pair : pairs) {
+			minUserIds.add(Math.min(pair.initializer().getId(), pair.receiver().getId()));
+			maxUserIds.add(Math.max(pair.initializer().getId(), pair.receiver().getId()));
+		}
+		return connectionRepository.findByPairKeysAmong(minUserIds, maxUserIds);
+	}
+
+	private void failChunk(List<ImportPair> pairs, RuntimeException e, ConnectionImportReportViewModel report) {
+		String errorMessage = "Lines " + pairs.get(0).number() + " to " + pairs.get(pairs.size() - 1).number() +
+		                      " were not imported: " + e.getMessage();
+		log.error(errorMessage, e);
+		for (ImportPair pair : pairs) {
+			reportError(report, pair.number(), "The pair was not imported: " + e.getMessage());
+		}
+	}
+
+	private ImportLine parse(long number, String line, ConnectionImportReportViewModel report) {
+		List<String> fields;
+		try {
+			fields = CsvLine.split(line);
+		} catch (IllegalArgumentException e) {
+			reportError(report, number, e.getMessage());
+			return null;
+		}
+		if (fields.size() != 2) {
+			reportError(report, number, "A line must hold two emails separated by a comma.");
+			return null;
+		}
+		String initializerEmail = fields.get(0).strip();
+		String receiverEmail    = fields.get(1).strip();
+		if (UserService.isInvalidEmail(initializerEmail) || UserService.isInvalidEmail(receiverEmail)) {
+			reportError(report, number, "The email provided is invalid.");
+			return null;
+		}
+		return new ImportLine(number, initializerEmail, receiverEmail);
+	}
+
+	private void reportError(ConnectionImportReportViewModel report, long line, String message) {
+		report.setPairsFailed(report.getPairsFailed() + 1);
+		if (report.getErrors().size() < maxReportedErrors) {
+			report.getErrors().add(new ConnectionImportErrorViewModel(line, message));
+		}
+	}
+
+	private static Set<Long> pairKeysOf(List<Connection> connections) {
+		Set<Long> keys = new HashSet<>();
+		connections.forEach(connection -> keys.add(pairKey(connection.getMinUserId(), connection.getMaxUserId())));
+		return keys;
+	}
+
+	/**
+	 * Key of a pair of users, the same whichever is given first.
+	 */
+	private static long pairKey(int userId, int buddyId) {
+		return (long) Math.min(userId, buddyId) << 32 | Math.max(userId, buddyId);
+	}
+
+	private static boolean isHeader(String line) {
+		return line.strip().toLowerCase(Locale.ROOT).startsWith("initializer");
+	}
+
+	/**
+	 * Valid line of a connection import file.
+	 */
+	private record ImportLine(long number, String initializerEmail, String receiverEmail) {
+	}
+
+	/**
+	 * Pair of existing users, not given before in the file.
+	 */
+	private record ImportPair(long number, User initializer, User receiver) {
+	}
+}
@@ -1,29 +1,40 @@
 package com.paymybuddy.paymybuddy.service;
 
+import com.paymybuddy.paymybuddy.event.ConnectionAdded;
 import com.paymybuddy.paymybuddy.exceptions.AlreadyABuddyException;
 import com.paymybuddy.paymybuddy.exceptions.BuddyNotFoundException;
 import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.ConnectionFilter;
 import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.BuddySuggestionViewModel;
 import com.paymybuddy.paymybuddy.model.viewmodel.ConnectionViewModel;
 import com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel;
 import com.paymybuddy.paymybuddy.repository.ConnectionRepository;
 import com.paymybuddy.paymybuddy.repository.UserRepository;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
 import javax.transaction.Transactional;
 import java.time.Clock;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.stream.Stream;
 
 @Service
 @Slf4j
 public class ConnectionService {
+	/**
+	 * Properties the connection list can be sorted by.
+	 */
+	public static final Set<String> SORTABLE_PROPERTIES = Set.of("id", "startingDate");
 
 	@Autowired
 	ConnectionRepository connectionRepository;
@@ -35,6 +46,12 @@ public class ConnectionService {
 	UserRepository userRepository;
 	@Autowired
 	Clock          clock;
+	@Autowired
+	BuddyGraph                buddyGraph;
+	@Autowired
+	EmailFilter               emailFilter;
+	@Autowired
+	ApplicationEventPublisher eventPublisher;
 
 	/**
 	 * List all user's connection
@@ -43,27 +60,62 @@ public class ConnectionService {
 	 * @return a list of user with their name, first name, last name and balance
 	 */
 	public List<UserViewModel> getUserConnections(User user) {
-		Integer             userId      = user.getId();
-		List<UserViewModel> connections = new ArrayList<>();
-		// Get all connections where user is involved
-		List<Connection> connectionsWhereUserIsInvolved = connectionRepository
-				.findByInitializerOrReceiver(user, user);
-		log.debug("Found connections involving " + user.getEmail() + ":\n" + connectionsWhereUserIsInvolved);
-		// If user was initializer, then add the receiver to list and vice versa
-		for (Connection connection : connectionsWhereUserIsInvolved) {
-			User initializer = connection.getInitializer();
-			User receiver    = connection.getReceiver();
-			if (userId.equals(initializer.getId())) {
-				connections.add(UserService.userToViewModel(receiver));
-			} else if (userId.equals(receiver.getId())) {
-				connections.add(UserService.userToViewModel(initializer));
-			}
-		}
+		// Buddies are read by a single query, whichever side of the connection they are on
+		List<UserViewModel> connections = connectionRepository.findBuddiesOf(user.getId());
 		log.info("Connections for " + user.getEmail() + ":\n" + connections);
 		return connections;
 	}
 
 
+	/**
+	 * Checks whether two users are connected, whichever initiated the connection.
+	 *
+	 * @param user  one of the users
+	 * @param buddy the other user
+	 * @return true if they are buddies
+	 */
+	public boolean areBuddies(User user, User buddy) {
+		return connectionRepository.existsBetween(user.getId(), buddy.getId());
+	}
+
+	/**
+	 * Suggests new buddies among the buddies of the user's buddies, those with most buddies in common first.
+	 *
+	 * @param user  user to suggest buddies to
+	 * @param limit maximum number of suggestions
+	 * @return suggested users, without their balance
+	 */
+	public List<BuddySuggestionViewModel> getSuggestions(User user, int limit) {
+		List<BuddyGraph.Suggestion> suggestions = buddyGraph.suggest(user.getId(), limit);
+		Map<Integer, User> users = new HashMap<>();
+		userRepository.findAllById(suggestions.stream().map(BuddyGraph.Suggestion::userId).toList())
+		              .forEach(suggested -> users.put(suggested.getId(), suggested));
+		List<BuddySuggestionViewModel> result = new ArrayList<>(suggestions.size());
+		for (BuddyGraph.Suggestion suggestion : suggestions) {
+			User suggested = users.get(suggestion.userId());
+			if (suggested != null) {
+				result.add(new BuddySuggestionViewModel(suggested.getId(), suggested.getEmail(),
+				                                        suggested.getFirstName(), suggested.getLastName(),
+				                                        suggestion.mutualBuddies()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Checks with a single query which of the given users are connections of a user.
+	 *
+	 * @param user     user whose connections are checked
+	 * @param buddyIds users to check
+	 * @return IDs of the given users who are connected to the user
+	 */
+	public Set<Integer> getBuddyIdsAmong(User user, Collection<Integer> buddyIds) {
+		if (buddyIds.isEmpty()) {
+			return Collections.emptySet();
+		}
+		return new HashSet<>(connectionRepository.findBuddyIdsAmong(user.getId(), buddyIds));
+	}
+
 	/**
 	 * Returns a paginated list of user's connections.
 	 *
@@ -97,7 +149,12 @@ public class ConnectionService {
 			log.error("You are trying to add yourself!");
 			throw new IllegalArgumentException("You are trying to add yourself!");
 		}
-		Optional<User> optionalReceiver = userRepository.findByEmail(email);
+		// Unknown emails are answered without a query
+		Optional<User> optionalReceiver = Optional.empty();
+		if (emailFilter.mightExist(email)) {
+			optionalReceiver = userRepository.findByEmail(email);
+			emailFilter.recordLookup(optionalReceiver.isPresent());
+		}
 		if (optionalReceiver.isEmpty()) {
 			// Check if a user with specified email exists
 			String errorMessage = "Email " + email + " does not match any buddy.";
@@ -105,10 +162,8 @@ public class ConnectionService {
 			throw new BuddyNotFoundException(errorMessage);
 		}
 		User receiver = optionalReceiver.get();
-		if (getUserConnections(initializer).contains(UserService.userToViewModel(receiver))) {
-			String errorMessage = receiver.getFirstName() + " " + receiver.getLastName() + " is already a Buddy!";
-			log.error(errorMessage);
-			throw new AlreadyABuddyException(errorMessage);
+		if (areBuddies(initializer, receiver)) {
+			throw alreadyABuddy(receiver);
 		} else {
 			// Create connection with both users
 			log.info("Creating new connection between " +
@@ -131,10 +186,14 @@ public class ConnectionService {
 		connection.setInitializer(initializer);
 		connection.setReceiver(receiver);
 		connection.setStartingDate(LocalDateTime.now(clock));
-		// Add connection to initializer's initiatedConnections
-		initializer.getInitializedConnections().add(connection);
-		// Add connection to receiver's receivedConnections
-		receiver.getReceivedConnections().add(connection);
+		// Add connection to initializer's initiatedConnections, without loading them from database
+		if (Hibernate.isInitialized(initializer.getInitializedConnections())) {
+			initializer.getInitializedConnections().add(connection);
+		}
+		// Add connection to receiver's receivedConnections, without loading them from database
+		if (Hibernate.isInitialized(receiver.getReceivedConnections())) {
+			receiver.getReceivedConnections().add(connection);
+		}
 		return connection;
 	}
 
@@ -146,20 +205,34 @@ public class ConnectionService {
 	 */
 	@Transactional
 	public Connection saveConnection(Connection connection) {
-		return connectionRepository.save(connection);
+		Connection savedConnection;
+		try {
+			savedConnection = connectionRepository.save(connection);
+		} catch (DataIntegrityViolationException e) {
+			// The users were connected concurrently, the unique pair key kept the second connection out
+			log.error("Connection between users with IDs " + connection.getInitializer().getId() + " and " +
+			          connection.getReceiver().getId() + " was saved concurrently.", e);
+			throw alreadyABuddy(connection.getReceiver());
+		}
+		eventPublisher.publishEvent(new ConnectionAdded(List.of(savedConnection)));
+		return savedConnection;
 	}
 
 	/**
-	 * Lists all connections in data base
+	 * Lists a page of the connections matching a filter, users read by the same query.
 	 *
-	 * @return a list of connections
+	 * @param pageable page, sorted by {@link #SORTABLE_PROPERTIES} only
+	 * @return the page, and whether there is a next one
+	 */
+	public Slice<ConnectionViewModel> getConnections(ConnectionFilter filter, Pageable pageable) {
+		return connectionRepository.findViews(filter.toSpecification(), pageable);
+	}
+
+	/**
+	 * Streams every connection matching a filter. The stream must be read inside a transaction and closed.
 	 */
-	public List<ConnectionViewModel> getConnections() {
-		Iterable<Connection>      connections          = connectionRepository.findAll();
-		List<ConnectionViewModel> connectionViewModels = new ArrayList<>();
-		// extract info from user to user view model
-		connections.forEach(connection -> connectionViewModels.add(connectionToViewModel(connection)));
-		return connectionViewModels;
+	public Stream<ConnectionViewModel> streamConnections(ConnectionFilter filter, Sort sort) {
+		return connectionRepository.streamViews(filter.toSpecification(), sort);
 	}
 
 	/**
@@ -169,11 +242,13 @@ public class ConnectionService {
 	 * @return Optional connection
 	 */
 	public Optional<ConnectionViewModel> getConnectionById(Integer id) {
-		if (connectionRepository.findById(id).isPresent()) {
-			return Optional.of(connectionToViewModel(connectionRepository.findById(id).get()));
-		} else {
-			return Optional.empty();
-		}
+		return connectionRepository.findViewById(id);
+	}
+
+	private static AlreadyABuddyException alreadyABuddy(User receiver) {
+		String errorMessage = receiver.getFirstName() + " " + receiver.getLastName() + " is already a Buddy!";
+		log.error(errorMessage);
+		return new AlreadyABuddyException(errorMessage);
 	}
 
 	public static ConnectionViewModel connectionToViewModel(Connection connection) {
@@ -0,0 +1,77 @@
+package com.paymybuddy.paymybuddy.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a line of an uploaded CSV file into its fields, as spreadsheets write them: a field may be quoted, so that
+ * it holds commas, and a quote inside a quoted field is doubled. The byte order mark some editors put at the start
+ * of a file is dropped. Fields are not stripped: spaces around a quoted field are ignored, other spaces are kept.
+ */
+final class CsvLine {
+	private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+	private CsvLine() {
+	}
+
+	/**
+	 * Drops the byte order mark starting the first line of a file, if any.
+	 */
+	static String stripByteOrderMark(String line) {
+		return !line.isEmpty() && line.charAt(0) == BYTE_ORDER_MARK ? line.substring(1) : line;
+	}
+
+	/**
+	 * Splits a line into its fields.
+	 *
+	 * @return fields, without their quotes
+	 * @throws IllegalArgumentException if a quoted field is not closed, or is followed by more than spaces
+	 */
+	static List<String> split(String line) {
+		List<String>  fields = new ArrayList<>();
+		StringBuilder field  = new StringBuilder();
+		int           i      = 0;
+		while (true) {
+			// Spaces before an opening quote are not part of the field
+			int start = i;
+			while (i < line.length() && line.charAt(i) == ' ') {
+				i++;
+			}
+			if (i < line.length() && line.charAt(i) == '"') {
+				i++;
+				while (true) {
+					if (i == line.length()) {
+						throw new IllegalArgumentException("A quoted field is not closed.");
+					}
+					char c = line.charAt(i++);
+					if (c != '"') {
+						field.append(c);
+					} else if (i < line.length() && line.charAt(i) == '"') {
+						field.append('"');
+						i++;
+					} else {
+						break;
+					}
+				}
+				while (i < line.length() && line.charAt(i) == ' ') {
+					i++;
+				}
+				if (i < line.length() && line.charAt(i) != ',') {
+					throw new IllegalArgumentException("A quoted field is followed by more text.");
+				}
+			} else {
+				i = start;
+				while (i < line.length() && line.charAt(i) != ',') {
+					field.append(line.charAt(i++));
+				}
+			}
+			fields.add(field.toString());
+			field.setLength(0);
+			if (i == line.length()) {
+				return fields;
+			}
+			// Skips the comma
+			i++;
+		}
+	}
+}
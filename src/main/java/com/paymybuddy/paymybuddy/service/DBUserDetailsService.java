@@ -3,21 +3,31 @@ package com.paymybuddy.paymybuddy.service;
 import com.paymybuddy.paymybuddy.exceptions.BuddyNotFoundException;
 import com.paymybuddy.paymybuddy.model.User;
 import com.paymybuddy.paymybuddy.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Service;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 public class DBUserDetailsService implements UserDetailsService {
 
     private final UserRepository userRepository;
+    /**
+     * Emails of the users who also get the ADMIN role.
+     */
+    private final Set<String>    adminEmails;
 
-    public DBUserDetailsService(UserRepository userRepository) {
+    public DBUserDetailsService(UserRepository userRepository,
+                                @Value("${paymybuddy.admin.emails:}") Set<String> adminEmails) {
         this.userRepository = userRepository;
+        this.adminEmails = adminEmails;
     }
 
     /**
@@ -32,10 +42,15 @@ public class DBUserDetailsService implements UserDetailsService {
         if (user.isEmpty()) {
             throw new BuddyNotFoundException("Email " + username + " does not match any Buddy.");
         }
+        List<GrantedAuthority> authorities = new ArrayList<>();
+        authorities.add(new SimpleGrantedAuthority("ROLE_USER"));
+        if (adminEmails.contains(user.get().getEmail())) {
+            authorities.add(new SimpleGrantedAuthority("ROLE_ADMIN"));
+        }
         return new org.springframework.security.core.userdetails.User(
                 user.get().getEmail(), user.get().getPassword(), true, true,
                 true, true,
-                Collections.singletonList(new SimpleGrantedAuthority("ROLE_USER")));
+                authorities);
 
     }
 }
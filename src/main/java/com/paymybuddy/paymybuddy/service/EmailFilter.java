@@ -0,0 +1,384 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.event.UserDeleted;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tells without a query that an email belongs to no user, so that lookups of unknown emails do not reach the
+ * database. A counting Bloom filter of the emails, lower case, is built from the user table at startup: every email
+ * increments a few 4-bit counters picked by its hash, sixteen to a long, and an email whose counters are not all set
+ * is not known to this instance. Any other email may exist and is looked up as usual.
+ * <p>
+ * Created users are added before their transaction commits, so that their email is never reported unknown, and
+ * deleted users are removed once it commits. Users created by other instances are picked up by a periodic refresh
+ * and, at most once per catch-up interval, by the first lookup of an email the counters do not know: it reads the
+ * users created since the filter last caught up, by one primary key range query, and checks the email again. Other
+ * unknown emails are answered from the counters without waiting, so an email created by another instance may be
+ * reported unknown for up to the catch-up interval.
+ */
+@Service
+@Slf4j
+public class EmailFilter {
+	@Autowired
+	UserRepository userRepository;
+	@Autowired
+	MeterRegistry  meterRegistry;
+
+	/**
+	 * Users read per query at startup and by a refresh.
+	 */
+	private static final int LOAD_PAGE_SIZE = 1000;
+
+	/**
+	 * User IDs below the highest one added that a refresh reads again, in case they were committed late.
+	 */
+	private static final int REFRESH_LOOKBACK = 1000;
+
+	private static final int COUNTER_BITS      = 4;
+	private static final int COUNTERS_PER_LONG = Long.SIZE / COUNTER_BITS;
+	/**
+	 * A counter this high is never decremented, the number of emails it counts is not known anymore.
+	 */
+	private static final int MAX_COUNT         = (1 << COUNTER_BITS) - 1;
+
+	/**
+	 * Whether unknown emails are answered without a query. Otherwise every email may exist.
+	 */
+	@Value("${paymybuddy.email-filter.enabled:true}")
+	boolean enabled;
+
+	/**
+	 * Number of emails the filter is sized for, more raise the false positive rate.
+	 */
+	@Value("${paymybuddy.email-filter.expected-emails:1000000}")
+	int expectedEmails;
+
+	/**
+	 * Share of unknown emails reported as possibly existing once the expected number of emails is reached.
+	 */
+	@Value("${paymybuddy.email-filter.false-positive-rate:0.01}")
+	double falsePositiveRate;
+
+	/**
+	 * Shortest time between two catch-ups started by lookups of unknown emails.
+	 */
+	@Value("${paymybuddy.email-filter.catch-up-interval:PT1S}")
+	Duration catchUpInterval;
+
+	private AtomicLongArray counters;
+	private int             counterCount;
+	private int             hashCount;
+	/**
+	 * Number of counters above zero, kept as they change so that the estimated rate is not computed from them all.
+	 */
+	private final AtomicLong usedCounters = new AtomicLong();
+
+	// Guarded by itself
+	private final BitSet addedIds = new BitSet();
+	private       int    highestAddedId;
+
+	/**
+	 * Time from which a lookup of an unknown email may catch up again, from {@link System#nanoTime()}.
+	 */
+	private final AtomicLong nextCatchUp = new AtomicLong();
+
+	private Counter absentLookups;
+	private Counter falsePositives;
+	private Counter presentLookups;
+
+	@PostConstruct
+	void init() {
+		counterCount = (int) Math.min(Integer.MAX_VALUE - COUNTERS_PER_LONG, Math.max(COUNTERS_PER_LONG, Math.ceil(
+				-expectedEmails * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)))));
+		counterCount = (counterCount + COUNTERS_PER_LONG - 1) / COUNTERS_PER_LONG * COUNTERS_PER_LONG;
+		hashCount = Math.max(1, (int) Math.round((double) counterCount / Math.max(1, expectedEmails) * Math.log(2)));
+		counters = new AtomicLongArray(counterCount / COUNTERS_PER_LONG);
+
+		absentLookups = meterRegistry.counter("paymybuddy.email-filter.lookups", "result", "absent");
+		falsePositives = meterRegistry.counter("paymybuddy.email-filter.lookups", "result", "false-positive");
+		presentLookups = meterRegistry.counter("paymybuddy.email-filter.lookups", "result", "present");
+		meterRegistry.gauge("paymybuddy.email-filter.memory", this, EmailFilter::getMemoryBytes);
+		meterRegistry.gauge("paymybuddy.email-filter.false-positive-rate", this, EmailFilter::getFalsePositiveRate);
+		meterRegistry.gauge("paymybuddy.email-filter.estimated-false-positive-rate", this,
+		                    EmailFilter::getEstimatedFalsePositiveRate);
+		load();
+	}
+
+	/**
+	 * Adds the email of every user of the user table.
+	 *
+	 * @return number of users added
+	 */
+	public int load() {
+		long start = System.nanoTime();
+		int  added = addUsersAfter(0);
+		nextCatchUp.set(System.nanoTime() + catchUpInterval.toNanos());
+		log.info("Added " + added + " emails to the email filter in " + (System.nanoTime() - start) / 1_000_000 +
+		         " ms, " + getMemoryBytes() / 1024 + " KiB with " + hashCount + " counters per email.");
+		return added;
+	}
+
+	@Scheduled(initialDelayString = "${paymybuddy.email-filter.refresh-interval:PT5S}",
+	           fixedDelayString = "${paymybuddy.email-filter.refresh-interval:PT5S}")
+	void scheduledRefresh() {
+		try {
+			refresh();
+		} catch (RuntimeException e) {
+			log.error("Email filter refresh failed.", e);
+		}
+	}
+
+	/**
+	 * Adds the emails of the users created since the last refresh, by this instance or by another one.
+	 *
+	 * @return number of users newly added
+	 */
+	public int refresh() {
+		int highest;
+		synchronized (addedIds) {
+			highest = highestAddedId;
+		}
+		int added = addUsersAfter(Math.max(0, highest - REFRESH_LOOKBACK));
+		nextCatchUp.set(System.nanoTime() + catchUpInterval.toNanos());
+		return added;
+	}
+
+	/**
+	 * Adds the email of a saved user right away, before its transaction commits. Should it roll back, the email only
+	 * stays a possible one.
+	 */
+	public void add(User user) {
+		Assert.notNull(user, "User must not be null");
+		Assert.notNull(user.getId(), "User ID must not be null");
+		add(user.getId(), user.getEmail());
+	}
+
+	/**
+	 * Removes the email of a deleted user once their database transaction commits.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	void onUserDeleted(UserDeleted event) {
+		remove(event.user());
+	}
+
+	/**
+	 * Removes the email of a deleted user.
+	 */
+	public void remove(User user) {
+		Assert.notNull(user, "User must not be null");
+		Assert.notNull(user.getId(), "User ID must not be null");
+		remove(user.getId(), user.getEmail());
+	}
+
+	/**
+	 * Tells whether an email may belong to a user. A lookup that follows a positive answer should be reported with
+	 * {@link #recordLookup(boolean)}. An email the counters do not know is checked again once the users created
+	 * since the filter last caught up are added, if the catch-up interval has elapsed since.
+	 *
+	 * @return false if no user has the email, whatever its case, true if one may have it
+	 */
+	public boolean mightExist(String email) {
+		if (!enabled || email == null) {
+			return true;
+		}
+		long hash = hash(normalize(email));
+		if (isKnown(hash)) {
+			return true;
+		}
+		if (catchUp() && isKnown(hash)) {
+			return true;
+		}
+		absentLookups.increment();
+		return false;
+	}
+
+	private boolean isKnown(long hash) {
+		for (int i = 0; i < hashCount; i++) {
+			if (count(index(hash, i)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the users created after the highest one added, if the catch-up interval has elapsed since the filter last
+	 * caught up. Only the first caller does, lookups arriving meanwhile are answered from the counters.
+	 *
+	 * @return whether users were read
+	 */
+	private boolean catchUp() {
+		long now  = System.nanoTime();
+		long next = nextCatchUp.get();
+		if (now - next < 0 || !nextCatchUp.compareAndSet(next, now + catchUpInterval.toNanos())) {
+			return false;
+		}
+		int highest;
+		synchronized (addedIds) {
+			highest = highestAddedId;
+		}
+		addUsersAfter(highest);
+		return true;
+	}
+
+	/**
+	 * Reports whether the lookup of an email the filter let through found a user, for the false positive rate.
+	 */
+	public void recordLookup(boolean found) {
+		if (!enabled) {
+			return;
+		}
+		(found ? presentLookups : falsePositives).increment();
+	}
+
+	public long getMemoryBytes() {
+		return (long) counters.length() * Long.BYTES;
+	}
+
+	/**
+	 * Share of the lookups of unknown emails the filter let through, as observed since startup.
+	 */
+	public double getFalsePositiveRate() {
+		double unknown = absentLookups.count() + falsePositives.count();
+		return unknown == 0 ? 0 : falsePositives.count() / unknown;
+	}
+
+	/**
+	 * False positive rate expected from the share of counters in use.
+	 */
+	public double getEstimatedFalsePositiveRate() {
+		return Math.pow((double) usedCounters.get() / counterCount, hashCount);
+	}
+
+	private int addUsersAfter(int afterId) {
+		int added = 0;
+		List<UserViewModel> page;
+		do {
+			page = userRepository.findViewsAfter(afterId, PageRequest.of(0, LOAD_PAGE_SIZE));
+			for (UserViewModel user : page) {
+				if (add(user.getId(), user.getEmail())) {
+					added++;
+				}
+				afterId = user.getId();
+			}
+		} while (page.size() == LOAD_PAGE_SIZE);
+		return added;
+	}
+
+	/**
+	 * Increments the counters of an email, once per user.
+	 *
+	 * @return whether the user was added
+	 */
+	private boolean add(int userId, String email) {
+		synchronized (addedIds) {
+			if (addedIds.get(userId)) {
+				return false;
+			}
+			addedIds.set(userId);
+			highestAddedId = Math.max(highestAddedId, userId);
+		}
+		long hash = hash(normalize(email));
+		for (int i = 0; i < hashCount; i++) {
+			update(index(hash, i), 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Decrements the counters of an email, if the user was added.
+	 */
+	private void remove(int userId, String email) {
+		synchronized (addedIds) {
+			if (!addedIds.get(userId)) {
+				return;
+			}
+			addedIds.clear(userId);
+		}
+		long hash = hash(normalize(email));
+		for (int i = 0; i < hashCount; i++) {
+			update(index(hash, i), -1);
+		}
+	}
+
+	private int count(int index) {
+		int shift = index % COUNTERS_PER_LONG * COUNTER_BITS;
+		return (int) (counters.get(index / COUNTERS_PER_LONG) >>> shift & MAX_COUNT);
+	}
+
+	/**
+	 * Adds one to a counter or subtracts one from it, unless it is saturated, and counts the counters in use.
+	 */
+	private void update(int index, int delta) {
+		int  word  = index / COUNTERS_PER_LONG;
+		int  shift = index % COUNTERS_PER_LONG * COUNTER_BITS;
+		long current;
+		long next;
+		while (true) {
+			current = counters.get(word);
+			int count = (int) (current >>> shift & MAX_COUNT);
+			if (count == MAX_COUNT || count + delta < 0) {
+				return;
+			}
+			next = current + ((long) delta << shift);
+			if (counters.compareAndSet(word, current, next)) {
+				if (count == 0) {
+					usedCounters.incrementAndGet();
+				} else if (count + delta == 0) {
+					usedCounters.decrementAndGet();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Counter of an email for its i-th hash, from the two halves of its 64-bit hash.
+	 */
+	private int index(long hash, int i) {
+		int combined = (int) hash + i * (int) (hash >>> 32);
+		return (combined & Integer.MAX_VALUE) % counterCount;
+	}
+
+	static String normalize(String email) {
+		return email.strip().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the characters of a text, mixed so that every bit depends on all of them.
+	 */
+	private static long hash(String text) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < text.length(); i++) {
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,43 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.constants.Fee;
+import com.paymybuddy.paymybuddy.model.FeeQuote;
+import com.paymybuddy.paymybuddy.model.Money;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+/**
+ * Calculates the fee of a transaction.
+ * The fee is {@link Fee#TRANSACTION_FEE_BPS} basis points of the amount, rounded HALF_UP to the cent.
+ * Methods working on cents allocate nothing and can be used on hot paths that only need numbers.
+ */
+@Component
+public class FeeCalculator {
+	/**
+	 * Calculates fee information for a given amount.
+	 *
+	 * @param amount Transaction amount
+	 * @return the amount, its fee and the amount with fee
+	 */
+	public FeeQuote quote(Money amount) {
+		Assert.notNull(amount, "Amount must not be null");
+		long fee = feeCents(amount.getCents());
+		return new FeeQuote(amount, Money.ofCents(fee), Money.ofCents(Math.addExact(amount.getCents(), fee)));
+	}
+
+	/**
+	 * @param amountCents transaction amount in cents
+	 * @return the fee in cents
+	 */
+	public long feeCents(long amountCents) {
+		return Money.divideHalfUp(Math.multiplyExact(amountCents, Fee.TRANSACTION_FEE_BPS), Fee.BPS_PER_UNIT);
+	}
+
+	/**
+	 * @param amountCents transaction amount in cents
+	 * @return the amount with fee in cents
+	 */
+	public long totalCents(long amountCents) {
+		return Math.addExact(amountCents, feeCents(amountCents));
+	}
+}
@@ -0,0 +1,239 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.exceptions.BuddyNotFoundException;
+import com.paymybuddy.paymybuddy.model.BalanceStripe;
+import com.paymybuddy.paymybuddy.model.BalanceStripeId;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.BalanceStripeRepository;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Spreads the credits of hot accounts over several stripe rows, so that concurrent payments to the same user do not
+ * queue on one row lock. An account becomes hot when payments spend too long waiting for its row lock, and goes back
+ * to a single row once it receives few credits. Stripes are folded into the user balance on a schedule and before
+ * a debit that needs them, and added to the balance when it is displayed.
+ */
+@Service
+@Slf4j
+public class HotAccountService {
+	@Autowired
+	BalanceStripeRepository    balanceStripeRepository;
+	@Autowired
+	UserRepository             userRepository;
+	@Autowired
+	JdbcTemplate               jdbcTemplate;
+	@Autowired
+	PlatformTransactionManager transactionManager;
+	@Autowired
+	MeterRegistry              meterRegistry;
+
+	private static final String SUM_STRIPES = "select coalesce(sum(amount), 0) from balance_stripe " +
+	                                          "where fk_user_id = ?";
+
+	/**
+	 * Whether accounts are striped once hot.
+	 */
+	@Value("${paymybuddy.hot-accounts.enabled:false}")
+	boolean  enabled;
+	/**
+	 * Number of stripes of a hot account.
+	 */
+	@Value("${paymybuddy.hot-accounts.stripes:8}")
+	int      stripes;
+	/**
+	 * Row lock wait accumulated by an account between two evaluations that makes it hot.
+	 */
+	@Value("${paymybuddy.hot-accounts.lock-wait-threshold:PT1S}")
+	Duration lockWaitThreshold;
+	/**
+	 * Credits a hot account must receive between two evaluations to stay hot.
+	 */
+	@Value("${paymybuddy.hot-accounts.min-credits:50}")
+	long     minCredits;
+
+	private final Set<Integer>            hotUserIds    = ConcurrentHashMap.newKeySet();
+	private final Map<Integer, LongAdder> lockWaits     = new ConcurrentHashMap<>();
+	private final Map<Integer, LongAdder> stripeCredits = new ConcurrentHashMap<>();
+	private       TransactionTemplate     transactionTemplate;
+
+	@PostConstruct
+	void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		meterRegistry.gaugeCollectionSize("paymybuddy.hot-accounts", Collections.emptyList(), hotUserIds);
+		if (enabled) {
+			hotUserIds.addAll(balanceStripeRepository.findStripedUserIds());
+		}
+	}
+
+	/**
+	 * @return whether credits to a user go to stripes
+	 */
+	public boolean isHot(Integer userId) {
+		return enabled && hotUserIds.contains(userId);
+	}
+
+	/**
+	 * Adds the time a payment waited for the row lock of a user, used to detect hot accounts.
+	 */
+	public void recordLockWait(Integer userId, long nanos) {
+		if (enabled && !hotUserIds.contains(userId)) {
+			lockWaits.computeIfAbsent(userId, id -> new LongAdder()).add(nanos);
+		}
+	}
+
+	/**
+	 * Credits a stripe of a hot account picked at random, in the current database transaction.
+	 *
+	 * @return false if the account is not striped anymore, the user row must then be credited instead
+	 */
+	public boolean creditStripe(Integer userId, Money amount) {
+		int slot = ThreadLocalRandom.current().nextInt(stripes);
+		if (balanceStripeRepository.credit(userId, slot, amount) == 0) {
+			return false;
+		}
+		stripeCredits.computeIfAbsent(userId, id -> new LongAdder()).increment();
+		return true;
+	}
+
+	/**
+	 * Empties the stripes of an account in the current database transaction, which must already hold the lock
+	 * of the user row so that locks are always taken user row first.
+	 *
+	 * @return total of the stripes, to be added to the user balance by the caller
+	 */
+	public Money drainStripes(Integer userId) {
+		Money total = Money.ZERO;
+		for (BalanceStripe stripe : balanceStripeRepository.findByUserIdForUpdate(userId)) {
+			total = total.plus(stripe.getAmount());
+			stripe.setAmount(Money.ZERO);
+		}
+		return total;
+	}
+
+	/**
+	 * @return credits of an account waiting in its stripes, zero for an account that is not hot
+	 */
+	public Money getUnfoldedCredits(Integer userId) {
+		if (!isHot(userId)) {
+			return Money.ZERO;
+		}
+		BigDecimal total = jdbcTemplate.queryForObject(SUM_STRIPES, BigDecimal.class, userId);
+		return total == null ? Money.ZERO : Money.of(total);
+	}
+
+	/**
+	 * Folds the stripes of an account into its balance, in a database transaction of its own.
+	 *
+	 * @return amount moved to the balance
+	 */
+	public Money fold(Integer userId) {
+		return transactionTemplate.execute(status -> {
+			User  user  = lockUser(userId);
+			Money total = drainStripes(userId);
+			user.setBalance(user.getBalance().plus(total));
+			return total;
+		});
+	}
+
+	@Scheduled(initialDelayString = "${paymybuddy.hot-accounts.interval:PT10S}",
+	           fixedDelayString = "${paymybuddy.hot-accounts.interval:PT10S}")
+	void scheduledEvaluation() {
+		try {
+			evaluate();
+		} catch (RuntimeException e) {
+			log.error("Hot account evaluation failed.", e);
+		}
+	}
+
+	/**
+	 * Folds the stripes of every hot account, sends the ones that cooled down back to a single row and stripes
+	 * the accounts whose row lock was waited for too long since the previous evaluation.
+	 */
+	public void evaluate() {
+		if (!enabled) {
+			return;
+		}
+		for (Integer userId : new ArrayList<>(hotUserIds)) {
+			LongAdder credits = stripeCredits.remove(userId);
+			try {
+				if (credits == null || credits.sum() < minCredits) {
+					cool(userId);
+				} else {
+					fold(userId);
+				}
+			} catch (RuntimeException e) {
+				// Stripes are kept and folded again on the next evaluation
+				log.error("Folding the stripes of user " + userId + " failed.", e);
+			}
+		}
+		long thresholdNanos = lockWaitThreshold.toNanos();
+		for (Integer userId : new ArrayList<>(lockWaits.keySet())) {
+			LongAdder waited = lockWaits.remove(userId);
+			if (waited != null && waited.sum() >= thresholdNanos) {
+				try {
+					heat(userId, Duration.ofNanos(waited.sum()));
+				} catch (RuntimeException e) {
+					log.error("Striping the balance of user " + userId + " failed.", e);
+				}
+			}
+		}
+	}
+
+	private void heat(Integer userId, Duration waited) {
+		transactionTemplate.executeWithoutResult(status -> {
+			List<BalanceStripe> rows = new ArrayList<>(stripes);
+			for (int slot = 0; slot < stripes; slot++) {
+				rows.add(new BalanceStripe(new BalanceStripeId(userId, slot), Money.ZERO));
+			}
+			balanceStripeRepository.saveAll(rows);
+		});
+		hotUserIds.add(userId);
+		log.info("Payments waited " + waited.toMillis() + " ms for the row of user " + userId +
+		         ", its credits are now spread over " + stripes + " stripes.");
+	}
+
+	private void cool(Integer userId) {
+		// New payments credit the user row again, the ones already on a stripe are folded or fall back to it
+		hotUserIds.remove(userId);
+		try {
+			transactionTemplate.executeWithoutResult(status -> {
+				User user = lockUser(userId);
+				user.setBalance(user.getBalance().plus(drainStripes(userId)));
+				balanceStripeRepository.deleteByUserId(userId);
+			});
+		} catch (RuntimeException e) {
+			// Stripes still hold credits, keep adding them to the balance
+			hotUserIds.add(userId);
+			throw e;
+		}
+		log.info("User " + userId + " is not hot anymore, its stripes were folded into its balance.");
+	}
+
+	private User lockUser(Integer userId) {
+		Optional<User> user = userRepository.findByIdForUpdate(userId);
+		if (user.isEmpty()) {
+			String errorMessage = "User with ID " + userId + " does not exist.";
+			log.error(errorMessage);
+			throw new BuddyNotFoundException(errorMessage);
+		}
+		return user.get();
+	}
+}
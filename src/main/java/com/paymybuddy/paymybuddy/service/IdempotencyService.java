@@ -0,0 +1,356 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.event.PaymentCompleted;
+import com.paymybuddy.paymybuddy.exceptions.IdempotencyKeyReusedException;
+import com.paymybuddy.paymybuddy.exceptions.PaymentInProgressException;
+import com.paymybuddy.paymybuddy.model.IdempotencyRecord;
+import com.paymybuddy.paymybuddy.repository.IdempotencyRecordRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs a payment at most once per user and Idempotency-Key.
+ * Results are kept in memory for a limited time in a fixed number of LRU stripes, each guarded by its own lock,
+ * and optionally in the idempotency_key table so that they survive restarts. A key is saved in the database
+ * transaction of its payment, so that a committed payment always has its key. Each key remembers a hash of its
+ * request, a key sent again with another payee, amount or description is refused.
+ */
+@Service
+@Slf4j
+public class IdempotencyService {
+	@Autowired
+	IdempotencyRecordRepository idempotencyRecordRepository;
+	@Autowired
+	MeterRegistry               meterRegistry;
+	@Autowired
+	Clock                       clock;
+
+	/**
+	 * How long a key is remembered after its payment succeeded.
+	 */
+	@Value("${paymybuddy.idempotency.ttl:PT24H}")
+	Duration ttl;
+	/**
+	 * Maximum number of keys kept in memory, least recently used keys are evicted first.
+	 */
+	@Value("${paymybuddy.idempotency.max-entries:10000}")
+	int      maxEntries;
+	/**
+	 * Number of independently locked parts of the in-memory store.
+	 */
+	@Value("${paymybuddy.idempotency.stripes:16}")
+	int      stripeCount;
+	/**
+	 * Whether keys are also saved in the idempotency_key table.
+	 */
+	@Value("${paymybuddy.idempotency.persistent:false}")
+	boolean  persistent;
+	/**
+	 * How long a duplicate request waits for the first one to finish.
+	 */
+	@Value("${paymybuddy.idempotency.wait-timeout:PT10S}")
+	Duration waitTimeout;
+
+	/**
+	 * Key of the payment running on the current thread, to be saved with it.
+	 */
+	private final ThreadLocal<RunningPayment> runningPayment = new ThreadLocal<>();
+
+	private Stripe[] stripes;
+	private Counter  hits;
+	private Counter  misses;
+	private Counter  evictions;
+
+	@PostConstruct
+	void init() {
+		Assert.isTrue(stripeCount > 0, "Number of stripes must be positive");
+		int stripeCapacity = Math.max(1, maxEntries / stripeCount);
+		stripes = new Stripe[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new Stripe(stripeCapacity);
+		}
+		hits = meterRegistry.counter("paymybuddy.idempotency.hits");
+		misses = meterRegistry.counter("paymybuddy.idempotency.misses");
+		evictions = meterRegistry.counter("paymybuddy.idempotency.evictions");
+	}
+
+	/**
+	 * Runs a payment unless the same user already sent the same key.
+	 * A duplicate arriving while the first payment is running waits for it and gets the same result or exception.
+	 * A failed payment is forgotten, so that the client can retry it with the same key.
+	 *
+	 * @param userId         ID of the user sending the request
+	 * @param idempotencyKey value of the Idempotency-Key header
+	 * @param requestHash    hash of what the request asks for, see {@link #requestHash(Object...)}
+	 * @param payment        payment to run, returning the ID of the created transaction
+	 * @return ID of the transaction created by this request or by the first one with the same key
+	 * @throws IdempotencyKeyReusedException when the key was sent before with another request
+	 */
+	public Integer execute(Integer userId, String idempotencyKey, String requestHash, Supplier<Integer> payment) {
+		Assert.notNull(userId, "User ID must not be null");
+		Assert.hasText(idempotencyKey, "Idempotency key must not be empty");
+		Assert.hasText(requestHash, "Request hash must not be empty");
+		Key    key    = new Key(userId, idempotencyKey);
+		Stripe stripe = stripes[Math.floorMod(key.hashCode(), stripes.length)];
+		Entry  entry;
+		boolean firstRequest;
+		synchronized (stripe) {
+			entry = stripe.getIfValid(key, clock.millis());
+			firstRequest = entry == null;
+			if (firstRequest) {
+				entry = new Entry(requestHash);
+				stripe.putAndEvict(key, entry);
+			}
+		}
+		if (!firstRequest) {
+			hits.increment();
+			checkSameRequest(idempotencyKey, entry.requestHash, requestHash);
+			return await(entry.result, idempotencyKey);
+		}
+
+		try {
+			Optional<IdempotencyRecord> stored = persistent ? findStored(key) : Optional.empty();
+			if (stored.isPresent()) {
+				hits.increment();
+				checkSameRequest(idempotencyKey, stored.get().getRequestHash(), requestHash);
+				complete(entry, stored.get().getTransactionId());
+				return stored.get().getTransactionId();
+			}
+			misses.increment();
+			Integer transactionId = persistent ? payAndStore(key, requestHash, payment) : payment.get();
+			complete(entry, transactionId);
+			return transactionId;
+		} catch (RuntimeException e) {
+			synchronized (stripe) {
+				stripe.remove(key, entry);
+			}
+			entry.result.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Hash of what a payment request asks for, to tell a retry from another request reusing its key.
+	 *
+	 * @param parts payee, amount, description or anything else identifying the request
+	 * @return SHA-256 of the parts, in hexadecimal
+	 */
+	public static String requestHash(Object... parts) {
+		StringBuilder request = new StringBuilder();
+		for (Object part : parts) {
+			// Lengths keep parts from being shifted into each other
+			String text = String.valueOf(part);
+			request.append(text.length()).append(':').append(text);
+		}
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(
+					request.toString().getBytes(StandardCharsets.UTF_8));
+			return HexFormat.of().formatHex(hash);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available.", e);
+		}
+	}
+
+	/**
+	 * Saves the key of the payment running on this thread in the payment's database transaction. Payments of the
+	 * in-memory engine complete on its writer thread, their key is saved once the payment returns.
+	 * An attempt rolled back after this, such as one retried on a lock or version conflict, loses the key with it,
+	 * so the next attempt saves it again.
+	 */
+	@EventListener
+	void onPaymentCompleted(PaymentCompleted event) {
+		RunningPayment running = runningPayment.get();
+		if (running == null || running.stored || !TransactionSynchronizationManager.isActualTransactionActive() ||
+		    !TransactionSynchronizationManager.isSynchronizationActive()) {
+			return;
+		}
+		// A key saved by another instance meanwhile fails the insert, and the payment with it
+		idempotencyRecordRepository.save(new IdempotencyRecord(null, running.key.userId(),
+		                                                       running.key.idempotencyKey(), running.requestHash,
+		                                                       event.transactions().get(0).getId(),
+		                                                       LocalDateTime.now(clock)));
+		running.stored = true;
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCompletion(int status) {
+				if (status != STATUS_COMMITTED) {
+					running.stored = false;
+				}
+			}
+		});
+	}
+
+	private Integer payAndStore(Key key, String requestHash, Supplier<Integer> payment) {
+		RunningPayment running = new RunningPayment(key, requestHash);
+		runningPayment.set(running);
+		Integer transactionId;
+		try {
+			transactionId = payment.get();
+		} catch (DataIntegrityViolationException e) {
+			// The same key was saved concurrently and this payment rolled back, the first one is answered
+			Optional<IdempotencyRecord> stored = idempotencyRecordRepository
+					.findByUserIdAndIdempotencyKey(key.userId(), key.idempotencyKey());
+			if (stored.isEmpty()) {
+				throw e;
+			}
+			checkSameRequest(key.idempotencyKey(), stored.get().getRequestHash(), requestHash);
+			return stored.get().getTransactionId();
+		} finally {
+			runningPayment.remove();
+		}
+		if (!running.stored) {
+			store(key, requestHash, transactionId);
+		}
+		return transactionId;
+	}
+
+	private void checkSameRequest(String idempotencyKey, String firstRequestHash, String requestHash) {
+		if (!firstRequestHash.equals(requestHash)) {
+			String errorMessage = "Idempotency key " + idempotencyKey + " was already used for another payment.";
+			log.error(errorMessage);
+			throw new IdempotencyKeyReusedException(errorMessage);
+		}
+	}
+
+	private void complete(Entry entry, Integer transactionId) {
+		entry.expiresAt = clock.millis() + ttl.toMillis();
+		entry.result.complete(transactionId);
+	}
+
+	private Integer await(CompletableFuture<Integer> result, String idempotencyKey) {
+		try {
+			return result.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (TimeoutException e) {
+			String errorMessage = "Payment with idempotency key " + idempotencyKey + " is still in progress.";
+			log.error(errorMessage);
+			throw new PaymentInProgressException(errorMessage);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PaymentInProgressException("Interrupted while waiting for payment with idempotency key "
+			                                     + idempotencyKey + ".");
+		}
+	}
+
+	private Optional<IdempotencyRecord> findStored(Key key) {
+		Optional<IdempotencyRecord> record = idempotencyRecordRepository
+				.findByUserIdAndIdempotencyKey(key.userId(), key.idempotencyKey());
+		if (record.isEmpty()) {
+			return Optional.empty();
+		}
+		if (record.get().getCreatedAt().plus(ttl).isBefore(LocalDateTime.now(clock))) {
+			idempotencyRecordRepository.delete(record.get());
+			return Optional.empty();
+		}
+		return record;
+	}
+
+	private void store(Key key, String requestHash, Integer transactionId) {
+		try {
+			idempotencyRecordRepository.save(new IdempotencyRecord(null, key.userId(), key.idempotencyKey(),
+			                                                       requestHash, transactionId,
+			                                                       LocalDateTime.now(clock)));
+		} catch (DataIntegrityViolationException e) {
+			// Another instance saved the same key first, the payment is done anyway
+			log.error("Idempotency key " + key.idempotencyKey() + " was saved concurrently.", e);
+		}
+	}
+
+	private record Key(Integer userId, String idempotencyKey) {
+	}
+
+	private static class Entry {
+		private final CompletableFuture<Integer> result    = new CompletableFuture<>();
+		private final String                     requestHash;
+		/**
+		 * Only read once the result is completed, under the stripe lock.
+		 */
+		private volatile long                    expiresAt = Long.MAX_VALUE;
+
+		Entry(String requestHash) {
+			this.requestHash = requestHash;
+		}
+	}
+
+	/**
+	 * Key of a payment running on a thread, and whether it was saved with the attempt of the payment running now
+	 * or committed.
+	 */
+	private static class RunningPayment {
+		private final Key     key;
+		private final String  requestHash;
+		private       boolean stored;
+
+		RunningPayment(Key key, String requestHash) {
+			this.key = key;
+			this.requestHash = requestHash;
+		}
+	}
+
+	/**
+	 * Access ordered map dropping its least recently used completed keys when full. Keys of running payments are
+	 * never dropped, a duplicate of them must wait instead of paying again. Guarded by its own monitor.
+	 */
+	private class Stripe extends LinkedHashMap<Key, Entry> {
+		private final int capacity;
+
+		Stripe(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		Entry getIfValid(Key key, long now) {
+			Entry entry = get(key);
+			if (entry != null && entry.result.isDone() && entry.expiresAt <= now) {
+				remove(key);
+				return null;
+			}
+			return entry;
+		}
+
+		/**
+		 * Adds a key, then drops completed keys from the least recently used one until the stripe is not over its
+		 * capacity. It stays over it while running payments fill it.
+		 */
+		void putAndEvict(Key key, Entry entry) {
+			put(key, entry);
+			Iterator<Entry> entries = values().iterator();
+			while (size() > capacity && entries.hasNext()) {
+				if (entries.next().result.isDone()) {
+					entries.remove();
+					evictions.increment();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,938 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.constants.TransferStrategy;
+import com.paymybuddy.paymybuddy.event.ConnectionAdded;
+import com.paymybuddy.paymybuddy.event.PaymentCompleted;
+import com.paymybuddy.paymybuddy.exceptions.InsufficientBalanceException;
+import com.paymybuddy.paymybuddy.exceptions.InvalidPayeeException;
+import com.paymybuddy.paymybuddy.exceptions.PaymentInProgressException;
+import com.paymybuddy.paymybuddy.exceptions.PaymentNotAcceptedException;
+import com.paymybuddy.paymybuddy.model.BankAccount;
+import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.EngineCheckpoint;
+import com.paymybuddy.paymybuddy.model.EngineLease;
+import com.paymybuddy.paymybuddy.model.IdSequence;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.EngineCheckpointRepository;
+import com.paymybuddy.paymybuddy.repository.EngineLeaseRepository;
+import com.paymybuddy.paymybuddy.repository.IdSequenceRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transfer engine keeping every balance and connection in memory, used when the transfer strategy is IN_MEMORY.
+ * Commands are published to a ring buffer and applied by a single writer thread, which owns the balances and
+ * so checks and moves them without any lock. Each batch of commands is appended to a memory-mapped journal before
+ * the callers are answered, and a write-back thread saves the outcome to database in large batches. On startup,
+ * the journaled commands not saved yet are replayed.
+ * Balances and transaction history in database lag behind by the write-back delay.
+ * The engine owns the balances, so only one instance runs it: it holds a lease in database, extended with each
+ * write-back, and another instance refuses to start while the lease is valid. An instance which can not extend its
+ * lease stops accepting payments before the lease expires, and one which lost it saves nothing more. No other
+ * instance may move balances or save transactions, whose IDs are taken from blocks reserved in database.
+ */
+@Service
+@Slf4j
+public class InMemoryTransferEngine {
+	@Autowired
+	EntityManager              entityManager;
+	@Autowired
+	JdbcTemplate               jdbcTemplate;
+	@Autowired
+	PlatformTransactionManager transactionManager;
+	@Autowired
+	EngineCheckpointRepository engineCheckpointRepository;
+	@Autowired
+	EngineLeaseRepository      engineLeaseRepository;
+	@Autowired
+	IdSequenceRepository       idSequenceRepository;
+	@Autowired
+	LedgerService              ledgerService;
+	@Autowired
+	ApplicationEventPublisher  eventPublisher;
+	@Autowired
+	MeterRegistry              meterRegistry;
+	@Autowired
+	Clock                      clock;
+
+	private static final int  CHECKPOINT_ID       = 1;
+	private static final int  LEASE_ID            = 1;
+	private static final long IDLE_PARK_NANOS     = 50_000;
+	private static final long WRITE_BACK_RETRY_MS = 1_000;
+	private static final long SHUTDOWN_TIMEOUT_MS = 30_000;
+
+	private static final String TRANSACTION_SEQUENCE = "transaction";
+	private static final String DEAD_LETTER_SUFFIX   = ".dead";
+
+	private static final String INSERT_TRANSACTION = "insert into transaction (transaction_id, fk_issuer_id, " +
+	                                                 "fk_payee_id, date, amount, description) " +
+	                                                 "values (?, ?, ?, ?, ?, ?)";
+	private static final String CREDIT_BANK_ACCOUNT = "update bank_account set balance = balance + ? " +
+	                                                  "where account_id = ?";
+
+	@Value("${paymybuddy.transfer.strategy:PESSIMISTIC}")
+	TransferStrategy strategy;
+	/**
+	 * Number of slots of the ring buffer, a power of two.
+	 */
+	@Value("${paymybuddy.engine.ring-size:8192}")
+	int              ringSize;
+	/**
+	 * Maximum number of commands applied and journaled together.
+	 */
+	@Value("${paymybuddy.engine.batch-size:256}")
+	int              batchSize;
+	@Value("${paymybuddy.engine.journal-path:data/payments.journal}")
+	String           journalPath;
+	/**
+	 * Size in bytes of the journal file, which is reset once everything in it is saved in database.
+	 */
+	@Value("${paymybuddy.engine.journal-size:67108864}")
+	int              journalSize;
+	/**
+	 * Maximum number of commands saved in one database transaction.
+	 */
+	@Value("${paymybuddy.engine.writeback-batch-size:1000}")
+	int              writebackBatchSize;
+	/**
+	 * Time a caller waits for the writer thread to take its command, which is cancelled otherwise, then for it to be
+	 * journaled. Also the longest time the writer thread waits for a full journal to be saved in database.
+	 */
+	@Value("${paymybuddy.engine.ack-timeout:PT5S}")
+	Duration         ackTimeout;
+	/**
+	 * Failed attempts at saving a batch after which, if the database still answers, its commands are saved one by
+	 * one and those failing on their own are set aside.
+	 */
+	@Value("${paymybuddy.engine.writeback-max-attempts:5}")
+	int              writebackMaxAttempts;
+	/**
+	 * How long the lease of this instance on the engine lasts after each write-back, or renewal when idle.
+	 */
+	@Value("${paymybuddy.engine.lease-duration:PT30S}")
+	Duration         leaseDuration;
+	/**
+	 * Number of transaction IDs reserved in database at once.
+	 */
+	@Value("${paymybuddy.engine.id-block-size:1000}")
+	int              idBlockSize;
+
+	// State owned by the writer thread once started
+	private       long[]    balances    = new long[0];
+	private final Set<Long> connections = new HashSet<>();
+	private       long      nextSequence;
+	private       int       nextTransactionId;
+	/**
+	 * End, exclusive, of the block of transaction IDs reserved in database.
+	 */
+	private       int       transactionIdLimit;
+
+	private final BlockingQueue<PaymentCommand> writebackQueue      = new LinkedBlockingQueue<>();
+	private final Map<Integer, Transaction>     pendingTransactions = new ConcurrentHashMap<>();
+	private volatile long                       lastJournaledSequence;
+	/**
+	 * Last sequence saved in database by the write-back thread.
+	 */
+	private volatile long                       writtenSequence;
+	private volatile boolean                    running;
+	private volatile boolean                    writerStopped;
+	/**
+	 * Whether the last write-back failed, a full journal is then not waited for.
+	 */
+	private volatile boolean                    writebackFailing;
+	/**
+	 * Time, in milliseconds of the clock, at which the lease saved in database expires.
+	 */
+	private volatile long                       leaseExpiresAt;
+	/**
+	 * Whether another instance took the lease, nothing is saved in database anymore then.
+	 */
+	private volatile boolean                    leaseLost;
+	private final String                        leaseOwner = UUID.randomUUID().toString();
+
+	private PaymentRingBuffer   ringBuffer;
+	private PaymentJournal      journal;
+	/**
+	 * Commands that could not be saved in database, kept for an operator once the journal is reset.
+	 */
+	private PaymentJournal      deadLetters;
+	private long                lastDeadLetter;
+	private TransactionTemplate transactionTemplate;
+	private Thread              writer;
+	private Thread              writeback;
+	private Counter             commands;
+	private Counter             deadLettered;
+
+	/**
+	 * @return whether the engine runs, that is whether the transfer strategy is IN_MEMORY
+	 */
+	public boolean isEnabled() {
+		return strategy == TransferStrategy.IN_MEMORY;
+	}
+
+	@PostConstruct
+	void start() throws IOException {
+		if (!isEnabled()) {
+			return;
+		}
+		open();
+		startWriter();
+		startWriteback();
+		log.info("In-memory transfer engine started with " + balances.length + " balance slot(s) and " +
+		         connections.size() + " connection(s).");
+	}
+
+	/**
+	 * Takes the lease, loads the state from database and replays the journal. Commands are accepted from then on,
+	 * and applied once the writer thread starts.
+	 *
+	 * @throws IllegalStateException if another instance holds the lease
+	 */
+	void open() throws IOException {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		leaseLost = false;
+		leaseExpiresAt = transactionTemplate.execute(status -> extendLease());
+		ringBuffer = new PaymentRingBuffer(ringSize);
+		commands = meterRegistry.counter("paymybuddy.engine.commands");
+		deadLettered = meterRegistry.counter("paymybuddy.engine.writeback.dead-letters");
+		meterRegistry.gauge("paymybuddy.engine.writeback.lag", this,
+		                    engine -> engine.lastJournaledSequence - engine.writtenSequence);
+		loadState();
+		journal = new PaymentJournal(Path.of(journalPath), journalSize);
+		replayJournal();
+		openDeadLetters();
+		running = true;
+		writerStopped = false;
+	}
+
+	void startWriter() {
+		writer = new Thread(this::runWriter, "payment-writer");
+		writer.start();
+	}
+
+	void startWriteback() {
+		writeback = new Thread(this::runWriteback, "payment-writeback");
+		writeback.start();
+	}
+
+	/**
+	 * Stops accepting commands, applies the ones already published and saves everything journaled to database,
+	 * then gives the lease up. Commands still unsaved when the database does not answer in time are replayed on the
+	 * next start.
+	 */
+	@PreDestroy
+	void stop() throws InterruptedException, IOException {
+		if (!running) {
+			return;
+		}
+		running = false;
+		if (writer != null) {
+			writer.join(SHUTDOWN_TIMEOUT_MS);
+			writer.interrupt();
+		} else {
+			writerStopped = true;
+		}
+		if (writeback != null) {
+			writeback.join(SHUTDOWN_TIMEOUT_MS);
+			writeback.interrupt();
+			writeback.join();
+		}
+		journal.close();
+		deadLetters.close();
+		releaseLease();
+	}
+
+	/**
+	 * Debits the issuer once and credits every payee, once the payees are checked to be connections of the issuer.
+	 * Returns as soon as the payment is journaled, the transactions are saved in database later.
+	 *
+	 * @param transactions transactions to save, all from the same issuer, with payee, amount, date and description
+	 *                     set
+	 * @param debit        amount withdrawn from the issuer, fees of all transactions included
+	 * @return saved transactions with their IDs, referencing detached copies of the issuer and payees with their
+	 * balances right after the payment
+	 */
+	public List<Transaction> transfer(List<Transaction> transactions, Money debit) {
+		Assert.notEmpty(transactions, "Transactions must not be empty");
+		Assert.notNull(debit, "Debit must not be null");
+		Integer  issuerId     = transactions.get(0).getIssuer().getId();
+		int[]    payeeIds     = new int[transactions.size()];
+		long[]   amounts      = new long[transactions.size()];
+		String[] descriptions = new String[transactions.size()];
+		// Copied on the caller's thread, where lazy users can still be read
+		User              issuer  = detachedCopy(transactions.get(0).getIssuer());
+		List<Transaction> results = new ArrayList<>(transactions.size());
+		for (int i = 0; i < transactions.size(); i++) {
+			Transaction transaction = transactions.get(i);
+			Assert.isTrue(issuerId.equals(transaction.getIssuer().getId()), "Transactions must have the same issuer");
+			payeeIds[i] = transaction.getPayee().getId();
+			amounts[i] = transaction.getAmount().getCents();
+			descriptions[i] = transaction.getDescription();
+			results.add(new Transaction(null, issuer, detachedCopy(transaction.getPayee()), transaction.getDate(),
+			                            transaction.getAmount(), transaction.getDescription()));
+		}
+		PaymentCommand command = new PaymentCommand(PaymentCommand.Type.PAYMENT, issuerId, payeeIds, amounts,
+		                                            descriptions, debit.getCents(), transactions.get(0).getDate(),
+		                                            new CompletableFuture<>());
+		command.results = results;
+		return await(submit(command)).results;
+	}
+
+	/**
+	 * Credits a user from their bank account. The bank account is debited and the ledger entries are written by the
+	 * write-back, in the same database transaction as the balance of the user, so the deposit is journaled whole.
+	 */
+	public void deposit(Integer userId, Integer bankAccountId, Money amount) {
+		Assert.notNull(userId, "User ID must not be null");
+		Assert.notNull(bankAccountId, "Bank account ID must not be null");
+		Assert.notNull(amount, "Amount must not be null");
+		await(submit(balanceCommand(PaymentCommand.Type.DEPOSIT, userId, bankAccountId, amount)));
+	}
+
+	/**
+	 * Debits a user to their bank account. The bank account is credited and the ledger entries are written by the
+	 * write-back, in the same database transaction as the balance of the user, so the withdrawal is journaled whole.
+	 *
+	 * @return balance of the user after the debit
+	 * @throws InsufficientBalanceException if the balance of the user does not cover the amount
+	 */
+	public Money withdraw(Integer userId, Integer bankAccountId, Money amount) {
+		Assert.notNull(userId, "User ID must not be null");
+		Assert.notNull(bankAccountId, "Bank account ID must not be null");
+		Assert.notNull(amount, "Amount must not be null");
+		PaymentCommand command = balanceCommand(PaymentCommand.Type.WITHDRAWAL, userId, bankAccountId, amount);
+		return Money.ofCents(await(submit(command)).issuerBalance);
+	}
+
+	/**
+	 * Lets the users of saved connections pay each other, once their database transaction commits.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	void onConnectionAdded(ConnectionAdded event) {
+		if (!isEnabled()) {
+			return;
+		}
+		for (Connection connection : event.connections()) {
+			connect(connection.getInitializer().getId(), connection.getReceiver().getId());
+		}
+	}
+
+	/**
+	 * Lets two users pay each other right away.
+	 */
+	public void connect(Integer userId, Integer buddyId) {
+		Assert.notNull(userId, "User ID must not be null");
+		Assert.notNull(buddyId, "Buddy ID must not be null");
+		submit(new PaymentCommand(PaymentCommand.Type.CONNECT, userId, new int[]{buddyId}, new long[1],
+		                          new String[1], 0, null, new CompletableFuture<>()));
+	}
+
+	/**
+	 * Finds a transaction accepted by the engine but not saved in database yet.
+	 */
+	public Optional<Transaction> findPendingTransaction(Integer id) {
+		return Optional.ofNullable(pendingTransactions.get(id));
+	}
+
+	private PaymentCommand balanceCommand(PaymentCommand.Type type, Integer userId, Integer bankAccountId,
+	                                      Money amount) {
+		PaymentCommand command = new PaymentCommand(type, userId, new int[0], new long[0], new String[0],
+		                                            amount.getCents(), LocalDateTime.now(clock),
+		                                            new CompletableFuture<>());
+		command.bankAccountId = bankAccountId;
+		return command;
+	}
+
+	private PaymentCommand submit(PaymentCommand command) {
+		Assert.state(running, "In-memory transfer engine is not running");
+		// Another instance may take the lease once it expired, connections are still followed until then
+		if (command.type != PaymentCommand.Type.CONNECT && clock.millis() >= leaseExpiresAt - ackTimeout.toMillis()) {
+			String errorMessage = "The lease of the in-memory transfer engine is about to expire, its write-back to " +
+			                      "database is failing.";
+			log.error(errorMessage);
+			throw new PaymentNotAcceptedException(errorMessage);
+		}
+		ringBuffer.publish(command);
+		return command;
+	}
+
+	/**
+	 * Takes or extends the lease of this instance, in the current database transaction.
+	 *
+	 * @return time at which the lease expires, in milliseconds of the clock, once the transaction commits
+	 * @throws IllegalStateException if another instance holds the lease
+	 */
+	private long extendLease() {
+		EngineLease   lease = engineLeaseRepository.findByIdForUpdate(LEASE_ID)
+		                                           .orElseGet(() -> new EngineLease(LEASE_ID, null, null));
+		LocalDateTime now   = LocalDateTime.now(clock);
+		if (lease.getOwner() != null && !lease.getOwner().equals(leaseOwner) && lease.getExpiresAt().isAfter(now)) {
+			String errorMessage = "Another instance runs the in-memory transfer engine until " +
+			                      lease.getExpiresAt() + ".";
+			log.error(errorMessage);
+			if (running) {
+				leaseLost = true;
+			}
+			throw new IllegalStateException(errorMessage);
+		}
+		lease.setOwner(leaseOwner);
+		lease.setExpiresAt(now.plus(leaseDuration));
+		engineLeaseRepository.save(lease);
+		return clock.millis() + leaseDuration.toMillis();
+	}
+
+	/**
+	 * Extends the lease while no command is saved, once a third of it is used.
+	 */
+	private void renewLeaseIfDue() {
+		if (clock.millis() < leaseExpiresAt - leaseDuration.toMillis() * 2 / 3) {
+			return;
+		}
+		try {
+			leaseExpiresAt = transactionTemplate.execute(status -> extendLease());
+		} catch (RuntimeException e) {
+			log.error("Renewal of the in-memory transfer engine lease failed.", e);
+		}
+	}
+
+	private void releaseLease() {
+		try {
+			transactionTemplate.executeWithoutResult(status -> engineLeaseRepository
+					.findByIdForUpdate(LEASE_ID)
+					.filter(lease -> leaseOwner.equals(lease.getOwner()))
+					.ifPresent(lease -> {
+						lease.setExpiresAt(LocalDateTime.now(clock));
+						engineLeaseRepository.save(lease);
+					}));
+		} catch (RuntimeException e) {
+			log.error("Release of the in-memory transfer engine lease failed, it expires on its own.", e);
+		}
+	}
+
+	/**
+	 * Waits for a command to be journaled or rejected. A command the writer thread has not taken within the
+	 * acknowledgement timeout is cancelled, so it is never applied. A command taken is waited for once more, then
+	 * left to the writer thread: it may still be applied.
+	 *
+	 * @throws PaymentNotAcceptedException if the command was cancelled
+	 * @throws PaymentInProgressException  if the command was taken but not journaled in time
+	 */
+	private PaymentCommand await(PaymentCommand command) {
+		try {
+			try {
+				return command.done.get(ackTimeout.toMillis(), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				cancel(command, "Payment was not taken by the transfer engine within " + ackTimeout +
+				                ", it was cancelled and can be sent again.");
+			}
+			return command.done.get(ackTimeout.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (TimeoutException e) {
+			String errorMessage = "Payment was taken by the transfer engine but not journaled within " +
+			                      ackTimeout.multipliedBy(2) + ", it may still be applied.";
+			log.error(errorMessage);
+			throw new PaymentInProgressException(errorMessage);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancel(command, "Interrupted before the payment was taken by the transfer engine, it was cancelled.");
+			throw new PaymentInProgressException("Interrupted while waiting for payment acknowledgement, it may " +
+			                                     "still be applied.");
+		}
+	}
+
+	/**
+	 * Cancels a command the writer thread has not taken yet.
+	 *
+	 * @throws PaymentNotAcceptedException if the command was cancelled
+	 */
+	private static void cancel(PaymentCommand command, String errorMessage) {
+		if (command.claimed.compareAndSet(false, true)) {
+			log.error(errorMessage);
+			throw new PaymentNotAcceptedException(errorMessage);
+		}
+	}
+
+	/**
+	 * Reads balances and connections from database.
+	 */
+	private void loadState() {
+		entityManager.createQuery("select u.id, u.balance from User u", Object[].class).getResultList()
+		             .forEach(row -> {
+			             int userId = (Integer) row[0];
+			             ensureCapacity(userId);
+			             balances[userId] = ((Money) row[1]).getCents();
+		             });
+		entityManager.createQuery("select c.initializer.id, c.receiver.id from Connection c", Object[].class)
+		             .getResultList()
+		             .forEach(row -> connections.add(pairKey((Integer) row[0], (Integer) row[1])));
+		// Transactions may have been saved meanwhile, the first payment reserves a new block of IDs above them
+		nextTransactionId = 1;
+		transactionIdLimit = 0;
+		long appliedSequence = engineCheckpointRepository.findById(CHECKPOINT_ID)
+		                                                 .map(EngineCheckpoint::getAppliedSequence).orElse(0L);
+		writtenSequence = appliedSequence;
+		lastJournaledSequence = appliedSequence;
+		nextSequence = appliedSequence + 1;
+	}
+
+	/**
+	 * Applies the journaled commands newer than the checkpoint, which were acknowledged but not saved in database.
+	 */
+	private void replayJournal() {
+		long  appliedSequence = writtenSequence;
+		int[] replayed        = {0};
+		journal.replay(command -> {
+			nextSequence = Math.max(nextSequence, command.sequence + 1);
+			lastJournaledSequence = Math.max(lastJournaledSequence, command.sequence);
+			if (command.sequence <= appliedSequence) {
+				return;
+			}
+			apply(command);
+			// Next block of IDs is reserved above the transactions not saved yet
+			if (command.type == PaymentCommand.Type.PAYMENT) {
+				nextTransactionId = Math.max(nextTransactionId, command.firstTransactionId + command.payeeIds.length);
+			}
+			writebackQueue.add(command);
+			replayed[0]++;
+		});
+		if (replayed[0] > 0) {
+			log.info("Replayed " + replayed[0] + " journaled command(s) not saved in database yet.");
+		}
+	}
+
+	private void runWriter() {
+		List<PaymentCommand> batch    = new ArrayList<>(batchSize);
+		List<PaymentCommand> accepted = new ArrayList<>(batchSize);
+		while (running || ringBuffer.hasPending()) {
+			if (ringBuffer.drainTo(batch, batchSize) == 0) {
+				resetJournalIfWritten();
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+				continue;
+			}
+			long sequenceBefore      = nextSequence;
+			int  transactionIdBefore = nextTransactionId;
+			int  limitBefore         = transactionIdLimit;
+			for (PaymentCommand command : batch) {
+				// Cancelled by its caller after the acknowledgement timeout
+				if (!command.claimed.compareAndSet(false, true)) {
+					continue;
+				}
+				try {
+					if (command.type == PaymentCommand.Type.CONNECT) {
+						connections.add(pairKey(command.issuerId, command.payeeIds[0]));
+						command.done.complete(command);
+						continue;
+					}
+					check(command);
+					if (command.type == PaymentCommand.Type.PAYMENT) {
+						if (nextTransactionId + command.payeeIds.length > transactionIdLimit) {
+							reserveTransactionIds(command.payeeIds.length);
+						}
+						command.firstTransactionId = nextTransactionId;
+						nextTransactionId += command.payeeIds.length;
+					}
+					command.sequence = nextSequence++;
+					apply(command);
+					accepted.add(command);
+				} catch (RuntimeException e) {
+					command.done.completeExceptionally(e);
+				}
+			}
+			if (!accepted.isEmpty()) {
+				try {
+					appendToJournal(accepted);
+					lastJournaledSequence = accepted.get(accepted.size() - 1).sequence;
+					accepted.forEach(this::acknowledge);
+					commands.increment(accepted.size());
+				} catch (RuntimeException e) {
+					log.error("Journaling " + accepted.size() + " command(s) failed, they are rejected.", e);
+					for (int i = accepted.size() - 1; i >= 0; i--) {
+						undo(accepted.get(i));
+						accepted.get(i).done.completeExceptionally(e);
+					}
+					nextSequence = sequenceBefore;
+					nextTransactionId = transactionIdBefore;
+					transactionIdLimit = limitBefore;
+				}
+			}
+			batch.clear();
+			accepted.clear();
+		}
+		writerStopped = true;
+	}
+
+	/**
+	 * Reserves the next block of transaction IDs in database, above every saved transaction and every journaled one,
+	 * so that no restart or other instance hands out the same IDs. IDs left in the previous block are skipped.
+	 */
+	private void reserveTransactionIds(int count) {
+		int size  = Math.max(idBlockSize, count);
+		int first = transactionTemplate.execute(status -> {
+			IdSequence sequence = idSequenceRepository.findByNameForUpdate(TRANSACTION_SEQUENCE)
+			                                          .orElseGet(() -> new IdSequence(TRANSACTION_SEQUENCE, 1));
+			Integer lastTransactionId = entityManager.createQuery("select max(t.id) from Transaction t",
+			                                                      Integer.class).getSingleResult();
+			int start = Math.max(Math.max(sequence.getNextValue(), nextTransactionId),
+			                     lastTransactionId == null ? 1 : lastTransactionId + 1);
+			sequence.setNextValue(start + size);
+			idSequenceRepository.save(sequence);
+			return start;
+		});
+		nextTransactionId = first;
+		transactionIdLimit = first + size;
+	}
+
+	private void check(PaymentCommand command) {
+		if (command.type == PaymentCommand.Type.DEPOSIT) {
+			return;
+		}
+		for (int payeeId : command.payeeIds) {
+			if (!connections.contains(pairKey(command.issuerId, payeeId))) {
+				String errorMessage = "The payee is not a buddy from issuer.";
+				log.error(errorMessage);
+				throw new InvalidPayeeException(errorMessage);
+			}
+		}
+		if (balanceOf(command.issuerId) < command.debit) {
+			String errorMessage = "Issuer has insufficient balance to make this transfer.";
+			log.error(errorMessage);
+			throw new InsufficientBalanceException(errorMessage);
+		}
+	}
+
+	private void apply(PaymentCommand command) {
+		ensureCapacity(command.issuerId);
+		if (command.type == PaymentCommand.Type.DEPOSIT) {
+			balances[command.issuerId] += command.debit;
+		} else {
+			balances[command.issuerId] -= command.debit;
+		}
+		for (int i = 0; i < command.payeeIds.length; i++) {
+			ensureCapacity(command.payeeIds[i]);
+			balances[command.payeeIds[i]] += command.amounts[i];
+			command.payeeBalances[i] = balances[command.payeeIds[i]];
+		}
+		command.issuerBalance = balances[command.issuerId];
+	}
+
+	private void undo(PaymentCommand command) {
+		for (int i = 0; i < command.payeeIds.length; i++) {
+			balances[command.payeeIds[i]] -= command.amounts[i];
+		}
+		if (command.type == PaymentCommand.Type.DEPOSIT) {
+			balances[command.issuerId] -= command.debit;
+		} else {
+			balances[command.issuerId] += command.debit;
+		}
+	}
+
+	/**
+	 * Appends accepted commands to the journal. A full journal is started over once every record in it is saved in
+	 * database, unless the write-back is failing or does not catch up within the acknowledgement timeout: the
+	 * commands are rejected then, instead of holding up every caller.
+	 *
+	 * @throws PaymentNotAcceptedException if the journal is full and not saved in time
+	 */
+	private void appendToJournal(List<PaymentCommand> accepted) {
+		if (journal.append(accepted)) {
+			return;
+		}
+		if (writebackFailing) {
+			String errorMessage = "Payment journal is full and its write-back to database is failing.";
+			log.error(errorMessage);
+			throw new PaymentNotAcceptedException(errorMessage);
+		}
+		awaitWritten(lastJournaledSequence);
+		journal.reset();
+		if (!journal.append(accepted)) {
+			throw new IllegalStateException("A batch of " + accepted.size() + " command(s) does not fit in the " +
+			                                "payment journal.");
+		}
+	}
+
+	private void resetJournalIfWritten() {
+		if (journal.usage() > 0 && writtenSequence >= lastJournaledSequence) {
+			journal.reset();
+		}
+	}
+
+	private void awaitWritten(long sequence) {
+		long deadline = System.nanoTime() + ackTimeout.toNanos();
+		while (writtenSequence < sequence) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new IllegalStateException("Interrupted while waiting for the payment journal to be saved.");
+			}
+			if (System.nanoTime() - deadline > 0) {
+				String errorMessage = "Payment journal is full and was not saved in database within " + ackTimeout +
+				                      ".";
+				log.error(errorMessage);
+				throw new PaymentNotAcceptedException(errorMessage);
+			}
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+	}
+
+	private void acknowledge(PaymentCommand command) {
+		if (command.results != null) {
+			command.results.get(0).getIssuer().setBalance(Money.ofCents(command.issuerBalance));
+			for (int i = 0; i < command.results.size(); i++) {
+				Transaction transaction = command.results.get(i);
+				transaction.setId(command.firstTransactionId + i);
+				transaction.getPayee().setBalance(Money.ofCents(command.payeeBalances[i]));
+				pendingTransactions.put(transaction.getId(), transaction);
+			}
+		}
+		writebackQueue.add(command);
+		command.done.complete(command);
+	}
+
+	private void runWriteback() {
+		List<PaymentCommand> batch          = new ArrayList<>(writebackBatchSize);
+		int                  failedAttempts = 0;
+		while (!writerStopped || !writebackQueue.isEmpty() || !batch.isEmpty()) {
+			if (batch.isEmpty()) {
+				try {
+					PaymentCommand first = writebackQueue.poll(100, TimeUnit.MILLISECONDS);
+					if (first == null) {
+						renewLeaseIfDue();
+						continue;
+					}
+					batch.add(first);
+				} catch (InterruptedException e) {
+					return;
+				}
+				writebackQueue.drainTo(batch, writebackBatchSize - 1);
+			}
+			try {
+				if (failedAttempts < writebackMaxAttempts) {
+					writeAndRelease(batch);
+					batch.clear();
+				} else {
+					writeOneByOne(batch);
+				}
+				failedAttempts = 0;
+				writebackFailing = false;
+			} catch (RuntimeException e) {
+				// The same commands are written again, nothing of them was committed
+				failedAttempts++;
+				writebackFailing = true;
+				log.error("Write-back of " + batch.size() + " command(s) failed " + failedAttempts +
+				          " time(s), retrying.", e);
+				try {
+					Thread.sleep(WRITE_BACK_RETRY_MS);
+				} catch (InterruptedException interrupted) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void writeAndRelease(List<PaymentCommand> commands) {
+		write(commands);
+		writtenSequence = commands.get(commands.size() - 1).sequence;
+		commands.forEach(this::releasePending);
+	}
+
+	private void releasePending(PaymentCommand command) {
+		if (command.type == PaymentCommand.Type.PAYMENT) {
+			for (int i = 0; i < command.payeeIds.length; i++) {
+				pendingTransactions.remove(command.firstTransactionId + i);
+			}
+		}
+	}
+
+	/**
+	 * Saves the commands of a batch failing as a whole one at a time, so that a command failing on its own does not
+	 * hold up the others. Such a command is set aside while the database answers. Stops at the first command failing
+	 * because the database does not answer, the commands left stay in the batch.
+	 */
+	private void writeOneByOne(List<PaymentCommand> batch) {
+		Iterator<PaymentCommand> iterator = batch.iterator();
+		while (iterator.hasNext()) {
+			PaymentCommand command = iterator.next();
+			try {
+				writeAndRelease(List.of(command));
+			} catch (RuntimeException e) {
+				if (leaseLost || !databaseAnswers()) {
+					throw e;
+				}
+				setAside(command, e);
+			}
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Appends a command the database refuses to the dead letter journal and moves the checkpoint past it, so that it
+	 * is not replayed. Its effect stays on the balances in memory, an operator has to save or revert it.
+	 */
+	private void setAside(PaymentCommand command, RuntimeException cause) {
+		log.error("Command " + command.sequence + " (" + command.type + " of user " + command.issuerId + ") can " +
+		          "not be saved in database, it is set aside in " + journalPath + DEAD_LETTER_SUFFIX + ".", cause);
+		// Already set aside when moving the checkpoint failed before
+		if (command.sequence > lastDeadLetter) {
+			if (!deadLetters.append(List.of(command))) {
+				log.error("Dead letter journal is full, command " + command.sequence + " is only logged.");
+			}
+			lastDeadLetter = command.sequence;
+		}
+		leaseExpiresAt = transactionTemplate.execute(status -> {
+			long expiresAt = extendLease();
+			engineCheckpointRepository.save(new EngineCheckpoint(CHECKPOINT_ID, command.sequence));
+			return expiresAt;
+		});
+		writtenSequence = command.sequence;
+		releasePending(command);
+		deadLettered.increment();
+	}
+
+	private boolean databaseAnswers() {
+		try {
+			jdbcTemplate.queryForObject("select 1", Integer.class);
+			return true;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	private void openDeadLetters() throws IOException {
+		deadLetters = new PaymentJournal(Path.of(journalPath + DEAD_LETTER_SUFFIX), journalSize);
+		int[] count = {0};
+		deadLetters.replay(command -> {
+			count[0]++;
+			lastDeadLetter = command.sequence;
+		});
+		if (count[0] > 0) {
+			log.warn(count[0] + " command(s) set aside in " + journalPath + DEAD_LETTER_SUFFIX + " were never " +
+			         "saved in database.");
+		}
+	}
+
+	/**
+	 * Saves the outcome of commands in one database transaction, with the bank side of deposits and withdrawals and
+	 * the checkpoint covering them. User versions are incremented, so a user read before is not saved over them.
+	 */
+	private void write(List<PaymentCommand> batch) {
+		leaseExpiresAt = transactionTemplate.execute(status -> {
+			// Fails the write-back of an instance which lost the lease, before it saves anything
+			long                   expiresAt       = extendLease();
+			List<Object[]>         rows            = new ArrayList<>();
+			Map<Integer, Long>     balancesToWrite = new HashMap<>();
+			List<PaymentCompleted> payments        = new ArrayList<>();
+			for (PaymentCommand command : batch) {
+				if (command.type == PaymentCommand.Type.PAYMENT) {
+					List<Transaction> transactions = new ArrayList<>(command.payeeIds.length);
+					for (int i = 0; i < command.payeeIds.length; i++) {
+						Integer transactionId = command.firstTransactionId + i;
+						Money   amount        = Money.ofCents(command.amounts[i]);
+						rows.add(new Object[]{transactionId, command.issuerId, command.payeeIds[i],
+						                      Timestamp.valueOf(command.date), amount.toBigDecimal(),
+						                      command.descriptions[i]});
+						transactions.add(new Transaction(transactionId, userReference(command.issuerId),
+						                                 userReference(command.payeeIds[i]), command.date, amount,
+						                                 command.descriptions[i]));
+						balancesToWrite.put(command.payeeIds[i], command.payeeBalances[i]);
+					}
+					payments.add(new PaymentCompleted(transactions, Money.ofCents(command.debit)));
+				}
+				balancesToWrite.put(command.issuerId, command.issuerBalance);
+				if (command.bankAccountId != 0) {
+					writeBankSide(command);
+				}
+			}
+			if (!rows.isEmpty()) {
+				jdbcTemplate.batchUpdate(INSERT_TRANSACTION, rows);
+			}
+			// Listeners writing to the database find the transaction rows in it
+			payments.forEach(eventPublisher::publishEvent);
+			balancesToWrite.forEach((userId, balance) -> entityManager
+					.createQuery("update User u set u.balance = :balance, u.version = u.version + 1 where u.id = :id")
+					.setParameter("balance", Money.ofCents(balance))
+					.setParameter("id", userId)
+					.executeUpdate());
+			engineCheckpointRepository.save(new EngineCheckpoint(CHECKPOINT_ID,
+			                                                     batch.get(batch.size() - 1).sequence));
+			return expiresAt;
+		});
+	}
+
+	/**
+	 * Moves a deposit or withdrawal on the bank account and writes its ledger entries.
+	 */
+	private void writeBankSide(PaymentCommand command) {
+		Money       amount      = Money.ofCents(command.debit);
+		BankAccount bankAccount = new BankAccount();
+		bankAccount.setId(command.bankAccountId);
+		if (command.type == PaymentCommand.Type.DEPOSIT) {
+			jdbcTemplate.update(CREDIT_BANK_ACCOUNT, Money.ofCents(-command.debit).toBigDecimal(),
+			                    command.bankAccountId);
+			ledgerService.recordDeposit(userReference(command.issuerId), bankAccount, amount);
+		} else {
+			jdbcTemplate.update(CREDIT_BANK_ACCOUNT, amount.toBigDecimal(), command.bankAccountId);
+			ledgerService.recordWithdrawal(userReference(command.issuerId), bankAccount, amount);
+		}
+	}
+
+	long balanceOf(int userId) {
+		return userId < balances.length ? balances[userId] : 0;
+	}
+
+	private void ensureCapacity(int userId) {
+		if (userId >= balances.length) {
+			balances = Arrays.copyOf(balances, Math.max(userId + 1, balances.length * 2));
+		}
+	}
+
+	/**
+	 * Key of a connection, the same whoever initialized it.
+	 */
+	private static long pairKey(int userId, int buddyId) {
+		return ((long) Math.min(userId, buddyId) << 32) | (Math.max(userId, buddyId) & 0xFFFFFFFFL);
+	}
+
+	private static User userReference(int id) {
+		User user = new User();
+		user.setId(id);
+		return user;
+	}
+
+	private static User detachedCopy(User user) {
+		User copy = new User();
+		copy.setId(user.getId());
+		copy.setEmail(user.getEmail());
+		copy.setFirstName(user.getFirstName());
+		copy.setLastName(user.getLastName());
+		copy.setBalance(user.getBalance());
+		return copy;
+	}
+}
@@ -0,0 +1,361 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.constants.LedgerAccountType;
+import com.paymybuddy.paymybuddy.constants.LedgerEntryKind;
+import com.paymybuddy.paymybuddy.constants.TransferStrategy;
+import com.paymybuddy.paymybuddy.event.PaymentCompleted;
+import com.paymybuddy.paymybuddy.model.*;
+import com.paymybuddy.paymybuddy.model.viewmodel.LedgerEntryViewModel;
+import com.paymybuddy.paymybuddy.model.viewmodel.LedgerViewModel;
+import com.paymybuddy.paymybuddy.repository.LedgerEntryRepository;
+import com.paymybuddy.paymybuddy.repository.LedgerSnapshotRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Append-only double-entry ledger of every movement of money.
+ * Each operation writes a posting of entries adding up to zero. The balance of an account is its last snapshot plus
+ * the entries written after it, and a background compaction rolls entries into new snapshots so that reading it only
+ * sums a short tail of entries.
+ * <p>
+ * With the LEDGER transfer strategy the ledger holds the balances: payments, deposits and withdrawals only insert
+ * entries, a debit locks the snapshot of the debited account to check its balance, and balances are read from the
+ * ledger. Otherwise the balances payments check and move stay in the user and bank account rows, and the ledger
+ * records how they moved so that both can be reconciled.
+ */
+@Service
+@Slf4j
+public class LedgerService {
+	@Autowired
+	LedgerEntryRepository      ledgerEntryRepository;
+	@Autowired
+	LedgerSnapshotRepository   ledgerSnapshotRepository;
+	@Autowired
+	JdbcTemplate               jdbcTemplate;
+	@Autowired
+	PlatformTransactionManager transactionManager;
+	@Autowired
+	Clock                      clock;
+
+	private static final String INSERT_ENTRY = "insert into ledger_entry (posting_id, account_type, account_id, " +
+	                                           "kind, amount, fk_transaction_id, created_at) " +
+	                                           "values (?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String SUM_ENTRIES_AFTER = "select coalesce(sum(amount), 0) from ledger_entry " +
+	                                                "where account_type = ? and account_id = ? " +
+	                                                "and ledger_entry_id > ?";
+
+	private static final String LAST_ENTRY = "select coalesce(max(ledger_entry_id), 0) from ledger_entry";
+
+	private static final String INSERT_EMPTY_SNAPSHOT = "insert into ledger_snapshot (account_type, account_id, " +
+	                                                    "balance, last_entry_id, taken_at) values (?, ?, 0, 0, ?)";
+
+	private static final String SUM_ENTRIES_BY_ACCOUNT = "select account_type, account_id, sum(amount) " +
+	                                                     "from ledger_entry " +
+	                                                     "where ledger_entry_id > ? and ledger_entry_id <= ? " +
+	                                                     "group by account_type, account_id";
+
+	/**
+	 * Whether movements are written to the ledger.
+	 */
+	@Value("${paymybuddy.ledger.enabled:true}")
+	boolean  enabled;
+	/**
+	 * How long after compaction saw a committed entry ID it rolls the entries up to it into snapshots. IDs are given
+	 * when entries are inserted but entries show up when they commit, so an entry with a lower ID may still be
+	 * written by a running database transaction; the delay must be longer than any of them.
+	 */
+	@Value("${paymybuddy.ledger.settle-delay:PT10S}")
+	Duration settleDelay;
+	/**
+	 * Concurrency control used by payments, the ledger holds the balances when it is LEDGER.
+	 */
+	@Value("${paymybuddy.transfer.strategy:PESSIMISTIC}")
+	TransferStrategy strategy;
+
+	private TransactionTemplate transactionTemplate;
+
+	/**
+	 * Last committed entry IDs seen by compactions not settled yet, oldest first. Guarded by this service.
+	 */
+	private final Deque<SeenEntry> seenEntries = new ArrayDeque<>();
+
+	@PostConstruct
+	void init() {
+		Assert.state(enabled || strategy != TransferStrategy.LEDGER,
+		             "The ledger must be enabled to use the LEDGER transfer strategy");
+		transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+
+	/**
+	 * @return whether balances are read from the ledger and moved by inserting entries only, that is whether the
+	 * transfer strategy is LEDGER
+	 */
+	public boolean holdsBalances() {
+		return enabled && strategy == TransferStrategy.LEDGER;
+	}
+
+	/**
+	 * Writes completed payments in their database transaction, so that a committed payment always has its posting.
+	 */
+	@EventListener
+	void onPaymentCompleted(PaymentCompleted event) {
+		recordPayments(event.transactions(), event.debit());
+	}
+
+	/**
+	 * Writes payments from one issuer and the fee charged for them, in the current database transaction.
+	 *
+	 * @param transactions saved transactions, all from the same issuer
+	 * @param debit        amount withdrawn from the issuer, fees included
+	 */
+	public void recordPayments(List<Transaction> transactions, Money debit) {
+		Assert.notEmpty(transactions, "Transactions must not be empty");
+		Assert.notNull(debit, "Debit must not be null");
+		if (!enabled) {
+			return;
+		}
+		LedgerAccount issuer  = LedgerAccount.ofUser(transactions.get(0).getIssuer().getId());
+		Posting       posting = new Posting();
+		Money         paid    = Money.ZERO;
+		for (Transaction transaction : transactions) {
+			Money amount = transaction.getAmount();
+			posting.add(issuer, LedgerEntryKind.PAYMENT, Money.ZERO.minus(amount), transaction.getId());
+			posting.add(LedgerAccount.ofUser(transaction.getPayee().getId()), LedgerEntryKind.PAYMENT, amount,
+			            transaction.getId());
+			paid = paid.plus(amount);
+		}
+		Money fee = debit.minus(paid);
+		if (!fee.isZero()) {
+			Integer transactionId = transactions.size() == 1 ? transactions.get(0).getId() : null;
+			posting.add(issuer, LedgerEntryKind.FEE, Money.ZERO.minus(fee), transactionId);
+			posting.add(LedgerAccount.FEES, LedgerEntryKind.FEE, fee, transactionId);
+		}
+		write(posting);
+	}
+
+	/**
+	 * Writes money moved from a bank account to its owner's balance, in the current database transaction.
+	 */
+	public void recordDeposit(User user, BankAccount bankAccount, Money amount) {
+		recordTransfer(LedgerAccount.ofBankAccount(bankAccount.getId()), LedgerAccount.ofUser(user.getId()),
+		               LedgerEntryKind.DEPOSIT, amount);
+	}
+
+	/**
+	 * Writes money moved from a user's balance to their bank account, in the current database transaction.
+	 */
+	public void recordWithdrawal(User user, BankAccount bankAccount, Money amount) {
+		recordTransfer(LedgerAccount.ofUser(user.getId()), LedgerAccount.ofBankAccount(bankAccount.getId()),
+		               LedgerEntryKind.WITHDRAWAL, amount);
+	}
+
+	/**
+	 * Starts the ledger of an account created with money on it, such as a new bank account.
+	 *
+	 * @param account account to open
+	 * @param balance balance of the account before any entry
+	 */
+	public void open(LedgerAccount account, Money balance) {
+		Assert.notNull(account, "Account must not be null");
+		Assert.notNull(balance, "Balance must not be null");
+		if (!enabled || balance.isZero()) {
+			return;
+		}
+		ledgerSnapshotRepository.save(new LedgerSnapshot(account, balance, 0, LocalDateTime.now(clock), null));
+	}
+
+	/**
+	 * Reads the current balance of an account from its snapshot and the entries written since.
+	 *
+	 * @param account account to read
+	 * @return the balance, zero for an account without any entry
+	 */
+	public Money balanceOf(LedgerAccount account) {
+		Assert.notNull(account, "Account must not be null");
+		return balanceFrom(account, ledgerSnapshotRepository.findById(account));
+	}
+
+	/**
+	 * Locks the snapshot of an account about to be debited and reads its balance, in the current database
+	 * transaction. The snapshot is created if the account has none yet. Only debits of the account wait for the
+	 * lock, credits are still plain inserts.
+	 * <p>
+	 * The entries written since the snapshot are read once the lock is held, which must come before any other read
+	 * of the database transaction: with MySQL's repeatable read, the entries of the debit that held the lock before
+	 * would not be seen otherwise.
+	 *
+	 * @param account account to debit
+	 * @return the balance, including every debit committed before the lock was taken
+	 */
+	public Money lockBalance(LedgerAccount account) {
+		Assert.notNull(account, "Account must not be null");
+		Optional<LedgerSnapshot> snapshot = ledgerSnapshotRepository.findByIdForUpdate(account);
+		if (snapshot.isEmpty()) {
+			try {
+				jdbcTemplate.update(INSERT_EMPTY_SNAPSHOT, account.getAccountType().name(), account.getAccountId(),
+				                    Timestamp.valueOf(LocalDateTime.now(clock)));
+			} catch (DuplicateKeyException e) {
+				// Created meanwhile by another debit or by a compaction
+				log.debug("Ledger snapshot of " + account + " created concurrently.");
+			}
+			snapshot = ledgerSnapshotRepository.findByIdForUpdate(account);
+		}
+		return balanceFrom(account, snapshot);
+	}
+
+	private Money balanceFrom(LedgerAccount account, Optional<LedgerSnapshot> snapshot) {
+		Money balance = snapshot.map(LedgerSnapshot::getBalance).orElse(Money.ZERO);
+		long lastEntryId = snapshot.map(LedgerSnapshot::getLastEntryId).orElse(0L);
+		BigDecimal sinceSnapshot = jdbcTemplate.queryForObject(SUM_ENTRIES_AFTER, BigDecimal.class,
+		                                                       account.getAccountType().name(),
+		                                                       account.getAccountId(), lastEntryId);
+		return sinceSnapshot == null ? balance : balance.plus(Money.of(sinceSnapshot));
+	}
+
+	/**
+	 * Reads the balance and the last entries of an account.
+	 *
+	 * @param account account to read
+	 * @param limit   maximum number of entries
+	 * @return the balance and the entries, most recent first
+	 */
+	public LedgerViewModel getLedger(LedgerAccount account, int limit) {
+		Assert.notNull(account, "Account must not be null");
+		List<LedgerEntryViewModel> entries = ledgerEntryRepository
+				.findByAccountOrderByIdDesc(account, PageRequest.of(0, limit)).stream()
+				.map(LedgerService::entryToViewModel)
+				.toList();
+		return new LedgerViewModel(balanceOf(account), entries);
+	}
+
+	public static LedgerEntryViewModel entryToViewModel(LedgerEntry entry) {
+		return new LedgerEntryViewModel(entry.getId(), entry.getPostingId(), entry.getKind(), entry.getAmount(),
+		                                entry.getTransactionId(), entry.getCreatedAt());
+	}
+
+	@Scheduled(initialDelayString = "${paymybuddy.ledger.compaction-interval:PT1M}",
+	           fixedDelayString = "${paymybuddy.ledger.compaction-interval:PT1M}")
+	void scheduledCompaction() {
+		try {
+			compact();
+		} catch (RuntimeException e) {
+			// Another instance may have compacted the same accounts, entries are rolled on the next run
+			log.error("Ledger compaction failed.", e);
+		}
+	}
+
+	/**
+	 * Rolls the settled entries written since the last compaction into new snapshots, in one database transaction.
+	 * Entries are settled up to the last committed entry ID seen by a compaction at least the settle delay ago.
+	 *
+	 * @return number of snapshots written
+	 */
+	public synchronized int compact() {
+		if (!enabled) {
+			return 0;
+		}
+		// Read outside the compaction transaction, only committed entries are seen
+		Long          lastEntryId = jdbcTemplate.queryForObject(LAST_ENTRY, Long.class);
+		LocalDateTime seenAt      = LocalDateTime.now(clock);
+		seenEntries.addLast(new SeenEntry(lastEntryId == null ? 0 : lastEntryId, seenAt));
+		long settled = 0;
+		while (!seenEntries.isEmpty() && !seenEntries.peekFirst().seenAt().isAfter(seenAt.minus(settleDelay))) {
+			settled = seenEntries.pollFirst().entryId();
+		}
+		long to = settled;
+		Integer compacted = transactionTemplate.execute(status -> {
+			long from = ledgerSnapshotRepository.findLastCompactedEntryId();
+			if (to <= from) {
+				return 0;
+			}
+			Map<LedgerAccount, Money> totals = new HashMap<>();
+			jdbcTemplate.query(SUM_ENTRIES_BY_ACCOUNT, resultSet -> {
+				totals.put(new LedgerAccount(LedgerAccountType.valueOf(resultSet.getString(1)), resultSet.getInt(2)),
+				           Money.of(resultSet.getBigDecimal(3)));
+			}, from, to);
+
+			Map<LedgerAccount, LedgerSnapshot> snapshots = new HashMap<>();
+			ledgerSnapshotRepository.findAllById(totals.keySet())
+			                        .forEach(snapshot -> snapshots.put(snapshot.getAccount(), snapshot));
+			LocalDateTime        now    = LocalDateTime.now(clock);
+			List<LedgerSnapshot> rolled = new ArrayList<>(totals.size());
+			totals.forEach((account, total) -> {
+				LedgerSnapshot snapshot = snapshots.getOrDefault(account,
+				                                                 new LedgerSnapshot(account, Money.ZERO, 0, now, null));
+				snapshot.setBalance(snapshot.getBalance().plus(total));
+				snapshot.setLastEntryId(to);
+				snapshot.setTakenAt(now);
+				rolled.add(snapshot);
+			});
+			ledgerSnapshotRepository.saveAll(rolled);
+			log.info("Ledger compacted up to entry " + to + " into " + rolled.size() + " snapshot(s).");
+			return rolled.size();
+		});
+		return compacted == null ? 0 : compacted;
+	}
+
+	private void recordTransfer(LedgerAccount from, LedgerAccount to, LedgerEntryKind kind, Money amount) {
+		Assert.notNull(amount, "Amount must not be null");
+		if (!enabled) {
+			return;
+		}
+		Posting posting = new Posting();
+		posting.add(from, kind, Money.ZERO.minus(amount), null);
+		posting.add(to, kind, amount, null);
+		write(posting);
+	}
+
+	/**
+	 * Inserts the entries of a posting with one JDBC batch, on the connection of the current database transaction.
+	 */
+	private void write(Posting posting) {
+		Assert.isTrue(posting.total.isZero(), "Ledger entries of a posting must add up to zero");
+		Timestamp createdAt = Timestamp.valueOf(LocalDateTime.now(clock));
+		List<Object[]> rows = new ArrayList<>(posting.entries.size());
+		for (LedgerEntry entry : posting.entries) {
+			rows.add(new Object[]{posting.id, entry.getAccount().getAccountType().name(),
+			                      entry.getAccount().getAccountId(), entry.getKind().name(),
+			                      entry.getAmount().toBigDecimal(), entry.getTransactionId(), createdAt});
+		}
+		jdbcTemplate.batchUpdate(INSERT_ENTRY, rows);
+	}
+
+	/**
+	 * Last committed entry ID seen by a compaction.
+	 */
+	private record SeenEntry(long entryId, LocalDateTime seenAt) {
+	}
+
+	/**
+	 * Entries written by one operation.
+	 */
+	private static class Posting {
+		private final String            id      = UUID.randomUUID().toString();
+		private final List<LedgerEntry> entries = new ArrayList<>();
+		private       Money             total   = Money.ZERO;
+
+		void add(LedgerAccount account, LedgerEntryKind kind, Money amount, Integer transactionId) {
+			entries.add(new LedgerEntry(null, id, account, kind, amount, transactionId, null));
+			total = total.plus(amount);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.paymybuddy.paymybuddy.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Writes the rows of a database cursor to a streamed response body, one line each. The cursor is read in a read-only
+ * transaction and rows are written one at a time, so memory use does not depend on the number of rows.
+ */
+@Component
+public class LineStreamWriter {
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	private TransactionTemplate transactionTemplate;
+
+	/**
+	 * Turns a row into a line, without its line break.
+	 */
+	@FunctionalInterface
+	public interface LineFormat<T> {
+		String format(T row) throws IOException;
+	}
+
+	@PostConstruct
+	void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setReadOnly(true);
+	}
+
+	/**
+	 * Writes every row of a stream opened in the read-only transaction. The output stream is flushed but not closed.
+	 *
+	 * @param rows   opens the stream of rows, which is closed once written
+	 * @param header first line, null for none
+	 * @param format turns each row into its line
+	 * @return number of rows written
+	 * @throws IOException when the output can not be written, most likely because the client went away
+	 */
+	public <T> long write(Supplier<? extends Stream<? extends T>> rows, String header, LineFormat<T> format,
+	                      OutputStream output) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+		long   count;
+		try {
+			count = transactionTemplate.execute(status -> {
+				try (Stream<? extends T> stream = rows.get()) {
+					if (header != null) {
+						writer.write(header);
+						writer.write('\n');
+					}
+					long written = 0;
+					for (Iterator<? extends T> iterator = stream.iterator(); iterator.hasNext(); written++) {
+						writer.write(format.format(iterator.next()));
+						writer.write('\n');
+					}
+					return written;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			// Most likely the client went away, there is nobody left to answer
+			throw e.getCause();
+		}
+		writer.flush();
+		return count;
+	}
+}
@@ -0,0 +1,36 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Writes whole lists as NDJSON, one JSON object per line, streamed from a database cursor by
+ * {@link LineStreamWriter}.
+ */
+@Service
+@Slf4j
+public class ListDumpService {
+	@Autowired
+	LineStreamWriter lineStreamWriter;
+	@Autowired
+	ObjectMapper     objectMapper;
+
+	/**
+	 * Writes every row of a stream opened in the dump transaction. The output stream is flushed but not closed.
+	 *
+	 * @param rows opens the stream of rows, which is closed once written
+	 * @return number of rows written
+	 */
+	public long dump(Supplier<Stream<?>> rows, OutputStream output) throws IOException {
+		long count = lineStreamWriter.write(rows, null, objectMapper::writeValueAsString, output);
+		log.info("Dumped " + count + " rows.");
+		return count;
+	}
+}
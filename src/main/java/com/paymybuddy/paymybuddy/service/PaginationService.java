@@ -1,20 +1,33 @@
 package com.paymybuddy.paymybuddy.service;
 
-import com.paymybuddy.paymybuddy.constants.Pagination;
+import com.paymybuddy.paymybuddy.exceptions.InvalidPageException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
 @Service
+@Slf4j
 public class PaginationService {
+    /**
+     * Largest page served by the list endpoints.
+     */
+    @Value("${paymybuddy.pagination.max-size:500}")
+    int maxSize;
+
+    /**
+     * Slices a page out of a list that is already in display order.
+     */
     public PageImpl<?> getPaginatedList(Pageable pageable, List<?> rawList) {
         // Configure pagination parameters
-        int                        pageSize    = Pagination.DEFAULT_SIZE;
+        int                        pageSize    = pageable.getPageSize();
         int                        currentPage = pageable.getPageNumber();
         int                        startItem   = currentPage * pageSize;
         List<?> list;
@@ -25,9 +38,41 @@ public class PaginationService {
             int toIndex = Math.min(startItem + pageSize, rawList.size());
             list = rawList.subList(startItem, toIndex);
         }
-        // Show most recent first
-        return new PageImpl<>(list,
-                              PageRequest.of(currentPage, pageSize, Sort.by("date").descending()),
-                              rawList.size());
+        return new PageImpl<>(list, PageRequest.of(currentPage, pageSize), rawList.size());
+    }
+
+    /**
+     * Checks a requested page of a list endpoint.
+     *
+     * @param page     page number, starting at 0
+     * @param size     number of items, at most the configured maximum
+     * @param sortable properties the list can be sorted by
+     * @return the page, sorted as asked then by ID
+     */
+    public Pageable getPageRequest(int page, int size, Sort sort, Collection<String> sortable) {
+        if (page < 0 || size < 1 || size > maxSize) {
+            String errorMessage = "Page must be 0 or more and size between 1 and " + maxSize + ", got page " + page +
+                                  " of size " + size + ".";
+            log.error(errorMessage);
+            throw new InvalidPageException(errorMessage);
+        }
+        return PageRequest.of(page, size, getSort(sort, sortable));
+    }
+
+    /**
+     * Checks the order asked for a list endpoint.
+     *
+     * @param sortable properties the list can be sorted by
+     * @return the order asked then by ID, so that pages of equal values do not overlap
+     */
+    public Sort getSort(Sort sort, Collection<String> sortable) {
+        for (Sort.Order order : sort) {
+            if (!sortable.contains(order.getProperty())) {
+                String errorMessage = "Can not sort by " + order.getProperty() + ", only by " + sortable + ".";
+                log.error(errorMessage);
+                throw new InvalidPageException(errorMessage);
+            }
+        }
+        return sort.getOrderFor("id") == null ? sort.and(Sort.by("id")) : sort;
     }
 }
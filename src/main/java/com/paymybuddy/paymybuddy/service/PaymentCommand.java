@@ -0,0 +1,78 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.model.Transaction;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Request handled by the writer thread of the in-memory transfer engine.
+ * Inputs are set by the caller, the outcome is set by the writer thread before the command is completed.
+ */
+final class PaymentCommand {
+	enum Type {
+		/**
+		 * Debits the issuer and credits every payee.
+		 */
+		PAYMENT,
+		/**
+		 * Credits the issuer with the debit amount.
+		 */
+		DEPOSIT,
+		/**
+		 * Debits the issuer of the debit amount if their balance covers it.
+		 */
+		WITHDRAWAL,
+		/**
+		 * Connects the issuer and the only payee, never journaled as connections are saved in database first.
+		 */
+		CONNECT
+	}
+
+	final Type          type;
+	final int           issuerId;
+	final int[]         payeeIds;
+	final long[]        amounts;
+	final String[]      descriptions;
+	final long          debit;
+	final LocalDateTime date;
+	/**
+	 * Completed once the command is journaled, or rejected. Null for replayed commands.
+	 */
+	final CompletableFuture<PaymentCommand> done;
+	/**
+	 * Set once by whoever gets to the command first: the writer thread taking it, or the caller giving up on it
+	 * after the acknowledgement timeout. A command cancelled by its caller is never applied.
+	 */
+	final AtomicBoolean                     claimed = new AtomicBoolean();
+
+	long              sequence;
+	int               firstTransactionId;
+	long              issuerBalance;
+	long[]            payeeBalances;
+	/**
+	 * Bank account debited by a deposit or credited by a withdrawal when the command is saved in database, 0 when
+	 * the bank side is saved by the caller.
+	 */
+	int               bankAccountId;
+	/**
+	 * Transactions returned to the caller of a payment, referencing detached copies of the issuer and payees.
+	 * Their IDs and balances are set by the writer thread. Null for other commands and replayed ones.
+	 */
+	List<Transaction> results;
+
+	PaymentCommand(Type type, int issuerId, int[] payeeIds, long[] amounts, String[] descriptions, long debit,
+	               LocalDateTime date, CompletableFuture<PaymentCommand> done) {
+		this.type = type;
+		this.issuerId = issuerId;
+		this.payeeIds = payeeIds;
+		this.amounts = amounts;
+		this.descriptions = descriptions;
+		this.debit = debit;
+		this.date = date;
+		this.done = done;
+		this.payeeBalances = new long[payeeIds.length];
+	}
+}
@@ -0,0 +1,212 @@
+package com.paymybuddy.paymybuddy.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the in-memory transfer engine, a memory-mapped file of records framed by their length
+ * and a CRC32 checksum. Records are appended in sequence order and the file is written back to disk before
+ * their commands are acknowledged. Reading stops at the first torn, corrupted or older record, so that the
+ * records left over from before a reset are never replayed.
+ */
+final class PaymentJournal implements Closeable {
+	private static final int MAGIC       = 0x504D424A;
+	private static final int HEADER_SIZE = 16;
+	/**
+	 * Length prefix and checksum around each record.
+	 */
+	private static final int FRAME_SIZE  = Integer.BYTES + Long.BYTES;
+
+	private final FileChannel      channel;
+	private final MappedByteBuffer buffer;
+	private final CRC32            checksum = new CRC32();
+
+	PaymentJournal(Path path, int size) throws IOException {
+		Path directory = path.toAbsolutePath().getParent();
+		if (directory != null) {
+			Files.createDirectories(directory);
+		}
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+		                           StandardOpenOption.WRITE);
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		if (buffer.getInt(0) != MAGIC) {
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(HEADER_SIZE, 0);
+			buffer.force();
+		}
+		buffer.position(HEADER_SIZE);
+	}
+
+	/**
+	 * Reads every valid record from the start of the journal and moves the write position after the last one.
+	 *
+	 * @param consumer receives the records in sequence order
+	 */
+	void replay(Consumer<PaymentCommand> consumer) {
+		int  position     = HEADER_SIZE;
+		long lastSequence = -1;
+		while (position + FRAME_SIZE <= buffer.capacity()) {
+			int length = buffer.getInt(position);
+			if (length <= 0 || position + FRAME_SIZE + length > buffer.capacity()) {
+				break;
+			}
+			ByteBuffer record = buffer.duplicate();
+			record.position(position + Integer.BYTES).limit(position + Integer.BYTES + length);
+			checksum.reset();
+			checksum.update(record.duplicate());
+			if (checksum.getValue() != buffer.getLong(position + Integer.BYTES + length)) {
+				break;
+			}
+			PaymentCommand command = decode(record);
+			if (command.sequence <= lastSequence) {
+				break;
+			}
+			consumer.accept(command);
+			lastSequence = command.sequence;
+			position += FRAME_SIZE + length;
+		}
+		buffer.position(position);
+	}
+
+	/**
+	 * Appends the records of a batch and writes them to disk.
+	 *
+	 * @return false if the batch does not fit in the space left, nothing is written then
+	 */
+	boolean append(List<PaymentCommand> commands) {
+		int size = 0;
+		for (PaymentCommand command : commands) {
+			size += FRAME_SIZE + encodedLength(command);
+		}
+		if (size + Integer.BYTES > buffer.remaining()) {
+			return false;
+		}
+		int start = buffer.position();
+		for (PaymentCommand command : commands) {
+			int lengthPosition = buffer.position();
+			buffer.position(lengthPosition + Integer.BYTES);
+			encode(command, buffer);
+			int length = buffer.position() - lengthPosition - Integer.BYTES;
+			ByteBuffer record = buffer.duplicate();
+			record.position(lengthPosition + Integer.BYTES).limit(lengthPosition + Integer.BYTES + length);
+			checksum.reset();
+			checksum.update(record);
+			buffer.putLong(checksum.getValue());
+			buffer.putInt(lengthPosition, length);
+		}
+		// End marker, so that a reader does not mistake older records for the next one
+		buffer.putInt(buffer.position(), 0);
+		buffer.force(start, buffer.position() + Integer.BYTES - start);
+		return true;
+	}
+
+	/**
+	 * Starts writing from the beginning again. Must only be called once every record was written to database.
+	 */
+	void reset() {
+		buffer.putInt(HEADER_SIZE, 0);
+		buffer.force(0, HEADER_SIZE + Integer.BYTES);
+		buffer.position(HEADER_SIZE);
+	}
+
+	/**
+	 * @return share of the journal holding records, between 0 and 1
+	 */
+	double usage() {
+		return (double) (buffer.position() - HEADER_SIZE) / (buffer.capacity() - HEADER_SIZE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		buffer.force();
+		channel.close();
+	}
+
+	private static int encodedLength(PaymentCommand command) {
+		int length = Long.BYTES + Byte.BYTES + 2 * Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+		for (String description : command.descriptions) {
+			length += Integer.BYTES + Long.BYTES + Integer.BYTES;
+			if (description != null) {
+				length += description.getBytes(StandardCharsets.UTF_8).length;
+			}
+		}
+		if (hasBankAccount(command.type)) {
+			length += Integer.BYTES;
+		}
+		return length;
+	}
+
+	private static void encode(PaymentCommand command, ByteBuffer target) {
+		target.putLong(command.sequence);
+		target.put((byte) command.type.ordinal());
+		target.putInt(command.firstTransactionId);
+		target.putInt(command.issuerId);
+		target.putLong(command.debit);
+		target.putLong(command.date.toInstant(ZoneOffset.UTC).toEpochMilli());
+		target.putInt(command.payeeIds.length);
+		for (int i = 0; i < command.payeeIds.length; i++) {
+			target.putInt(command.payeeIds[i]);
+			target.putLong(command.amounts[i]);
+			if (command.descriptions[i] == null) {
+				target.putInt(-1);
+			} else {
+				byte[] description = command.descriptions[i].getBytes(StandardCharsets.UTF_8);
+				target.putInt(description.length);
+				target.put(description);
+			}
+		}
+		if (hasBankAccount(command.type)) {
+			target.putInt(command.bankAccountId);
+		}
+	}
+
+	private static PaymentCommand decode(ByteBuffer source) {
+		long                sequence           = source.getLong();
+		PaymentCommand.Type type               = PaymentCommand.Type.values()[source.get()];
+		int                 firstTransactionId = source.getInt();
+		int                 issuerId           = source.getInt();
+		long                debit              = source.getLong();
+		LocalDateTime       date               = LocalDateTime.ofInstant(Instant.ofEpochMilli(source.getLong()),
+		                                                                 ZoneOffset.UTC);
+		int                 legs               = source.getInt();
+		int[]               payeeIds           = new int[legs];
+		long[]              amounts            = new long[legs];
+		String[]            descriptions       = new String[legs];
+		for (int i = 0; i < legs; i++) {
+			payeeIds[i] = source.getInt();
+			amounts[i] = source.getLong();
+			int descriptionLength = source.getInt();
+			if (descriptionLength >= 0) {
+				byte[] bytes = new byte[descriptionLength];
+				source.get(bytes);
+				descriptions[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+		}
+		PaymentCommand command = new PaymentCommand(type, issuerId, payeeIds, amounts, descriptions, debit, date,
+		                                            null);
+		command.sequence = sequence;
+		command.firstTransactionId = firstTransactionId;
+		// Older records end before the bank account, their bank side was saved by the caller
+		if (hasBankAccount(type) && source.remaining() >= Integer.BYTES) {
+			command.bankAccountId = source.getInt();
+		}
+		return command;
+	}
+
+	private static boolean hasBankAccount(PaymentCommand.Type type) {
+		return type == PaymentCommand.Type.DEPOSIT || type == PaymentCommand.Type.WITHDRAWAL;
+	}
+}
@@ -0,0 +1,85 @@
+package com.paymybuddy.paymybuddy.service;
+
+import org.springframework.util.Assert;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated ring of command slots written by many threads and read by a single one.
+ * Producers claim a sequence with one atomic increment and publish their slot with a volatile write, the consumer
+ * reads published slots in sequence order. Producers wait while the ring is full.
+ */
+final class PaymentRingBuffer {
+	private static final long FULL_PARK_NANOS = 10_000;
+
+	private final Slot[]     slots;
+	private final int        mask;
+	private final AtomicLong claimed  = new AtomicLong(-1);
+	/**
+	 * Last sequence read by the consumer, only written by the consumer thread.
+	 */
+	private volatile long    consumed = -1;
+
+	PaymentRingBuffer(int size) {
+		Assert.isTrue(size > 0 && Integer.bitCount(size) == 1, "Ring size must be a power of two");
+		slots = new Slot[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Slot();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Adds a command, waiting for a free slot when the consumer is behind.
+	 */
+	void publish(PaymentCommand command) {
+		long sequence = claimed.incrementAndGet();
+		while (sequence - slots.length > consumed) {
+			LockSupport.parkNanos(FULL_PARK_NANOS);
+		}
+		Slot slot = slots[(int) (sequence & mask)];
+		slot.command = command;
+		slot.sequence = sequence;
+	}
+
+	/**
+	 * Moves published commands to a batch, in publication order. Must only be called by the consumer thread.
+	 *
+	 * @return number of commands moved
+	 */
+	int drainTo(List<PaymentCommand> batch, int maxCommands) {
+		long next  = consumed + 1;
+		int  count = 0;
+		while (count < maxCommands) {
+			Slot slot = slots[(int) (next & mask)];
+			if (slot.sequence != next) {
+				break;
+			}
+			batch.add(slot.command);
+			slot.command = null;
+			next++;
+			count++;
+		}
+		if (count > 0) {
+			consumed = next - 1;
+		}
+		return count;
+	}
+
+	/**
+	 * @return whether a command was claimed but not read yet
+	 */
+	boolean hasPending() {
+		return claimed.get() > consumed;
+	}
+
+	private static final class Slot {
+		private          PaymentCommand command;
+		/**
+		 * Written after the command, so that reading the sequence makes the command visible.
+		 */
+		private volatile long           sequence = -1;
+	}
+}
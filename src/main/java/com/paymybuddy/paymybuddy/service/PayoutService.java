@@ -0,0 +1,335 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paymybuddy.paymybuddy.constants.PayoutFormat;
+import com.paymybuddy.paymybuddy.constants.PayoutStatus;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.PayoutRun;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.PayoutErrorViewModel;
+import com.paymybuddy.paymybuddy.model.viewmodel.PayoutReportViewModel;
+import com.paymybuddy.paymybuddy.repository.PayoutRunRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Pays many buddies from an uploaded file.
+ * The file is read line by line and paid in chunks: payees of a chunk are resolved with one query, and the chunk's
+ * payments and the run progress are committed together, so that a run stopped by an error can be resumed from
+ * its first uncommitted line. A run is resumed by one request at a time: it is claimed with a conditional update, and
+ * each chunk only commits if the run progress is still the one the chunk was read after, so that no line is paid
+ * twice by concurrent resumes.
+ */
+@Service
+@Slf4j
+public class PayoutService {
+	private static final int MAX_DESCRIPTION_LENGTH = 140;
+
+	@Autowired
+	UserService                userService;
+	@Autowired
+	ConnectionService          connectionService;
+	@Autowired
+	TransferEngine             transferEngine;
+	@Autowired
+	FeeCalculator              feeCalculator;
+	@Autowired
+	PayoutRunRepository        payoutRunRepository;
+	@Autowired
+	PlatformTransactionManager transactionManager;
+	@Autowired
+	ObjectMapper               objectMapper;
+	@Autowired
+	Clock                      clock;
+
+	/**
+	 * Number of lines paid in one database transaction.
+	 */
+	@Value("${paymybuddy.payout.chunk-size:500}")
+	int      chunkSize;
+	/**
+	 * Maximum number of failed lines listed in a report, further failures are only counted.
+	 */
+	@Value("${paymybuddy.payout.max-reported-errors:1000}")
+	int      maxReportedErrors;
+	/**
+	 * How long a run in progress may go without committing a chunk before it is considered stopped and can be
+	 * resumed.
+	 */
+	@Value("${paymybuddy.payout.stale-after:PT10M}")
+	Duration staleAfter;
+
+	private TransactionTemplate transactionTemplate;
+
+	@PostConstruct
+	void init() {
+		Assert.isTrue(chunkSize > 0, "Chunk size must be positive");
+		transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+
+	/**
+	 * Guesses the format of a file from its name, CSV unless it ends with .ndjson, .jsonl or .json.
+	 *
+	 * @param fileName name of the uploaded file, may be null
+	 * @return the file format
+	 */
+	public static PayoutFormat formatOf(String fileName) {
+		if (fileName != null) {
+			String lowerCaseName = fileName.toLowerCase(Locale.ROOT);
+			if (lowerCaseName.endsWith(".ndjson") || lowerCaseName.endsWith(".jsonl")
+			    || lowerCaseName.endsWith(".json")) {
+				return PayoutFormat.NDJSON;
+			}
+		}
+		return PayoutFormat.CSV;
+	}
+
+	/**
+	 * Pays every line of a file.
+	 *
+	 * @param issuer user paying
+	 * @param input  file content, read once as a stream
+	 * @param format file format
+	 * @param runId  run to resume, or null to start a new one
+	 * @return what was paid, what failed, and the throughput
+	 * @throws IOException if the file can not be read
+	 */
+	public PayoutReportViewModel pay(User issuer, InputStream input, PayoutFormat format, Integer runId)
+			throws IOException {
+		Assert.notNull(issuer, "Issuer must not be null");
+		Assert.notNull(input, "Input must not be null");
+		Assert.notNull(format, "Format must not be null");
+		PayoutRun run = runId == null ? startRun(issuer) : resumeRun(issuer, runId);
+		PayoutReportViewModel report = new PayoutReportViewModel(run.getId(), PayoutStatus.IN_PROGRESS, 0, 0,
+		                                                         Money.ZERO, 0, new ArrayList<>(), 0);
+		long start = System.nanoTime();
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+			List<PayoutLine> chunk      = new ArrayList<>(chunkSize);
+			long             lineNumber = 0;
+			boolean          paying     = true;
+			String           line;
+			while (paying && (line = reader.readLine()) != null) {
+				lineNumber++;
+				if (lineNumber == 1) {
+					line = CsvLine.stripByteOrderMark(line);
+				}
+				if (lineNumber <= run.getCommittedLines()) {
+					// Already paid by the run being resumed
+					continue;
+				}
+				report.setLinesRead(report.getLinesRead() + 1);
+				if (line.isBlank() || (lineNumber == 1 && format == PayoutFormat.CSV && isHeader(line))) {
+					continue;
+				}
+				PayoutLine payoutLine = parse(lineNumber, line, format, report);
+				if (payoutLine != null) {
+					chunk.add(payoutLine);
+				}
+				if (chunk.size() == chunkSize) {
+					paying = payChunk(issuer, run, chunk, lineNumber, report);
+					chunk.clear();
+				}
+			}
+			if (paying) {
+				paying = payChunk(issuer, run, chunk, lineNumber, report);
+			}
+			run.setStatus(paying ? PayoutStatus.COMPLETED : PayoutStatus.FAILED);
+		} finally {
+			if (run.getStatus() == PayoutStatus.IN_PROGRESS) {
+				run.setStatus(PayoutStatus.FAILED);
+			}
+			run.setUpdatedAt(LocalDateTime.now(clock));
+			int finished = transactionTemplate.execute(status -> payoutRunRepository.finish(
+					run.getId(), run.getCommittedLines(), run.getStatus(), run.getUpdatedAt()));
+			if (finished == 0) {
+				log.warn("Payout run " + run.getId() + " was resumed by another request, its status is kept.");
+			}
+			report.setStatus(run.getStatus());
+			long elapsedNanos = Math.max(1, System.nanoTime() - start);
+			report.setPaymentsPerMinute(report.getPaymentsMade() * 60_000_000_000.0 / elapsedNanos);
+			log.info(String.format("Payout run %d %s: %d lines read, %d payments, %d failed lines, %.0f payments per "
+			                       + "minute.", run.getId(), run.getStatus(), report.getLinesRead(),
+			                       report.getPaymentsMade(), report.getLinesFailed(), report.getPaymentsPerMinute()));
+		}
+		return report;
+	}
+
+	private PayoutRun startRun(User issuer) {
+		LocalDateTime now = LocalDateTime.now(clock);
+		return payoutRunRepository.save(new PayoutRun(null, issuer.getId(), 0, 0, PayoutStatus.IN_PROGRESS, now,
+		                                              now));
+	}
+
+	private PayoutRun resumeRun(User issuer, Integer runId) {
+		LocalDateTime now = LocalDateTime.now(clock);
+		Optional<PayoutRun> run = transactionTemplate.execute(status -> {
+			if (payoutRunRepository.claim(runId, issuer.getId(), now, now.minus(staleAfter)) == 0) {
+				return Optional.empty();
+			}
+			return payoutRunRepository.findById(runId);
+		});
+		if (run.isEmpty()) {
+			String errorMessage = "Payout run " + runId + " does not exist, is completed or is being run.";
+			log.error(errorMessage);
+			throw new IllegalArgumentException(errorMessage);
+		}
+		log.info("Resuming payout run " + runId + " after line " + run.get().getCommittedLines() + ".");
+		run.get().setStatus(PayoutStatus.IN_PROGRESS);
+		return run.get();
+	}
+
+	/**
+	 * Resolves the payees of a chunk with one query, then pays every valid line and saves the progress in one
+	 * database transaction.
+	 *
+	 * @return false if the chunk could not be paid and the run must stop
+	 */
+	private boolean payChunk(User issuer, PayoutRun run, List<PayoutLine> chunk, long lastLine,
+	                         PayoutReportViewModel report) {
+		Map<String, User> payeesByEmail = new HashMap<>();
+		if (!chunk.isEmpty()) {
+			Set<String> emails = new HashSet<>();
+			chunk.forEach(payoutLine -> emails.add(payoutLine.email()));
+			userService.getUsersByEmails(emails)
+			           .forEach(payee -> payeesByEmail.put(payee.getEmail().toLowerCase(Locale.ROOT), payee));
+		}
+		List<Integer> payeeIds = new ArrayList<>();
+		payeesByEmail.values().forEach(payee -> payeeIds.add(payee.getId()));
+		Set<Integer> buddyIds = connectionService.getBuddyIdsAmong(issuer, payeeIds);
+
+		LocalDateTime     date         = LocalDateTime.now(clock);
+		List<Transaction> transactions = new ArrayList<>(chunk.size());
+		long              paidCents    = 0;
+		long              debitCents   = 0;
+		for (PayoutLine payoutLine : chunk) {
+			User payee = payeesByEmail.get(payoutLine.email().toLowerCase(Locale.ROOT));
+			if (payee == null) {
+				reportError(report, payoutLine.number(), "Buddy with email (" + payoutLine.email() + ") does not exist.");
+			} else if (!buddyIds.contains(payee.getId())) {
+				reportError(report, payoutLine.number(), "The payee is not a buddy from issuer.");
+			} else {
+				transactions.add(new Transaction(null, issuer, payee, date, payoutLine.amount(),
+				                                 payoutLine.description()));
+				paidCents = Math.addExact(paidCents, payoutLine.amount().getCents());
+				debitCents = Math.addExact(debitCents, feeCalculator.totalCents(payoutLine.amount().getCents()));
+			}
+		}
+
+		Money         debit     = Money.ofCents(debitCents);
+		LocalDateTime updatedAt = LocalDateTime.now(clock);
+		try {
+			transactionTemplate.executeWithoutResult(status -> {
+				if (!transactions.isEmpty()) {
+					transferEngine.transferToMany(transactions, debit);
+				}
+				// Rolls the payments back if a concurrent resume committed these lines first
+				if (payoutRunRepository.advance(run.getId(), run.getCommittedLines(), lastLine, transactions.size(),
+				                                updatedAt) == 0) {
+					throw new IllegalStateException("Payout run " + run.getId() + " was resumed by another request.");
+				}
+			});
+			run.setCommittedLines(lastLine);
+			run.setPaymentsMade(run.getPaymentsMade() + transactions.size());
+			run.setUpdatedAt(updatedAt);
+		} catch (RuntimeException e) {
+			long firstLine = chunk.isEmpty() ? lastLine : chunk.get(0).number();
+			String errorMessage = "Lines " + firstLine + " to " + lastLine + " were not paid: " + e.getMessage();
+			log.error("Payout run " + run.getId() + " stopped. " + errorMessage, e);
+			reportError(report, firstLine, errorMessage);
+			return false;
+		}
+		report.setPaymentsMade(report.getPaymentsMade() + transactions.size());
+		report.setTotalPaid(report.getTotalPaid().plus(Money.ofCents(paidCents)));
+		return true;
+	}
+
+	private PayoutLine parse(long number, String line, PayoutFormat format, PayoutReportViewModel report) {
+		String email;
+		String amount;
+		String description;
+		try {
+			if (format == PayoutFormat.NDJSON) {
+				JsonNode node = objectMapper.readTree(line);
+				email = node.path("email").asText(null);
+				amount = node.path("amount").asText(null);
+				description = node.path("description").asText("");
+			} else {
+				List<String> fields = CsvLine.split(line);
+				if (fields.size() > 3) {
+					reportError(report, number, "A line must hold an email, an amount and a description, " +
+					                            "quoted if it contains commas.");
+					return null;
+				}
+				email = fields.get(0).strip();
+				amount = fields.size() > 1 ? fields.get(1).strip() : null;
+				description = fields.size() > 2 ? fields.get(2).strip() : "";
+			}
+		} catch (IOException e) {
+			reportError(report, number, "Line is not valid JSON.");
+			return null;
+		} catch (IllegalArgumentException e) {
+			reportError(report, number, e.getMessage());
+			return null;
+		}
+		if (email == null || email.isBlank() || UserService.isInvalidEmail(email)) {
+			reportError(report, number, "The email provided is invalid.");
+			return null;
+		}
+		if (description.length() > MAX_DESCRIPTION_LENGTH) {
+			reportError(report, number, "Description is longer than " + MAX_DESCRIPTION_LENGTH + " characters.");
+			return null;
+		}
+		if (amount == null) {
+			reportError(report, number, "Amount is missing.");
+			return null;
+		}
+		Money money;
+		try {
+			money = Money.parse(amount);
+		} catch (NumberFormatException | ArithmeticException e) {
+			reportError(report, number, "Amount " + amount + " is invalid.");
+			return null;
+		}
+		if (money.isNegative() || money.isZero()) {
+			reportError(report, number, "Transaction amount must be more than 0.");
+			return null;
+		}
+		return new PayoutLine(number, email, money, description);
+	}
+
+	private void reportError(PayoutReportViewModel report, long line, String message) {
+		report.setLinesFailed(report.getLinesFailed() + 1);
+		if (report.getErrors().size() < maxReportedErrors) {
+			report.getErrors().add(new PayoutErrorViewModel(line, message));
+		}
+	}
+
+	private static boolean isHeader(String line) {
+		return line.strip().toLowerCase(Locale.ROOT).startsWith("email");
+	}
+
+	/**
+	 * Valid line of a payout file.
+	 */
+	private record PayoutLine(long number, String email, Money amount, String description) {
+	}
+}
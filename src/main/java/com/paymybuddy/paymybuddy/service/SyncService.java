@@ -0,0 +1,217 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.event.ConnectionAdded;
+import com.paymybuddy.paymybuddy.event.PaymentCompleted;
+import com.paymybuddy.paymybuddy.model.SyncCursor;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.ConnectionViewModel;
+import com.paymybuddy.paymybuddy.model.viewmodel.SyncViewModel;
+import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
+import com.paymybuddy.paymybuddy.repository.ConnectionRepository;
+import com.paymybuddy.paymybuddy.repository.TransactionRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Gives clients the transactions and connections created since their last synchronization, instead of their whole
+ * lists. Changes are found by ID, both sides of a user's history being read from their own (user, ID) index. Rows
+ * are not committed in ID order, so the IDs just below the last ones received are read again, and the rows the client
+ * already has are skipped: a row committed late is still found.
+ * A client with nothing new can wait for activity: payments and connections wake its request up once committed,
+ * and it is answered anyway after a while so that activity handled by another instance is seen too.
+ */
+@Service
+@Slf4j
+public class SyncService {
+	@Autowired
+	TransactionRepository transactionRepository;
+	@Autowired
+	ConnectionRepository  connectionRepository;
+	@Autowired
+	MeterRegistry         meterRegistry;
+
+	/**
+	 * Maximum number of transactions, and of connections, returned by one synchronization.
+	 */
+	@Value("${paymybuddy.sync.max-items:500}")
+	int      maxItems;
+	/**
+	 * Number of IDs below the highest one received that are read again, the rows committed after that many newer
+	 * ones are missed.
+	 */
+	@Value("${paymybuddy.sync.lookback:200}")
+	int      lookback;
+	/**
+	 * Longest time a synchronization waits for new activity.
+	 */
+	@Value("${paymybuddy.sync.max-wait:PT30S}")
+	Duration maxWait;
+
+	/**
+	 * Wake-up actions of waiting synchronizations, by user ID.
+	 */
+	private final Map<Integer, Set<Runnable>> waiting = new ConcurrentHashMap<>();
+	private       ExecutorService             executor;
+
+	@PostConstruct
+	void init() {
+		// Woken up synchronizations are answered off the thread that committed the activity
+		executor = Executors.newFixedThreadPool(2, runnable -> {
+			Thread thread = new Thread(runnable, "paymybuddy-sync");
+			thread.setDaemon(true);
+			return thread;
+		});
+		meterRegistry.gaugeMapSize("paymybuddy.sync.waiting", Tags.empty(), waiting);
+	}
+
+	@PreDestroy
+	void stop() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the transactions and connections of a user created after a cursor.
+	 *
+	 * @param cursor cursor returned by the previous synchronization, null for the first one
+	 * @return changes in ID order, at most the configured number of each, and the cursor to send next
+	 */
+	public SyncViewModel getChanges(User user, String cursor) {
+		SyncCursor after = cursor == null || cursor.isBlank() ? SyncCursor.START : SyncCursor.decode(cursor);
+		// One more row of each tells whether there are more changes, past the rows read again
+		Pageable transactionTop = PageRequest.of(0, maxItems + 1 + after.getTransactionIds().size());
+		Pageable connectionTop  = PageRequest.of(0, maxItems + 1 + after.getConnectionIds().size());
+		List<TransactionViewModel> transactions = unseen(mergeById(
+				transactionRepository.findIssuedAfterId(user, after.getTransactionId(), transactionTop),
+				transactionRepository.findReceivedAfterId(user, after.getTransactionId(), transactionTop),
+				TransactionViewModel::getId), after.getTransactionIds(), TransactionViewModel::getId);
+		List<ConnectionViewModel> connections = unseen(mergeById(
+				connectionRepository.findInitializedAfterId(user.getId(), after.getConnectionId(), connectionTop),
+				connectionRepository.findReceivedAfterId(user.getId(), after.getConnectionId(), connectionTop),
+				ConnectionViewModel::getId), after.getConnectionIds(), ConnectionViewModel::getId);
+		boolean hasMore = transactions.size() > maxItems || connections.size() > maxItems;
+		transactions = transactions.subList(0, Math.min(transactions.size(), maxItems));
+		connections = connections.subList(0, Math.min(connections.size(), maxItems));
+		SyncCursor next = after.next(transactions.stream().map(TransactionViewModel::getId).toList(),
+		                             connections.stream().map(ConnectionViewModel::getId).toList(), lookback);
+		return new SyncViewModel(transactions, connections, next.encode(), hasMore);
+	}
+
+	/**
+	 * Returns the changes after a cursor, waiting up to the given time for some when there are none yet.
+	 *
+	 * @param wait how long to wait, capped by the configured maximum, zero to answer right away
+	 */
+	public DeferredResult<SyncViewModel> waitForChanges(User user, String cursor, Duration wait) {
+		long timeout = Math.min(wait.toMillis(), maxWait.toMillis());
+		if (timeout <= 0) {
+			DeferredResult<SyncViewModel> result = new DeferredResult<>();
+			result.setResult(getChanges(user, cursor));
+			return result;
+		}
+		DeferredResult<SyncViewModel> result = new DeferredResult<>(timeout);
+		Integer  userId = user.getId();
+		Runnable wakeUp = () -> executor.execute(() -> answer(result, user, cursor));
+		// Listen before reading, so that activity committed in between is not missed
+		waiting.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(wakeUp);
+		result.onCompletion(() -> stopWaiting(userId, wakeUp));
+		result.onTimeout(() -> answer(result, user, cursor));
+		try {
+			SyncViewModel changes = getChanges(user, cursor);
+			if (!changes.getTransactions().isEmpty() || !changes.getConnections().isEmpty()) {
+				stopWaiting(userId, wakeUp);
+				result.setResult(changes);
+			}
+		} catch (RuntimeException e) {
+			stopWaiting(userId, wakeUp);
+			throw e;
+		}
+		return result;
+	}
+
+	/**
+	 * Wakes up the users of completed payments once their database transaction commits, so that the transactions
+	 * are read.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	void onPaymentCompleted(PaymentCompleted event) {
+		notifyUsers(event.userIds());
+	}
+
+	/**
+	 * Wakes up the users of saved connections once their database transaction commits.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	void onConnectionAdded(ConnectionAdded event) {
+		notifyUsers(event.userIds());
+	}
+
+	/**
+	 * Wakes up the synchronizations waiting for activity of users.
+	 */
+	public void notifyUsers(Collection<Integer> userIds) {
+		for (Integer userId : userIds) {
+			Set<Runnable> wakeUps = waiting.remove(userId);
+			if (wakeUps != null) {
+				wakeUps.forEach(Runnable::run);
+			}
+		}
+	}
+
+	private void answer(DeferredResult<SyncViewModel> result, User user, String cursor) {
+		if (result.isSetOrExpired()) {
+			return;
+		}
+		try {
+			result.setResult(getChanges(user, cursor));
+		} catch (RuntimeException e) {
+			log.error("Synchronization of user " + user.getId() + " failed.", e);
+			result.setErrorResult(e);
+		}
+	}
+
+	private void stopWaiting(Integer userId, Runnable wakeUp) {
+		waiting.computeIfPresent(userId, (id, wakeUps) -> {
+			wakeUps.remove(wakeUp);
+			return wakeUps.isEmpty() ? null : wakeUps;
+		});
+	}
+
+	/**
+	 * Drops the rows a client already received.
+	 */
+	private static <T> List<T> unseen(List<T> rows, List<Integer> seen, Function<T, Integer> id) {
+		if (seen.isEmpty()) {
+			return rows;
+		}
+		Set<Integer> skipped = new HashSet<>(seen);
+		return rows.stream().filter(row -> !skipped.contains(id.apply(row))).toList();
+	}
+
+	/**
+	 * Merges two lists sorted by ID into one, without duplicates.
+	 */
+	private static <T> List<T> mergeById(List<T> first, List<T> second, Function<T, Integer> id) {
+		SortedMap<Integer, T> merged = new TreeMap<>();
+		first.forEach(item -> merged.put(id.apply(item), item));
+		second.forEach(item -> merged.put(id.apply(item), item));
+		return new ArrayList<>(merged.values());
+	}
+}
@@ -0,0 +1,84 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paymybuddy.paymybuddy.constants.ExportFormat;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
+import com.paymybuddy.paymybuddy.repository.UserActivityRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Writes the transaction history of a user as CSV or NDJSON.
+ * Rows are streamed from a database cursor by {@link LineStreamWriter}, so memory use does not depend on the length
+ * of the history.
+ */
+@Service
+@Slf4j
+public class TransactionExportService {
+	private static final String CSV_HEADER = "id,date,issuer,payee,amount,description";
+
+	@Autowired
+	UserActivityRepository userActivityRepository;
+	@Autowired
+	LineStreamWriter       lineStreamWriter;
+	@Autowired
+	ObjectMapper           objectMapper;
+
+	/**
+	 * Writes every transaction of a user, oldest first. The output stream is flushed but not closed.
+	 *
+	 * @return number of transactions written
+	 */
+	public long export(User user, ExportFormat format, OutputStream output) throws IOException {
+		long rows = lineStreamWriter.write(() -> userActivityRepository.streamTransactions(user.getId()),
+		                                   format == ExportFormat.CSV ? CSV_HEADER : null,
+		                                   transaction -> line(ExportLine.of(transaction), format), output);
+		log.info("Exported " + rows + " transactions of " + user.getEmail() + " as " + format + ".");
+		return rows;
+	}
+
+	private String line(ExportLine line, ExportFormat format) throws IOException {
+		if (format == ExportFormat.CSV) {
+			return line.id() + "," + line.date() + "," + csvField(line.issuer()) + "," + csvField(line.payee()) + "," +
+			       line.amount() + "," + csvField(line.description());
+		}
+		return objectMapper.writeValueAsString(line);
+	}
+
+	/**
+	 * Quotes a CSV field when needed, and keeps spreadsheets from reading user text as a formula.
+	 */
+	static String csvField(String value) {
+		if (value == null) {
+			return "";
+		}
+		String field = value;
+		if (!field.isEmpty() && "=+-@".indexOf(field.charAt(0)) >= 0) {
+			field = "'" + field;
+		}
+		if (field.contains(",") || field.contains("\"") || field.contains("\n") || field.contains("\r")) {
+			field = "\"" + field.replace("\"", "\"\"") + "\"";
+		}
+		return field;
+	}
+
+	/**
+	 * Exported columns, users are only given by their email.
+	 */
+	private record ExportLine(Integer id, String date, String issuer, String payee, Money amount,
+	                          String description) {
+		static ExportLine of(TransactionViewModel transaction) {
+			return new ExportLine(transaction.getId(),
+			                      DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(transaction.getDate()),
+			                      transaction.getIssuer().getEmail(), transaction.getPayee().getEmail(),
+			                      transaction.getAmount(), transaction.getDescription());
+		}
+	}
+}
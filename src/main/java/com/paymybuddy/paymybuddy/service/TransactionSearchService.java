@@ -0,0 +1,437 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.event.PaymentCompleted;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
+import com.paymybuddy.paymybuddy.repository.TransactionRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Searches the transactions of a user by the words of their description, with amount and date filters.
+ * Each user has an in-memory inverted index: for every word, the sorted positions of the user's transactions
+ * containing it, in a plain int array. A search intersects the lists of its words, filters the positions on
+ * amounts and dates kept in parallel arrays, then reads the matching transactions by primary key.
+ * Indexes are built from the transaction table at startup, its rows streamed to one thread per partition of users,
+ * and then follow the payments committed by this instance. A periodic refresh picks up the ones committed by other
+ * instances.
+ */
+@Service
+@Slf4j
+public class TransactionSearchService {
+	@Autowired
+	TransactionRepository transactionRepository;
+	@Autowired
+	JdbcTemplate          jdbcTemplate;
+	@Autowired
+	MeterRegistry         meterRegistry;
+
+	private static final String SELECT_AFTER = "select transaction_id, fk_issuer_id, fk_payee_id, date, amount, " +
+	                                           "description from transaction where transaction_id > ? " +
+	                                           "order by transaction_id";
+
+	/**
+	 * Words shorter than this are neither indexed nor searched.
+	 */
+	static final int MIN_TERM_LENGTH = 2;
+
+	/**
+	 * Transaction IDs below the highest one indexed that a refresh reads again, in case they were committed late.
+	 */
+	private static final int REFRESH_LOOKBACK = 1000;
+
+	/**
+	 * Rows read ahead of the thread building the indexes of a partition.
+	 */
+	private static final int REBUILD_QUEUE_SIZE = 10_000;
+
+	/**
+	 * Marks the end of the rows in the queue of a partition.
+	 */
+	private static final IndexedTransaction END_OF_ROWS = new IndexedTransaction(0, 0, 0, 0, 0, null);
+
+	/**
+	 * Threads building the indexes at startup.
+	 */
+	@Value("${paymybuddy.search.rebuild-threads:4}")
+	int rebuildThreads;
+
+	private volatile Map<Integer, UserIndex> indexes          = new ConcurrentHashMap<>();
+	/**
+	 * Transactions already indexed, so that a transaction seen twice is only indexed once.
+	 */
+	private final    BitSet                  indexedIds       = new BitSet();
+	private final    AtomicLong              indexedCount     = new AtomicLong();
+	private volatile int                     highestIndexedId;
+	private          Timer                   searchTimer;
+
+	@PostConstruct
+	void init() {
+		searchTimer = meterRegistry.timer("paymybuddy.search.time");
+		meterRegistry.gauge("paymybuddy.search.indexed", Tags.empty(), indexedCount);
+		rebuild();
+	}
+
+	/**
+	 * Rebuilds every index from the transaction table. Rows are handed to the thread of each of their users as they
+	 * are read, through bounded queues, so that the table is never held in memory.
+	 *
+	 * @return number of transactions indexed
+	 */
+	public int rebuild() {
+		long start = System.nanoTime();
+
+		// Each thread builds the indexes of the users whose ID falls in its partition, users are not shared
+		int                                     partitions = Math.max(1, rebuildThreads);
+		Map<Integer, UserIndex>                 built      = new ConcurrentHashMap<>();
+		List<BlockingQueue<IndexedTransaction>> queues     = new ArrayList<>(partitions);
+		List<CompletableFuture<Void>>           builds     = new ArrayList<>(partitions);
+		// Transactions read, their number and the highest ID
+		BitSet                                  readIds    = new BitSet();
+		int[]                                   read       = new int[2];
+		ExecutorService                         executor   = Executors.newFixedThreadPool(partitions);
+		try {
+			for (int partition = 0; partition < partitions; partition++) {
+				int                                current = partition;
+				BlockingQueue<IndexedTransaction> queue   = new ArrayBlockingQueue<>(REBUILD_QUEUE_SIZE);
+				queues.add(queue);
+				builds.add(CompletableFuture.runAsync(() -> build(queue, current, partitions, built), executor));
+			}
+			try {
+				jdbcTemplate.query(SELECT_AFTER, resultSet -> {
+					IndexedTransaction row = IndexedTransaction.of(resultSet);
+					int issuerPartition = row.issuerId() % partitions;
+					int payeePartition  = row.payeeId() % partitions;
+					hand(queues.get(issuerPartition), row, builds.get(issuerPartition));
+					if (payeePartition != issuerPartition) {
+						hand(queues.get(payeePartition), row, builds.get(payeePartition));
+					}
+					readIds.set(row.id());
+					read[0]++;
+					read[1] = row.id();
+				}, 0);
+			} finally {
+				for (int partition = 0; partition < partitions; partition++) {
+					hand(queues.get(partition), END_OF_ROWS, builds.get(partition));
+				}
+			}
+			builds.forEach(CompletableFuture::join);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		synchronized (indexedIds) {
+			indexedIds.clear();
+			indexedIds.or(readIds);
+			indexes = built;
+			indexedCount.set(read[0]);
+			highestIndexedId = read[1];
+		}
+		log.info("Indexed " + read[0] + " transaction descriptions of " + built.size() + " users in " +
+		         (System.nanoTime() - start) / 1_000_000 + " ms.");
+		return read[0];
+	}
+
+	/**
+	 * Indexes the rows of a queue for the users of a partition, until the end of the rows.
+	 */
+	private static void build(BlockingQueue<IndexedTransaction> queue, int partition, int partitions,
+	                          Map<Integer, UserIndex> built) {
+		try {
+			IndexedTransaction row;
+			while ((row = queue.take()) != END_OF_ROWS) {
+				List<String> terms = tokenize(row.description());
+				for (int userId : new int[]{row.issuerId(), row.payeeId()}) {
+					if (userId % partitions == partition) {
+						built.computeIfAbsent(userId, id -> new UserIndex()).add(row, terms);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Index build interrupted", e);
+		}
+	}
+
+	/**
+	 * Puts a row in the queue of a partition, waiting for room unless the thread of the partition failed.
+	 */
+	private static void hand(BlockingQueue<IndexedTransaction> queue, IndexedTransaction row,
+	                         CompletableFuture<Void> build) {
+		try {
+			while (!queue.offer(row, 100, TimeUnit.MILLISECONDS)) {
+				if (build.isDone()) {
+					// Rethrows the failure of the thread, which reads no more rows
+					build.join();
+					throw new IllegalStateException("Index build stopped before the end of the rows");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Index build interrupted", e);
+		}
+	}
+
+	/**
+	 * Indexes completed payments once their database transaction commits.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	void onPaymentCompleted(PaymentCompleted event) {
+		index(event.transactions());
+	}
+
+	/**
+	 * Indexes saved transactions.
+	 */
+	public void index(List<Transaction> transactions) {
+		transactions.stream().map(IndexedTransaction::of).forEach(this::add);
+	}
+
+	@Scheduled(initialDelayString = "${paymybuddy.search.refresh-interval:PT10S}",
+	           fixedDelayString = "${paymybuddy.search.refresh-interval:PT10S}")
+	void scheduledRefresh() {
+		try {
+			refresh();
+		} catch (RuntimeException e) {
+			log.error("Transaction search refresh failed.", e);
+		}
+	}
+
+	/**
+	 * Indexes the transactions saved since the last refresh, by this instance or by another one.
+	 *
+	 * @return number of transactions newly indexed
+	 */
+	public int refresh() {
+		long before = indexedCount.get();
+		jdbcTemplate.query(SELECT_AFTER, resultSet -> {
+			add(IndexedTransaction.of(resultSet));
+		}, Math.max(0, highestIndexedId - REFRESH_LOOKBACK));
+		return (int) (indexedCount.get() - before);
+	}
+
+	/**
+	 * Finds the transactions of a user whose description contains every word of the query.
+	 *
+	 * @param query     words to look for, all transactions when blank
+	 * @param minAmount smallest amount, or null
+	 * @param maxAmount largest amount, or null
+	 * @param from      first day, or null
+	 * @param to        last day, or null
+	 * @param limit     maximum number of transactions returned
+	 * @return matching transactions, newest first
+	 */
+	public List<TransactionViewModel> search(User user, String query, Money minAmount, Money maxAmount,
+	                                         LocalDate from, LocalDate to, int limit) {
+		Assert.notNull(user, "User must not be null");
+		Assert.isTrue(limit > 0, "Limit must be positive");
+		UserIndex index = indexes.get(user.getId());
+		if (index == null) {
+			return List.of();
+		}
+		long  start = System.nanoTime();
+		int[] ids = index.search(tokenize(query),
+		                         minAmount == null ? Long.MIN_VALUE : minAmount.getCents(),
+		                         maxAmount == null ? Long.MAX_VALUE : maxAmount.getCents(),
+		                         from == null ? Long.MIN_VALUE : epochSecond(from.atStartOfDay()),
+		                         to == null ? Long.MAX_VALUE : epochSecond(to.plusDays(1).atStartOfDay()) - 1,
+		                         limit);
+		searchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		if (ids.length == 0) {
+			return List.of();
+		}
+		// Rank of each ID in the search order, the rows are read in no particular order
+		Map<Integer, Integer> ranks = new HashMap<>(ids.length * 2);
+		for (int rank = 0; rank < ids.length; rank++) {
+			ranks.put(ids[rank], rank);
+		}
+		List<TransactionViewModel> transactions = new ArrayList<>(
+				transactionRepository.findViewsByIds(ranks.keySet()));
+		transactions.sort(Comparator.comparingInt(transaction -> ranks.get(transaction.getId())));
+		return transactions;
+	}
+
+	/**
+	 * Splits a text into lower case words without accents.
+	 */
+	static List<String> tokenize(String text) {
+		if (text == null || text.isBlank()) {
+			return List.of();
+		}
+		String normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+		                              .replaceAll("\\p{M}", "")
+		                              .toLowerCase(Locale.ROOT);
+		return Arrays.stream(normalized.split("[^\\p{L}\\p{N}]+"))
+		             .filter(term -> term.length() >= MIN_TERM_LENGTH)
+		             .distinct()
+		             .toList();
+	}
+
+	private void add(IndexedTransaction row) {
+		synchronized (indexedIds) {
+			if (indexedIds.get(row.id())) {
+				return;
+			}
+			indexedIds.set(row.id());
+			highestIndexedId = Math.max(highestIndexedId, row.id());
+		}
+		List<String> terms = tokenize(row.description());
+		indexes.computeIfAbsent(row.issuerId(), id -> new UserIndex()).add(row, terms);
+		indexes.computeIfAbsent(row.payeeId(), id -> new UserIndex()).add(row, terms);
+		indexedCount.incrementAndGet();
+	}
+
+	private static long epochSecond(LocalDateTime date) {
+		return date.toEpochSecond(ZoneOffset.UTC);
+	}
+
+	/**
+	 * What the index keeps of a transaction.
+	 */
+	private record IndexedTransaction(int id, int issuerId, int payeeId, long date, long amount,
+	                                  String description) {
+		static IndexedTransaction of(ResultSet resultSet) throws SQLException {
+			return new IndexedTransaction(resultSet.getInt(1), resultSet.getInt(2), resultSet.getInt(3),
+			                              epochSecond(resultSet.getTimestamp(4).toLocalDateTime()),
+			                              Money.of(resultSet.getBigDecimal(5)).getCents(), resultSet.getString(6));
+		}
+
+		static IndexedTransaction of(Transaction transaction) {
+			return new IndexedTransaction(transaction.getId(), transaction.getIssuer().getId(),
+			                              transaction.getPayee().getId(), epochSecond(transaction.getDate()),
+			                              transaction.getAmount().getCents(), transaction.getDescription());
+		}
+	}
+
+	/**
+	 * Inverted index of the transactions of one user. Transactions are numbered in the order they are added,
+	 * so that posting lists stay sorted by only appending to them.
+	 */
+	static final class UserIndex {
+		private       int[]                    transactionIds = new int[8];
+		private       long[]                   dates          = new long[8];
+		private       long[]                   amounts        = new long[8];
+		private       int                      size;
+		private final Map<String, PostingList> postings       = new HashMap<>();
+
+		synchronized void add(IndexedTransaction transaction, List<String> terms) {
+			if (size == transactionIds.length) {
+				int capacity = size * 2;
+				transactionIds = Arrays.copyOf(transactionIds, capacity);
+				dates = Arrays.copyOf(dates, capacity);
+				amounts = Arrays.copyOf(amounts, capacity);
+			}
+			transactionIds[size] = transaction.id();
+			dates[size] = transaction.date();
+			amounts[size] = transaction.amount();
+			for (String term : terms) {
+				postings.computeIfAbsent(term, key -> new PostingList()).add(size);
+			}
+			size++;
+		}
+
+		/**
+		 * @return IDs of the matching transactions, newest first
+		 */
+		synchronized int[] search(List<String> terms, long minAmount, long maxAmount, long from, long to,
+		                          int limit) {
+			int[] positions;
+			int   count;
+			if (terms.isEmpty()) {
+				positions = null;
+				count = size;
+			} else {
+				List<PostingList> lists = new ArrayList<>(terms.size());
+				for (String term : terms) {
+					PostingList list = postings.get(term);
+					if (list == null) {
+						return new int[0];
+					}
+					lists.add(list);
+				}
+				// Intersecting from the shortest list keeps every step at most that long
+				lists.sort(Comparator.comparingInt(list -> list.size));
+				positions = Arrays.copyOf(lists.get(0).positions, lists.get(0).size);
+				count = positions.length;
+				for (int i = 1; i < lists.size() && count > 0; i++) {
+					count = intersect(positions, count, lists.get(i));
+				}
+			}
+			List<Integer> matches = new ArrayList<>();
+			for (int i = 0; i < count; i++) {
+				int position = positions == null ? i : positions[i];
+				if (amounts[position] >= minAmount && amounts[position] <= maxAmount &&
+				    dates[position] >= from && dates[position] <= to) {
+					matches.add(position);
+				}
+			}
+			matches.sort(Comparator.comparingLong((Integer position) -> dates[position])
+			                       .thenComparingInt(position -> transactionIds[position])
+			                       .reversed());
+			return matches.stream().limit(limit).mapToInt(position -> transactionIds[position]).toArray();
+		}
+
+		/**
+		 * Keeps in the first count positions those that are also in the list.
+		 *
+		 * @return number of positions kept
+		 */
+		private static int intersect(int[] positions, int count, PostingList list) {
+			int kept = 0;
+			int j    = 0;
+			for (int i = 0; i < count && j < list.size; i++) {
+				while (j < list.size && list.positions[j] < positions[i]) {
+					j++;
+				}
+				if (j < list.size && list.positions[j] == positions[i]) {
+					positions[kept++] = positions[i];
+				}
+			}
+			return kept;
+		}
+	}
+
+	/**
+	 * Sorted positions of the transactions containing a word.
+	 */
+	static final class PostingList {
+		private int[] positions = new int[4];
+		private int   size;
+
+		void add(int position) {
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, size * 2);
+			}
+			positions[size++] = position;
+		}
+	}
+}
@@ -1,136 +1,242 @@
 package com.paymybuddy.paymybuddy.service;
 
-import com.paymybuddy.paymybuddy.constants.Fee;
 import com.paymybuddy.paymybuddy.exceptions.BuddyNotFoundException;
 import com.paymybuddy.paymybuddy.exceptions.InsufficientBalanceException;
 import com.paymybuddy.paymybuddy.exceptions.InvalidAmountException;
 import com.paymybuddy.paymybuddy.exceptions.InvalidPayeeException;
+import com.paymybuddy.paymybuddy.model.FeeQuote;
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.TransactionCursor;
+import com.paymybuddy.paymybuddy.model.TransactionFilter;
 import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.PaymentShareViewModel;
 import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
 import com.paymybuddy.paymybuddy.repository.TransactionRepository;
+import com.paymybuddy.paymybuddy.repository.UserActivityRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.support.PageableExecutionUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
-import javax.transaction.Transactional;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.Clock;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.stream.Stream;
 
 @Service
 @Slf4j
 public class TransactionService {
+	/**
+	 * Properties the transaction list can be sorted by.
+	 */
+	public static final Set<String> SORTABLE_PROPERTIES = Set.of("id", "date", "amount");
+
+	@Autowired
+	TransactionRepository  transactionRepository;
 	@Autowired
-	TransactionRepository transactionRepository;
+	UserActivityRepository userActivityRepository;
 	@Autowired
 	ConnectionService     connectionService;
 	@Autowired
 	UserService           userService;
 	@Autowired
-	PaginationService paginationService;
+	TransferEngine        transferEngine;
+	@Autowired
+	FeeCalculator         feeCalculator;
+	@Autowired
+	HotAccountService     hotAccountService;
 	@Autowired
 	Clock                 clock;
 
 	/**
 	 * Saves a new transaction.
+	 * Balances are moved by the transfer engine, which protects them against concurrent payments.
+	 *
+	 * @see com.paymybuddy.paymybuddy.service.TransferEngine
 	 */
-	@Transactional
-	public Transaction createTransaction(User issuer, User payee, String description, double amount) {
+	public Transaction createTransaction(User issuer, User payee, String description, Money amount) {
 		Assert.notNull(issuer, "Issuer must not be null");
 		Assert.notNull(payee, "Payee must not be null");
+		Assert.notNull(amount, "Amount must not be null");
 		// Check that amount is not negative nor 0
-		if (amount < 0) {
+		if (amount.isNegative()) {
 			String errorMessage = "Transaction amount can not be negative.";
 			log.error(errorMessage);
 			throw new InvalidAmountException(errorMessage);
 		}
-		if (amount == 0) {
+		if (amount.isZero()) {
 			String errorMessage = "Transaction amount must be more than 0.";
 			log.error(errorMessage);
 			throw new InvalidAmountException(errorMessage);
 		}
 		// Calculate fee and total amount
-		BigDecimal amountWithFee = calculateAmountWithFee(amount).get("amountWithFee");
+		FeeQuote quote = feeCalculator.quote(amount);
 
-		// Check that issuer has enough money for this transaction
-		if (issuer.getBalance().compareTo(amountWithFee) < 0) {
-			String errorMessage = "Issuer has insufficient balance to make this transfer.";
-			log.error(errorMessage);
-			throw new InsufficientBalanceException(errorMessage);
-		}
-		// Check that buddy is making a transaction with a connection
-		if (!connectionService.getUserConnections(issuer).contains(UserService.userToViewModel(payee))) {
-			String errorMessage = "The payee is not a buddy from issuer.";
-			log.error(errorMessage);
-			throw new InvalidPayeeException(errorMessage);
+		// The in-memory engine checks balance and connection itself, against state newer than the database
+		if (!transferEngine.isInMemory()) {
+			// Fail fast when issuer obviously does not have enough money, the engine checks it again under lock.
+			// Balances held by the ledger are only read under that lock.
+			if (!transferEngine.isLedger() && availableBalance(issuer).isLessThan(quote.getTotal())) {
+				String errorMessage = "Issuer has insufficient balance to make this transfer.";
+				log.error(errorMessage);
+				throw new InsufficientBalanceException(errorMessage);
+			}
+			// Check that buddy is making a transaction with a connection
+			if (!connectionService.areBuddies(issuer, payee)) {
+				String errorMessage = "The payee is not a buddy from issuer.";
+				log.error(errorMessage);
+				throw new InvalidPayeeException(errorMessage);
+			}
 		}
-		// Withdraw amount with applied fee from issuer's balance
-		issuer.setBalance(issuer.getBalance().subtract(amountWithFee));
-		// Credit payee
-		BigDecimal transactionAmount = new BigDecimal(Double.toString(amount))
-				.setScale(Fee.SCALE, RoundingMode.HALF_UP);
-		payee.setBalance(payee.getBalance()
-				.add(BigDecimal.valueOf(amount)
-						.setScale(Fee.SCALE, RoundingMode.HALF_UP)));
 		// Update transaction with all information before saving
 		Transaction transaction = new Transaction();
 		transaction.setIssuer(issuer);
 		transaction.setPayee(payee);
-		transaction.setAmount(transactionAmount);
+		transaction.setAmount(amount);
 		transaction.setDate(LocalDateTime.now(clock));
 		transaction.setDescription(description);
 
-		issuer.getInitiatedTransactions().add(transaction);
-		payee.getReceivedTransactions().add(transaction);
+		Transaction savedTransaction = transferEngine.transfer(transaction, quote.getTotal());
+		// Keep caller's users in sync when they are not the instances the engine worked on. Balances moved in
+		// memory are saved by the engine only, so they are not copied to users which may be managed.
+		if (!transferEngine.isInMemory()) {
+			issuer.setBalance(savedTransaction.getIssuer().getBalance());
+			payee.setBalance(savedTransaction.getPayee().getBalance());
+		}
+		return savedTransaction;
+	}
+
+	/**
+	 * Pays several buddies at once for the same expense.
+	 * Payees and connections are checked with one query each, the issuer is debited once for all amounts and
+	 * fees, and either every transaction is saved or none is.
+	 *
+	 * @param issuer      user paying
+	 * @param description description of every transaction
+	 * @param shares      amount paid to each buddy, a buddy can appear only once
+	 * @return saved transactions, in the order of the shares
+	 */
+	public List<Transaction> createSplitTransaction(User issuer, String description,
+	                                                List<PaymentShareViewModel> shares) {
+		Assert.notNull(issuer, "Issuer must not be null");
+		Assert.notEmpty(shares, "Shares must not be empty");
+		Map<String, PaymentShareViewModel> sharesByEmail = new LinkedHashMap<>();
+		long                               debitCents    = 0;
+		for (PaymentShareViewModel share : shares) {
+			Assert.notNull(share.getPayeeEmail(), "Payee email must not be null");
+			Assert.notNull(share.getAmount(), "Amount must not be null");
+			if (share.getAmount().isNegative() || share.getAmount().isZero()) {
+				String errorMessage = "Amount paid to " + share.getPayeeEmail() + " must be more than 0.";
+				log.error(errorMessage);
+				throw new InvalidAmountException(errorMessage);
+			}
+			if (sharesByEmail.put(share.getPayeeEmail().toLowerCase(Locale.ROOT), share) != null) {
+				String errorMessage = "Buddy " + share.getPayeeEmail() + " appears more than once.";
+				log.error(errorMessage);
+				throw new InvalidPayeeException(errorMessage);
+			}
+			// Fee is calculated per transaction, as for single payments
+			debitCents = Math.addExact(debitCents, feeCalculator.totalCents(share.getAmount().getCents()));
+		}
+		Money debit = Money.ofCents(debitCents);
+
+		// Fail fast when issuer obviously does not have enough money, the engine checks it again under lock
+		if (!transferEngine.isInMemory() && !transferEngine.isLedger() && availableBalance(issuer).isLessThan(debit)) {
+			String errorMessage = "Issuer has insufficient balance to make this transfer.";
+			log.error(errorMessage);
+			throw new InsufficientBalanceException(errorMessage);
+		}
+		Map<String, User> payeesByEmail = new HashMap<>();
+		userService.getUsersByEmails(shares.stream().map(PaymentShareViewModel::getPayeeEmail).toList())
+		           .forEach(payee -> payeesByEmail.put(payee.getEmail().toLowerCase(Locale.ROOT), payee));
+		List<Integer> payeeIds = new ArrayList<>(shares.size());
+		for (String email : sharesByEmail.keySet()) {
+			User payee = payeesByEmail.get(email);
+			if (payee == null) {
+				String errorMessage = "Buddy with email (" + email + ") does not exist.";
+				log.error(errorMessage);
+				throw new BuddyNotFoundException(errorMessage);
+			}
+			payeeIds.add(payee.getId());
+		}
+		// Check that every payee is a connection of the issuer, the in-memory engine checks it itself
+		if (!transferEngine.isInMemory() && !connectionService.getBuddyIdsAmong(issuer, payeeIds)
+		                                                      .containsAll(payeeIds)) {
+			String errorMessage = "The payee is not a buddy from issuer.";
+			log.error(errorMessage);
+			throw new InvalidPayeeException(errorMessage);
+		}
 
-		return transactionRepository.save(transaction);
+		LocalDateTime     date         = LocalDateTime.now(clock);
+		List<Transaction> transactions = new ArrayList<>(shares.size());
+		sharesByEmail.forEach((email, share) -> {
+			Transaction transaction = new Transaction();
+			transaction.setIssuer(issuer);
+			transaction.setPayee(payeesByEmail.get(email));
+			transaction.setAmount(share.getAmount());
+			transaction.setDate(date);
+			transaction.setDescription(description);
+			transactions.add(transaction);
+		});
+		List<Transaction> savedTransactions = transferEngine.transferToMany(transactions, debit);
+		// Keep caller's users in sync when they are not the instances the engine worked on
+		if (!transferEngine.isInMemory()) {
+			issuer.setBalance(savedTransactions.get(0).getIssuer().getBalance());
+		}
+		return savedTransactions;
 	}
 
 	/**
-	 * Calculates fee information for a given amount.
+	 * Splits an amount equally between buddies. Cents that can not be split go to the first buddies.
 	 *
-	 * @param amount Transaction amount
-	 * @return a HashMap with transaction amount, calculated fee, and amount with fee information
+	 * @param amount      amount to split
+	 * @param payeeEmails buddies sharing the amount
+	 * @return amount paid to each buddy
 	 */
-	public Map<String, BigDecimal> calculateAmountWithFee(double amount) {
-		// Create the Map
-		HashMap<String, BigDecimal> amountAndFee = new HashMap<>();
-		BigDecimal bdAmount = new BigDecimal(Double.toString(amount))
-				.setScale(Fee.SCALE, RoundingMode.HALF_UP);
-		BigDecimal bdFee = new BigDecimal(Double.toString(amount * Fee.TRANSACTION_FEE))
-				.setScale(Fee.SCALE, RoundingMode.HALF_UP);
-		amountAndFee.put("amount", bdAmount);
-		amountAndFee.put("fee", bdFee);
-		amountAndFee.put("amountWithFee", bdAmount.add(bdFee));
-		return amountAndFee;
+	public static List<PaymentShareViewModel> splitEqually(Money amount, List<String> payeeEmails) {
+		Assert.notNull(amount, "Amount must not be null");
+		Assert.notEmpty(payeeEmails, "Payees must not be empty");
+		long                        share     = amount.getCents() / payeeEmails.size();
+		long                        remainder = amount.getCents() % payeeEmails.size();
+		List<PaymentShareViewModel> shares    = new ArrayList<>(payeeEmails.size());
+		for (int i = 0; i < payeeEmails.size(); i++) {
+			shares.add(new PaymentShareViewModel(payeeEmails.get(i), Money.ofCents(share + (i < remainder ? 1 : 0))));
+		}
+		return shares;
 	}
 
 	/**
-	 * Lists all connections in data base
+	 * Lists a page of the transactions matching a filter, users read by the same query.
 	 *
-	 * @return a list of connections
+	 * @param pageable page, sorted by {@link #SORTABLE_PROPERTIES} only
+	 * @return the page, and whether there is a next one
+	 */
+	public Slice<TransactionViewModel> getTransactions(TransactionFilter filter, Pageable pageable) {
+		return transactionRepository.findViews(filter.toSpecification(), pageable);
+	}
+
+	/**
+	 * Streams every transaction matching a filter. The stream must be read inside a transaction and closed.
 	 */
-	public List<TransactionViewModel> getTransactions() {
-		Iterable<Transaction>      transactions          = transactionRepository.findAll();
-		List<TransactionViewModel> transactionViewModels = new ArrayList<>();
-		// extract info from user to user view model
-		transactions.forEach(transaction -> transactionViewModels.add(transactionToViewModel(transaction)));
-		return transactionViewModels;
+	public Stream<TransactionViewModel> streamTransactions(TransactionFilter filter, Sort sort) {
+		return transactionRepository.streamViews(filter.toSpecification(), sort);
 	}
 
 	public Optional<TransactionViewModel> getTransactionById(Integer id) {
 		Assert.notNull(id, "User ID must not be null");
-		if (transactionRepository.findById(id).isPresent()) {
-			return Optional.of(transactionToViewModel(transactionRepository.findById(id).get()));
-		} else {
-			return Optional.empty();
+		Optional<Transaction> pending = transferEngine.findPendingTransaction(id);
+		if (pending.isPresent()) {
+			return Optional.of(transactionToViewModel(pending.get()));
 		}
+		return transactionRepository.findViewById(id);
 	}
 
 	/**
@@ -140,33 +246,78 @@ public class TransactionService {
 	 * @return a list of transactions
 	 */
 	public List<TransactionViewModel> getUserTransactions(Integer id) {
-		Assert.notNull(id, "User ID must not be null");
-		if (userService.getUserById(id).isEmpty()) {
-			log.error("User does not exist.");
-			throw new BuddyNotFoundException("User does not exist.");
-		}
-		User                       user         = userService.getUserById(id).get();
-		List<TransactionViewModel> transactions = new ArrayList<>();
-		// Get all transactions where user is involved
-		List<Transaction> transactionsWhereUserIsInvolved = transactionRepository
-				.findByIssuerOrPayee(user, user);
-		log.debug("Found transactions involving " + user.getEmail() + ":\n" + transactionsWhereUserIsInvolved);
-		transactionsWhereUserIsInvolved.forEach(transaction -> transactions.add(transactionToViewModel(transaction)));
-		log.info("Transactions with " + user.getEmail() + ":\n" + transactions);
+		User user = getExistingUser(id);
+		// Get all transactions where user is involved, from the user's range of the activity feed
+		List<TransactionViewModel> transactions = userActivityRepository.findTransactions(user.getId());
+		log.debug("Transactions with " + user.getEmail() + ":\n" + transactions);
 		return transactions;
 	}
 
 	/**
-	 * Returns a paginated list of user's transactions.
+	 * Returns a page of user's transactions, newest first.
+	 * The page is read from the user's range of the activity feed, which is already in that order. The total is
+	 * only counted when it can not be deduced from the page itself.
 	 *
 	 * @param pageable Pageable object.
 	 * @param id       Id of connected user.
 	 * @return a paginated list of transactions.
 	 */
-	public Page<?> getPaginatedUserTransactions(Pageable pageable, Integer id) {
-		// Get raw list of transactions
-		List<TransactionViewModel> transactions = getUserTransactions(id);
-		return paginationService.getPaginatedList(pageable, transactions);
+	public Page<TransactionViewModel> getPaginatedUserTransactions(Pageable pageable, Integer id) {
+		User user = getExistingUser(id);
+		List<TransactionViewModel> content = userActivityRepository.findLatestTransactions(user.getId(), pageable);
+		return PageableExecutionUtils.getPage(content, pageable,
+		                                      () -> userActivityRepository.countTransactions(user.getId()));
+	}
+
+	/**
+	 * Returns the user's transactions that come after a cursor, newest first, without counting the history.
+	 *
+	 * @param id     Id of connected user.
+	 * @param cursor cursor of the last transaction already read, see {@link #nextCursor(Slice)}.
+	 * @param size   number of transactions wanted.
+	 * @return a slice of transactions.
+	 */
+	public Slice<TransactionViewModel> getUserTransactionsAfter(Integer id, String cursor, int size) {
+		Assert.hasText(cursor, "Cursor must not be empty");
+		User              user  = getExistingUser(id);
+		TransactionCursor after = TransactionCursor.decode(cursor);
+		// One more row tells whether there is a next slice
+		Pageable          top   = PageRequest.of(0, size + 1);
+		List<TransactionViewModel> rows = userActivityRepository.findTransactionsBefore(user.getId(), after.getDate(),
+		                                                                                after.getId(), top);
+		List<TransactionViewModel> content = rows.stream().limit(size).toList();
+		return new SliceImpl<>(content, PageRequest.of(0, size), rows.size() > size);
+	}
+
+	/**
+	 * @return the cursor reading the transactions after the given page or slice, null when there are none
+	 */
+	public static String nextCursor(Slice<TransactionViewModel> transactions) {
+		if (!transactions.hasNext() || !transactions.hasContent()) {
+			return null;
+		}
+		TransactionViewModel last = transactions.getContent().get(transactions.getNumberOfElements() - 1);
+		return TransactionCursor.after(last.getDate(), last.getId()).encode();
+	}
+
+	private User getExistingUser(Integer id) {
+		Assert.notNull(id, "User ID must not be null");
+		Optional<User> user = userService.getUserById(id);
+		if (user.isEmpty()) {
+			log.error("User does not exist.");
+			throw new BuddyNotFoundException("User does not exist.");
+		}
+		return user.get();
+	}
+
+	/**
+	 * Balance of a user including the credits of a hot account not folded yet.
+	 */
+	private Money availableBalance(User user) {
+		if (!hotAccountService.isHot(user.getId())) {
+			return user.getBalance();
+		}
+		return user.getBalance().plus(hotAccountService.getUnfoldedCredits(user.getId()));
 	}
 
 	public static TransactionViewModel transactionToViewModel(Transaction transaction) {
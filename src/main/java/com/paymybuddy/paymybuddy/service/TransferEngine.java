@@ -0,0 +1,490 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.constants.TransferStrategy;
+import com.paymybuddy.paymybuddy.event.PaymentCompleted;
+import com.paymybuddy.paymybuddy.exceptions.BuddyNotFoundException;
+import com.paymybuddy.paymybuddy.exceptions.InsufficientBalanceException;
+import com.paymybuddy.paymybuddy.model.LedgerAccount;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.TransactionRepository;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Hibernate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.LockTimeoutException;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PessimisticLockException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+@Service
+@Slf4j
+public class TransferEngine {
+	@Autowired
+	EntityManager              entityManager;
+	@Autowired
+	UserRepository             userRepository;
+	@Autowired
+	TransactionRepository      transactionRepository;
+	@Autowired
+	PlatformTransactionManager transactionManager;
+	@Autowired
+	MeterRegistry              meterRegistry;
+	@Autowired
+	JdbcTemplate               jdbcTemplate;
+	@Autowired
+	InMemoryTransferEngine     inMemoryTransferEngine;
+	@Autowired
+	HotAccountService          hotAccountService;
+	@Autowired
+	LedgerService              ledgerService;
+	@Autowired
+	ApplicationEventPublisher  eventPublisher;
+
+	private static final String INSERT_TRANSACTION = "insert into transaction (fk_issuer_id, fk_payee_id, date, " +
+	                                                 "amount, description) values (?, ?, ?, ?, ?)";
+
+	/**
+	 * Concurrency control used to move balances.
+	 */
+	@Value("${paymybuddy.transfer.strategy:PESSIMISTIC}")
+	TransferStrategy strategy;
+	/**
+	 * Maximum number of attempts for a transfer losing a lock or version conflict.
+	 */
+	@Value("${paymybuddy.transfer.max-attempts:5}")
+	int              maxAttempts;
+	/**
+	 * Base delay in milliseconds before retrying, doubled on each attempt and randomized.
+	 */
+	@Value("${paymybuddy.transfer.backoff-ms:20}")
+	long             backoffMillis;
+
+	private TransactionTemplate transactionTemplate;
+	private Counter             retries;
+	private Counter             conflicts;
+	private Timer               lockWait;
+
+	@PostConstruct
+	void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		retries = meterRegistry.counter("paymybuddy.transfer.retries");
+		conflicts = meterRegistry.counter("paymybuddy.transfer.conflicts");
+		lockWait = meterRegistry.timer("paymybuddy.transfer.lock.wait");
+	}
+
+	/**
+	 * Debits the issuer, credits the payee and saves the transaction in one database transaction.
+	 * Both user rows are always acquired lowest user ID first, so two opposite payments between the same
+	 * buddies can not deadlock. A hot payee is credited on one of its stripes instead of its row. With the LEDGER
+	 * strategy only the issuer's ledger account is locked, and neither row is written.
+	 * Lock and version conflicts are retried with jitter unless the caller already runs inside a database
+	 * transaction.
+	 *
+	 * @param transaction transaction to save, with issuer, payee, amount, date and description set
+	 * @param debit       amount withdrawn from the issuer, fee included
+	 * @return saved transaction, referencing the up-to-date issuer and payee
+	 */
+	public Transaction transfer(Transaction transaction, Money debit) {
+		Assert.notNull(transaction, "Transaction must not be null");
+		Assert.notNull(debit, "Debit must not be null");
+		if (isInMemory()) {
+			return inMemoryTransferEngine.transfer(List.of(transaction), debit).get(0);
+		}
+		// The insert of a failed attempt is rolled back with it
+		return withRetries(() -> doTransfer(transaction, debit), () -> transaction.setId(null));
+	}
+
+	/**
+	 * Debits the issuer once, credits every payee and saves all transactions in one database transaction.
+	 * Users are read in a single query ordered by ID and transactions are inserted in one JDBC batch,
+	 * so the number of statements does not grow with the number of payees. Nothing is saved if any leg fails.
+	 *
+	 * @param transactions transactions to save, all from the same issuer, with payee, amount, date and description
+	 *                     set
+	 * @param debit        amount withdrawn from the issuer, fees of all transactions included
+	 * @return saved transactions, with their IDs and referencing the up-to-date issuer and payees
+	 */
+	public List<Transaction> transferToMany(List<Transaction> transactions, Money debit) {
+		Assert.notEmpty(transactions, "Transactions must not be empty");
+		Assert.notNull(debit, "Debit must not be null");
+		if (isInMemory()) {
+			return inMemoryTransferEngine.transfer(transactions, debit);
+		}
+		return withRetries(() -> doTransferToMany(transactions, debit),
+		                   () -> transactions.forEach(transaction -> transaction.setId(null)));
+	}
+
+	/**
+	 * @return whether balances are moved by the in-memory engine, which checks connections and balances itself
+	 * and returns detached users
+	 */
+	public boolean isInMemory() {
+		return strategy == TransferStrategy.IN_MEMORY;
+	}
+
+	/**
+	 * @return whether balances are held by the ledger, so that the balances of user rows are not moved
+	 */
+	public boolean isLedger() {
+		return strategy == TransferStrategy.LEDGER;
+	}
+
+	/**
+	 * Finds a transaction accepted by the in-memory engine but not saved in database yet.
+	 */
+	public Optional<Transaction> findPendingTransaction(Integer id) {
+		return isInMemory() ? inMemoryTransferEngine.findPendingTransaction(id) : Optional.empty();
+	}
+
+	private <T> T withRetries(Supplier<T> transfer, Runnable resetAttempt) {
+		boolean joinsTransaction = TransactionSynchronizationManager.isActualTransactionActive();
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return transactionTemplate.execute(status -> transfer.get());
+			} catch (RuntimeException e) {
+				if (!isLockConflict(e)) {
+					throw e;
+				}
+				if (joinsTransaction || attempt >= maxAttempts) {
+					conflicts.increment();
+					log.error("Transfer gave up after " + attempt + " attempt(s).", e);
+					throw e;
+				}
+				retries.increment();
+				resetAttempt.run();
+				log.debug("Transfer attempt " + attempt + " lost a " + strategy + " conflict, retrying.");
+				backOff(attempt);
+			}
+		}
+	}
+
+	private Transaction doTransfer(Transaction transaction, Money debit) {
+		Integer issuerId     = transaction.getIssuer().getId();
+		Integer payeeId      = transaction.getPayee().getId();
+		Money   credit       = transaction.getAmount();
+		boolean issuerFirst  = issuerId.compareTo(payeeId) <= 0;
+		boolean stripedPayee = hotAccountService.isHot(payeeId);
+		User    issuer;
+		User    payee;
+
+		long start = System.nanoTime();
+		if (strategy == TransferStrategy.LEDGER) {
+			debitLedger(issuerId, debit);
+			lockWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			issuer = find(issuerId, LockModeType.NONE);
+			payee = issuerId.equals(payeeId) ? issuer : find(payeeId, LockModeType.NONE);
+		} else if (strategy == TransferStrategy.CONDITIONAL_UPDATE) {
+			if (issuerFirst) {
+				debit(issuerId, debit);
+				credit(payeeId, credit);
+			} else {
+				credit(payeeId, credit);
+				debit(issuerId, debit);
+			}
+			lockWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			// Balances were changed in database only, reload them
+			issuer = reload(issuerId);
+			payee = issuerId.equals(payeeId) ? issuer : reload(payeeId);
+		} else {
+			LockModeType lockMode = strategy == TransferStrategy.PESSIMISTIC ? LockModeType.PESSIMISTIC_WRITE
+			                                                                 : LockModeType.NONE;
+			if (stripedPayee) {
+				// The payee row is neither locked nor written
+				issuer = findTimed(issuerId, lockMode);
+				payee = find(payeeId, LockModeType.NONE);
+			} else {
+				User first  = findTimed(issuerFirst ? issuerId : payeeId, lockMode);
+				User second = findTimed(issuerFirst ? payeeId : issuerId, lockMode);
+				issuer = issuerFirst ? first : second;
+				payee = issuerFirst ? second : first;
+			}
+			lockWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			// Check that issuer has enough money for this transaction
+			if (issuer.getBalance().isLessThan(debit)) {
+				foldStripes(issuer);
+				if (issuer.getBalance().isLessThan(debit)) {
+					throw insufficientBalance();
+				}
+			}
+			issuer.setBalance(issuer.getBalance().minus(debit));
+			if (!stripedPayee || !hotAccountService.creditStripe(payeeId, credit)) {
+				if (stripedPayee) {
+					// The payee was cooled down meanwhile
+					payee = find(payeeId, lockMode);
+				}
+				payee.setBalance(payee.getBalance().plus(credit));
+			}
+		}
+
+		transaction.setIssuer(issuer);
+		transaction.setPayee(payee);
+		// The transaction row is written on its own, history is only kept in sync when already in memory
+		if (Hibernate.isInitialized(issuer.getInitiatedTransactions())) {
+			issuer.getInitiatedTransactions().add(transaction);
+		}
+		if (Hibernate.isInitialized(payee.getReceivedTransactions())) {
+			payee.getReceivedTransactions().add(transaction);
+		}
+		Transaction savedTransaction = transactionRepository.save(transaction);
+		eventPublisher.publishEvent(new PaymentCompleted(List.of(savedTransaction), debit));
+		return savedTransaction;
+	}
+
+	private List<Transaction> doTransferToMany(List<Transaction> transactions, Money debit) {
+		Integer issuerId = transactions.get(0).getIssuer().getId();
+		// Amount credited to each payee, ordered by user ID
+		TreeMap<Integer, Money> credits = new TreeMap<>();
+		for (Transaction transaction : transactions) {
+			Assert.isTrue(issuerId.equals(transaction.getIssuer().getId()), "Transactions must have the same issuer");
+			credits.merge(transaction.getPayee().getId(), transaction.getAmount(), Money::plus);
+		}
+		SortedSet<Integer> userIds = new TreeSet<>(credits.keySet());
+		userIds.add(issuerId);
+		Map<Integer, User> users = new HashMap<>();
+
+		long start = System.nanoTime();
+		if (strategy == TransferStrategy.LEDGER) {
+			debitLedger(issuerId, debit);
+			lockWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			findAll(userIds, LockModeType.NONE).forEach(user -> users.put(user.getId(), user));
+		} else if (strategy == TransferStrategy.CONDITIONAL_UPDATE) {
+			for (Integer userId : userIds) {
+				if (userId.equals(issuerId)) {
+					debit(issuerId, debit);
+				}
+				if (credits.containsKey(userId)) {
+					credit(userId, credits.get(userId));
+				}
+			}
+			lockWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			// Balances were changed in database only, reload them
+			findAll(userIds, LockModeType.NONE).forEach(user -> {
+				entityManager.refresh(user);
+				users.put(user.getId(), user);
+			});
+		} else {
+			LockModeType lockMode = strategy == TransferStrategy.PESSIMISTIC ? LockModeType.PESSIMISTIC_WRITE
+			                                                                 : LockModeType.NONE;
+			// Rows of hot payees are neither locked nor written
+			SortedSet<Integer> stripedIds = new TreeSet<>();
+			credits.keySet().stream().filter(hotAccountService::isHot).forEach(stripedIds::add);
+			SortedSet<Integer> lockedIds = new TreeSet<>(userIds);
+			lockedIds.removeAll(stripedIds);
+			findAll(lockedIds, lockMode).forEach(user -> users.put(user.getId(), user));
+			lockWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			if (!stripedIds.isEmpty()) {
+				findAll(stripedIds, LockModeType.NONE).forEach(user -> users.put(user.getId(), user));
+			}
+			User issuer = users.get(issuerId);
+			// Check that issuer has enough money for all transactions
+			if (issuer.getBalance().isLessThan(debit)) {
+				foldStripes(issuer);
+				if (issuer.getBalance().isLessThan(debit)) {
+					throw insufficientBalance();
+				}
+			}
+			issuer.setBalance(issuer.getBalance().minus(debit));
+			credits.forEach((payeeId, credit) -> {
+				if (stripedIds.contains(payeeId) && hotAccountService.creditStripe(payeeId, credit)) {
+					return;
+				}
+				User payee = users.get(payeeId);
+				if (stripedIds.contains(payeeId)) {
+					// The payee was cooled down meanwhile
+					payee = find(payeeId, lockMode);
+					users.put(payeeId, payee);
+				}
+				payee.setBalance(payee.getBalance().plus(credit));
+			});
+		}
+
+		for (Transaction transaction : transactions) {
+			transaction.setIssuer(users.get(issuerId));
+			transaction.setPayee(users.get(transaction.getPayee().getId()));
+		}
+		insertAll(transactions);
+		eventPublisher.publishEvent(new PaymentCompleted(transactions, debit));
+		// History is only kept in sync when already in memory
+		for (Transaction transaction : transactions) {
+			if (Hibernate.isInitialized(transaction.getIssuer().getInitiatedTransactions())) {
+				transaction.getIssuer().getInitiatedTransactions().add(transaction);
+			}
+			if (Hibernate.isInitialized(transaction.getPayee().getReceivedTransactions())) {
+				transaction.getPayee().getReceivedTransactions().add(transaction);
+			}
+		}
+		return transactions;
+	}
+
+	/**
+	 * Reads users in one query, in ascending ID order so that row locks are always taken in the same order.
+	 */
+	private List<User> findAll(Collection<Integer> ids, LockModeType lockMode) {
+		List<User> users = entityManager.createQuery("select u from User u where u.id in :ids order by u.id",
+		                                             User.class)
+		                                .setParameter("ids", ids)
+		                                .setLockMode(lockMode)
+		                                .getResultList();
+		if (users.size() != ids.size()) {
+			String errorMessage = "Some of the users with IDs " + ids + " do not exist.";
+			log.error(errorMessage);
+			throw new BuddyNotFoundException(errorMessage);
+		}
+		return users;
+	}
+
+	/**
+	 * Inserts transactions with one JDBC batch, on the connection of the current database transaction.
+	 * Hibernate can not batch these inserts because transaction IDs are generated by the database.
+	 */
+	private void insertAll(List<Transaction> transactions) {
+		jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(INSERT_TRANSACTION,
+			                                                               Statement.RETURN_GENERATED_KEYS)) {
+				for (Transaction transaction : transactions) {
+					statement.setInt(1, transaction.getIssuer().getId());
+					statement.setInt(2, transaction.getPayee().getId());
+					statement.setTimestamp(3, Timestamp.valueOf(transaction.getDate()));
+					statement.setBigDecimal(4, transaction.getAmount().toBigDecimal());
+					statement.setString(5, transaction.getDescription());
+					statement.addBatch();
+				}
+				statement.executeBatch();
+				try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+					for (Transaction transaction : transactions) {
+						if (generatedKeys.next()) {
+							transaction.setId(generatedKeys.getInt(1));
+						}
+					}
+				}
+			}
+			return null;
+		});
+	}
+
+	private User find(Integer id, LockModeType lockMode) {
+		User user = entityManager.find(User.class, id, lockMode);
+		if (user == null) {
+			String errorMessage = "User with ID " + id + " does not exist.";
+			log.error(errorMessage);
+			throw new BuddyNotFoundException(errorMessage);
+		}
+		return user;
+	}
+
+	/**
+	 * Finds a user and adds the time spent waiting for its row lock to its hot account detection.
+	 */
+	private User findTimed(Integer id, LockModeType lockMode) {
+		long start = System.nanoTime();
+		User user  = find(id, lockMode);
+		hotAccountService.recordLockWait(id, System.nanoTime() - start);
+		return user;
+	}
+
+	/**
+	 * Moves the credits waiting in the stripes of a hot account to its locked user entity.
+	 */
+	private void foldStripes(User user) {
+		if (hotAccountService.isHot(user.getId())) {
+			user.setBalance(user.getBalance().plus(hotAccountService.drainStripes(user.getId())));
+		}
+	}
+
+	private User reload(Integer id) {
+		User user = find(id, LockModeType.NONE);
+		entityManager.refresh(user);
+		return user;
+	}
+
+	private void debit(Integer id, Money amount) {
+		long start    = System.nanoTime();
+		int  debited  = userRepository.debitIfSufficient(id, amount);
+		hotAccountService.recordLockWait(id, System.nanoTime() - start);
+		if (debited == 0 && hotAccountService.isHot(id)) {
+			// The row is locked by the failed update, fold the stripes and try again
+			Money folded = hotAccountService.drainStripes(id);
+			if (!folded.isZero()) {
+				userRepository.credit(id, folded);
+				debited = userRepository.debitIfSufficient(id, amount);
+			}
+		}
+		if (debited == 0) {
+			throw insufficientBalance();
+		}
+	}
+
+	private void credit(Integer id, Money amount) {
+		if (hotAccountService.isHot(id) && hotAccountService.creditStripe(id, amount)) {
+			return;
+		}
+		long start    = System.nanoTime();
+		int  credited = userRepository.credit(id, amount);
+		hotAccountService.recordLockWait(id, System.nanoTime() - start);
+		if (credited == 0) {
+			String errorMessage = "User with ID " + id + " does not exist.";
+			log.error(errorMessage);
+			throw new BuddyNotFoundException(errorMessage);
+		}
+	}
+
+	/**
+	 * Locks the ledger account of the issuer and checks its balance. The entries of the payment are inserted by the
+	 * ledger when it completes, no balance is written.
+	 */
+	private void debitLedger(Integer issuerId, Money debit) {
+		if (ledgerService.lockBalance(LedgerAccount.ofUser(issuerId)).isLessThan(debit)) {
+			throw insufficientBalance();
+		}
+	}
+
+	private InsufficientBalanceException insufficientBalance() {
+		String errorMessage = "Issuer has insufficient balance to make this transfer.";
+		log.error(errorMessage);
+		return new InsufficientBalanceException(errorMessage);
+	}
+
+	private static boolean isLockConflict(RuntimeException e) {
+		return e instanceof ConcurrencyFailureException
+		       || e instanceof OptimisticLockException
+		       || e instanceof PessimisticLockException
+		       || e instanceof LockTimeoutException;
+	}
+
+	private void backOff(int attempt) {
+		// Full jitter on an exponential window so that retrying payments spread out
+		long window = backoffMillis << Math.min(attempt - 1, 10);
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(window + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Transfer interrupted while waiting to retry.", e);
+		}
+	}
+}
@@ -0,0 +1,461 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.event.UserCreated;
+import com.paymybuddy.paymybuddy.event.UserDeleted;
+import com.paymybuddy.paymybuddy.exceptions.TooManyRequestsException;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.BuddySuggestionViewModel;
+import com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Completes the first letters of an email, a firstname or a lastname into users to add as buddies, without a LIKE
+ * query. Every user has a few keys, lower case without accents: the email, the firstname, the lastname and the full
+ * name. Keys are held in memory sorted, in two parallel arrays with the user ID of each key, so that the keys
+ * starting with a prefix follow each other from a binary search. Users created afterwards go to a small sorted
+ * set, folded into the arrays once it grows; deleted users are skipped until then.
+ * <p>
+ * Only users that share buddies with the searching user are completed from a prefix, the ones with more buddies in
+ * common first, existing buddies being left out; any other user is only found from their whole email, so that the
+ * emails of strangers can not be listed letter by letter. Prefixes have a minimum length and each user has a number
+ * of completions per minute. Only the suggested users are then read, by primary key. Users created by other
+ * instances are picked up by a periodic refresh.
+ */
+@Service
+@Slf4j
+public class UserAutocompleteService {
+	@Autowired
+	UserRepository userRepository;
+	@Autowired
+	BuddyGraph     buddyGraph;
+	@Autowired
+	MeterRegistry  meterRegistry;
+
+	/**
+	 * Users read per query at startup and by a refresh.
+	 */
+	private static final int LOAD_PAGE_SIZE = 1000;
+
+	/**
+	 * User IDs below the highest one indexed that a refresh reads again, in case they were committed late.
+	 */
+	private static final int REFRESH_LOOKBACK = 1000;
+
+	/**
+	 * Keys added since the last fold below which they are not folded into the sorted arrays.
+	 */
+	private static final int MIN_FOLDED_KEYS = 1024;
+
+	/**
+	 * Most users matching a prefix that are ranked, which bounds the work of a very short prefix.
+	 */
+	@Value("${paymybuddy.autocomplete.max-candidates:200}")
+	int maxCandidates;
+	/**
+	 * Shortest prefix that is completed.
+	 */
+	@Value("${paymybuddy.autocomplete.min-prefix:3}")
+	int minPrefix;
+	/**
+	 * Most completions a user gets in a minute.
+	 */
+	@Value("${paymybuddy.autocomplete.max-per-minute:60}")
+	int maxPerMinute;
+
+	/**
+	 * Completions of each user in the current minute, cleared when the next one starts.
+	 */
+	private final    Map<Integer, AtomicInteger> completions = new ConcurrentHashMap<>();
+	private volatile long                        minute;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Guarded by lock
+	private String[]       keys       = new String[0];
+	private int[]          userIds    = new int[0];
+	private TreeSet<Entry> addedKeys  = new TreeSet<>();
+	private BitSet         removedIds = new BitSet();
+	private final BitSet   indexedIds = new BitSet();
+	private int            highestIndexedId;
+
+	@PostConstruct
+	void init() {
+		meterRegistry.gauge("paymybuddy.autocomplete.keys", this, UserAutocompleteService::getKeyCount);
+		load();
+	}
+
+	/**
+	 * Reads every user, a page at a time, and replaces the index.
+	 *
+	 * @return number of users indexed
+	 */
+	public int load() {
+		long        start   = System.nanoTime();
+		List<Entry> entries = new ArrayList<>();
+		BitSet      loaded  = new BitSet();
+		int         afterId = 0;
+		List<UserViewModel> page;
+		do {
+			page = userRepository.findViewsAfter(afterId, PageRequest.of(0, LOAD_PAGE_SIZE));
+			for (UserViewModel user : page) {
+				for (String key : keysOf(user.getEmail(), user.getFirstname(), user.getLastname())) {
+					entries.add(new Entry(key, user.getId()));
+				}
+				loaded.set(user.getId());
+				afterId = user.getId();
+			}
+		} while (page.size() == LOAD_PAGE_SIZE);
+		entries.sort(Comparator.naturalOrder());
+
+		lock.writeLock().lock();
+		try {
+			keys = new String[entries.size()];
+			userIds = new int[entries.size()];
+			for (int i = 0; i < entries.size(); i++) {
+				keys[i] = entries.get(i).key();
+				userIds[i] = entries.get(i).userId();
+			}
+			addedKeys = new TreeSet<>();
+			removedIds = new BitSet();
+			indexedIds.clear();
+			indexedIds.or(loaded);
+			highestIndexedId = afterId;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		log.info("Indexed " + entries.size() + " keys of " + loaded.cardinality() + " users for autocompletion in " +
+		         (System.nanoTime() - start) / 1_000_000 + " ms.");
+		return loaded.cardinality();
+	}
+
+	/**
+	 * Adds a created user once their database transaction commits.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	void onUserCreated(UserCreated event) {
+		add(event.user());
+	}
+
+	/**
+	 * Removes a deleted user once their database transaction commits.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	void onUserDeleted(UserDeleted event) {
+		remove(event.user());
+	}
+
+	/**
+	 * Adds a created user.
+	 */
+	public void add(User user) {
+		Assert.notNull(user, "User must not be null");
+		Assert.notNull(user.getId(), "User ID must not be null");
+		add(user.getId(), user.getEmail(), user.getFirstName(), user.getLastName());
+	}
+
+	/**
+	 * Removes a deleted user.
+	 */
+	public void remove(User user) {
+		Assert.notNull(user, "User must not be null");
+		Assert.notNull(user.getId(), "User ID must not be null");
+		lock.writeLock().lock();
+		try {
+			removedIds.set(user.getId());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Scheduled(initialDelayString = "${paymybuddy.autocomplete.refresh-interval:PT10S}",
+	           fixedDelayString = "${paymybuddy.autocomplete.refresh-interval:PT10S}")
+	void scheduledRefresh() {
+		try {
+			refresh();
+		} catch (RuntimeException e) {
+			log.error("Autocomplete index refresh failed.", e);
+		}
+	}
+
+	/**
+	 * Adds the users created since the last refresh, by this instance or by another one. Users deleted by another
+	 * instance stay in the index until the next load, their suggestions are dropped when the users are read.
+	 *
+	 * @return number of users newly indexed
+	 */
+	public int refresh() {
+		int afterId;
+		lock.readLock().lock();
+		try {
+			afterId = Math.max(0, highestIndexedId - REFRESH_LOOKBACK);
+		} finally {
+			lock.readLock().unlock();
+		}
+		int added = 0;
+		List<UserViewModel> page;
+		do {
+			page = userRepository.findViewsAfter(afterId, PageRequest.of(0, LOAD_PAGE_SIZE));
+			for (UserViewModel user : page) {
+				if (add(user.getId(), user.getEmail(), user.getFirstname(), user.getLastname())) {
+					added++;
+				}
+				afterId = user.getId();
+			}
+		} while (page.size() == LOAD_PAGE_SIZE);
+		return added;
+	}
+
+	/**
+	 * Completes a prefix into users the user could add as buddies.
+	 *
+	 * @param user  user adding a buddy, neither suggested nor are their buddies
+	 * @param query first letters of an email, a firstname, a lastname or a full name, whatever their case and accents,
+	 *              or the whole email of a user without buddies in common
+	 * @param limit maximum number of users returned
+	 * @return matching users, the ones with more buddies in common first, then in the order of their keys; none when
+	 * the query is shorter than the minimum prefix
+	 * @throws TooManyRequestsException when the user already got the completions allowed in this minute
+	 */
+	public List<BuddySuggestionViewModel> complete(User user, String query, int limit) {
+		Assert.notNull(user, "User must not be null");
+		Assert.isTrue(limit > 0, "Limit must be positive");
+		countCompletion(user.getId());
+		String prefix = fold(query == null ? "" : query.strip());
+		if (prefix.length() < minPrefix) {
+			return List.of();
+		}
+		// Only an email holds an @, a stranger is kept until their email is compared with the whole query
+		boolean emailQuery = prefix.indexOf('@') >= 0;
+		// Users are ranked by buddies in common, the sort keeps the order of the keys among equals
+		List<BuddyGraph.Suggestion> candidates = new ArrayList<>();
+		for (int candidateId : matches(prefix)) {
+			if (candidateId != user.getId() && !buddyGraph.isConnected(user.getId(), candidateId)) {
+				int mutualBuddies = buddyGraph.mutualBuddies(user.getId(), candidateId);
+				if (mutualBuddies > 0 || emailQuery) {
+					candidates.add(new BuddyGraph.Suggestion(candidateId, mutualBuddies));
+				}
+			}
+		}
+		candidates.sort(Comparator.comparingInt(BuddyGraph.Suggestion::mutualBuddies).reversed());
+		List<BuddyGraph.Suggestion> suggestions = candidates.subList(0, Math.min(limit, candidates.size()));
+
+		Map<Integer, User> users = new HashMap<>();
+		userRepository.findAllById(suggestions.stream().map(BuddyGraph.Suggestion::userId).toList())
+		              .forEach(suggested -> users.put(suggested.getId(), suggested));
+		List<BuddySuggestionViewModel> result = new ArrayList<>(suggestions.size());
+		for (BuddyGraph.Suggestion suggestion : suggestions) {
+			User suggested = users.get(suggestion.userId());
+			if (suggested != null && (suggestion.mutualBuddies() > 0 || fold(suggested.getEmail()).equals(prefix))) {
+				result.add(new BuddySuggestionViewModel(suggested.getId(), suggested.getEmail(),
+				                                        suggested.getFirstName(), suggested.getLastName(),
+				                                        suggestion.mutualBuddies()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counts a completion of a user.
+	 *
+	 * @throws TooManyRequestsException when the user already got the completions allowed in this minute
+	 */
+	private void countCompletion(int userId) {
+		long currentMinute = System.currentTimeMillis() / 60_000;
+		if (currentMinute != minute) {
+			synchronized (completions) {
+				if (currentMinute != minute) {
+					completions.clear();
+					minute = currentMinute;
+				}
+			}
+		}
+		if (completions.computeIfAbsent(userId, id -> new AtomicInteger()).incrementAndGet() > maxPerMinute) {
+			throw new TooManyRequestsException("User " + userId + " completed more than " + maxPerMinute +
+			                                   " emails in a minute.");
+		}
+	}
+
+	public int getKeyCount() {
+		lock.readLock().lock();
+		try {
+			return keys.length + addedKeys.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Lower cases a text and removes its accents.
+	 */
+	static String fold(String text) {
+		return Normalizer.normalize(text, Normalizer.Form.NFD)
+		                 .replaceAll("\\p{M}", "")
+		                 .toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Keys of a user: the email, the firstname, the lastname and the full name, folded.
+	 */
+	static Set<String> keysOf(String email, String firstname, String lastname) {
+		Set<String> keys = new LinkedHashSet<>();
+		for (String text : new String[]{email, firstname, lastname}) {
+			if (text != null && !text.isBlank()) {
+				keys.add(fold(text.strip()));
+			}
+		}
+		if (firstname != null && !firstname.isBlank() && lastname != null && !lastname.isBlank()) {
+			keys.add(fold(firstname.strip() + " " + lastname.strip()));
+		}
+		return keys;
+	}
+
+	/**
+	 * Distinct users having a key that starts with the prefix, in the order of their keys, both the sorted arrays
+	 * and the added keys walked together. Stops at {@link #maxCandidates} users.
+	 */
+	private Set<Integer> matches(String prefix) {
+		Set<Integer> matches = new LinkedHashSet<>();
+		lock.readLock().lock();
+		try {
+			int             index = lowerBound(prefix);
+			Iterator<Entry> added = addedKeys.tailSet(new Entry(prefix, Integer.MIN_VALUE)).iterator();
+			Entry           next  = added.hasNext() ? added.next() : null;
+			while (matches.size() < maxCandidates) {
+				boolean inArrays = index < keys.length && keys[index].startsWith(prefix);
+				boolean inAdded  = next != null && next.key().startsWith(prefix);
+				if (!inArrays && !inAdded) {
+					break;
+				}
+				int userId;
+				if (inArrays && (!inAdded || new Entry(keys[index], userIds[index]).compareTo(next) <= 0)) {
+					userId = userIds[index++];
+				} else {
+					userId = next.userId();
+					next = added.hasNext() ? added.next() : null;
+				}
+				if (!removedIds.get(userId)) {
+					matches.add(userId);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return matches;
+	}
+
+	/**
+	 * Position of the first key not lower than the prefix. Called under the read lock.
+	 */
+	private int lowerBound(String prefix) {
+		int low  = 0;
+		int high = keys.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (keys[middle].compareTo(prefix) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Indexes a user, unless it already is.
+	 *
+	 * @return whether the user was added
+	 */
+	private boolean add(int userId, String email, String firstname, String lastname) {
+		Set<String> userKeys = keysOf(email, firstname, lastname);
+		lock.writeLock().lock();
+		try {
+			if (indexedIds.get(userId)) {
+				return false;
+			}
+			indexedIds.set(userId);
+			highestIndexedId = Math.max(highestIndexedId, userId);
+			for (String key : userKeys) {
+				addedKeys.add(new Entry(key, userId));
+			}
+			if (addedKeys.size() > Math.max(MIN_FOLDED_KEYS, keys.length / 8)) {
+				fold();
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Merges the added keys into the sorted arrays and drops the keys of removed users. Called under the write lock.
+	 */
+	private void fold() {
+		String[] foldedKeys    = new String[keys.length + addedKeys.size()];
+		int[]    foldedUserIds = new int[foldedKeys.length];
+		int      size          = 0;
+		int      index         = 0;
+		for (Entry entry : addedKeys) {
+			while (index < keys.length && new Entry(keys[index], userIds[index]).compareTo(entry) < 0) {
+				if (!removedIds.get(userIds[index])) {
+					foldedKeys[size] = keys[index];
+					foldedUserIds[size++] = userIds[index];
+				}
+				index++;
+			}
+			if (!removedIds.get(entry.userId())) {
+				foldedKeys[size] = entry.key();
+				foldedUserIds[size++] = entry.userId();
+			}
+		}
+		for (; index < keys.length; index++) {
+			if (!removedIds.get(userIds[index])) {
+				foldedKeys[size] = keys[index];
+				foldedUserIds[size++] = userIds[index];
+			}
+		}
+		keys = Arrays.copyOf(foldedKeys, size);
+		userIds = Arrays.copyOf(foldedUserIds, size);
+		addedKeys = new TreeSet<>();
+		removedIds = new BitSet();
+	}
+
+	/**
+	 * Key of a user, ordered by key then by user ID like the sorted arrays.
+	 */
+	private record Entry(String key, int userId) implements Comparable<Entry> {
+		@Override
+		public int compareTo(Entry other) {
+			int byKey = key.compareTo(other.key);
+			return byKey != 0 ? byKey : Integer.compare(userId, other.userId);
+		}
+	}
+}
@@ -1,33 +1,46 @@
 package com.paymybuddy.paymybuddy.service;
 
 import com.paymybuddy.paymybuddy.constants.EmailValidator;
-import com.paymybuddy.paymybuddy.constants.Fee;
+import com.paymybuddy.paymybuddy.event.UserCreated;
+import com.paymybuddy.paymybuddy.event.UserDeleted;
 import com.paymybuddy.paymybuddy.exceptions.BankAccountNotFoundException;
 import com.paymybuddy.paymybuddy.exceptions.BuddyNotFoundException;
 import com.paymybuddy.paymybuddy.exceptions.EmailAlreadyUsedException;
 import com.paymybuddy.paymybuddy.model.BankAccount;
+import com.paymybuddy.paymybuddy.model.LedgerAccount;
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.UserFilter;
 import com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel;
 import com.paymybuddy.paymybuddy.repository.BankAccountRepository;
 import com.paymybuddy.paymybuddy.repository.UserRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
 import javax.transaction.Transactional;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 @Service
 @Slf4j
 public class UserService {
+    /**
+     * Properties the user list can be sorted by.
+     */
+    public static final Set<String> SORTABLE_PROPERTIES = Set.of("id", "email", "lastName", "balance");
 
     /**
      * Instance of UserRepository.
@@ -38,6 +51,24 @@ public class UserService {
     @Autowired
     BankAccountRepository bankAccountRepository;
 
+    @Autowired
+    LedgerService ledgerService;
+
+    @Autowired
+    InMemoryTransferEngine inMemoryTransferEngine;
+
+    @Autowired
+    HotAccountService hotAccountService;
+
+    @Autowired
+    ActivitySummaryService activitySummaryService;
+
+    @Autowired
+    EmailFilter emailFilter;
+
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
     @Autowired
     private final BCryptPasswordEncoder passwordEncoder;
 
@@ -66,29 +97,39 @@ public class UserService {
         }
 
         // Detect if email is already used
-        Optional<User> existingUserWithEmail = userRepository.findByEmail(email);
-        if (existingUserWithEmail.isPresent()) {
-            String errorMessage = "Email " + email + " is already used." +
-                                  " Please sign in with another email.";
-            log.error(errorMessage);
-            throw new EmailAlreadyUsedException(errorMessage);
+        if (getUserByEmail(email).isPresent()) {
+            throw emailAlreadyUsed(email);
         }
-        user.setBalance(new BigDecimal("0.00"));
+        user.setBalance(Money.ZERO);
         user.setPassword(passwordEncoder.encode(user.getPassword()));
-        return userRepository.save(user);
+        User savedUser;
+        try {
+            savedUser = userRepository.save(user);
+        } catch (DataIntegrityViolationException e) {
+            // Another instance may have created the user before its email filter knew of it
+            throw emailAlreadyUsed(email);
+        }
+        emailFilter.add(savedUser);
+        activitySummaryService.createSummary(savedUser);
+        eventPublisher.publishEvent(new UserCreated(savedUser));
+        return savedUser;
     }
 
     /**
-     * Lists all users in database.
+     * Lists a page of the users matching a filter. Only the view columns are read.
      *
-     * @return a set of users.
+     * @param pageable page, sorted by {@link #SORTABLE_PROPERTIES} only
+     * @return the page, and whether there is a next one
      */
-    public List<UserViewModel> getUsers() {
-        Iterable<User>      users          = userRepository.findAll();
-        List<UserViewModel> usersViewModel = new ArrayList<>();
-        // extract info from user to user view model
-        users.forEach(user -> usersViewModel.add(userToViewModel(user)));
-        return usersViewModel;
+    public Slice<UserViewModel> getUsers(UserFilter filter, Pageable pageable) {
+        return userRepository.findViews(filter.toSpecification(), pageable);
+    }
+
+    /**
+     * Streams every user matching a filter. The stream must be read inside a transaction and closed.
+     */
+    public Stream<UserViewModel> streamUsers(UserFilter filter, Sort sort) {
+        return userRepository.streamViews(filter.toSpecification(), sort);
     }
 
     /**
@@ -114,7 +155,26 @@ public class UserService {
      */
     public Optional<User> getUserByEmail(String email) {
         Assert.notNull(email, "Email must not be null");
-        return userRepository.findByEmail(email);
+        // Unknown emails are answered without a query
+        if (!emailFilter.mightExist(email)) {
+            return Optional.empty();
+        }
+        Optional<User> user = userRepository.findByEmail(email);
+        emailFilter.recordLookup(user.isPresent());
+        return user;
+    }
+
+    /**
+     * Finds users by their email addresses, with a single query.
+     *
+     * @param emails
+     *         Users' email addresses.
+     *
+     * @return found users, unknown emails are ignored.
+     */
+    public List<User> getUsersByEmails(Collection<String> emails) {
+        Assert.notNull(emails, "Emails must not be null");
+        return userRepository.findByEmailIn(emails);
     }
 
     /**
@@ -126,7 +186,16 @@ public class UserService {
     @Transactional
     public void deleteUser(User user) {
         Assert.notNull(user, "User must not be null");
+        activitySummaryService.deleteSummary(user);
         userRepository.delete(user);
+        eventPublisher.publishEvent(new UserDeleted(user));
+    }
+
+    private static EmailAlreadyUsedException emailAlreadyUsed(String email) {
+        String errorMessage = "Email " + email + " is already used." +
+                              " Please sign in with another email.";
+        log.error(errorMessage);
+        return new EmailAlreadyUsedException(errorMessage);
     }
 
     /**
@@ -162,10 +231,11 @@ public class UserService {
      * Deposits money to buddy account.
      */
     @Transactional
-    public void deposit(User user, String amount) {
+    public void deposit(User user, Money amount) {
         Assert.notNull(user, "User must not be null");
+        Assert.notNull(amount, "Amount must not be null");
         // if amount is still not valid after interface's validator, remove any negative signs
-        amount = amount.replace("-", "");
+        Money amountToDeposit = amount.abs();
         // find user's bank account
         Optional<BankAccount> bankAccount = bankAccountRepository.findByUser(user);
         // deposit cannot be done if the user does not own a bank account
@@ -173,22 +243,33 @@ public class UserService {
             log.error("The user does not have any bank account. Deposit can not be proceeded.");
             throw new BankAccountNotFoundException("The user does not have any bank account. Deposit can not be proceeded.");
         }
-        BigDecimal amountToDeposit = new BigDecimal(amount).setScale(Fee.SCALE, RoundingMode.HALF_UP);
+        // the in-memory engine owns user's balance when enabled, it saves both sides and the ledger entries
+        if (inMemoryTransferEngine.isEnabled()) {
+            inMemoryTransferEngine.deposit(user.getId(), bankAccount.get().getId(), amountToDeposit);
+            return;
+        }
+        // the ledger holds balances when enabled, only its entries are written
+        if (ledgerService.holdsBalances()) {
+            ledgerService.recordDeposit(user, bankAccount.get(), amountToDeposit);
+            return;
+        }
         // Subtract amount to deposit from bank account
-        bankAccount.get().setBalance(bankAccount.get().getBalance().subtract(amountToDeposit));
+        bankAccount.get().setBalance(bankAccount.get().getBalance().minus(amountToDeposit));
         // add amount to deposit to user's account
-        user.setBalance(user.getBalance().add(amountToDeposit));
+        user.setBalance(user.getBalance().plus(amountToDeposit));
         userRepository.save(user);
+        ledgerService.recordDeposit(user, bankAccount.get(), amountToDeposit);
     }
 
     /**
      * Withdraws money to user's bank account.
      */
     @Transactional
-    public void withdraw(User user, String amount) {
+    public void withdraw(User user, Money amount) {
         Assert.notNull(user, "User must not be null");
+        Assert.notNull(amount, "Amount must not be null");
         // if amount is still not valid after interface's validator, remove any negative signs
-        amount = amount.replace("-", "");
+        Money amountToWithdraw = amount.abs();
         // find user's bank account
         Optional<BankAccount> bankAccount = bankAccountRepository.findByUser(user);
         // withdraw cannot be done if the user does not own a bank account
@@ -197,12 +278,43 @@ public class UserService {
             throw new BankAccountNotFoundException("The user does not have any bank account. Withdrawal can not be " +
                                                    "proceeded.");
         }
-        BigDecimal amountToWithdraw = new BigDecimal(amount).setScale(Fee.SCALE, RoundingMode.HALF_UP);
+        // the in-memory engine owns user's balance when enabled, it saves both sides and the ledger entries
+        if (inMemoryTransferEngine.isEnabled()) {
+            inMemoryTransferEngine.withdraw(user.getId(), bankAccount.get().getId(), amountToWithdraw);
+            return;
+        }
+        // the ledger holds balances when enabled, user's account is locked so that payments see the withdrawal
+        if (ledgerService.holdsBalances()) {
+            ledgerService.lockBalance(LedgerAccount.ofUser(user.getId()));
+            ledgerService.recordWithdrawal(user, bankAccount.get(), amountToWithdraw);
+            return;
+        }
         // add amount to deposit from bank account
-        bankAccount.get().setBalance(bankAccount.get().getBalance().add(amountToWithdraw));
+        bankAccount.get().setBalance(bankAccount.get().getBalance().plus(amountToWithdraw));
         // subtract amount to deposit to user's account
-        user.setBalance(user.getBalance().subtract(amountToWithdraw));
+        user.setBalance(user.getBalance().minus(amountToWithdraw));
         userRepository.save(user);
+        ledgerService.recordWithdrawal(user, bankAccount.get(), amountToWithdraw);
+    }
+
+    /**
+     * Reads the balance to display for a user, from the ledger when it holds balances, otherwise including the
+     * credits of a hot account that are not folded yet.
+     *
+     * @param user
+     *         user whose balance is wanted
+     *
+     * @return the balance
+     */
+    public Money getBalance(User user) {
+        Assert.notNull(user, "User must not be null");
+        if (ledgerService.holdsBalances()) {
+            return ledgerService.balanceOf(LedgerAccount.ofUser(user.getId()));
+        }
+        if (!hotAccountService.isHot(user.getId())) {
+            return user.getBalance();
+        }
+        return user.getBalance().plus(hotAccountService.getUnfoldedCredits(user.getId()));
     }
 
     /**
@@ -220,6 +332,19 @@ public class UserService {
                                  user.getBalance());
     }
 
+    /**
+     * Converts User entity to UserViewModel, with the balance read by {@link #getBalance(User)}.
+     *
+     * @param user
+     *         user to convert
+     *
+     * @return a UserViewModel object
+     */
+    public UserViewModel userToViewModelWithBalance(User user) {
+        return new UserViewModel(user.getId(), user.getEmail(), user.getFirstName(), user.getLastName(),
+                                 getBalance(user));
+    }
+
     /**
      * Returns authenticated user using Spring security context.
      *
@@ -229,10 +354,9 @@ public class UserService {
      */
     public User getAuthenticatedUser() {
         String username = SecurityContextHolder.getContext().getAuthentication().getName();
-        if (getUserByEmail(username).isEmpty()) {
-            throw new BuddyNotFoundException("Email " + username + " does not match any Buddy.");
-        }
-        return getUserByEmail(username).get();
+        // An authenticated email is known to exist, it is looked up once without the email filter
+        return userRepository.findByEmail(username).orElseThrow(
+                () -> new BuddyNotFoundException("Email " + username + " does not match any Buddy."));
     }
 
 }
@@ -9,7 +9,8 @@ CREATE TABLE user (
     password VARCHAR(100) NOT NULL,
     firstname VARCHAR(50) NOT NULL,
     lastname VARCHAR(50) NOT NULL,
-    balance DECIMAL(10, 2) NOT NULL DEFAULT 0.0
+    balance DECIMAL(10, 2) NOT NULL DEFAULT 0.0,
+    version BIGINT NOT NULL DEFAULT 0
 );
 
 CREATE TABLE bank_account(
@@ -29,13 +30,19 @@ CREATE TABLE connection (
     fk_initializer_id INT NOT NULL,
     fk_receiver_id INT NOT NULL,
     starting_date DATETIME NOT NULL,
+    min_user_id INT NOT NULL,
+    max_user_id INT NOT NULL,
     FOREIGN KEY (fk_initializer_id)
         REFERENCES user (user_id)
         ON DELETE NO ACTION ON UPDATE NO ACTION,
     FOREIGN KEY (fk_receiver_id)
         REFERENCES user (user_id)
         ON DELETE NO ACTION ON UPDATE NO ACTION,
-    PRIMARY KEY (connection_id, fk_initializer_id, fk_receiver_id)
+    PRIMARY KEY (connection_id, fk_initializer_id, fk_receiver_id),
+    INDEX (fk_initializer_id, connection_id),
+    INDEX (fk_receiver_id, connection_id),
+    INDEX (starting_date, connection_id),
+    UNIQUE INDEX (min_user_id, max_user_id)
 );
 
 CREATE TABLE transaction (
@@ -51,7 +58,111 @@ CREATE TABLE transaction (
     FOREIGN KEY (fk_payee_id)
         REFERENCES user (user_id)
         ON DELETE NO ACTION ON UPDATE NO ACTION,
-    PRIMARY KEY (transaction_id, fk_issuer_id, fk_payee_id)
+    PRIMARY KEY (transaction_id, fk_issuer_id, fk_payee_id),
+    INDEX (fk_issuer_id, transaction_id),
+    INDEX (fk_payee_id, transaction_id),
+    INDEX (date, transaction_id)
+);
+
+CREATE TABLE idempotency_key (
+    idempotency_key_id INT NOT NULL PRIMARY KEY AUTO_INCREMENT,
+    fk_user_id INT NOT NULL,
+    idempotency_key VARCHAR(255) NOT NULL,
+    request_hash CHAR(64) NOT NULL,
+    fk_transaction_id INT NOT NULL,
+    created_at DATETIME NOT NULL,
+    UNIQUE (fk_user_id, idempotency_key),
+    FOREIGN KEY (fk_user_id)
+        REFERENCES user (user_id)
+        ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+CREATE TABLE payout_run (
+    payout_run_id INT NOT NULL PRIMARY KEY AUTO_INCREMENT,
+    fk_issuer_id INT NOT NULL,
+    committed_lines BIGINT NOT NULL DEFAULT 0,
+    payments_made BIGINT NOT NULL DEFAULT 0,
+    status VARCHAR(20) NOT NULL,
+    started_at DATETIME NOT NULL,
+    updated_at DATETIME NOT NULL,
+    FOREIGN KEY (fk_issuer_id)
+        REFERENCES user (user_id)
+        ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+CREATE TABLE ledger_entry (
+    ledger_entry_id BIGINT NOT NULL PRIMARY KEY AUTO_INCREMENT,
+    posting_id CHAR(36) NOT NULL,
+    account_type VARCHAR(20) NOT NULL,
+    account_id INT NOT NULL,
+    kind VARCHAR(20) NOT NULL,
+    amount DECIMAL(20, 2) NOT NULL,
+    fk_transaction_id INT DEFAULT NULL,
+    created_at DATETIME NOT NULL,
+    INDEX (account_type, account_id, ledger_entry_id)
+);
+
+CREATE TABLE ledger_snapshot (
+    account_type VARCHAR(20) NOT NULL,
+    account_id INT NOT NULL,
+    balance DECIMAL(20, 2) NOT NULL,
+    last_entry_id BIGINT NOT NULL DEFAULT 0,
+    taken_at DATETIME NOT NULL,
+    version BIGINT NOT NULL DEFAULT 0,
+    PRIMARY KEY (account_type, account_id),
+    INDEX (last_entry_id)
+);
+
+CREATE TABLE engine_checkpoint (
+    engine_checkpoint_id INT PRIMARY KEY,
+    applied_sequence BIGINT NOT NULL
+);
+
+CREATE TABLE id_sequence (
+    sequence_name VARCHAR(64) PRIMARY KEY,
+    next_value INT NOT NULL
+);
+
+CREATE TABLE engine_lease (
+    engine_lease_id INT PRIMARY KEY,
+    owner VARCHAR(64) NOT NULL,
+    expires_at DATETIME NOT NULL
+);
+
+CREATE TABLE balance_stripe (
+    fk_user_id INT NOT NULL,
+    slot INT NOT NULL,
+    amount DECIMAL(20, 2) NOT NULL DEFAULT 0,
+    PRIMARY KEY (fk_user_id, slot),
+    FOREIGN KEY (fk_user_id)
+        REFERENCES user (user_id)
+        ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+CREATE TABLE user_activity (
+    fk_user_id INT NOT NULL,
+    occurred_at DATETIME NOT NULL,
+    event_id INT NOT NULL,
+    event_type VARCHAR(20) NOT NULL,
+    PRIMARY KEY (fk_user_id, occurred_at, event_id, event_type),
+    FOREIGN KEY (fk_user_id)
+        REFERENCES user (user_id)
+        ON DELETE NO ACTION ON UPDATE NO ACTION
+);
+
+CREATE TABLE activity_summary (
+    fk_user_id INT NOT NULL PRIMARY KEY,
+    connection_count BIGINT NOT NULL DEFAULT 0,
+    latest_connection_id INT DEFAULT NULL,
+    transaction_count BIGINT NOT NULL DEFAULT 0,
+    latest_transaction_id INT DEFAULT NULL,
+    latest_transaction_date DATETIME DEFAULT NULL,
+    total_sent DECIMAL(20, 2) NOT NULL DEFAULT 0,
+    total_received DECIMAL(20, 2) NOT NULL DEFAULT 0,
+    modified_at DATETIME DEFAULT NULL,
+    FOREIGN KEY (fk_user_id)
+        REFERENCES user (user_id)
+        ON DELETE NO ACTION ON UPDATE NO ACTION
 );
 
 INSERT INTO `user` (`email`, `password`, `firstname`, `lastname`, `balance`) VALUES
@@ -67,15 +178,42 @@ INSERT INTO `bank_account` (`fk_user_id`, `bank_name`, `iban`, `balance`) VALUES
     (3, 'Crédit Agricole', 'FR7630006000011234567890189', 20.00),
     (4, 'Banque Populaire', 'FR7610107001011234567890129', 0.00);
 	
-INSERT INTO `connection` (`fk_initializer_id`, `fk_receiver_id`, `starting_date`) VALUES
-	(1, 2, '2022-10-24 17:37:33'),
-	(1, 3, '2022-10-24 17:37:41'),
-	(3, 4, '2022-10-24 17:38:01'),
-	(3, 5, '2022-10-24 17:38:08'),
-	(5, 2, '2022-10-24 17:38:29'),
-	(5, 4, '2022-10-24 17:38:39');
+INSERT INTO `connection` (`fk_initializer_id`, `fk_receiver_id`, `starting_date`, `min_user_id`, `max_user_id`) VALUES
+	(1, 2, '2022-10-24 17:37:33', 1, 2),
+	(1, 3, '2022-10-24 17:37:41', 1, 3),
+	(3, 4, '2022-10-24 17:38:01', 3, 4),
+	(3, 5, '2022-10-24 17:38:08', 3, 5),
+	(5, 2, '2022-10-24 17:38:29', 2, 5),
+	(5, 4, '2022-10-24 17:38:39', 4, 5);
 
 INSERT INTO `transaction` (`fk_issuer_id`, `fk_payee_id`, `date`, `amount`, `description`) VALUES
 	(5, 4, '2022-10-24 17:39:55', 8.00, 'Movie tickets'),
 	(3, 5, '2022-10-24 17:41:03', 25.00, 'Trip money'),
 	(5, 2, '2022-10-24 17:41:40', 10.00, 'Restaurant bill share');
+
+-- Opening balances of the ledger, existing transactions are already included in them
+INSERT INTO `ledger_snapshot` (`account_type`, `account_id`, `balance`, `last_entry_id`, `taken_at`)
+    SELECT 'USER', `user_id`, `balance`, 0, NOW() FROM `user`;
+INSERT INTO `ledger_snapshot` (`account_type`, `account_id`, `balance`, `last_entry_id`, `taken_at`)
+    SELECT 'BANK_ACCOUNT', `account_id`, `balance`, 0, NOW() FROM `bank_account`;
+
+-- Activity feed of existing transactions and connections, one row per user involved
+INSERT INTO `user_activity` (`fk_user_id`, `occurred_at`, `event_id`, `event_type`)
+    SELECT `fk_issuer_id`, `date`, `transaction_id`, 'TRANSACTION' FROM `transaction`
+    UNION ALL SELECT `fk_payee_id`, `date`, `transaction_id`, 'TRANSACTION' FROM `transaction`
+    UNION ALL SELECT `fk_initializer_id`, `starting_date`, `connection_id`, 'CONNECTION' FROM `connection`
+    UNION ALL SELECT `fk_receiver_id`, `starting_date`, `connection_id`, 'CONNECTION' FROM `connection`;
+
+-- Activity summaries of existing users, as the rebuild job computes them
+INSERT INTO `activity_summary` (`fk_user_id`, `connection_count`, `latest_connection_id`, `transaction_count`,
+                                `latest_transaction_id`, `latest_transaction_date`, `total_sent`, `total_received`)
+    SELECT u.`user_id`,
+           (SELECT COUNT(*) FROM `connection` c WHERE c.`fk_initializer_id` = u.`user_id` OR c.`fk_receiver_id` = u.`user_id`),
+           (SELECT MAX(c.`connection_id`) FROM `connection` c WHERE c.`fk_initializer_id` = u.`user_id` OR c.`fk_receiver_id` = u.`user_id`),
+           (SELECT COUNT(*) FROM `transaction` t WHERE t.`fk_issuer_id` = u.`user_id` OR t.`fk_payee_id` = u.`user_id`),
+           (SELECT t.`transaction_id` FROM `transaction` t WHERE t.`fk_issuer_id` = u.`user_id` OR t.`fk_payee_id` = u.`user_id`
+            ORDER BY t.`date` DESC, t.`transaction_id` DESC LIMIT 1),
+           (SELECT MAX(t.`date`) FROM `transaction` t WHERE t.`fk_issuer_id` = u.`user_id` OR t.`fk_payee_id` = u.`user_id`),
+           (SELECT COALESCE(SUM(t.`amount`), 0) FROM `transaction` t WHERE t.`fk_issuer_id` = u.`user_id`),
+           (SELECT COALESCE(SUM(t.`amount`), 0) FROM `transaction` t WHERE t.`fk_payee_id` = u.`user_id`)
+    FROM `user` u;
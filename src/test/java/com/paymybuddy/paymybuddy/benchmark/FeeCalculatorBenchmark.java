@@ -0,0 +1,76 @@
+package com.paymybuddy.paymybuddy.benchmark;
+
+import com.paymybuddy.paymybuddy.constants.Fee;
+import com.paymybuddy.paymybuddy.model.FeeQuote;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.service.FeeCalculator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares FeeCalculator with the map based calculateAmountWithFee it replaced.
+ * Run with the GC profiler to see allocations per call:
+ * {@code java -cp <test classpath> com.paymybuddy.paymybuddy.benchmark.FeeCalculatorBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeeCalculatorBenchmark {
+    @Param({"0.01", "15.50", "1234.56"})
+    String amount;
+
+    private final FeeCalculator feeCalculator = new FeeCalculator();
+
+    private double doubleAmount;
+    private Money  moneyAmount;
+    private long   amountCents;
+
+    @Setup
+    public void setUp() {
+        doubleAmount = Double.parseDouble(amount);
+        moneyAmount = Money.parse(amount);
+        amountCents = moneyAmount.getCents();
+    }
+
+    @Benchmark
+    public BigDecimal formerCalculateAmountWithFee() {
+        HashMap<String, BigDecimal> amountAndFee = new HashMap<>();
+        BigDecimal bdAmount = new BigDecimal(Double.toString(doubleAmount))
+                .setScale(Fee.SCALE, RoundingMode.HALF_UP);
+        BigDecimal bdFee = new BigDecimal(Double.toString(doubleAmount * Fee.TRANSACTION_FEE))
+                .setScale(Fee.SCALE, RoundingMode.HALF_UP);
+        amountAndFee.put("amount", bdAmount);
+        amountAndFee.put("fee", bdFee);
+        amountAndFee.put("amountWithFee", bdAmount.add(bdFee));
+        return amountAndFee.get("amountWithFee");
+    }
+
+    @Benchmark
+    public Money quote() {
+        FeeQuote quote = feeCalculator.quote(moneyAmount);
+        return quote.getTotal();
+    }
+
+    @Benchmark
+    public long totalCents() {
+        return feeCalculator.totalCents(amountCents);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(FeeCalculatorBenchmark.class.getSimpleName())
+                                              .addProfiler("gc")
+                                              .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,71 @@
+package com.paymybuddy.paymybuddy.benchmark;
+
+import com.paymybuddy.paymybuddy.constants.Fee;
+import com.paymybuddy.paymybuddy.model.Money;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the amount arithmetic of one payment, before and after amounts were stored as cents.
+ * The legacy path converts the typed double to BigDecimal, computes the fee as a double and subtracts
+ * the total from a BigDecimal balance, as TransactionService did.
+ * <p>
+ * Run with {@code java -cp <test classpath> com.paymybuddy.paymybuddy.benchmark.MoneyBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyBenchmark {
+    @Param({"0.01", "15.50", "1234.56"})
+    String amount;
+
+    private double     doubleAmount;
+    private BigDecimal decimalBalance;
+    private Money      amountToPay;
+    private Money      balance;
+
+    @Setup
+    public void setUp() {
+        doubleAmount = Double.parseDouble(amount);
+        decimalBalance = new BigDecimal("100000.00");
+        amountToPay = Money.parse(amount);
+        balance = Money.parse("100000.00");
+    }
+
+    @Benchmark
+    public BigDecimal legacyDoubleAndBigDecimal() {
+        BigDecimal bdAmount = new BigDecimal(Double.toString(doubleAmount))
+                .setScale(Fee.SCALE, RoundingMode.HALF_UP);
+        BigDecimal bdFee = new BigDecimal(Double.toString(doubleAmount * Fee.TRANSACTION_FEE))
+                .setScale(Fee.SCALE, RoundingMode.HALF_UP);
+        BigDecimal amountWithFee = bdAmount.add(bdFee);
+        if (decimalBalance.compareTo(amountWithFee) < 0) {
+            return decimalBalance;
+        }
+        return decimalBalance.subtract(amountWithFee);
+    }
+
+    @Benchmark
+    public Money money() {
+        Money amountWithFee = amountToPay.plus(amountToPay.multiply(Fee.TRANSACTION_FEE_BPS, Fee.BPS_PER_UNIT));
+        if (balance.isLessThan(amountWithFee)) {
+            return balance;
+        }
+        return balance.minus(amountWithFee);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(MoneyBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,104 @@
+package com.paymybuddy.paymybuddy.benchmark;
+
+import com.paymybuddy.paymybuddy.PayMyBuddyApplication;
+import com.paymybuddy.paymybuddy.model.BankAccount;
+import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.BankAccountRepository;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import com.paymybuddy.paymybuddy.service.ConnectionService;
+import com.paymybuddy.paymybuddy.service.TransactionService;
+import com.paymybuddy.paymybuddy.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the payment throughput of the in-memory engine with pessimistic locking in database, with eight
+ * threads paying the same buddy from issuers of their own.
+ * <p>
+ * Run with {@code java -cp <test classpath> com.paymybuddy.paymybuddy.benchmark.PaymentThroughputBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class PaymentThroughputBenchmark {
+    @Param({"PESSIMISTIC", "IN_MEMORY"})
+    String strategy;
+
+    private final AtomicInteger issuers = new AtomicInteger();
+
+    private ConfigurableApplicationContext context;
+    private TransactionService             transactionService;
+    private User                           payee;
+
+    @Setup
+    public void startApplication() throws IOException {
+        Path journalPath = Files.createTempDirectory("paymybuddy-benchmark").resolve("payments.journal");
+        context = new SpringApplicationBuilder(PayMyBuddyApplication.class)
+                .properties("server.port=0", "paymybuddy.transfer.strategy=" + strategy,
+                            "paymybuddy.engine.journal-path=" + journalPath)
+                .run();
+        transactionService = context.getBean(TransactionService.class);
+        payee = context.getBean(UserRepository.class).save(user("bench-payee@mail.com", Money.ZERO));
+    }
+
+    @TearDown
+    public void stopApplication() {
+        context.close();
+    }
+
+    /**
+     * Issuer of one benchmark thread, connected to the payee. Funded by a deposit, so that the in-memory engine,
+     * which loaded the balances when it started, knows its balance.
+     */
+    @State(Scope.Thread)
+    public static class Issuer {
+        private User user;
+
+        @Setup
+        public void createIssuer(PaymentThroughputBenchmark benchmark) {
+            Money  funds = Money.parse("10000000.00");
+            String email = "bench-issuer" + benchmark.issuers.incrementAndGet() + "@mail.com";
+            user = benchmark.context.getBean(UserRepository.class).save(user(email, Money.ZERO));
+            benchmark.context.getBean(BankAccountRepository.class)
+                             .save(new BankAccount(null, user, "Bench", "FR7630001007941234567890185", funds));
+            benchmark.context.getBean(UserService.class).deposit(user, funds);
+            benchmark.context.getBean(ConnectionService.class)
+                             .saveConnection(new Connection(null, user, benchmark.payee, LocalDateTime.now()));
+        }
+    }
+
+    @Benchmark
+    public Transaction pay(Issuer issuer) {
+        return transactionService.createTransaction(issuer.user, payee, "benchmark", Money.parse("1.00"));
+    }
+
+    private static User user(String email, Money balance) {
+        return new User(null, email, "password", "Bench", "Buddy", balance, new ArrayList<>(), new ArrayList<>(),
+                        new ArrayList<>(), new ArrayList<>());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(PaymentThroughputBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
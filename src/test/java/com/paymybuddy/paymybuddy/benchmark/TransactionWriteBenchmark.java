@@ -0,0 +1,94 @@
+package com.paymybuddy.paymybuddy.benchmark;
+
+import com.paymybuddy.paymybuddy.PayMyBuddyApplication;
+import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import com.paymybuddy.paymybuddy.service.ConnectionService;
+import com.paymybuddy.paymybuddy.service.TransactionService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures createTransaction against the embedded database while the issuer's history grows from 10 to 100 000
+ * transactions. The write path must not get slower with it, the times of each history size should stay close.
+ * <p>
+ * Run with {@code java -cp <test classpath> com.paymybuddy.paymybuddy.benchmark.TransactionWriteBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionWriteBenchmark {
+    private static final int SEED_BATCH_SIZE = 5_000;
+
+    @Param({"10", "1000", "10000", "100000"})
+    int historySize;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService             transactionService;
+    private User                           issuer;
+    private User                           payee;
+
+    @Setup
+    public void startApplication() {
+        context = new SpringApplicationBuilder(PayMyBuddyApplication.class).properties("server.port=0").run();
+        transactionService = context.getBean(TransactionService.class);
+        UserRepository userRepository = context.getBean(UserRepository.class);
+        issuer = userRepository.save(user("bench-issuer@mail.com", Money.parse("10000000.00")));
+        payee = userRepository.save(user("bench-payee@mail.com", Money.ZERO));
+        context.getBean(ConnectionService.class)
+               .saveConnection(new Connection(null, issuer, payee, LocalDateTime.now()));
+        seedHistory(context.getBean(JdbcTemplate.class));
+    }
+
+    @TearDown
+    public void stopApplication() {
+        context.close();
+    }
+
+    @Benchmark
+    public Transaction createTransaction() {
+        return transactionService.createTransaction(issuer, payee, "benchmark", Money.parse("1.00"));
+    }
+
+    private void seedHistory(JdbcTemplate jdbcTemplate) {
+        Timestamp      date  = Timestamp.valueOf(LocalDateTime.of(2022, 7, 18, 10, 0, 0));
+        List<Object[]> batch = new ArrayList<>(SEED_BATCH_SIZE);
+        for (int i = 0; i < historySize; i++) {
+            batch.add(new Object[]{issuer.getId(), payee.getId(), date, new BigDecimal("1.00"), "history"});
+            if (batch.size() == SEED_BATCH_SIZE || i == historySize - 1) {
+                jdbcTemplate.batchUpdate("insert into transaction (fk_issuer_id, fk_payee_id, date, amount, " +
+                                         "description) values (?, ?, ?, ?, ?)", batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private static User user(String email, Money balance) {
+        return new User(null, email, "password", "Bench", "Buddy", balance, new ArrayList<>(), new ArrayList<>(),
+                        new ArrayList<>(), new ArrayList<>());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(TransactionWriteBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
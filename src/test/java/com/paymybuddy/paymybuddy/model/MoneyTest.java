@@ -0,0 +1,56 @@
+package com.paymybuddy.paymybuddy.model;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MoneyTest {
+    @Test
+    @DisplayName("Amounts typed by users are parsed to cents")
+    void parse_shouldAccept_userInput() {
+        assertThat(Money.parse("15").getCents()).isEqualTo(1500);
+        assertThat(Money.parse("15.5").getCents()).isEqualTo(1550);
+        assertThat(Money.parse("15,50").getCents()).isEqualTo(1550);
+        assertThat(Money.parse(" 15.50 €").getCents()).isEqualTo(1550);
+        assertThat(Money.parse("0.005").getCents()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Parsing something that is not an amount should throw NumberFormatException")
+    void parse_whenNotANumber_shouldThrowException() {
+        assertThrows(NumberFormatException.class, () -> Money.parse("abc"));
+    }
+
+    @Test
+    @DisplayName("Fee rate is applied with HALF_UP rounding")
+    void multiply_shouldRound_halfUp() {
+        // 0.5 % of 1.00 € is 0.005 €, rounded up to one cent
+        assertThat(Money.parse("1.00").multiply(50, 10_000)).isEqualTo(Money.ofCents(1));
+        assertThat(Money.parse("0.99").multiply(50, 10_000)).isEqualTo(Money.ZERO);
+        assertThat(Money.parse("-1.00").multiply(50, 10_000)).isEqualTo(Money.ofCents(-1));
+        assertThat(Money.parse("100.00").multiply(50, 10_000)).isEqualTo(Money.parse("0.50"));
+    }
+
+    @Test
+    @DisplayName("Money is printed and converted with two decimals")
+    void toString_shouldPrint_twoDecimals() {
+        assertThat(Money.ofCents(1505).toString()).isEqualTo("15.05");
+        assertThat(Money.ofCents(-5).toString()).isEqualTo("-0.05");
+        assertThat(Money.ofCents(1505).toBigDecimal()).isEqualTo(new BigDecimal("15.05"));
+        assertThat(Money.of(new BigDecimal("15.05"))).isEqualTo(Money.ofCents(1505));
+    }
+
+    @Test
+    @DisplayName("Arithmetic is exact")
+    void plusAndMinus_shouldBeExact() {
+        Money balance = Money.parse("0.10").plus(Money.parse("0.20"));
+
+        assertThat(balance).isEqualTo(Money.parse("0.30"));
+        assertThat(balance.minus(Money.parse("0.30")).isZero()).isTrue();
+        assertThat(Money.parse("-3.00").abs()).isEqualTo(Money.parse("3.00"));
+    }
+}
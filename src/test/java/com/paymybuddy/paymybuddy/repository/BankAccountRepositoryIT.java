@@ -1,6 +1,7 @@
 package com.paymybuddy.paymybuddy.repository;
 
 import com.paymybuddy.paymybuddy.model.BankAccount;
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.User;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -9,7 +10,6 @@ import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Optional;
 
@@ -29,7 +29,7 @@ class BankAccountRepositoryIT {
     @BeforeEach
     public void setup() {
         // create a user, owner of test bank account
-        user = new User(1, "abc@email.com", "1234ABC", "Jean", "Dupont", new BigDecimal(150), new ArrayList<>(),
+        user = new User(1, "abc@email.com", "1234ABC", "Jean", "Dupont", Money.parse("150"), new ArrayList<>(),
                         new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
         user = userRepository.save(user);
 
@@ -38,7 +38,7 @@ class BankAccountRepositoryIT {
         bankAccount.setUser(user);
         bankAccount.setBankName("bank name");
         bankAccount.setIban("FR7630001007941234567890185");
-        bankAccount.setBalance(new BigDecimal("1650.95"));
+        bankAccount.setBalance(Money.parse("1650.95"));
     }
 
     @Test
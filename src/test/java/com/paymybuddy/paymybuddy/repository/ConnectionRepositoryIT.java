@@ -1,6 +1,7 @@
 package com.paymybuddy.paymybuddy.repository;
 
 import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.User;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DisplayName;
@@ -9,8 +10,8 @@ import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
 
-import java.math.BigDecimal;
 import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -18,6 +19,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.when;
 
@@ -48,9 +51,9 @@ class ConnectionRepositoryIT {
         when(clock.getZone()).thenReturn(fixedClock.getZone());
 
         // create a payee and an issuer for test connection
-        initializer = new User(1, "abc@email.com", "1234ABC", "Jean", "Dupont", new BigDecimal(150), new ArrayList<>(),
+        initializer = new User(1, "abc@email.com", "1234ABC", "Jean", "Dupont", Money.parse("150"), new ArrayList<>(),
                                new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
-        receiver = new User(2, "def@email.com", "6571fsqdSDV", "Jane", "Doe", new BigDecimal(150), new ArrayList<>(),
+        receiver = new User(2, "def@email.com", "6571fsqdSDV", "Jane", "Doe", Money.parse("150"), new ArrayList<>(),
                             new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
         initializer = userRepository.save(initializer);
         receiver = userRepository.save(receiver);
@@ -80,4 +83,38 @@ class ConnectionRepositoryIT {
         //THEn a connection should be found
         assertTrue(connection.isEmpty());
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("existsBetween should find a connection whichever user initialized it")
+    void existsBetween_shouldIgnoreDirection() {
+        connectionRepository.save(connection);
+
+        assertTrue(connectionRepository.existsBetween(initializer.getId(), receiver.getId()));
+        assertTrue(connectionRepository.existsBetween(receiver.getId(), initializer.getId()));
+        assertFalse(connectionRepository.existsBetween(initializer.getId(), initializer.getId()));
+    }
+
+    @Test
+    @DisplayName("Connecting the same users again, the other way round, should break the unique pair key")
+    void save_withSamePairReversed_shouldFail() {
+        connectionRepository.save(connection);
+
+        assertThrows(DataIntegrityViolationException.class,
+                     () -> connectionRepository.save(new Connection(null, receiver, initializer,
+                                                                    connection.getStartingDate())));
+    }
+
+    @Test
+    @DisplayName("findByPairKeysAmong should find a connection by the lower and higher IDs of its users")
+    void findByPairKeysAmong_shouldFindConnection() {
+        Connection saved     = connectionRepository.save(connection);
+        Integer    minUserId = Math.min(initializer.getId(), receiver.getId());
+        Integer    maxUserId = Math.max(initializer.getId(), receiver.getId());
+
+        List<Connection> found = connectionRepository.findByPairKeysAmong(List.of(minUserId), List.of(maxUserId));
+
+        assertThat(found.size()).isEqualTo(1);
+        assertThat(found.get(0).getId()).isEqualTo(saved.getId());
+        assertTrue(connectionRepository.findByPairKeysAmong(List.of(maxUserId), List.of(minUserId)).isEmpty());
+    }
+}
@@ -1,7 +1,10 @@
 package com.paymybuddy.paymybuddy.repository;
 
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.TransactionFilter;
 import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -9,13 +12,16 @@ import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 
-import java.math.BigDecimal;
 import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -49,9 +55,9 @@ class TransactionRepositoryIT {
         when(clock.getZone()).thenReturn(fixedClock.getZone());
 
         // create a payee and an issuer for test transaction
-        payee = new User(1, "abc@email.com", "1234ABC", "Jean", "Dupont", new BigDecimal(150), new ArrayList<>(),
+        payee = new User(1, "abc@email.com", "1234ABC", "Jean", "Dupont", Money.parse("150"), new ArrayList<>(),
                          new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
-        issuer = new User(2, "def@email.com", "6571fsqdSDV", "Jane", "Doe", new BigDecimal(150), new ArrayList<>(),
+        issuer = new User(2, "def@email.com", "6571fsqdSDV", "Jane", "Doe", Money.parse("150"), new ArrayList<>(),
                           new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
         payee = userRepository.save(payee);
         issuer = userRepository.save(issuer);
@@ -61,7 +67,7 @@ class TransactionRepositoryIT {
         transaction.setDate(LocalDateTime.now(clock));
         transaction.setIssuer(issuer);
         transaction.setPayee(payee);
-        transaction.setAmount(new BigDecimal(10));
+        transaction.setAmount(Money.parse("10"));
     }
 
     @Test
@@ -116,4 +122,43 @@ class TransactionRepositoryIT {
         //THEn the transaction should not be found
         assertTrue(transactionRepository.findById(transactionToDelete.getId()).isEmpty());
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("findViews should filter, sort, and tell whether there is a next page")
+    void findViews_shouldFilterSortAndSlice() {
+        saveDailyTransactions();
+        TransactionFilter filter = new TransactionFilter();
+        filter.setUserId(payee.getId());
+        filter.setFrom(LOCAL_DATE_NOW.plusDays(2));
+        filter.setMinAmount(Money.parse("20.00"));
+
+        Slice<TransactionViewModel> page = transactionRepository.findViews(
+                filter.toSpecification(), PageRequest.of(0, 2, Sort.by(Sort.Direction.DESC, "amount")));
+
+        assertThat(page.getContent().stream().map(TransactionViewModel::getDescription).toList())
+                .isEqualTo(List.of("Day 4", "Day 3"));
+        assertThat(page.getContent().get(0).getIssuer().getEmail()).isEqualTo(issuer.getEmail());
+        assertTrue(page.hasNext());
+    }
+
+    @Test
+    @DisplayName("streamViews should read every matching transaction in order")
+    void streamViews_shouldReadMatchingTransactions() {
+        saveDailyTransactions();
+        TransactionFilter filter = new TransactionFilter();
+        filter.setMaxAmount(Money.parse("20.00"));
+
+        try (Stream<TransactionViewModel> rows = transactionRepository.streamViews(filter.toSpecification(),
+                                                                                   Sort.by("date"))) {
+            assertThat(rows.map(TransactionViewModel::getDescription).toList())
+                    .isEqualTo(List.of("Day 1", "Day 2"));
+        }
+    }
+
+    private void saveDailyTransactions() {
+        for (int day = 1; day <= 4; day++) {
+            transactionRepository.save(new Transaction(null, issuer, payee, LOCAL_DATE_NOW.plusDays(day),
+                                                       Money.parse(day + "0.00"), "Day " + day));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.paymybuddy.paymybuddy.repository;
+
+import com.paymybuddy.paymybuddy.constants.ActivityType;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.UserActivity;
+import com.paymybuddy.paymybuddy.model.UserActivityId;
+import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+@DataJpaTest
+class UserActivityRepositoryIT {
+    @Autowired
+    UserActivityRepository userActivityRepository;
+    @Autowired
+    TransactionRepository  transactionRepository;
+    @Autowired
+    UserRepository         userRepository;
+
+    private static final LocalDateTime DATE = LocalDateTime.of(2022, 7, 18, 10, 0, 0);
+
+    private User issuer;
+    private User payee;
+
+    @BeforeEach
+    void setup() {
+        issuer = userRepository.save(user("issuer-feed@email.com"));
+        payee = userRepository.save(user("payee-feed@email.com"));
+    }
+
+    @Test
+    @DisplayName("findTransactionsBefore should return the transactions after the cursor, newest first")
+    void findTransactionsBefore_shouldReturn_transactionsAfterCursor() {
+        //GIVEN three transactions, two of them at the same date
+        Transaction first  = pay(DATE.minusDays(1));
+        Transaction second = pay(DATE);
+        Transaction third  = pay(DATE);
+        // WHEN reading after the most recent one
+        List<TransactionViewModel> page = userActivityRepository.findTransactionsBefore(
+                issuer.getId(), third.getDate(), third.getId(), PageRequest.of(0, 5));
+        //THEN the tie on the date is broken by the ID
+        assertThat(page.size()).isEqualTo(2);
+        assertThat(page.get(0).getId()).isEqualTo(second.getId());
+        assertThat(page.get(1).getId()).isEqualTo(first.getId());
+        assertThat(userActivityRepository.countTransactions(payee.getId())).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("findLatestTransactions should only return transactions, newest first")
+    void findLatestTransactions_shouldSkip_connections() {
+        Transaction older = pay(DATE.minusDays(1));
+        Transaction newer = pay(DATE);
+        userActivityRepository.save(new UserActivity(new UserActivityId(payee.getId(), DATE.plusDays(1), 1,
+                                                                        ActivityType.CONNECTION)));
+
+        List<TransactionViewModel> page = userActivityRepository.findLatestTransactions(payee.getId(),
+                                                                                        PageRequest.of(0, 5));
+
+        assertThat(page.size()).isEqualTo(2);
+        assertThat(page.get(0).getId()).isEqualTo(newer.getId());
+        assertThat(page.get(1).getId()).isEqualTo(older.getId());
+    }
+
+    /**
+     * Saves a transaction and its feed rows, as the transfer engine does.
+     */
+    private Transaction pay(LocalDateTime date) {
+        Transaction transaction = transactionRepository.save(new Transaction(null, issuer, payee, date,
+                                                                             Money.parse("10"), "Feed"));
+        for (User user : List.of(issuer, payee)) {
+            userActivityRepository.save(new UserActivity(new UserActivityId(user.getId(), date, transaction.getId(),
+                                                                            ActivityType.TRANSACTION)));
+        }
+        return transaction;
+    }
+
+    private static User user(String email) {
+        return new User(null, email, "password", "Feed", "User", Money.parse("150"), new ArrayList<>(),
+                        new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+}
@@ -1,5 +1,6 @@
 package com.paymybuddy.paymybuddy.repository;
 
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.User;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DisplayName;
@@ -8,7 +9,6 @@ import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 
-import java.math.BigDecimal;
 import java.util.Optional;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
@@ -28,7 +28,7 @@ class UserRepositoryIT {
         user.setFirstName("Test");
         user.setLastName("UN");
         user.setEmail("abc@mail.com");
-        user.setBalance(new BigDecimal(0));
+        user.setBalance(Money.ZERO);
     }
 
     @Test
@@ -0,0 +1,73 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.model.ActivitySummary;
+import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.ActivitySummaryRepository;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+@SpringBootTest
+class ActivitySummaryServiceIT {
+    @Autowired
+    ActivitySummaryService    activitySummaryService;
+    @Autowired
+    ActivitySummaryRepository activitySummaryRepository;
+    @Autowired
+    UserService               userService;
+    @Autowired
+    UserRepository            userRepository;
+    @Autowired
+    ConnectionService         connectionService;
+    @Autowired
+    TransactionService        transactionService;
+
+    @Test
+    @DisplayName("Summaries follow payments and connections, and a rebuild recomputes the same values")
+    void summary_shouldFollowActivityAndBeRebuilt() {
+        User monica = createUser("activity-monica@mail.com");
+        User rachel = createUser("activity-rachel@mail.com");
+
+        Connection  connection  = connectionService.createConnectionBetweenTwoUsers(monica, rachel.getEmail());
+        Transaction transaction = transactionService.createTransaction(monica, rachel, "Rent", Money.parse("10.00"));
+
+        assertSummary(monica.getId(), connection.getId(), transaction.getId(), "10.00", "0.00");
+        assertSummary(rachel.getId(), connection.getId(), transaction.getId(), "0.00", "10.00");
+
+        activitySummaryRepository.save(ActivitySummary.empty(monica.getId()));
+        activitySummaryRepository.deleteById(rachel.getId());
+        activitySummaryService.rebuild();
+
+        assertSummary(monica.getId(), connection.getId(), transaction.getId(), "10.00", "0.00");
+        assertSummary(rachel.getId(), connection.getId(), transaction.getId(), "0.00", "10.00");
+    }
+
+    private void assertSummary(Integer userId, Integer connectionId, Integer transactionId, String sent,
+                               String received) {
+        ActivitySummary summary = activitySummaryRepository.findById(userId).orElseThrow();
+        assertThat(summary.getConnectionCount()).isEqualTo(1);
+        assertThat(summary.getLatestConnectionId()).isEqualTo(connectionId);
+        assertThat(summary.getTransactionCount()).isEqualTo(1);
+        assertThat(summary.getLatestTransactionId()).isEqualTo(transactionId);
+        assertThat(summary.getTotalSent()).isEqualTo(Money.parse(sent));
+        assertThat(summary.getTotalReceived()).isEqualTo(Money.parse(received));
+    }
+
+    private User createUser(String email) {
+        User user = new User();
+        user.setEmail(email);
+        user.setFirstName("Activity");
+        user.setLastName("Summary");
+        user.setPassword("password");
+        user = userService.createUser(user);
+        user.setBalance(Money.parse("100.00"));
+        return userRepository.save(user);
+    }
+}
@@ -0,0 +1,172 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.config.ClockConfig;
+import com.paymybuddy.paymybuddy.event.PaymentCompleted;
+import com.paymybuddy.paymybuddy.model.ActivitySummary;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.ActivitySummaryViewModel;
+import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
+import com.paymybuddy.paymybuddy.repository.ActivitySummaryRepository;
+import com.paymybuddy.paymybuddy.repository.ConnectionRepository;
+import com.paymybuddy.paymybuddy.repository.TransactionRepository;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@Import({ActivitySummaryService.class, ClockConfig.class})
+class ActivitySummaryServiceTest {
+    /**
+     * Class under test.
+     */
+    @Autowired
+    ActivitySummaryService activitySummaryService;
+
+    @MockBean
+    ActivitySummaryRepository  activitySummaryRepository;
+    @MockBean
+    TransactionRepository      transactionRepository;
+    @MockBean
+    ConnectionRepository       connectionRepository;
+    @MockBean
+    UserRepository             userRepository;
+    @MockBean
+    JdbcTemplate               jdbcTemplate;
+    @MockBean
+    EntityManager              entityManager;
+    @MockBean
+    PlatformTransactionManager transactionManager;
+
+    private static final LocalDateTime DATE = LocalDateTime.of(2022, 7, 18, 10, 0, 0);
+
+    private final User monica = user(1, "gellermonica@friends.com");
+    private final User rachel = user(2, "greenrachel@friends.com");
+    private final User ross   = user(3, "gellerross@friends.com");
+
+    @Test
+    @DisplayName("Payments are added to each user's summary once, in user ID order")
+    void recordPayments_shouldAddOneDeltaPerUser() {
+        when(activitySummaryRepository.addTransactions(anyInt(), anyLong(), any(), any(), anyInt(), any(), any()))
+                .thenReturn(1);
+
+        activitySummaryService.recordPayments(List.of(transaction(7, monica, ross, "2.00"),
+                                                      transaction(8, monica, rachel, "3.50")));
+
+        InOrder inOrder = inOrder(activitySummaryRepository);
+        inOrder.verify(activitySummaryRepository)
+               .addTransactions(eq(1), eq(2L), eq(Money.parse("5.50")), eq(Money.ZERO), eq(8), eq(DATE), any());
+        inOrder.verify(activitySummaryRepository)
+               .addTransactions(eq(2), eq(1L), eq(Money.ZERO), eq(Money.parse("3.50")), eq(8), eq(DATE), any());
+        inOrder.verify(activitySummaryRepository)
+               .addTransactions(eq(3), eq(1L), eq(Money.ZERO), eq(Money.parse("2.00")), eq(7), eq(DATE), any());
+    }
+
+    @Test
+    @DisplayName("The latest transaction of a user is the one with the latest date, not the highest ID")
+    void recordPayments_shouldPickLatestTransactionByDate() {
+        when(activitySummaryRepository.addTransactions(anyInt(), anyLong(), any(), any(), anyInt(), any(), any()))
+                .thenReturn(1);
+        Transaction later = transaction(7, monica, ross, "2.00");
+        later.setDate(DATE.plusMinutes(1));
+
+        activitySummaryService.recordPayments(List.of(later, transaction(8, monica, ross, "3.50")));
+
+        verify(activitySummaryRepository).addTransactions(eq(1), eq(2L), eq(Money.parse("5.50")), eq(Money.ZERO),
+                                                          eq(7), eq(DATE.plusMinutes(1)), any());
+    }
+
+    @Test
+    @DisplayName("A completed payment updates the summaries in a transaction of its own")
+    void onPaymentCompleted_shouldRecordInNewTransaction() {
+        when(activitySummaryRepository.addTransactions(anyInt(), anyLong(), any(), any(), anyInt(), any(), any()))
+                .thenReturn(1);
+
+        activitySummaryService.onPaymentCompleted(
+                new PaymentCompleted(List.of(transaction(7, monica, ross, "2.00")), Money.parse("2.01")));
+
+        verify(transactionManager).getTransaction(argThat(definition -> definition.getPropagationBehavior()
+                                                                        == TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        verify(activitySummaryRepository, times(2))
+                .addTransactions(anyInt(), anyLong(), any(), any(), eq(7), eq(DATE), any());
+    }
+
+    @Test
+    @DisplayName("Summaries that missed the update of a payment are recomputed by the next repair")
+    void repair_afterFailedUpdate_shouldRecomputeSummaries() {
+        when(activitySummaryRepository.addTransactions(anyInt(), anyLong(), any(), any(), anyInt(), any(), any()))
+                .thenThrow(new CannotAcquireLockException("Lock wait timeout exceeded"));
+        when(userRepository.existsById(anyInt())).thenReturn(true);
+        when(jdbcTemplate.update(anyString(), any(), anyInt(), anyInt())).thenReturn(1);
+
+        activitySummaryService.onPaymentCompleted(
+                new PaymentCompleted(List.of(transaction(7, monica, ross, "2.00")), Money.parse("2.01")));
+
+        assertThat(activitySummaryService.repair()).isEqualTo(2);
+        verify(jdbcTemplate).update(anyString(), any(), eq(1), eq(1));
+        verify(jdbcTemplate).update(anyString(), any(), eq(3), eq(3));
+        assertThat(activitySummaryService.repair()).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Summary reads the latest transaction by ID and no connection when there is none")
+    void getSummary_shouldReadLatestItemsById() {
+        TransactionViewModel latest = TransactionService.transactionToViewModel(transaction(8, monica, rachel, "3.50"));
+        when(activitySummaryRepository.findById(1))
+                .thenReturn(Optional.of(new ActivitySummary(1, 0, null, 2, 8, DATE, Money.parse("5.50"), Money.ZERO,
+                                                            null)));
+        when(transactionRepository.findViewById(8)).thenReturn(Optional.of(latest));
+
+        ActivitySummaryViewModel summary = activitySummaryService.getSummary(monica);
+
+        assertThat(summary.getLatestTransaction()).isEqualTo(latest);
+        assertThat(summary.getLatestConnection()).isNull();
+        assertThat(summary.getTransactionCount()).isEqualTo(2);
+        assertThat(summary.getTotalSent()).isEqualTo(Money.parse("5.50"));
+        verifyNoInteractions(connectionRepository);
+    }
+
+    @Test
+    @DisplayName("A user without summary gets an empty one")
+    void getSummary_withoutSummary_shouldBeEmpty() {
+        when(activitySummaryRepository.findById(1)).thenReturn(Optional.empty());
+
+        ActivitySummaryViewModel summary = activitySummaryService.getSummary(monica);
+
+        assertThat(summary.getTransactionCount()).isEqualTo(0);
+        assertThat(summary.getLatestTransaction()).isNull();
+        assertThat(summary.getTotalReceived()).isEqualTo(Money.ZERO);
+    }
+
+    private static Transaction transaction(Integer id, User issuer, User payee, String amount) {
+        return new Transaction(id, issuer, payee, DATE, Money.parse(amount), "Coffee");
+    }
+
+    private static User user(Integer id, String email) {
+        return new User(id, email, "password", "First", "Last", Money.parse("100.00"), new ArrayList<>(),
+                        new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+}
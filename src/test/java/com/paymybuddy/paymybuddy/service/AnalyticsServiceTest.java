@@ -0,0 +1,128 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.constants.AnalyticsResolution;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.AnalyticsBucketViewModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+class AnalyticsServiceTest {
+    private static final LocalDateTime NOW = LocalDateTime.of(2022, 7, 18, 10, 30, 0);
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Class under test.
+     */
+    private AnalyticsService analyticsService;
+
+    private final User monica = user(1, "gellermonica@friends.com");
+    private final User rachel = user(2, "greenrachel@friends.com");
+    private final User ross   = user(3, "gellerross@friends.com");
+
+    @BeforeEach
+    void init() throws Exception {
+        analyticsService = start();
+    }
+
+    @Test
+    @DisplayName("Payments are counted in the buckets of their time, fees being the debit not paid to payees")
+    void recordPayments_shouldCountPerBucket() {
+        analyticsService.recordPayments(List.of(payment(monica, rachel, NOW.minusMinutes(1), "10.00")),
+                                        Money.parse("10.05"));
+        analyticsService.recordPayments(List.of(payment(monica, rachel, NOW, "20.00"),
+                                                payment(monica, ross, NOW, "30.00")), Money.parse("50.25"));
+
+        List<AnalyticsBucketViewModel> minutes = analyticsService.getBuckets(AnalyticsResolution.MINUTE,
+                                                                             NOW.minusMinutes(2), NOW);
+        assertThat(minutes.size()).isEqualTo(3);
+        assertThat(minutes.get(0).getPayments()).isEqualTo(0);
+        assertThat(minutes.get(1).getStart()).isEqualTo(NOW.minusMinutes(1));
+        assertThat(minutes.get(1).getVolume()).isEqualTo(Money.parse("10.00"));
+        assertThat(minutes.get(2).getPayments()).isEqualTo(2);
+        assertThat(minutes.get(2).getFees()).isEqualTo(Money.parse("0.25"));
+
+        List<AnalyticsBucketViewModel> days = analyticsService.getBuckets(AnalyticsResolution.DAY, NOW, NOW);
+        assertThat(days.get(0).getStart()).isEqualTo(NOW.toLocalDate().atStartOfDay());
+        assertThat(days.get(0).getPayments()).isEqualTo(3);
+        assertThat(days.get(0).getVolume()).isEqualTo(Money.parse("60.00"));
+        assertThat(days.get(0).getFees()).isEqualTo(Money.parse("0.30"));
+    }
+
+    @Test
+    @DisplayName("Archived buckets are read back after a restart and counting goes on from them")
+    void archive_shouldKeepBucketsAcrossRestart() throws Exception {
+        analyticsService.recordPayments(List.of(payment(monica, rachel, NOW, "10.00")), Money.parse("10.05"));
+        analyticsService.stop();
+
+        AnalyticsService restarted = start();
+        restarted.recordPayments(List.of(payment(rachel, monica, NOW, "5.00")), Money.parse("5.03"));
+
+        AnalyticsBucketViewModel hour = restarted.getBuckets(AnalyticsResolution.HOUR, NOW, NOW).get(0);
+        assertThat(hour.getPayments()).isEqualTo(2);
+        assertThat(hour.getVolume()).isEqualTo(Money.parse("15.00"));
+        assertThat(hour.getFees()).isEqualTo(Money.parse("0.08"));
+    }
+
+    @Test
+    @DisplayName("Payments older than the ring are added to their archived bucket")
+    void recordPayments_olderThanRing_shouldBeArchived() {
+        LocalDateTime lastWeek = NOW.minusDays(7);
+        analyticsService.recordPayments(List.of(payment(monica, rachel, NOW, "1.00")), Money.parse("1.01"));
+        analyticsService.recordPayments(List.of(payment(monica, rachel, lastWeek, "2.00")), Money.parse("2.01"));
+        analyticsService.archive();
+        analyticsService.recordPayments(List.of(payment(monica, ross, lastWeek, "3.00")), Money.parse("3.02"));
+
+        AnalyticsBucketViewModel minute = analyticsService.getBuckets(AnalyticsResolution.MINUTE, lastWeek,
+                                                                      lastWeek).get(0);
+        assertThat(minute.getPayments()).isEqualTo(2);
+        assertThat(minute.getVolume()).isEqualTo(Money.parse("5.00"));
+
+        analyticsService.archive();
+        minute = analyticsService.getBuckets(AnalyticsResolution.MINUTE, lastWeek, lastWeek).get(0);
+        assertThat(minute.getPayments()).isEqualTo(2);
+        assertThat(minute.getFees()).isEqualTo(Money.parse("0.03"));
+    }
+
+    @Test
+    @DisplayName("A query returns at most the configured number of buckets, the latest ones")
+    void getBuckets_shouldKeepLatestBuckets() {
+        List<AnalyticsBucketViewModel> minutes = analyticsService.getBuckets(AnalyticsResolution.MINUTE, null,
+                                                                             null);
+
+        assertThat(minutes.size()).isEqualTo(60);
+        assertThat(minutes.get(59).getStart()).isEqualTo(NOW);
+    }
+
+    private AnalyticsService start() throws Exception {
+        AnalyticsService service = new AnalyticsService();
+        service.clock = Clock.fixed(NOW.toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+        service.directory = directory.toString();
+        service.maxBuckets = 60;
+        service.init();
+        return service;
+    }
+
+    private static Transaction payment(User issuer, User payee, LocalDateTime date, String amount) {
+        return new Transaction(null, issuer, payee, date, Money.parse(amount), "Analytics");
+    }
+
+    private static User user(Integer id, String email) {
+        return new User(id, email, "password", "First", "Last", Money.parse("100.00"), new ArrayList<>(),
+                        new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+}
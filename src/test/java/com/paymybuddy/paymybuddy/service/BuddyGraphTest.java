@@ -0,0 +1,105 @@
+package com.paymybuddy.paymybuddy.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuddyGraphTest {
+    /**
+     * Class under test.
+     */
+    private BuddyGraph buddyGraph;
+
+    @BeforeEach
+    void init() {
+        buddyGraph = new BuddyGraph();
+        buddyGraph.maxCandidates = 100;
+        // 1 knows 2, 3 and 4; 5 is a buddy of 2, 3 and 4; 6 of 2 and 3; 7 of 4 only
+        connect(1, 2, 1, 3, 1, 4, 2, 5, 3, 5, 4, 5, 2, 6, 3, 6, 4, 7);
+    }
+
+    @Test
+    @DisplayName("Connections are found whichever user initialized them, once each")
+    void isConnected_shouldIgnoreDirection() {
+        buddyGraph.connect(2, 1);
+
+        assertTrue(buddyGraph.isConnected(1, 2));
+        assertTrue(buddyGraph.isConnected(2, 1));
+        assertFalse(buddyGraph.isConnected(1, 5));
+        assertFalse(buddyGraph.isConnected(1, 42));
+        assertThat(buddyGraph.degree(1)).isEqualTo(3);
+        assertThat(buddyGraph.getConnectionCount()).isEqualTo(9);
+    }
+
+    @Test
+    @DisplayName("Friends of friends are ranked by buddies in common, then by ID, without the user's buddies")
+    void suggest_shouldRankByMutualBuddies() {
+        assertThat(buddyGraph.suggest(1, 10)).isEqualTo(List.of(new BuddyGraph.Suggestion(5, 3),
+                                                                new BuddyGraph.Suggestion(6, 2),
+                                                                new BuddyGraph.Suggestion(7, 1)));
+        assertThat(buddyGraph.suggest(1, 2).size()).isEqualTo(2);
+        assertThat(buddyGraph.suggest(42, 10)).isEqualTo(List.of());
+    }
+
+    @Test
+    @DisplayName("Buddies in common are counted whichever user is given first")
+    void mutualBuddies_shouldCountCommonBuddies() {
+        assertThat(buddyGraph.mutualBuddies(1, 5)).isEqualTo(3);
+        assertThat(buddyGraph.mutualBuddies(6, 1)).isEqualTo(2);
+        assertThat(buddyGraph.mutualBuddies(1, 7)).isEqualTo(1);
+        assertThat(buddyGraph.mutualBuddies(1, 42)).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Once full, a suggestion keeps counting the candidates met first and ignores new ones")
+    void suggest_withMaxCandidates_shouldBoundCandidates() {
+        buddyGraph.maxCandidates = 1;
+
+        List<BuddyGraph.Suggestion> suggestions = buddyGraph.suggest(1, 10);
+
+        assertThat(suggestions.size()).isEqualTo(1);
+        assertThat(suggestions.get(0)).isEqualTo(new BuddyGraph.Suggestion(5, 3));
+    }
+
+    @Test
+    @DisplayName("Connections added in large numbers are folded into the sorted rows without being lost")
+    void connect_manyConnections_shouldBeFolded() {
+        for (int buddyId = 100; buddyId < 2100; buddyId++) {
+            buddyGraph.connect(7, buddyId);
+        }
+
+        assertThat(buddyGraph.degree(7)).isEqualTo(2001);
+        assertTrue(buddyGraph.isConnected(2099, 7));
+        assertTrue(buddyGraph.isConnected(1, 4));
+        assertThat(buddyGraph.getConnectionCount()).isEqualTo(2009);
+        assertThat(buddyGraph.suggest(4, 1)).isEqualTo(List.of(new BuddyGraph.Suggestion(2, 2)));
+    }
+
+    @Test
+    @DisplayName("A deleted user is neither a buddy nor suggested anymore, connections added since included")
+    void disconnect_shouldRemoveEveryConnectionOfUser() {
+        buddyGraph.connect(5, 8);
+
+        assertThat(buddyGraph.disconnect(5)).isEqualTo(4);
+
+        assertFalse(buddyGraph.isConnected(2, 5));
+        assertFalse(buddyGraph.isConnected(8, 5));
+        assertThat(buddyGraph.degree(5)).isEqualTo(0);
+        assertThat(buddyGraph.degree(2)).isEqualTo(2);
+        assertThat(buddyGraph.getConnectionCount()).isEqualTo(6);
+        assertThat(buddyGraph.suggest(1, 1)).isEqualTo(List.of(new BuddyGraph.Suggestion(6, 2)));
+        assertThat(buddyGraph.disconnect(5)).isEqualTo(0);
+    }
+
+    private void connect(int... userIds) {
+        for (int i = 0; i < userIds.length; i += 2) {
+            buddyGraph.connect(userIds[i], userIds[i + 1]);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.model.ActivitySummary;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.ActivitySummaryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Optional;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+@Import(ConditionalGetService.class)
+class ConditionalGetServiceTest {
+    /**
+     * Class under test.
+     */
+    @Autowired
+    ConditionalGetService conditionalGetService;
+
+    @MockBean
+    ActivitySummaryRepository activitySummaryRepository;
+    @MockBean
+    Clock                     clock;
+
+    // configure LocalDateTime.now() to 18th July 2022, 10:00:00
+    private final static LocalDateTime LOCAL_DATE_NOW = LocalDateTime.of(2022, 7, 18, 10, 0, 0);
+
+    private MockHttpServletRequest  request;
+    private MockHttpServletResponse response;
+
+    @BeforeEach
+    void init() {
+        Clock fixedClock = Clock.fixed(LOCAL_DATE_NOW.atZone(ZoneId.systemDefault()).toInstant(),
+                                       ZoneId.systemDefault());
+        when(clock.instant()).thenReturn(fixedClock.instant());
+        when(clock.getZone()).thenReturn(fixedClock.getZone());
+        request = new MockHttpServletRequest("GET", "/user/1/transactions");
+        response = new MockHttpServletResponse();
+    }
+
+    @Test
+    @DisplayName("A first request gets the validators of the transactions, and the same ones again get a 304")
+    void checkTransactions_withSameETag_shouldBeNotModified() {
+        when(activitySummaryRepository.findById(1)).thenReturn(Optional.of(summary(LOCAL_DATE_NOW.minusMinutes(5))));
+
+        assertFalse(conditionalGetService.checkTransactions(webRequest(), 1));
+        String etag = response.getHeader(HttpHeaders.ETAG);
+        assertThat(etag).isEqualTo("W/\"2-8\"");
+        assertThat(response.getDateHeader(HttpHeaders.LAST_MODIFIED))
+                .isEqualTo(LOCAL_DATE_NOW.minusMinutes(5).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        assertThat(response.getHeader(HttpHeaders.CACHE_CONTROL)).isEqualTo("no-cache, private");
+
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        response = new MockHttpServletResponse();
+        assertTrue(conditionalGetService.checkTransactions(webRequest(), 1));
+        assertThat(response.getStatus()).isEqualTo(304);
+    }
+
+    @Test
+    @DisplayName("A new transaction changes the ETag, and the If-Modified-Since of the client does not match anymore")
+    void checkTransactions_afterPayment_shouldBeModified() {
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "W/\"2-8\"");
+        ActivitySummary summary = summary(LOCAL_DATE_NOW.minusSeconds(30));
+        summary.setTransactionCount(3);
+        summary.setLatestTransactionId(9);
+        when(activitySummaryRepository.findById(1)).thenReturn(Optional.of(summary));
+
+        assertFalse(conditionalGetService.checkTransactions(webRequest(), 1));
+        assertThat(response.getStatus()).isEqualTo(200);
+
+        request = new MockHttpServletRequest("GET", "/user/1/transactions");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE,
+                          LOCAL_DATE_NOW.minusMinutes(5).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        response = new MockHttpServletResponse();
+        assertFalse(conditionalGetService.checkTransactions(webRequest(), 1));
+    }
+
+    @Test
+    @DisplayName("A change in the last second is not given as Last-Modified, only the ETag can validate it")
+    void checkConnections_justModified_shouldHaveNoLastModified() {
+        when(activitySummaryRepository.findById(1)).thenReturn(Optional.of(summary(LOCAL_DATE_NOW)));
+
+        assertFalse(conditionalGetService.checkConnections(webRequest(), 1));
+
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("W/\"1-4\"");
+        assertFalse(response.containsHeader(HttpHeaders.LAST_MODIFIED));
+    }
+
+    @Test
+    @DisplayName("Without summary there is no validator and the list is read")
+    void checkTransactions_withoutSummary_shouldBeModified() {
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "*");
+        when(activitySummaryRepository.findById(1)).thenReturn(Optional.empty());
+
+        assertFalse(conditionalGetService.checkTransactions(webRequest(), 1));
+        assertFalse(response.containsHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    @DisplayName("The ETag of a user follows both its version and its balance")
+    void checkUser_shouldFollowVersionAndBalance() {
+        User user = new User(1, "gellermonica@friends.com", "password", "Monica", "Geller", Money.parse("10.00"),
+                             new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        user.setVersion(3);
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"3-1000\"");
+
+        assertTrue(conditionalGetService.checkUser(webRequest(), user, user.getBalance()));
+
+        user.setBalance(Money.parse("12.00"));
+        response = new MockHttpServletResponse();
+        assertFalse(conditionalGetService.checkUser(webRequest(), user, user.getBalance()));
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"3-1200\"");
+    }
+
+    private ServletWebRequest webRequest() {
+        return new ServletWebRequest(request, response);
+    }
+
+    private static ActivitySummary summary(LocalDateTime modifiedAt) {
+        return new ActivitySummary(1, 1, 4, 2, 8, Money.parse("5.50"), Money.ZERO, modifiedAt);
+    }
+}
@@ -0,0 +1,195 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.config.ClockConfig;
+import com.paymybuddy.paymybuddy.event.ConnectionAdded;
+import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.ConnectionImportReportViewModel;
+import com.paymybuddy.paymybuddy.repository.ConnectionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@Import({ConnectionImportService.class, ClockConfig.class})
+@TestPropertySource(properties = "paymybuddy.connection-import.chunk-size=2")
+@RecordApplicationEvents
+class ConnectionImportServiceTest {
+    /**
+     * Class under test.
+     */
+    @Autowired
+    ConnectionImportService connectionImportService;
+
+    @Autowired
+    ApplicationEvents applicationEvents;
+
+    @MockBean
+    UserService                userService;
+    @MockBean
+    ConnectionRepository       connectionRepository;
+    @MockBean
+    JdbcTemplate               jdbcTemplate;
+    @MockBean
+    PlatformTransactionManager transactionManager;
+
+    private final User monica = user(1, "gellermonica@friends.com");
+    private final User rachel = user(2, "greenrachel@friends.com");
+    private final User ross   = user(3, "gellerross@friends.com");
+
+    private final Map<Integer, User> users = Stream.of(monica, rachel, ross)
+                                                   .collect(Collectors.toMap(User::getId, Function.identity()));
+
+    /**
+     * Connection table, as the batched inserts fill it.
+     */
+    private List<Connection> connections;
+
+    @BeforeEach
+    void init() {
+        connections = new ArrayList<>();
+        connections.add(connection(1, monica, rachel));
+        when(userService.getUsersByEmails(anyCollection())).thenAnswer(invocation -> {
+            Collection<String> emails = invocation.getArgument(0);
+            return users.values().stream().filter(user -> emails.contains(user.getEmail())).toList();
+        });
+        when(connectionRepository.findByPairKeysAmong(anyCollection(), anyCollection())).thenAnswer(invocation -> {
+            Collection<Integer> minUserIds = invocation.getArgument(0);
+            Collection<Integer> maxUserIds = invocation.getArgument(1);
+            return connections.stream().filter(connection -> minUserIds.contains(connection.getMinUserId())
+                                                             && maxUserIds.contains(connection.getMaxUserId()))
+                              .toList();
+        });
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenAnswer(invocation -> {
+            List<Object[]> rows = invocation.getArgument(1);
+            for (Object[] row : rows) {
+                connections.add(connection(connections.size() + 1, users.get((Integer) row[0]),
+                                           users.get((Integer) row[1])));
+            }
+            return new int[rows.size()];
+        });
+    }
+
+    @Test
+    @DisplayName("New pairs are connected, pairs given twice or already connected are skipped, others fail")
+    void importConnections_shouldReport_createdSkippedAndFailedPairs() throws IOException {
+        String csv = """
+                initializer,receiver
+                gellerross@friends.com,greenrachel@friends.com
+                greenrachel@friends.com,gellermonica@friends.com
+                greenrachel@friends.com,gellerross@friends.com
+                unknown@friends.com,gellerross@friends.com
+                gellerross@friends.com,gellerross@friends.com
+                gellerross@friends.com
+                """;
+
+        ConnectionImportReportViewModel report = connectionImportService.importConnections(stream(csv));
+
+        assertThat(report.getPairsRead()).isEqualTo(6);
+        assertThat(report.getConnectionsCreated()).isEqualTo(1);
+        assertThat(report.getPairsSkipped()).isEqualTo(2);
+        assertThat(report.getPairsFailed()).isEqualTo(3);
+        assertThat(report.getErrors().get(0).getLine()).isEqualTo(5);
+        // Malformed lines are reported as they are read, the others once their chunk is imported
+        assertThat(report.getErrors().get(1).getLine()).isEqualTo(7);
+        assertThat(report.getErrors().get(2).getLine()).isEqualTo(6);
+        assertThat(connections.size()).isEqualTo(2);
+        assertThat(connections.get(1).getMinUserId()).isEqualTo(2);
+        assertThat(connections.get(1).getMaxUserId()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Connections of a chunk are inserted in one batch and published like a single one is")
+    void importConnections_shouldRecord_newConnections() throws IOException {
+        String csv = """
+                gellerross@friends.com,greenrachel@friends.com
+                gellermonica@friends.com,gellerross@friends.com
+                """;
+
+        connectionImportService.importConnections(stream(csv));
+
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), anyList());
+        List<ConnectionAdded> events = applicationEvents.stream(ConnectionAdded.class).toList();
+        assertThat(events.size()).isEqualTo(1);
+        assertThat(events.get(0).connections().size()).isEqualTo(2);
+        assertThat(events.get(0).userIds().size()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Quoted emails and a byte order mark are read as spreadsheets write them")
+    void importConnections_withQuotedFieldsAndByteOrderMark_shouldConnectPairs() throws IOException {
+        String csv = "\uFEFFinitializer,receiver\n" +
+                     "\"gellerross@friends.com\", \"greenrachel@friends.com\"\n" +
+                     "\"gellermonica@friends.com,gellerross@friends.com\n";
+
+        ConnectionImportReportViewModel report = connectionImportService.importConnections(stream(csv));
+
+        assertThat(report.getPairsRead()).isEqualTo(2);
+        assertThat(report.getConnectionsCreated()).isEqualTo(1);
+        assertThat(report.getPairsFailed()).isEqualTo(1);
+        assertThat(report.getErrors().get(0).getLine()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("A pair connected concurrently fails the batch once, then is skipped")
+    void importConnections_withConcurrentConnection_shouldRetryChunk() throws IOException {
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenAnswer(invocation -> {
+            // Ross and Rachel were connected between the check and the insert
+            connections.add(connection(2, ross, rachel));
+            throw new DuplicateKeyException("Duplicate entry '2-3'");
+        });
+
+        ConnectionImportReportViewModel report = connectionImportService.importConnections(
+                stream("gellerross@friends.com,greenrachel@friends.com\n"));
+
+        assertThat(report.getConnectionsCreated()).isEqualTo(0);
+        assertThat(report.getPairsSkipped()).isEqualTo(1);
+        assertThat(report.getPairsFailed()).isEqualTo(0);
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), anyList());
+    }
+
+    private static Connection connection(int id, User initializer, User receiver) {
+        Connection connection = new Connection(id, initializer, receiver, LocalDateTime.of(2022, 7, 18, 10, 0, 0));
+        connection.setMinUserId(Math.min(initializer.getId(), receiver.getId()));
+        connection.setMaxUserId(Math.max(initializer.getId(), receiver.getId()));
+        return connection;
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static User user(int id, String email) {
+        return new User(id, email, "password", "Friend", "Friends", Money.ZERO, new ArrayList<>(), new ArrayList<>(),
+                        new ArrayList<>(), new ArrayList<>());
+    }
+}
@@ -1,9 +1,13 @@
 package com.paymybuddy.paymybuddy.service;
 
+import com.paymybuddy.paymybuddy.event.ConnectionAdded;
 import com.paymybuddy.paymybuddy.exceptions.AlreadyABuddyException;
 import com.paymybuddy.paymybuddy.exceptions.BuddyNotFoundException;
 import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.ConnectionFilter;
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.BuddySuggestionViewModel;
 import com.paymybuddy.paymybuddy.model.viewmodel.ConnectionViewModel;
 import com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel;
 import com.paymybuddy.paymybuddy.repository.ConnectionRepository;
@@ -13,9 +17,15 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
-import java.math.BigDecimal;
 import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -26,11 +36,13 @@ import java.util.Optional;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(SpringExtension.class)
 @Import(ConnectionService.class)
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@RecordApplicationEvents
 class ConnectionServiceTest {
     // configure LocalDateTime.now() to 18th July 2022, 10:00:00
     private final static LocalDateTime LOCAL_DATE_NOW = LocalDateTime.of(2022, 7, 18, 10, 0, 0);
@@ -51,6 +63,13 @@ class ConnectionServiceTest {
 
     @MockBean
     UserRepository userRepository;
+    @MockBean
+    BuddyGraph             buddyGraph;
+    @MockBean
+    EmailFilter            emailFilter;
+
+    @Autowired
+    ApplicationEvents applicationEvents;
 
     private User initializer;
     private User receiver;
@@ -66,7 +85,7 @@ class ConnectionServiceTest {
         initializer.setLastName("Bing");
         initializer.setPassword("CouldIBeAnyMoreBored");
         initializer.setEmail("bingchandler@friends.com");
-        initializer.setBalance(new BigDecimal("1250.48"));
+        initializer.setBalance(Money.parse("1250.48"));
 
         receiver = new User();
         receiver.setId(2);
@@ -74,7 +93,7 @@ class ConnectionServiceTest {
         receiver.setLastName("Tribbiani");
         receiver.setPassword("HowUDoin");
         receiver.setEmail("tribbianijoey@friends.com");
-        receiver.setBalance(new BigDecimal("0.00"));
+        receiver.setBalance(Money.parse("0.00"));
 
         connection = new Connection(1, initializer, receiver, LOCAL_DATE_NOW);
     }
@@ -86,6 +105,7 @@ class ConnectionServiceTest {
                                        ZoneId.systemDefault());
         when(clock.instant()).thenReturn(fixedClock.instant());
         when(clock.getZone()).thenReturn(fixedClock.getZone());
+        when(emailFilter.mightExist(any(String.class))).thenReturn(true);
     }
 
     @Test
@@ -97,16 +117,14 @@ class ConnectionServiceTest {
                                  "wewereonabreak",
                                  "Ross",
                                  "Geller",
-                                 new BigDecimal("215.64"),
+                                 Money.parse("215.64"),
                                  new ArrayList<>(),
                                  new ArrayList<>(),
                                  new ArrayList<>(),
                                  new ArrayList<>());
 
-        Connection connection1 = new Connection(1, testUser, receiver, LocalDateTime.now(clock));
-        Connection connection2 = new Connection(2, initializer, testUser, LocalDateTime.now(clock));
-        when(connectionRepository.findByInitializerOrReceiver(any(User.class), any(User.class)))
-                .thenReturn(List.of(connection1, connection2));
+        when(connectionRepository.findBuddiesOf(testUser.getId()))
+                .thenReturn(List.of(UserService.userToViewModel(receiver), UserService.userToViewModel(initializer)));
 
         // WHEN getting connections from testUser
         List<UserViewModel> userConnections = connectionService.getUserConnections(testUser);
@@ -189,34 +207,72 @@ class ConnectionServiceTest {
                      () -> connectionService.createConnectionBetweenTwoUsers(initializer, email));
     }
 
+    @Test
+    @DisplayName("Adding a connection with an email unknown to the email filter should not query the users")
+    void addConnection_withUnknownEmail_shouldNotQuery() {
+        String email = "tribbianijoey@friends.com";
+        when(emailFilter.mightExist(email)).thenReturn(false);
+
+        assertThrows(BuddyNotFoundException.class,
+                     () -> connectionService.createConnectionBetweenTwoUsers(initializer, email));
+        verify(userRepository, never()).findByEmail(email);
+    }
+
     @Test
     @DisplayName("Adding a connection who is already a buddy should throw an exception")
     void addConnection_withConflict_shouldThrow_exception() {
         String email = "tribbianijoey@friends.com";
         when(userRepository.findByEmail(email)).thenReturn(Optional.of(receiver));
-        Connection existingConnection = new Connection(null, initializer, receiver, LocalDateTime.now(clock));
-        when(connectionRepository
-                     .findByInitializerOrReceiver(any(User.class), any(User.class)))
-                .thenReturn(List.of(existingConnection));
+        when(connectionRepository.existsBetween(initializer.getId(), receiver.getId())).thenReturn(true);
 
         assertThrows(AlreadyABuddyException.class,
                      () -> connectionService.createConnectionBetweenTwoUsers(initializer, email));
     }
 
     @Test
-    @DisplayName("getConnections should return a list of ConnectionViewModels")
-    void getConnections_shouldReturn_listOfConnectionViewModels() {
-        when(connectionRepository.findAll()).thenReturn(List.of(connection));
+    @DisplayName("A connection saved concurrently with the same buddy should throw an exception")
+    void saveConnection_withDuplicatePair_shouldThrow_exception() {
+        when(connectionRepository.save(any(Connection.class)))
+                .thenThrow(new DataIntegrityViolationException("Duplicate entry for key 'min_user_id'"));
+
+        assertThrows(AlreadyABuddyException.class,
+                     () -> connectionService.saveConnection(new Connection(null, initializer, receiver,
+                                                                           LOCAL_DATE_NOW)));
+        assertThat(applicationEvents.stream(ConnectionAdded.class).count()).isEqualTo(0L);
+    }
+
+    @Test
+    @DisplayName("Suggestions keep the order of the graph and do not show balances")
+    void getSuggestions_shouldReadSuggestedUsers() {
+        when(buddyGraph.suggest(1, 5)).thenReturn(List.of(new BuddyGraph.Suggestion(2, 3)));
+        when(userRepository.findAllById(List.of(2))).thenReturn(List.of(receiver));
+
+        List<BuddySuggestionViewModel> suggestions = connectionService.getSuggestions(initializer, 5);
+
+        assertThat(suggestions.size()).isEqualTo(1);
+        assertThat(suggestions.get(0).getEmail()).isEqualTo(receiver.getEmail());
+        assertThat(suggestions.get(0).getMutualBuddies()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("getConnections should return a page of ConnectionViewModels")
+    void getConnections_shouldReturn_pageOfConnectionViewModels() {
+        Pageable pageable = PageRequest.of(0, 10);
+        when(connectionRepository.findViews(any(), eq(pageable)))
+                .thenReturn(new SliceImpl<>(List.of(ConnectionService.connectionToViewModel(connection)), pageable,
+                                            false));
 
-        List<ConnectionViewModel> result = connectionService.getConnections();
+        Slice<ConnectionViewModel> result = connectionService.getConnections(new ConnectionFilter(), pageable);
 
-        assertTrue(result.contains(ConnectionService.connectionToViewModel(connection)));
+        assertTrue(result.getContent().contains(ConnectionService.connectionToViewModel(connection)));
+        assertFalse(result.hasNext());
     }
 
     @Test
     @DisplayName("getConnectionById should return a connection when exists")
     void getConnectionById() {
-        when(connectionRepository.findById(connection.getId())).thenReturn(Optional.ofNullable(connection));
+        when(connectionRepository.findViewById(connection.getId()))
+                .thenReturn(Optional.of(ConnectionService.connectionToViewModel(connection)));
         Optional<ConnectionViewModel> connectionViewModel = connectionService.getConnectionById(connection.getId());
 
         assertEquals(connectionViewModel, Optional.of(ConnectionService.connectionToViewModel(connection)));
@@ -225,7 +281,7 @@ class ConnectionServiceTest {
     @Test
     @DisplayName("getConnectionById should returnempty optional when connection does not exist")
     void getConnectionById_empty() {
-        when(connectionRepository.findById(connection.getId())).thenReturn(Optional.empty());
+        when(connectionRepository.findViewById(connection.getId())).thenReturn(Optional.empty());
         Optional<ConnectionViewModel> connectionViewModel = connectionService.getConnectionById(connection.getId());
 
         assertTrue(connectionViewModel.isEmpty());
@@ -0,0 +1,174 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@Import({EmailFilter.class, SimpleMeterRegistry.class})
+@TestPropertySource(properties = "paymybuddy.email-filter.expected-emails=10000")
+class EmailFilterTest {
+    /**
+     * Class under test.
+     */
+    @Autowired
+    EmailFilter emailFilter;
+
+    @MockBean
+    UserRepository userRepository;
+    @Autowired
+    MeterRegistry  meterRegistry;
+
+    @Test
+    @DisplayName("Emails of the users are known whatever their case, others are certainly unknown")
+    void mightExist_shouldKnowEveryUserEmail() {
+        List<UserViewModel> users = new ArrayList<>();
+        for (int id = 1; id <= 1000; id++) {
+            users.add(new UserViewModel(id, "buddy" + id + "@friends.com", "Buddy", "Number" + id, Money.ZERO));
+        }
+        when(userRepository.findViewsAfter(eq(0), any())).thenReturn(users);
+        emailFilter.load();
+
+        for (int id = 1; id <= 1000; id++) {
+            assertTrue(emailFilter.mightExist("buddy" + id + "@friends.com"));
+        }
+        assertTrue(emailFilter.mightExist(" Buddy42@Friends.com "));
+        int falsePositives = 0;
+        for (int id = 1; id <= 10000; id++) {
+            if (emailFilter.mightExist("stranger" + id + "@mail.com")) {
+                falsePositives++;
+            }
+        }
+        // Sized for 10000 emails at 1%, a tenth of them gives far fewer false positives
+        assertThat(falsePositives).isLessThan(10);
+        assertThat(emailFilter.getEstimatedFalsePositiveRate()).isLessThan(0.001);
+    }
+
+    @Test
+    @DisplayName("Created users are known right away and deleted ones are unknown again")
+    void addAndRemove_shouldUpdateFilter() {
+        User rachel = user(2001, "greenrachel@friends.com");
+        assertFalse(emailFilter.mightExist(rachel.getEmail()));
+
+        emailFilter.add(rachel);
+        assertTrue(emailFilter.mightExist(rachel.getEmail()));
+
+        emailFilter.remove(rachel);
+        assertFalse(emailFilter.mightExist(rachel.getEmail()));
+    }
+
+    @Test
+    @DisplayName("Users created by another instance are known after a refresh, and are only counted once")
+    void refresh_shouldAddNewUsers() {
+        User monica = user(3001, "gellermonica@friends.com");
+        emailFilter.add(monica);
+        usersInDatabase(monica, user(3002, "gellerross@friends.com"));
+
+        assertThat(emailFilter.refresh()).isEqualTo(1);
+        assertTrue(emailFilter.mightExist("gellerross@friends.com"));
+
+        emailFilter.remove(monica);
+        assertFalse(emailFilter.mightExist(monica.getEmail()));
+    }
+
+    @Test
+    @DisplayName("An email unknown to the counters is looked for among the users created since it was last caught up")
+    void mightExist_withUserCreatedByAnotherInstance_shouldCatchUp() {
+        User rachel = user(1, "greenrachel@friends.com");
+        usersInDatabase(rachel);
+        EmailFilter filter = filter(Duration.ZERO);
+        // Ross signs up on another instance
+        usersInDatabase(rachel, user(2, "gellerross@friends.com"));
+
+        assertTrue(filter.mightExist("gellerross@friends.com"));
+        assertFalse(filter.mightExist("unknown@friends.com"));
+        verify(userRepository).findViewsAfter(eq(1), any());
+        verify(userRepository).findViewsAfter(eq(2), any());
+    }
+
+    @Test
+    @DisplayName("Until the catch-up interval has elapsed, an unknown email is answered without a query")
+    void mightExist_withinCatchUpInterval_shouldNotQuery() {
+        User rachel = user(1, "greenrachel@friends.com");
+        usersInDatabase(rachel);
+        EmailFilter filter = filter(Duration.ofMinutes(1));
+        usersInDatabase(rachel, user(2, "gellerross@friends.com"));
+        clearInvocations(userRepository);
+
+        assertFalse(filter.mightExist("gellerross@friends.com"));
+        assertFalse(filter.mightExist("unknown@friends.com"));
+        verifyNoInteractions(userRepository);
+
+        filter.refresh();
+        assertTrue(filter.mightExist("gellerross@friends.com"));
+    }
+
+    @Test
+    @DisplayName("The false positive rate is the share of unknown emails let through, and memory is reported")
+    void recordLookup_shouldReportFalsePositiveRate() {
+        double lookups = meterRegistry.get("paymybuddy.email-filter.lookups").tag("result", "false-positive")
+                                      .counter().count();
+        emailFilter.recordLookup(false);
+
+        assertThat(meterRegistry.get("paymybuddy.email-filter.lookups").tag("result", "false-positive")
+                                .counter().count()).isEqualTo(lookups + 1);
+        assertThat(emailFilter.getFalsePositiveRate()).isGreaterThan(0.0);
+        assertThat(meterRegistry.get("paymybuddy.email-filter.memory").gauge().value())
+                .isEqualTo((double) emailFilter.getMemoryBytes());
+        assertThat(emailFilter.getMemoryBytes()).isLessThan(64 * 1024L);
+    }
+
+    /**
+     * Creates a filter of its own, so that the highest user added is not one of another test.
+     */
+    private EmailFilter filter(Duration catchUpInterval) {
+        EmailFilter filter = new EmailFilter();
+        filter.userRepository = userRepository;
+        filter.meterRegistry = new SimpleMeterRegistry();
+        filter.enabled = true;
+        filter.expectedEmails = 10000;
+        filter.falsePositiveRate = 0.01;
+        filter.catchUpInterval = catchUpInterval;
+        filter.init();
+        return filter;
+    }
+
+    /**
+     * Makes the user table hold some users, read by ID after a given one.
+     */
+    private void usersInDatabase(User... users) {
+        when(userRepository.findViewsAfter(any(), any())).thenAnswer(invocation -> {
+            Integer afterId = invocation.getArgument(0);
+            return Arrays.stream(users).filter(user -> user.getId() > afterId).map(UserService::userToViewModel)
+                         .toList();
+        });
+    }
+
+    private static User user(int id, String email) {
+        return new User(id, email, "password", "Friend", "Friends", Money.ZERO, new ArrayList<>(), new ArrayList<>(),
+                        new ArrayList<>(), new ArrayList<>());
+    }
+}
@@ -0,0 +1,66 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.constants.Fee;
+import com.paymybuddy.paymybuddy.model.FeeQuote;
+import com.paymybuddy.paymybuddy.model.Money;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FeeCalculatorTest {
+    /**
+     * Class under test.
+     */
+    private final FeeCalculator feeCalculator = new FeeCalculator();
+
+    @Test
+    @DisplayName("quote should return amount, fee and amount with fee")
+    void quote() {
+        FeeQuote quote = feeCalculator.quote(Money.parse("100.00"));
+
+        assertThat(quote.getAmount()).isEqualTo(Money.parse("100.00"));
+        assertThat(quote.getFee()).isEqualTo(Money.parse("0.50"));
+        assertThat(quote.getTotal()).isEqualTo(Money.parse("100.50"));
+    }
+
+    @Test
+    @DisplayName("Fee is rounded HALF_UP to the cent")
+    void feeCents_shouldRound_halfUp() {
+        assertThat(feeCalculator.feeCents(99)).isZero();
+        assertThat(feeCalculator.feeCents(100)).isEqualTo(1);
+        assertThat(feeCalculator.feeCents(299)).isEqualTo(1);
+        assertThat(feeCalculator.feeCents(300)).isEqualTo(2);
+        assertThat(feeCalculator.totalCents(300)).isEqualTo(302);
+    }
+
+    @Test
+    @DisplayName("Quoting without an amount should throw IllegalArgumentException")
+    void quote_whenAmount_isNull() {
+        assertThrows(IllegalArgumentException.class, () -> feeCalculator.quote(null));
+    }
+
+    @Test
+    @DisplayName("Amount with fee is the same as the former double and BigDecimal computation")
+    void totalCents_shouldMatch_formerComputation() {
+        // every amount from 0.01 to 10 000.00 €
+        for (long cents = 1; cents <= 1_000_000; cents++) {
+            long expected = formerAmountWithFee(cents / 100.0).unscaledValue().longValueExact();
+            assertThat(feeCalculator.totalCents(cents)).as("amount of %d cents", cents).isEqualTo(expected);
+        }
+    }
+
+    /**
+     * Amount with fee as TransactionService.calculateAmountWithFee computed it from a double.
+     */
+    private static BigDecimal formerAmountWithFee(double amount) {
+        BigDecimal bdAmount = new BigDecimal(Double.toString(amount)).setScale(Fee.SCALE, RoundingMode.HALF_UP);
+        BigDecimal bdFee = new BigDecimal(Double.toString(amount * Fee.TRANSACTION_FEE))
+                .setScale(Fee.SCALE, RoundingMode.HALF_UP);
+        return bdAmount.add(bdFee);
+    }
+}
@@ -0,0 +1,98 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.model.BalanceStripe;
+import com.paymybuddy.paymybuddy.model.BalanceStripeId;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.BalanceStripeRepository;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@Import({HotAccountService.class, SimpleMeterRegistry.class})
+@TestPropertySource(properties = {"paymybuddy.hot-accounts.enabled=true", "paymybuddy.hot-accounts.stripes=4",
+                                  "paymybuddy.hot-accounts.lock-wait-threshold=PT0.1S",
+                                  "paymybuddy.hot-accounts.min-credits=2"})
+class HotAccountServiceTest {
+    /**
+     * Class under test.
+     */
+    @Autowired
+    HotAccountService hotAccountService;
+
+    @MockBean
+    BalanceStripeRepository    balanceStripeRepository;
+    @MockBean
+    UserRepository             userRepository;
+    @MockBean
+    JdbcTemplate               jdbcTemplate;
+    @MockBean
+    PlatformTransactionManager transactionManager;
+
+    @Test
+    @DisplayName("An account whose row lock was waited for too long gets its stripes")
+    @SuppressWarnings("unchecked")
+    void evaluate_whenLockWaitAboveThreshold_shouldStripeAccount() {
+        hotAccountService.recordLockWait(5, TimeUnit.MILLISECONDS.toNanos(60));
+        hotAccountService.recordLockWait(5, TimeUnit.MILLISECONDS.toNanos(60));
+        hotAccountService.recordLockWait(6, TimeUnit.MILLISECONDS.toNanos(60));
+
+        hotAccountService.evaluate();
+
+        assertThat(hotAccountService.isHot(5)).isTrue();
+        assertThat(hotAccountService.isHot(6)).isFalse();
+        ArgumentCaptor<List<BalanceStripe>> stripes = ArgumentCaptor.forClass(List.class);
+        verify(balanceStripeRepository).saveAll(stripes.capture());
+        assertThat(stripes.getValue().size()).isEqualTo(4);
+        assertThat(stripes.getValue().get(3).getId()).isEqualTo(new BalanceStripeId(5, 3));
+    }
+
+    @Test
+    @DisplayName("A hot account receiving few credits is folded back into its user row")
+    void evaluate_whenHotAccountCooledDown_shouldFoldAndRemoveStripes() {
+        hotAccountService.recordLockWait(7, TimeUnit.SECONDS.toNanos(1));
+        hotAccountService.evaluate();
+        when(balanceStripeRepository.credit(eq(7), anyInt(), eq(Money.parse("3.00")))).thenReturn(1);
+        assertThat(hotAccountService.creditStripe(7, Money.parse("3.00"))).isTrue();
+        User user = new User(7, "hot@mail.com", "password", "Hot", "Buddy", Money.parse("10.00"),
+                             new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        when(userRepository.findByIdForUpdate(7)).thenReturn(Optional.of(user));
+        when(balanceStripeRepository.findByUserIdForUpdate(7))
+                .thenReturn(List.of(new BalanceStripe(new BalanceStripeId(7, 0), Money.ZERO),
+                                    new BalanceStripe(new BalanceStripeId(7, 2), Money.parse("3.00"))));
+
+        hotAccountService.evaluate();
+
+        assertThat(hotAccountService.isHot(7)).isFalse();
+        assertThat(user.getBalance()).isEqualTo(Money.parse("13.00"));
+        verify(balanceStripeRepository).deleteByUserId(7);
+    }
+
+    @Test
+    @DisplayName("Crediting a stripe that no longer exists tells the caller to credit the user row")
+    void creditStripe_whenAccountNotStriped_shouldReturnFalse() {
+        when(balanceStripeRepository.credit(eq(8), anyInt(), any())).thenReturn(0);
+
+        assertThat(hotAccountService.creditStripe(8, Money.parse("1.00"))).isFalse();
+    }
+}
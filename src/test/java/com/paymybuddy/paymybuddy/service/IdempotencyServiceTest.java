@@ -0,0 +1,242 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.config.ClockConfig;
+import com.paymybuddy.paymybuddy.event.PaymentCompleted;
+import com.paymybuddy.paymybuddy.exceptions.IdempotencyKeyReusedException;
+import com.paymybuddy.paymybuddy.exceptions.InsufficientBalanceException;
+import com.paymybuddy.paymybuddy.model.IdempotencyRecord;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.IdempotencyRecordRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+@Import({IdempotencyService.class, SimpleMeterRegistry.class, ClockConfig.class})
+@TestPropertySource(properties = {"paymybuddy.idempotency.max-entries=2", "paymybuddy.idempotency.stripes=1"})
+class IdempotencyServiceTest {
+    /**
+     * Class under test.
+     */
+    @Autowired
+    IdempotencyService idempotencyService;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @MockBean
+    IdempotencyRecordRepository idempotencyRecordRepository;
+
+    private static final String REQUEST = IdempotencyService.requestHash(2, "10.00", "Coffee");
+
+    @Test
+    @DisplayName("A payment retried with the same key is made only once")
+    void execute_whenKeyAlreadyUsed_shouldReturnFirstResult() {
+        AtomicInteger payments = new AtomicInteger();
+        double        hits     = meterRegistry.counter("paymybuddy.idempotency.hits").count();
+
+        Integer first  = idempotencyService.execute(1, "retried", REQUEST, payments::incrementAndGet);
+        Integer second = idempotencyService.execute(1, "retried", REQUEST, payments::incrementAndGet);
+
+        assertThat(second).isEqualTo(first);
+        assertThat(payments.get()).isEqualTo(1);
+        assertThat(meterRegistry.counter("paymybuddy.idempotency.hits").count()).isEqualTo(hits + 1);
+        verify(idempotencyRecordRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Keys are kept per user")
+    void execute_whenSameKeyForAnotherUser_shouldPayAgain() {
+        AtomicInteger payments = new AtomicInteger();
+
+        idempotencyService.execute(1, "per-user", REQUEST, payments::incrementAndGet);
+        idempotencyService.execute(2, "per-user", REQUEST, payments::incrementAndGet);
+
+        assertThat(payments.get()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("A failed payment can be retried with the same key")
+    void execute_whenPaymentFailed_shouldForgetKey() {
+        assertThrows(InsufficientBalanceException.class,
+                     () -> idempotencyService.execute(1, "failed", REQUEST, () -> {
+                         throw new InsufficientBalanceException("Issuer has insufficient balance.");
+                     }));
+
+        assertThat(idempotencyService.execute(1, "failed", REQUEST, () -> 42)).isEqualTo(42);
+    }
+
+    @Test
+    @DisplayName("Least recently used keys are evicted when the store is full")
+    void execute_whenStoreIsFull_shouldEvictLeastRecentlyUsedKey() {
+        AtomicInteger payments  = new AtomicInteger();
+        double        evictions = meterRegistry.counter("paymybuddy.idempotency.evictions").count();
+
+        idempotencyService.execute(3, "a", REQUEST, payments::incrementAndGet);
+        idempotencyService.execute(3, "b", REQUEST, payments::incrementAndGet);
+        idempotencyService.execute(3, "c", REQUEST, payments::incrementAndGet);
+        idempotencyService.execute(3, "a", REQUEST, payments::incrementAndGet);
+
+        assertThat(payments.get()).isEqualTo(4);
+        assertThat(meterRegistry.counter("paymybuddy.idempotency.evictions").count()).isGreaterThan(evictions);
+    }
+
+    @Test
+    @DisplayName("A concurrent duplicate waits for the first payment instead of paying again")
+    void execute_whenDuplicateIsConcurrent_shouldWaitForFirstPayment() throws Exception {
+        CountDownLatch paymentStarted = new CountDownLatch(1);
+        CountDownLatch releasePayment = new CountDownLatch(1);
+        AtomicInteger  payments       = new AtomicInteger();
+
+        CompletableFuture<Integer> first = CompletableFuture.supplyAsync(
+                () -> idempotencyService.execute(4, "concurrent", REQUEST, () -> {
+                    paymentStarted.countDown();
+                    await(releasePayment);
+                    return payments.incrementAndGet();
+                }));
+        assertThat(paymentStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Integer> duplicate = CompletableFuture.supplyAsync(
+                () -> idempotencyService.execute(4, "concurrent", REQUEST, payments::incrementAndGet));
+        releasePayment.countDown();
+
+        assertThat(duplicate.get(5, TimeUnit.SECONDS)).isEqualTo(first.get(5, TimeUnit.SECONDS));
+        assertThat(payments.get()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("A key sent again with another request is refused")
+    void execute_whenKeyUsedForAnotherRequest_shouldRefuse() {
+        idempotencyService.execute(5, "reused", REQUEST, () -> 7);
+        String otherRequest = IdempotencyService.requestHash(2, "1000.00", "Coffee");
+
+        assertThrows(IdempotencyKeyReusedException.class,
+                     () -> idempotencyService.execute(5, "reused", otherRequest, () -> 8));
+        assertThat(idempotencyService.execute(5, "reused", REQUEST, () -> 8)).isEqualTo(7);
+    }
+
+    @Test
+    @DisplayName("The key of a running payment is not evicted when the store is full")
+    void execute_whenStoreIsFullOfRunningPayments_shouldKeepThem() throws Exception {
+        CountDownLatch paymentStarted = new CountDownLatch(1);
+        CountDownLatch releasePayment = new CountDownLatch(1);
+        AtomicInteger  payments       = new AtomicInteger();
+
+        CompletableFuture<Integer> first = CompletableFuture.supplyAsync(
+                () -> idempotencyService.execute(6, "running", REQUEST, () -> {
+                    paymentStarted.countDown();
+                    await(releasePayment);
+                    return payments.incrementAndGet();
+                }));
+        assertThat(paymentStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        idempotencyService.execute(6, "d", REQUEST, payments::incrementAndGet);
+        idempotencyService.execute(6, "e", REQUEST, payments::incrementAndGet);
+        CompletableFuture<Integer> duplicate = CompletableFuture.supplyAsync(
+                () -> idempotencyService.execute(6, "running", REQUEST, payments::incrementAndGet));
+        releasePayment.countDown();
+
+        assertThat(duplicate.get(5, TimeUnit.SECONDS)).isEqualTo(first.get(5, TimeUnit.SECONDS));
+        assertThat(payments.get()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("A payment retried after a conflict rolled back its first attempt still saves its key")
+    void execute_whenFirstAttemptRolledBack_shouldSaveKeyWithRetry() {
+        IdempotencyRecordRepository repository = mock(IdempotencyRecordRepository.class);
+        List<IdempotencyRecord>     table      = new ArrayList<>();
+        when(repository.save(any())).thenAnswer(invocation -> {
+            IdempotencyRecord record = invocation.getArgument(0);
+            table.add(record);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        table.remove(record);
+                    }
+                }
+            });
+            return record;
+        });
+        IdempotencyService service = persistentService(repository);
+
+        Integer transactionId = service.execute(7, "conflict", REQUEST, () -> {
+            // Version check of the first attempt fails on commit, after its payment was published
+            attempt(service, 41, TransactionSynchronization.STATUS_ROLLED_BACK);
+            attempt(service, 42, TransactionSynchronization.STATUS_COMMITTED);
+            return 42;
+        });
+
+        assertThat(transactionId).isEqualTo(42);
+        assertThat(table.size()).isEqualTo(1);
+        assertThat(table.get(0).getTransactionId()).isEqualTo(42);
+    }
+
+    /**
+     * Publishes a payment in a database transaction of its own, then ends it with the given status.
+     */
+    private static void attempt(IdempotencyService service, Integer transactionId, int status) {
+        TransactionSynchronizationManager.initSynchronization();
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        User issuer = new User();
+        issuer.setId(7);
+        service.onPaymentCompleted(new PaymentCompleted(
+                List.of(new Transaction(transactionId, issuer, new User(), LocalDateTime.now(), Money.parse("10.00"),
+                                        "Coffee")), Money.parse("10.05")));
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clear();
+        synchronizations.forEach(synchronization -> synchronization.afterCompletion(status));
+    }
+
+    /**
+     * A service of its own saving its keys, the other tests keep them in memory only.
+     */
+    private IdempotencyService persistentService(IdempotencyRecordRepository repository) {
+        IdempotencyService service = new IdempotencyService();
+        service.idempotencyRecordRepository = repository;
+        service.meterRegistry = meterRegistry;
+        service.clock = Clock.systemDefaultZone();
+        service.ttl = Duration.ofHours(24);
+        service.maxEntries = 10;
+        service.stripeCount = 1;
+        service.persistent = true;
+        service.waitTimeout = Duration.ofSeconds(10);
+        service.init();
+        return service;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.constants.TransferStrategy;
+import com.paymybuddy.paymybuddy.exceptions.InsufficientBalanceException;
+import com.paymybuddy.paymybuddy.exceptions.InvalidPayeeException;
+import com.paymybuddy.paymybuddy.exceptions.PaymentNotAcceptedException;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.EngineCheckpointRepository;
+import com.paymybuddy.paymybuddy.repository.EngineLeaseRepository;
+import com.paymybuddy.paymybuddy.repository.IdSequenceRepository;
+import com.paymybuddy.paymybuddy.repository.TransactionRepository;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManager;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Runs engines of their own against the database, the engine of the application context is disabled.
+ * The database is dropped afterwards, as transaction IDs given out by the engines are not known to its identity.
+ */
+@SpringBootTest
+@DirtiesContext
+class InMemoryTransferEngineIT {
+    private static final long WRITEBACK_TIMEOUT_MS = 10_000;
+
+    @TempDir
+    Path directory;
+
+    @Autowired
+    EntityManager              entityManager;
+    @Autowired
+    JdbcTemplate               jdbcTemplate;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EngineCheckpointRepository engineCheckpointRepository;
+    @Autowired
+    EngineLeaseRepository      engineLeaseRepository;
+    @Autowired
+    IdSequenceRepository       idSequenceRepository;
+    @Autowired
+    LedgerService              ledgerService;
+    @Autowired
+    ApplicationEventPublisher  eventPublisher;
+    @Autowired
+    MeterRegistry              meterRegistry;
+    @Autowired
+    UserRepository             userRepository;
+    @Autowired
+    TransactionRepository      transactionRepository;
+
+    private final List<InMemoryTransferEngine> engines = new ArrayList<>();
+
+    @AfterEach
+    void stopEngines() throws Exception {
+        for (InMemoryTransferEngine engine : engines) {
+            engine.stop();
+        }
+    }
+
+    @Test
+    @DisplayName("Payments to a stranger or over the balance are rejected and move nothing")
+    void transfer_whenInvalid_shouldReject() throws Exception {
+        User issuer   = createUser("engine-check-issuer@mail.com", "100.00");
+        User buddy    = createUser("engine-check-buddy@mail.com", "0.00");
+        User stranger = createUser("engine-check-stranger@mail.com", "0.00");
+        InMemoryTransferEngine engine = engine("check", 1 << 16);
+        engine.start();
+        engine.connect(issuer.getId(), buddy.getId());
+
+        assertThrows(InvalidPayeeException.class,
+                     () -> engine.transfer(List.of(transaction(issuer, stranger, "10.00")), Money.parse("10.05")));
+        assertThrows(InsufficientBalanceException.class,
+                     () -> engine.transfer(List.of(transaction(issuer, buddy, "100.00")), Money.parse("100.50")));
+
+        assertThat(engine.balanceOf(issuer.getId())).isEqualTo(10_000);
+        assertThat(engine.balanceOf(stranger.getId())).isEqualTo(0);
+        assertThat(engine.balanceOf(buddy.getId())).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Payments that can not be journaled are rejected and undone")
+    void transfer_whenJournalFails_shouldUndo() throws Exception {
+        User issuer = createUser("engine-journal-issuer@mail.com", "100.00");
+        User buddy  = createUser("engine-journal-buddy@mail.com", "0.00");
+        // Too small for a single record
+        InMemoryTransferEngine engine = engine("journal", 64);
+        engine.start();
+        engine.connect(issuer.getId(), buddy.getId());
+
+        assertThrows(IllegalStateException.class,
+                     () -> engine.transfer(List.of(transaction(issuer, buddy, "10.00")), Money.parse("10.05")));
+
+        assertThat(engine.balanceOf(issuer.getId())).isEqualTo(10_000);
+        assertThat(engine.balanceOf(buddy.getId())).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Payments journaled but not saved before a crash are replayed and saved on the next start")
+    void start_afterCrash_shouldReplayJournal() throws Exception {
+        User issuer = createUser("engine-replay-issuer@mail.com", "100.00");
+        User buddy  = createUser("engine-replay-buddy@mail.com", "0.00");
+        InMemoryTransferEngine crashed = engine("replay", 1 << 16);
+        // Without its write-back, nothing journaled reaches the database
+        crashed.open();
+        crashed.startWriter();
+        crashed.connect(issuer.getId(), buddy.getId());
+        Integer transactionId = crashed.transfer(List.of(transaction(issuer, buddy, "10.00")),
+                                                 Money.parse("10.05")).get(0).getId();
+        crashed.stop();
+        engines.remove(crashed);
+        assertThat(transactionRepository.findById(transactionId).isPresent()).isFalse();
+
+        InMemoryTransferEngine restarted = engine("replay", 1 << 16);
+        restarted.start();
+
+        assertThat(restarted.balanceOf(issuer.getId())).isEqualTo(8_995);
+        assertThat(awaitSavedBalance(buddy.getId(), Money.parse("10.00"))).isEqualTo(Money.parse("10.00"));
+        assertThat(transactionRepository.findById(transactionId).isPresent()).isTrue();
+        assertThat(userRepository.findById(issuer.getId()).orElseThrow().getBalance())
+                .isEqualTo(Money.parse("89.95"));
+    }
+
+    @Test
+    @DisplayName("A payment cancelled before the writer thread took it is never applied")
+    void transfer_whenCancelledBeforeTaken_shouldNotApply() throws Exception {
+        User issuer = createUser("engine-cancel-issuer@mail.com", "100.00");
+        User buddy  = createUser("engine-cancel-buddy@mail.com", "0.00");
+        InMemoryTransferEngine engine = engine("cancel", 1 << 16);
+        engine.ackTimeout = Duration.ofMillis(200);
+        // Commands are accepted, but no writer thread takes them yet
+        engine.open();
+        engine.connect(issuer.getId(), buddy.getId());
+
+        ExecutionException cancelled = assertThrows(ExecutionException.class, () -> CompletableFuture.supplyAsync(
+                () -> engine.transfer(List.of(transaction(issuer, buddy, "10.00")), Money.parse("10.05")))
+                .get(5, TimeUnit.SECONDS));
+        assertThat(cancelled.getCause()).isInstanceOf(PaymentNotAcceptedException.class);
+        engine.ackTimeout = Duration.ofSeconds(5);
+        engine.startWriter();
+        engine.startWriteback();
+        List<Transaction> paid = engine.transfer(List.of(transaction(issuer, buddy, "20.00")), Money.parse("20.10"));
+
+        assertThat(paid.get(0).getIssuer().getBalance()).isEqualTo(Money.parse("79.90"));
+        assertThat(paid.get(0).getPayee().getBalance()).isEqualTo(Money.parse("20.00"));
+    }
+
+    @Test
+    @DisplayName("A payment the database refuses is set aside and the next payments are saved")
+    void writeback_whenCommandRefused_shouldSetItAside() throws Exception {
+        User issuer = createUser("engine-poison-issuer@mail.com", "100.00");
+        User buddy  = createUser("engine-poison-buddy@mail.com", "0.00");
+        User ghost  = new User();
+        ghost.setId(9_999);
+        double deadLetters = meterRegistry.counter("paymybuddy.engine.writeback.dead-letters").count();
+        InMemoryTransferEngine engine = engine("poison", 1 << 16);
+        engine.start();
+        engine.connect(issuer.getId(), buddy.getId());
+        engine.connect(issuer.getId(), ghost.getId());
+
+        // The payee does not exist in database, inserting the transaction fails on its foreign key
+        engine.transfer(List.of(transaction(issuer, ghost, "10.00")), Money.parse("10.05"));
+        Integer transactionId = engine.transfer(List.of(transaction(issuer, buddy, "20.00")),
+                                                Money.parse("20.10")).get(0).getId();
+
+        assertThat(awaitSavedBalance(buddy.getId(), Money.parse("20.00"))).isEqualTo(Money.parse("20.00"));
+        assertThat(transactionRepository.findById(transactionId).isPresent()).isTrue();
+        assertThat(meterRegistry.counter("paymybuddy.engine.writeback.dead-letters").count())
+                .isEqualTo(deadLetters + 1);
+        engine.stop();
+        List<PaymentCommand> setAside = new ArrayList<>();
+        try (PaymentJournal journal = new PaymentJournal(directory.resolve("poison.journal.dead"), 1 << 16)) {
+            journal.replay(setAside::add);
+        }
+        assertThat(setAside.size()).isEqualTo(1);
+        assertThat(setAside.get(0).payeeIds[0]).isEqualTo(9_999);
+    }
+
+    @Test
+    @DisplayName("A second engine refuses to start while the first one holds the lease")
+    void start_whenLeaseHeld_shouldRefuse() throws Exception {
+        InMemoryTransferEngine first  = engine("first", 1 << 16);
+        InMemoryTransferEngine second = engine("second", 1 << 16);
+        first.start();
+
+        assertThrows(IllegalStateException.class, second::start);
+
+        first.stop();
+        second.start();
+        assertThat(engineLeaseRepository.findById(1).orElseThrow().getExpiresAt())
+                .isAfter(LocalDateTime.now());
+    }
+
+    /**
+     * An engine of its own, with a write-back giving up on a batch after its first failure.
+     */
+    private InMemoryTransferEngine engine(String name, int journalSize) {
+        InMemoryTransferEngine engine = new InMemoryTransferEngine();
+        engine.entityManager = entityManager;
+        engine.jdbcTemplate = jdbcTemplate;
+        engine.transactionManager = transactionManager;
+        engine.engineCheckpointRepository = engineCheckpointRepository;
+        engine.engineLeaseRepository = engineLeaseRepository;
+        engine.idSequenceRepository = idSequenceRepository;
+        engine.ledgerService = ledgerService;
+        engine.eventPublisher = eventPublisher;
+        engine.meterRegistry = meterRegistry;
+        engine.clock = Clock.systemDefaultZone();
+        engine.strategy = TransferStrategy.IN_MEMORY;
+        engine.ringSize = 64;
+        engine.batchSize = 16;
+        engine.journalPath = directory.resolve(name + ".journal").toString();
+        engine.journalSize = journalSize;
+        engine.writebackBatchSize = 100;
+        engine.ackTimeout = Duration.ofSeconds(5);
+        engine.writebackMaxAttempts = 1;
+        engine.idBlockSize = 100;
+        engine.leaseDuration = Duration.ofSeconds(30);
+        engines.add(engine);
+        return engine;
+    }
+
+    private Money awaitSavedBalance(Integer userId, Money expected) throws InterruptedException {
+        long  deadline = System.currentTimeMillis() + WRITEBACK_TIMEOUT_MS;
+        Money balance  = userRepository.findById(userId).orElseThrow().getBalance();
+        while (!balance.equals(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            balance = userRepository.findById(userId).orElseThrow().getBalance();
+        }
+        return balance;
+    }
+
+    private static Transaction transaction(User issuer, User payee, String amount) {
+        return new Transaction(null, issuer, payee, LocalDateTime.now(), Money.parse(amount), "Engine");
+    }
+
+    private User createUser(String email, String balance) {
+        return userRepository.save(new User(null, email, "password", "Engine", "Buddy", Money.parse(balance),
+                                            new ArrayList<>(), new ArrayList<>(), new ArrayList<>(),
+                                            new ArrayList<>()));
+    }
+}
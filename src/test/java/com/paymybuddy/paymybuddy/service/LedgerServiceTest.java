@@ -0,0 +1,204 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.config.ClockConfig;
+import com.paymybuddy.paymybuddy.constants.LedgerAccountType;
+import com.paymybuddy.paymybuddy.constants.LedgerEntryKind;
+import com.paymybuddy.paymybuddy.model.*;
+import com.paymybuddy.paymybuddy.model.viewmodel.LedgerViewModel;
+import com.paymybuddy.paymybuddy.repository.LedgerEntryRepository;
+import com.paymybuddy.paymybuddy.repository.LedgerSnapshotRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@Import({LedgerService.class, ClockConfig.class})
+class LedgerServiceTest {
+    /**
+     * Class under test.
+     */
+    @Autowired
+    LedgerService ledgerService;
+
+    @MockBean
+    LedgerEntryRepository      ledgerEntryRepository;
+    @MockBean
+    LedgerSnapshotRepository   ledgerSnapshotRepository;
+    @MockBean
+    JdbcTemplate               jdbcTemplate;
+    @MockBean
+    PlatformTransactionManager transactionManager;
+
+    @Test
+    @DisplayName("A payment writes balanced entries for the issuer, the payee and the fee account")
+    @SuppressWarnings("unchecked")
+    void recordPayments_shouldWrite_balancedPosting() {
+        User        issuer      = user(1);
+        User        payee       = user(2);
+        Transaction transaction = new Transaction(10, issuer, payee, LocalDateTime.now(), Money.parse("100.00"),
+                                                  "Rent");
+
+        ledgerService.recordPayments(List.of(transaction), Money.parse("100.50"));
+
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(anyString(), rows.capture());
+        List<Object[]> entries = rows.getValue();
+        assertThat(entries.size()).isEqualTo(4);
+        assertThat(entries.get(0)[2]).isEqualTo(1);
+        assertThat(entries.get(0)[4]).isEqualTo(new BigDecimal("-100.00"));
+        assertThat(entries.get(1)[2]).isEqualTo(2);
+        assertThat(entries.get(1)[4]).isEqualTo(new BigDecimal("100.00"));
+        assertThat(entries.get(3)[1]).isEqualTo(LedgerAccountType.FEES.name());
+        assertThat(entries.get(3)[4]).isEqualTo(new BigDecimal("0.50"));
+        BigDecimal total = BigDecimal.ZERO;
+        for (Object[] entry : entries) {
+            assertThat(entry[0]).isEqualTo(entries.get(0)[0]);
+            total = total.add((BigDecimal) entry[4]);
+        }
+        assertThat(total.signum()).isZero();
+    }
+
+    @Test
+    @DisplayName("A balance is its snapshot plus the entries written after it")
+    void balanceOf_shouldAdd_entriesSinceSnapshot() {
+        LedgerAccount account = LedgerAccount.ofUser(1);
+        when(ledgerSnapshotRepository.findById(account))
+                .thenReturn(Optional.of(new LedgerSnapshot(account, Money.parse("50.00"), 42, LocalDateTime.now(),
+                                                           0L)));
+        when(jdbcTemplate.queryForObject(anyString(), eq(BigDecimal.class), eq("USER"), eq(1), eq(42L)))
+                .thenReturn(new BigDecimal("-20.50"));
+
+        assertThat(ledgerService.balanceOf(account)).isEqualTo(Money.parse("29.50"));
+    }
+
+    @Test
+    @DisplayName("A debited account without snapshot gets an empty one, locked before its entries are summed")
+    void lockBalance_withoutSnapshot_shouldCreateAndLockOne() {
+        LedgerAccount  account  = LedgerAccount.ofUser(1);
+        LedgerSnapshot snapshot = new LedgerSnapshot(account, Money.ZERO, 0, LocalDateTime.now(), 0L);
+        when(ledgerSnapshotRepository.findByIdForUpdate(account)).thenReturn(Optional.empty())
+                                                                 .thenReturn(Optional.of(snapshot));
+        when(jdbcTemplate.queryForObject(anyString(), eq(BigDecimal.class), eq("USER"), eq(1), eq(0L)))
+                .thenReturn(new BigDecimal("75.00"));
+
+        assertThat(ledgerService.lockBalance(account)).isEqualTo(Money.parse("75.00"));
+        verify(jdbcTemplate).update(startsWith("insert into ledger_snapshot"), eq("USER"), eq(1), any());
+        verify(ledgerSnapshotRepository, times(2)).findByIdForUpdate(account);
+        verify(ledgerSnapshotRepository, never()).findById(account);
+    }
+
+    @Test
+    @DisplayName("The ledger of an account gives its balance and its entries as view models")
+    void getLedger_shouldGive_balanceAndEntries() {
+        LedgerAccount account = LedgerAccount.ofUser(1);
+        when(ledgerSnapshotRepository.findById(account)).thenReturn(Optional.empty());
+        when(jdbcTemplate.queryForObject(anyString(), eq(BigDecimal.class), eq("USER"), eq(1), eq(0L)))
+                .thenReturn(new BigDecimal("12.00"));
+        when(ledgerEntryRepository.findByAccountOrderByIdDesc(eq(account), any())).thenReturn(List.of(
+                new LedgerEntry(7L, "posting", account, LedgerEntryKind.DEPOSIT, Money.parse("12.00"), null,
+                                LocalDateTime.now())));
+
+        LedgerViewModel ledger = ledgerService.getLedger(account, 10);
+
+        assertThat(ledger.getBalance()).isEqualTo(Money.parse("12.00"));
+        assertThat(ledger.getEntries().size()).isEqualTo(1);
+        assertThat(ledger.getEntries().get(0).getKind()).isEqualTo(LedgerEntryKind.DEPOSIT);
+    }
+
+    @Test
+    @DisplayName("Compaction rolls entries up to the last one seen a settle delay ago, into new or existing snapshots")
+    @SuppressWarnings("unchecked")
+    void compact_shouldRoll_settledEntries() throws Exception {
+        LedgerService  compactor = compactor();
+        LedgerAccount  known     = LedgerAccount.ofUser(1);
+        LedgerSnapshot snapshot  = new LedgerSnapshot(known, Money.parse("50.00"), 42, LocalDateTime.now(), 3L);
+        when(ledgerSnapshotRepository.findLastCompactedEntryId()).thenReturn(42L);
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class))).thenReturn(60L, 70L);
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.getString(1)).thenReturn("USER", "FEES");
+        when(resultSet.getInt(2)).thenReturn(1, 0);
+        when(resultSet.getBigDecimal(3)).thenReturn(new BigDecimal("-10.05"), new BigDecimal("0.05"));
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            handler.processRow(resultSet);
+            handler.processRow(resultSet);
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class), eq(42L), eq(60L));
+        when(ledgerSnapshotRepository.findAllById(anyCollection())).thenReturn(List.of(snapshot));
+
+        // Entries up to 60 may still have running transactions below them
+        assertThat(compactor.compact()).isZero();
+        verify(ledgerSnapshotRepository, never()).saveAll(any());
+
+        compactor.clock = Clock.offset(compactor.clock, Duration.ofSeconds(10));
+        assertThat(compactor.compact()).isEqualTo(2);
+
+        ArgumentCaptor<List<LedgerSnapshot>> saved = ArgumentCaptor.forClass(List.class);
+        verify(ledgerSnapshotRepository).saveAll(saved.capture());
+        assertThat(snapshot.getBalance()).isEqualTo(Money.parse("39.95"));
+        assertThat(snapshot.getLastEntryId()).isEqualTo(60);
+        LedgerSnapshot created = saved.getValue().stream()
+                                      .filter(rolled -> rolled.getAccount().equals(LedgerAccount.FEES))
+                                      .findFirst().orElseThrow();
+        assertThat(created.getBalance()).isEqualTo(Money.parse("0.05"));
+        assertThat(created.getVersion()).isNull();
+    }
+
+    @Test
+    @DisplayName("Compaction does nothing when no entry was committed since the last one")
+    void compact_whenNoNewEntry_shouldNotWriteSnapshots() {
+        LedgerService compactor = compactor();
+        when(ledgerSnapshotRepository.findLastCompactedEntryId()).thenReturn(42L);
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class))).thenReturn(42L);
+
+        compactor.compact();
+        compactor.clock = Clock.offset(compactor.clock, Duration.ofSeconds(10));
+
+        assertThat(compactor.compact()).isZero();
+        verify(ledgerSnapshotRepository, never()).saveAll(any());
+    }
+
+    /**
+     * A service of its own, the entries seen by compactions of other tests are not settled by it.
+     */
+    private LedgerService compactor() {
+        LedgerService compactor = new LedgerService();
+        compactor.ledgerEntryRepository = ledgerEntryRepository;
+        compactor.ledgerSnapshotRepository = ledgerSnapshotRepository;
+        compactor.jdbcTemplate = jdbcTemplate;
+        compactor.transactionManager = transactionManager;
+        compactor.clock = Clock.fixed(Instant.parse("2022-07-18T10:00:00Z"), ZoneId.systemDefault());
+        compactor.enabled = true;
+        compactor.settleDelay = Duration.ofSeconds(10);
+        compactor.init();
+        return compactor;
+    }
+
+    private static User user(Integer id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+}
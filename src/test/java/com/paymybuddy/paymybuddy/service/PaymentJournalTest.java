@@ -0,0 +1,152 @@
+package com.paymybuddy.paymybuddy.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+class PaymentJournalTest {
+    private static final int JOURNAL_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Journaled commands are read back after reopening the journal")
+    void replay_shouldRead_appendedCommands() throws Exception {
+        Path journalPath = directory.resolve("payments.journal");
+        try (PaymentJournal journal = new PaymentJournal(journalPath, JOURNAL_SIZE)) {
+            journal.replay(command -> {
+            });
+            assertThat(journal.append(List.of(payment(1, 10), payment(2, 12)))).isTrue();
+            assertThat(journal.append(List.of(payment(3, 14)))).isTrue();
+        }
+
+        List<PaymentCommand> replayed = replay(journalPath);
+
+        assertThat(replayed.size()).isEqualTo(3);
+        PaymentCommand second = replayed.get(1);
+        assertThat(second.sequence).isEqualTo(2);
+        assertThat(second.firstTransactionId).isEqualTo(12);
+        assertThat(second.issuerId).isEqualTo(7);
+        assertThat(second.payeeIds[1]).isEqualTo(9);
+        assertThat(second.amounts[1]).isEqualTo(250);
+        assertThat(second.descriptions[0]).isEqualTo("Caf\u00e9");
+        assertThat(second.descriptions[1]).isNull();
+        assertThat(second.debit).isEqualTo(1_255);
+        assertThat(second.date).isEqualTo(LocalDateTime.of(2022, 7, 18, 10, 0, 0));
+    }
+
+    @Test
+    @DisplayName("The bank account of a withdrawal is journaled with it")
+    void replay_shouldRead_bankAccountOfWithdrawal() throws Exception {
+        Path journalPath = directory.resolve("payments.journal");
+        PaymentCommand withdrawal = new PaymentCommand(PaymentCommand.Type.WITHDRAWAL, 7, new int[0], new long[0],
+                                                       new String[0], 5_000, LocalDateTime.of(2022, 7, 18, 10, 0, 0),
+                                                       null);
+        withdrawal.sequence = 2;
+        withdrawal.bankAccountId = 3;
+        try (PaymentJournal journal = new PaymentJournal(journalPath, JOURNAL_SIZE)) {
+            journal.replay(command -> {
+            });
+            journal.append(List.of(payment(1, 10), withdrawal));
+        }
+
+        List<PaymentCommand> replayed = replay(journalPath);
+
+        assertThat(replayed.size()).isEqualTo(2);
+        assertThat(replayed.get(1).type).isEqualTo(PaymentCommand.Type.WITHDRAWAL);
+        assertThat(replayed.get(1).debit).isEqualTo(5_000);
+        assertThat(replayed.get(1).bankAccountId).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Reading stops at a torn record")
+    void replay_shouldStop_atCorruptedRecord() throws Exception {
+        Path journalPath = directory.resolve("payments.journal");
+        try (PaymentJournal journal = new PaymentJournal(journalPath, JOURNAL_SIZE)) {
+            journal.replay(command -> {
+            });
+            journal.append(List.of(payment(1, 10)));
+            journal.append(List.of(payment(2, 12)));
+        }
+        // Flip the last byte written before the checksum of the second record
+        try (RandomAccessFile file = new RandomAccessFile(journalPath.toFile(), "rw")) {
+            long position = journalPosition(journalPath) - Long.BYTES - 1;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xFF);
+        }
+
+        List<PaymentCommand> replayed = replay(journalPath);
+
+        assertThat(replayed.size()).isEqualTo(1);
+        assertThat(replayed.get(0).sequence).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Records written before a reset are not read again")
+    void replay_afterReset_shouldIgnore_olderRecords() throws Exception {
+        Path journalPath = directory.resolve("payments.journal");
+        try (PaymentJournal journal = new PaymentJournal(journalPath, JOURNAL_SIZE)) {
+            journal.replay(command -> {
+            });
+            journal.append(List.of(payment(1, 10), payment(2, 12), payment(3, 14)));
+            journal.reset();
+            journal.append(List.of(payment(4, 16)));
+        }
+
+        List<PaymentCommand> replayed = replay(journalPath);
+
+        assertThat(replayed.size()).isEqualTo(1);
+        assertThat(replayed.get(0).sequence).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("A batch that does not fit is refused without writing anything")
+    void append_whenFull_shouldReturnFalse() throws Exception {
+        try (PaymentJournal journal = new PaymentJournal(directory.resolve("payments.journal"), 128)) {
+            journal.replay(command -> {
+            });
+            assertThat(journal.append(List.of(payment(1, 10), payment(2, 12)))).isFalse();
+            assertThat(journal.usage()).isZero();
+        }
+    }
+
+    private static List<PaymentCommand> replay(Path journalPath) throws Exception {
+        List<PaymentCommand> replayed = new ArrayList<>();
+        try (PaymentJournal journal = new PaymentJournal(journalPath, JOURNAL_SIZE)) {
+            journal.replay(replayed::add);
+        }
+        return replayed;
+    }
+
+    /**
+     * Position after the last valid record.
+     */
+    private static long journalPosition(Path journalPath) throws Exception {
+        try (PaymentJournal journal = new PaymentJournal(journalPath, JOURNAL_SIZE)) {
+            journal.replay(command -> {
+            });
+            // 16 bytes of header before the records
+            return Math.round(journal.usage() * (JOURNAL_SIZE - 16)) + 16;
+        }
+    }
+
+    private static PaymentCommand payment(long sequence, int firstTransactionId) {
+        PaymentCommand command = new PaymentCommand(PaymentCommand.Type.PAYMENT, 7, new int[]{8, 9},
+                                                    new long[]{1_000, 250}, new String[]{"Caf\u00e9", null}, 1_255,
+                                                    LocalDateTime.of(2022, 7, 18, 10, 0, 0), null);
+        command.sequence = sequence;
+        command.firstTransactionId = firstTransactionId;
+        return command;
+    }
+}
@@ -0,0 +1,121 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+/**
+ * Has several threads pay the same buddy through the in-memory engine. Every payment made in memory must then be
+ * saved in database. The rate is only logged, PaymentThroughputBenchmark compares it with pessimistic locking.
+ */
+@Slf4j
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = "paymybuddy.transfer.strategy=IN_MEMORY")
+class PaymentThroughputBenchmarkIT {
+    private static final Path JOURNAL_PATH        = Path.of(System.getProperty("java.io.tmpdir"),
+                                                            "paymybuddy-" + UUID.randomUUID(), "payments.journal");
+    private static final int  THREADS             = 8;
+    private static final int  PAYMENTS_PER_THREAD = 250;
+    private static final long WRITEBACK_TIMEOUT_MS = 30_000;
+
+    @DynamicPropertySource
+    static void journalPath(DynamicPropertyRegistry registry) {
+        registry.add("paymybuddy.engine.journal-path", JOURNAL_PATH::toString);
+    }
+
+    @Autowired
+    TransactionService     transactionService;
+    @Autowired
+    ConnectionService      connectionService;
+    @Autowired
+    InMemoryTransferEngine inMemoryTransferEngine;
+    @Autowired
+    UserRepository         userRepository;
+
+    @Test
+    @DisplayName("The in-memory engine saves every payment made to a hot buddy")
+    void inMemoryEngine_shouldSaveEveryPayment() throws Exception {
+        List<User> buddies = createBuddies("memory");
+        // Restart the engine so that it loads the users and transactions written meanwhile
+        inMemoryTransferEngine.stop();
+        inMemoryTransferEngine.start();
+        double inMemoryRate = paymentsPerSecond(buddies);
+
+        log.info(String.format("In-memory engine: %,10.0f payments/s", inMemoryRate));
+        Money expected = Money.ofCents(100L * THREADS * PAYMENTS_PER_THREAD);
+        assertThat(awaitSavedBalance(buddies.get(0).getId(), expected)).isEqualTo(expected);
+    }
+
+    /**
+     * Creates one payee and an issuer per thread, connected to the payee.
+     *
+     * @return the payee followed by the issuers
+     */
+    private List<User> createBuddies(String prefix) {
+        List<User> buddies = new ArrayList<>(THREADS + 1);
+        buddies.add(userRepository.save(user(prefix + "-payee@mail.com", Money.ZERO)));
+        for (int i = 0; i < THREADS; i++) {
+            User issuer = userRepository.save(user(prefix + "-issuer" + i + "@mail.com", Money.parse("100000.00")));
+            connectionService.saveConnection(new Connection(null, issuer, buddies.get(0), LocalDateTime.now()));
+            buddies.add(issuer);
+        }
+        return buddies;
+    }
+
+    private double paymentsPerSecond(List<User> buddies) throws Exception {
+        User            payee    = buddies.get(0);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch  start    = new CountDownLatch(1);
+        List<Future<?>> workers  = new ArrayList<>(THREADS);
+        for (User issuer : buddies.subList(1, buddies.size())) {
+            workers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < PAYMENTS_PER_THREAD; i++) {
+                    transactionService.createTransaction(issuer, payee, "benchmark", Money.parse("1.00"));
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        return THREADS * PAYMENTS_PER_THREAD / (elapsed / 1_000_000_000.0);
+    }
+
+    private Money awaitSavedBalance(Integer userId, Money expected) throws InterruptedException {
+        long  deadline = System.currentTimeMillis() + WRITEBACK_TIMEOUT_MS;
+        Money balance  = userRepository.findById(userId).orElseThrow().getBalance();
+        while (!balance.equals(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            balance = userRepository.findById(userId).orElseThrow().getBalance();
+        }
+        return balance;
+    }
+
+    private static User user(String email, Money balance) {
+        return new User(null, email, "password", "Bench", "Buddy", balance, new ArrayList<>(), new ArrayList<>(),
+                        new ArrayList<>(), new ArrayList<>());
+    }
+}
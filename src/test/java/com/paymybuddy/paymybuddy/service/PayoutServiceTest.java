@@ -0,0 +1,218 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paymybuddy.paymybuddy.config.ClockConfig;
+import com.paymybuddy.paymybuddy.constants.PayoutFormat;
+import com.paymybuddy.paymybuddy.constants.PayoutStatus;
+import com.paymybuddy.paymybuddy.exceptions.InsufficientBalanceException;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.PayoutRun;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.PayoutReportViewModel;
+import com.paymybuddy.paymybuddy.repository.PayoutRunRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@Import({PayoutService.class, ObjectMapper.class, ClockConfig.class})
+@TestPropertySource(properties = "paymybuddy.payout.chunk-size=2")
+class PayoutServiceTest {
+    /**
+     * Class under test.
+     */
+    @Autowired
+    PayoutService payoutService;
+
+    @MockBean
+    UserService                userService;
+    @MockBean
+    ConnectionService          connectionService;
+    @MockBean
+    TransferEngine             transferEngine;
+    @MockBean
+    FeeCalculator              feeCalculator;
+    @MockBean
+    PayoutRunRepository        payoutRunRepository;
+    @MockBean
+    PlatformTransactionManager transactionManager;
+
+    private User issuer;
+    private User rachel;
+    private User monica;
+
+    @BeforeEach
+    void init() {
+        issuer = user(1, "payouts@friends.com");
+        rachel = user(2, "greenrachel@friends.com");
+        monica = user(3, "gellermonica@friends.com");
+        when(userService.getUsersByEmails(anyCollection())).thenReturn(List.of(rachel, monica));
+        when(connectionService.getBuddyIdsAmong(eq(issuer), anyCollection())).thenReturn(Set.of(2, 3));
+        when(feeCalculator.totalCents(anyLong())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(payoutRunRepository.save(any(PayoutRun.class))).thenAnswer(invocation -> {
+            PayoutRun run = invocation.getArgument(0);
+            if (run.getId() == null) {
+                run.setId(7);
+            }
+            return run;
+        });
+        when(payoutRunRepository.advance(anyInt(), anyLong(), anyLong(), anyLong(), any(LocalDateTime.class)))
+                .thenReturn(1);
+        when(payoutRunRepository.finish(anyInt(), anyLong(), any(PayoutStatus.class), any(LocalDateTime.class)))
+                .thenReturn(1);
+    }
+
+    @Test
+    @DisplayName("Valid CSV lines are paid and invalid ones are reported with their line number")
+    void pay_csv_shouldReport_invalidLines() throws IOException {
+        String csv = """
+                email,amount,description
+                greenrachel@friends.com,10.00,"Refund, concert"
+                unknown@friends.com,5.00,Refund
+                gellermonica@friends.com,abc,Refund
+                """;
+
+        PayoutReportViewModel report = payoutService.pay(issuer, stream(csv), PayoutFormat.CSV, null);
+
+        assertThat(report.getStatus()).isEqualTo(PayoutStatus.COMPLETED);
+        assertThat(report.getPaymentsMade()).isEqualTo(1);
+        assertThat(report.getTotalPaid()).isEqualTo(Money.parse("10.00"));
+        assertThat(report.getLinesFailed()).isEqualTo(2);
+        assertThat(report.getErrors().get(0).getLine()).isEqualTo(3);
+        assertThat(report.getErrors().get(1).getLine()).isEqualTo(4);
+        verify(transferEngine).transferToMany(argThat(transactions -> transactions.size() == 1
+                                                                      && transactions.get(0).getDescription()
+                                                                                     .equals("Refund, concert")),
+                                              eq(Money.parse("10.00")));
+    }
+
+    @Test
+    @DisplayName("NDJSON lines are paid in chunks with one email lookup per chunk")
+    void pay_ndjson_shouldPay_byChunk() throws IOException {
+        String ndjson = """
+                {"email": "greenrachel@friends.com", "amount": 1.00, "description": "Event payout"}
+                {"email": "gellermonica@friends.com", "amount": 2.00, "description": "Event payout"}
+                {"email": "greenrachel@friends.com", "amount": "3.00", "description": "Event payout"}
+                """;
+
+        PayoutReportViewModel report = payoutService.pay(issuer, stream(ndjson), PayoutFormat.NDJSON, null);
+
+        assertThat(report.getPaymentsMade()).isEqualTo(3);
+        assertThat(report.getRunId()).isEqualTo(7);
+        verify(userService, times(2)).getUsersByEmails(anyCollection());
+        verify(transferEngine, times(2)).transferToMany(anyList(), any(Money.class));
+    }
+
+    @Test
+    @DisplayName("A chunk that can not be paid stops the run, which keeps the lines committed before")
+    void pay_whenChunkFails_shouldStopAfterLastCommittedChunk() throws IOException {
+        when(transferEngine.transferToMany(anyList(), any(Money.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0))
+                .thenThrow(new InsufficientBalanceException("Issuer has insufficient balance to make this transfer."));
+        String csv = """
+                greenrachel@friends.com,1.00,Payout
+                gellermonica@friends.com,1.00,Payout
+                greenrachel@friends.com,1.00,Payout
+                gellermonica@friends.com,1.00,Payout
+                greenrachel@friends.com,1.00,Payout
+                """;
+
+        PayoutReportViewModel report = payoutService.pay(issuer, stream(csv), PayoutFormat.CSV, null);
+
+        assertThat(report.getStatus()).isEqualTo(PayoutStatus.FAILED);
+        assertThat(report.getPaymentsMade()).isEqualTo(2);
+        assertThat(report.getErrors().get(0).getLine()).isEqualTo(3);
+        verify(transferEngine, times(2)).transferToMany(anyList(), any(Money.class));
+    }
+
+    @Test
+    @DisplayName("A resumed run skips the lines committed before")
+    void pay_whenResumed_shouldSkip_committedLines() throws IOException {
+        PayoutRun run = new PayoutRun(7, issuer.getId(), 2, 2, PayoutStatus.FAILED, LocalDateTime.now(),
+                                      LocalDateTime.now());
+        when(payoutRunRepository.claim(eq(7), eq(issuer.getId()), any(LocalDateTime.class),
+                                       any(LocalDateTime.class))).thenReturn(1);
+        when(payoutRunRepository.findById(7)).thenReturn(Optional.of(run));
+        String csv = """
+                greenrachel@friends.com,1.00,Payout
+                gellermonica@friends.com,1.00,Payout
+                greenrachel@friends.com,5.00,Payout
+                """;
+
+        PayoutReportViewModel report = payoutService.pay(issuer, stream(csv), PayoutFormat.CSV, 7);
+
+        assertThat(report.getStatus()).isEqualTo(PayoutStatus.COMPLETED);
+        assertThat(report.getLinesRead()).isEqualTo(1);
+        assertThat(report.getTotalPaid()).isEqualTo(Money.parse("5.00"));
+        assertThat(run.getCommittedLines()).isEqualTo(3);
+        assertThat(run.getPaymentsMade()).isEqualTo(3);
+        verify(payoutRunRepository).advance(7, 2, 3, 1, run.getUpdatedAt());
+    }
+
+    @Test
+    @DisplayName("A run being resumed by another request can not be resumed")
+    void pay_whenRunAlreadyClaimed_shouldPayNothing() {
+        when(payoutRunRepository.claim(eq(7), eq(issuer.getId()), any(LocalDateTime.class),
+                                       any(LocalDateTime.class))).thenReturn(0);
+
+        assertThrows(IllegalArgumentException.class,
+                     () -> payoutService.pay(issuer, stream("greenrachel@friends.com,1.00,Payout\n"),
+                                             PayoutFormat.CSV, 7));
+        verify(transferEngine, never()).transferToMany(anyList(), any(Money.class));
+    }
+
+    @Test
+    @DisplayName("A chunk whose lines were committed by a concurrent resume is rolled back and stops the run")
+    void pay_whenProgressMovedConcurrently_shouldStop() throws IOException {
+        when(payoutRunRepository.advance(anyInt(), anyLong(), anyLong(), anyLong(), any(LocalDateTime.class)))
+                .thenReturn(0);
+
+        PayoutReportViewModel report = payoutService.pay(issuer, stream("greenrachel@friends.com,1.00,Payout\n"),
+                                                         PayoutFormat.CSV, null);
+
+        assertThat(report.getStatus()).isEqualTo(PayoutStatus.FAILED);
+        assertThat(report.getPaymentsMade()).isEqualTo(0);
+        verify(transactionManager).rollback(any());
+    }
+
+    @Test
+    @DisplayName("formatOf guesses NDJSON from the file extension")
+    void formatOf() {
+        assertThat(PayoutService.formatOf("payouts.ndjson")).isEqualTo(PayoutFormat.NDJSON);
+        assertThat(PayoutService.formatOf("payouts.CSV")).isEqualTo(PayoutFormat.CSV);
+        assertThat(PayoutService.formatOf(null)).isEqualTo(PayoutFormat.CSV);
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static User user(Integer id, String email) {
+        User user = new User();
+        user.setId(id);
+        user.setEmail(email);
+        user.setBalance(Money.parse("1000.00"));
+        return user;
+    }
+}
@@ -0,0 +1,126 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.SyncCursor;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.SyncViewModel;
+import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
+import com.paymybuddy.paymybuddy.repository.ConnectionRepository;
+import com.paymybuddy.paymybuddy.repository.TransactionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+@Import({SyncService.class, SimpleMeterRegistry.class})
+@TestPropertySource(properties = {"paymybuddy.sync.max-items=2", "paymybuddy.sync.lookback=1"})
+class SyncServiceTest {
+    /**
+     * Class under test.
+     */
+    @Autowired
+    SyncService syncService;
+
+    @MockBean
+    TransactionRepository transactionRepository;
+    @MockBean
+    ConnectionRepository  connectionRepository;
+
+    private final User monica = user(1, "gellermonica@friends.com");
+    private final User rachel = user(2, "greenrachel@friends.com");
+
+    @Test
+    @DisplayName("Changes of both sides are merged by ID and cut to the maximum")
+    void getChanges_shouldMergeSidesAndMoveCursor() {
+        when(transactionRepository.findIssuedAfterId(eq(monica), eq(0), any()))
+                .thenReturn(List.of(view(1, monica, rachel), view(4, monica, rachel)));
+        when(transactionRepository.findReceivedAfterId(eq(monica), eq(0), any()))
+                .thenReturn(List.of(view(2, rachel, monica), view(3, rachel, monica)));
+
+        SyncViewModel changes = syncService.getChanges(monica, null);
+
+        assertThat(changes.getTransactions().stream().map(TransactionViewModel::getId).toList())
+                .isEqualTo(List.of(1, 2));
+        assertThat(changes.getConnections().isEmpty()).isTrue();
+        assertThat(changes.isHasMore()).isTrue();
+        assertThat(SyncCursor.decode(changes.getCursor())).isEqualTo(new SyncCursor(1, 0, List.of(2), List.of()));
+    }
+
+    @Test
+    @DisplayName("A row committed after a higher ID was received is returned, the rows read again are skipped")
+    void getChanges_withLateCommit_shouldReturnOnlyUnseenRows() {
+        String cursor = new SyncCursor(3, 0, List.of(5), List.of()).encode();
+        when(transactionRepository.findReceivedAfterId(eq(monica), eq(3), any()))
+                .thenReturn(List.of(view(4, rachel, monica), view(5, rachel, monica)));
+
+        SyncViewModel changes = syncService.getChanges(monica, cursor);
+
+        assertThat(changes.getTransactions().stream().map(TransactionViewModel::getId).toList())
+                .isEqualTo(List.of(4));
+        assertThat(changes.isHasMore()).isFalse();
+        assertThat(SyncCursor.decode(changes.getCursor())).isEqualTo(new SyncCursor(4, 0, List.of(5), List.of()));
+    }
+
+    @Test
+    @DisplayName("Waiting for changes answers right away when there are some")
+    void waitForChanges_withChanges_shouldAnswerRightAway() {
+        String cursor = new SyncCursor(3, 0, List.of(), List.of()).encode();
+        when(transactionRepository.findReceivedAfterId(eq(monica), eq(3), any()))
+                .thenReturn(List.of(view(5, rachel, monica)));
+
+        DeferredResult<SyncViewModel> result = syncService.waitForChanges(monica, cursor, Duration.ofSeconds(10));
+
+        assertThat(result.hasResult()).isTrue();
+        SyncViewModel changes = (SyncViewModel) result.getResult();
+        assertThat(changes.getTransactions().size()).isEqualTo(1);
+        assertThat(changes.isHasMore()).isFalse();
+        assertThat(SyncCursor.decode(changes.getCursor())).isEqualTo(new SyncCursor(4, 0, List.of(5), List.of()));
+    }
+
+    @Test
+    @DisplayName("A waiting synchronization is answered once the user has new activity")
+    void waitForChanges_withoutChanges_shouldAnswerWhenNotified() throws Exception {
+        DeferredResult<SyncViewModel> result = syncService.waitForChanges(monica, null, Duration.ofSeconds(10));
+        assertThat(result.hasResult()).isFalse();
+
+        when(transactionRepository.findIssuedAfterId(eq(monica), eq(0), any()))
+                .thenReturn(List.of(view(6, monica, rachel)));
+        syncService.notifyUsers(List.of(rachel.getId(), monica.getId()));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!result.hasResult() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(result.hasResult()).isTrue();
+        assertThat(((SyncViewModel) result.getResult()).getTransactions().get(0).getId()).isEqualTo(6);
+    }
+
+    private static TransactionViewModel view(Integer id, User issuer, User payee) {
+        return TransactionService.transactionToViewModel(new Transaction(id, issuer, payee,
+                                                                         LocalDateTime.of(2022, 7, 18, 10, 0, 0),
+                                                                         Money.parse("1.00"), "Coffee"));
+    }
+
+    private static User user(Integer id, String email) {
+        return new User(id, email, "password", "First", "Last", Money.parse("100.00"), new ArrayList<>(),
+                        new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+}
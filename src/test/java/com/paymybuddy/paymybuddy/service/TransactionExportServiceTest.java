@@ -0,0 +1,90 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paymybuddy.paymybuddy.constants.ExportFormat;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.UserActivityRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+@Import({TransactionExportService.class, LineStreamWriter.class, ObjectMapper.class})
+class TransactionExportServiceTest {
+    /**
+     * Class under test.
+     */
+    @Autowired
+    TransactionExportService transactionExportService;
+
+    @MockBean
+    UserActivityRepository     userActivityRepository;
+    @MockBean
+    PlatformTransactionManager transactionManager;
+
+    private User monica;
+    private User rachel;
+
+    @BeforeEach
+    void init() {
+        monica = user(1, "gellermonica@friends.com");
+        rachel = user(2, "greenrachel@friends.com");
+        LocalDateTime date = LocalDateTime.of(2022, 7, 18, 10, 0, 0);
+        when(userActivityRepository.streamTransactions(monica.getId())).thenReturn(Stream.of(
+                TransactionService.transactionToViewModel(new Transaction(1, monica, rachel, date,
+                                                                          Money.parse("12.50"), "Rent, July")),
+                TransactionService.transactionToViewModel(new Transaction(2, rachel, monica, date.plusDays(1),
+                                                                          Money.parse("3.00"), "=1+1"))));
+    }
+
+    @Test
+    @DisplayName("CSV export has a header, quotes commas and neutralizes formulas")
+    void export_asCsv_shouldWriteOneLinePerTransaction() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        long rows = transactionExportService.export(monica, ExportFormat.CSV, output);
+
+        assertThat(rows).isEqualTo(2);
+        assertThat(output.toString(StandardCharsets.UTF_8)).isEqualTo(
+                "id,date,issuer,payee,amount,description\n" +
+                "1,2022-07-18T10:00:00,gellermonica@friends.com,greenrachel@friends.com,12.50,\"Rent, July\"\n" +
+                "2,2022-07-19T10:00:00,greenrachel@friends.com,gellermonica@friends.com,3.00,'=1+1\n");
+    }
+
+    @Test
+    @DisplayName("NDJSON export writes one JSON object per line")
+    void export_asNdjson_shouldWriteOneObjectPerLine() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        transactionExportService.export(monica, ExportFormat.NDJSON, output);
+
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines.length).isEqualTo(2);
+        assertThat(lines[0]).isEqualTo("{\"id\":1,\"date\":\"2022-07-18T10:00:00\"," +
+                                       "\"issuer\":\"gellermonica@friends.com\"," +
+                                       "\"payee\":\"greenrachel@friends.com\",\"amount\":12.50," +
+                                       "\"description\":\"Rent, July\"}");
+    }
+
+    private static User user(Integer id, String email) {
+        return new User(id, email, "password", "First", "Last", Money.parse("100.00"), new ArrayList<>(),
+                        new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+}
@@ -0,0 +1,159 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
+import com.paymybuddy.paymybuddy.repository.TransactionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@Import({TransactionSearchService.class, SimpleMeterRegistry.class})
+class TransactionSearchServiceTest {
+    /**
+     * Class under test.
+     */
+    @Autowired
+    TransactionSearchService transactionSearchService;
+
+    @MockBean
+    TransactionRepository transactionRepository;
+    @MockBean
+    JdbcTemplate          jdbcTemplate;
+
+    private final User monica = user(1, "gellermonica@friends.com");
+    private final User rachel = user(2, "greenrachel@friends.com");
+    private final User ross   = user(3, "gellerross@friends.com");
+
+    private final List<Transaction> transactions = List.of(
+            transaction(1, monica, rachel, LocalDateTime.of(2022, 7, 1, 10, 0), "5.00", "Coffee at Central Perk"),
+            transaction(2, rachel, monica, LocalDateTime.of(2022, 7, 2, 10, 0), "40.00", "Thanksgiving dinner"),
+            transaction(3, monica, rachel, LocalDateTime.of(2022, 7, 3, 10, 0), "6.50", "Central Perk muffins"),
+            transaction(4, ross, monica, LocalDateTime.of(2022, 7, 4, 10, 0), "12.00", "Café crème"),
+            transaction(5, ross, rachel, LocalDateTime.of(2022, 7, 5, 10, 0), "7.00", "Coffee"));
+
+    @BeforeEach
+    void index() {
+        Map<Integer, TransactionViewModel> views = transactions.stream().collect(Collectors.toMap(
+                Transaction::getId, TransactionService::transactionToViewModel));
+        when(transactionRepository.findViewsByIds(anyCollection())).thenAnswer(invocation -> {
+            Collection<Integer> ids = invocation.getArgument(0);
+            return ids.stream().map(views::get).toList();
+        });
+        transactionSearchService.rebuild();
+        transactionSearchService.index(transactions);
+    }
+
+    @Test
+    @DisplayName("Every word of the query must be in the description, whatever its case and accents")
+    void search_shouldMatchAllWords() {
+        assertThat(ids(transactionSearchService.search(monica, "central PERK", null, null, null, null, 20)))
+                .isEqualTo(List.of(3, 1));
+        assertThat(ids(transactionSearchService.search(monica, "cafe", null, null, null, null, 20)))
+                .isEqualTo(List.of(4));
+        assertThat(ids(transactionSearchService.search(monica, "coffee dinner", null, null, null, null, 20)))
+                .isEqualTo(List.of());
+    }
+
+    @Test
+    @DisplayName("Only transactions of the user are searched")
+    void search_shouldOnlyMatchTransactionsOfUser() {
+        assertThat(ids(transactionSearchService.search(monica, "coffee", null, null, null, null, 20)))
+                .isEqualTo(List.of(1));
+        assertThat(ids(transactionSearchService.search(rachel, "coffee", null, null, null, null, 20)))
+                .isEqualTo(List.of(5, 1));
+    }
+
+    @Test
+    @DisplayName("Amount and date filters apply on top of the words, and the limit keeps the newest")
+    void search_shouldFilterAndLimit() {
+        assertThat(ids(transactionSearchService.search(monica, null, Money.parse("6.00"), Money.parse("40.00"),
+                                                       null, null, 20)))
+                .isEqualTo(List.of(4, 3, 2));
+        assertThat(ids(transactionSearchService.search(monica, "", null, null, LocalDate.of(2022, 7, 2),
+                                                       LocalDate.of(2022, 7, 3), 20)))
+                .isEqualTo(List.of(3, 2));
+        assertThat(ids(transactionSearchService.search(monica, null, null, null, null, null, 2)))
+                .isEqualTo(List.of(4, 3));
+    }
+
+    @Test
+    @DisplayName("A transaction indexed twice is found once")
+    void index_twice_shouldNotDuplicate() {
+        transactionSearchService.index(transactions);
+
+        assertThat(ids(transactionSearchService.search(rachel, "coffee", null, null, null, null, 20)))
+                .isEqualTo(List.of(5, 1));
+    }
+
+    @Test
+    @DisplayName("A rebuild indexes the rows of the transaction table as they are read, for both users")
+    void rebuild_shouldIndexTableRows() {
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (Transaction transaction : transactions) {
+                handler.processRow(row(transaction));
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class), eq(0));
+
+        assertThat(transactionSearchService.rebuild()).isEqualTo(5);
+
+        assertThat(ids(transactionSearchService.search(rachel, "coffee", null, null, null, null, 20)))
+                .isEqualTo(List.of(5, 1));
+        assertThat(ids(transactionSearchService.search(ross, null, null, null, null, null, 20)))
+                .isEqualTo(List.of(5, 4));
+        assertThat(transactionSearchService.refresh()).isEqualTo(0);
+    }
+
+    private static ResultSet row(Transaction transaction) throws SQLException {
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.getInt(1)).thenReturn(transaction.getId());
+        when(resultSet.getInt(2)).thenReturn(transaction.getIssuer().getId());
+        when(resultSet.getInt(3)).thenReturn(transaction.getPayee().getId());
+        when(resultSet.getTimestamp(4)).thenReturn(Timestamp.valueOf(transaction.getDate()));
+        when(resultSet.getBigDecimal(5)).thenReturn(new BigDecimal(transaction.getAmount().toString()));
+        when(resultSet.getString(6)).thenReturn(transaction.getDescription());
+        return resultSet;
+    }
+
+    private static List<Integer> ids(List<TransactionViewModel> transactions) {
+        return transactions.stream().map(TransactionViewModel::getId).toList();
+    }
+
+    private static Transaction transaction(Integer id, User issuer, User payee, LocalDateTime date, String amount,
+                                           String description) {
+        return new Transaction(id, issuer, payee, date, Money.parse(amount), description);
+    }
+
+    private static User user(Integer id, String email) {
+        return new User(id, email, "password", "First", "Last", Money.parse("100.00"), new ArrayList<>(),
+                        new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+}
@@ -1,36 +1,47 @@
 package com.paymybuddy.paymybuddy.service;
 
-import com.paymybuddy.paymybuddy.constants.Fee;
+import com.paymybuddy.paymybuddy.exceptions.BuddyNotFoundException;
 import com.paymybuddy.paymybuddy.exceptions.InsufficientBalanceException;
 import com.paymybuddy.paymybuddy.exceptions.InvalidAmountException;
 import com.paymybuddy.paymybuddy.exceptions.InvalidPayeeException;
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.TransactionCursor;
 import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.PaymentShareViewModel;
 import com.paymybuddy.paymybuddy.model.viewmodel.TransactionViewModel;
 import com.paymybuddy.paymybuddy.repository.TransactionRepository;
+import com.paymybuddy.paymybuddy.repository.UserActivityRepository;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(SpringExtension.class)
-@Import(TransactionService.class)
+@Import({TransactionService.class, FeeCalculator.class})
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class TransactionServiceTest {
     /**
@@ -40,7 +51,9 @@ class TransactionServiceTest {
     TransactionService transactionService;
 
     @MockBean
-    TransactionRepository transactionRepository;
+    TransactionRepository  transactionRepository;
+    @MockBean
+    UserActivityRepository userActivityRepository;
 
     @MockBean
     ConnectionService connectionService;
@@ -48,6 +61,10 @@ class TransactionServiceTest {
     UserService       userService;
     @MockBean
     PaginationService paginationService;
+    @MockBean
+    TransferEngine    transferEngine;
+    @MockBean
+    HotAccountService hotAccountService;
 
     @MockBean
     Clock clock;
@@ -57,7 +74,7 @@ class TransactionServiceTest {
 
     private User        issuer;
     private User        payee;
-    private double      amount;
+    private Money       amount;
     private Transaction transaction;
 
     @BeforeAll
@@ -68,7 +85,7 @@ class TransactionServiceTest {
         issuer.setLastName("Bing");
         issuer.setPassword("CouldIBeAnyMoreBored");
         issuer.setEmail("bingchandler@friends.com");
-        issuer.setBalance(new BigDecimal(500));
+        issuer.setBalance(Money.parse("500.00"));
 
         payee = new User();
         payee.setId(2);
@@ -76,9 +93,9 @@ class TransactionServiceTest {
         payee.setLastName("Tribbiani");
         payee.setPassword("HowUDoin");
         payee.setEmail("tribbianijoey@friends.com");
-        payee.setBalance(new BigDecimal(0));
+        payee.setBalance(Money.ZERO);
 
-        transaction = new Transaction(1, issuer, payee, LOCAL_DATE_NOW, new BigDecimal("20"), "transaction test.");
+        transaction = new Transaction(1, issuer, payee, LOCAL_DATE_NOW, Money.parse("20.00"), "transaction test.");
 
     }
 
@@ -89,12 +106,16 @@ class TransactionServiceTest {
                                        ZoneId.systemDefault());
         when(clock.instant()).thenReturn(fixedClock.instant());
         when(clock.getZone()).thenReturn(fixedClock.getZone());
+        when(transferEngine.transfer(any(Transaction.class), any(Money.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        when(transferEngine.transferToMany(anyList(), any(Money.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
     }
 
     @Test
     @DisplayName("Transaction with negative amount should throw exception")
     void createTransaction_whenAmount_isNegative() {
-        amount = -50;
+        amount = Money.parse("-50");
         assertThrows(InvalidAmountException.class,
                      () -> transactionService.createTransaction(issuer,
                                                                 payee,
@@ -109,7 +130,7 @@ class TransactionServiceTest {
                      () -> transactionService.createTransaction(null,
                                                                 payee,
                                                                 "null issuer",
-                                                                30));
+                                                                Money.parse("30")));
     }
 
     @Test
@@ -119,13 +140,13 @@ class TransactionServiceTest {
                      () -> transactionService.createTransaction(issuer,
                                                                 null,
                                                                 "null payee",
-                                                                30));
+                                                                Money.parse("30")));
     }
 
     @Test
     @DisplayName("Transaction with amount equal to zero should throw exception")
     void createTransaction_whenAmount_isZero() {
-        amount = 0;
+        amount = Money.ZERO;
         assertThrows(InvalidAmountException.class,
                      () -> transactionService.createTransaction(issuer,
                                                                 payee,
@@ -136,7 +157,7 @@ class TransactionServiceTest {
     @Test
     @DisplayName("Exception should be thrown when issuer does not have sufficient balance")
     void createTransaction_whenIssuer_isPoor() {
-        amount = 1000;
+        amount = Money.parse("1000");
         assertThrows(InsufficientBalanceException.class,
                      () -> transactionService.createTransaction(issuer,
                                                                 payee,
@@ -147,9 +168,8 @@ class TransactionServiceTest {
     @Test
     @DisplayName("The payee should be one of issuer's buddies")
     void createTransaction_whenPayee_notInIssuersBuddies() {
-        amount = 50;
-        when(connectionService.getUserConnections(any(User.class)))
-                .thenReturn(Collections.emptyList());
+        amount = Money.parse("50");
+        when(connectionService.areBuddies(any(User.class), any(User.class))).thenReturn(false);
         assertThrows(InvalidPayeeException.class,
                      () -> transactionService.createTransaction(issuer,
                                                                 payee,
@@ -158,47 +178,43 @@ class TransactionServiceTest {
     }
 
     @Test
-    @DisplayName("Issuer's balance is withdrawn with correct fee after transaction")
-    void createTransaction_shouldUpdate_issuersBalance() {
-        amount = 100;
-        BigDecimal issuersBalanceBefore = issuer.getBalance();
-        double     fee                  = amount * Fee.TRANSACTION_FEE;
-        BigDecimal totalAmount = new BigDecimal(Double.toString(amount + fee)).setScale(Fee.SCALE,
-                                                                                        RoundingMode.HALF_UP);
-        when(connectionService.getUserConnections(issuer))
-                .thenReturn(List.of(UserService.userToViewModel(payee)));
+    @DisplayName("Issuer is debited with correct fee by the transfer engine")
+    void createTransaction_shouldDebit_issuerWithFee() {
+        amount = Money.parse("100");
+        Money totalAmount = Money.parse("100.50");
+        when(connectionService.areBuddies(issuer, payee)).thenReturn(true);
 
         transactionService.createTransaction(issuer,
                                              payee,
                                              "issuer's balance check",
                                              amount);
 
-        assertThat(issuer.getBalance()).isEqualTo(issuersBalanceBefore.subtract(totalAmount));
+        verify(transferEngine).transfer(any(Transaction.class), eq(totalAmount));
     }
 
     @Test
-    @DisplayName("Payee's balance is updated after transaction")
-    void createTransaction_shouldUpdate_payeesBalance() {
-        amount = 100;
-        BigDecimal payeesBalanceBefore = payee.getBalance();
-        when(connectionService.getUserConnections(issuer))
-                .thenReturn(List.of(UserService.userToViewModel(payee)));
+    @DisplayName("Payee is credited with the transaction amount by the transfer engine")
+    void createTransaction_shouldCredit_payee() {
+        amount = Money.parse("100");
+        when(connectionService.areBuddies(issuer, payee)).thenReturn(true);
+        ArgumentCaptor<Transaction> transactionCaptor = ArgumentCaptor.forClass(Transaction.class);
 
         transactionService.createTransaction(issuer,
                                              payee,
                                              "payee's balance check",
                                              amount);
 
-        assertThat(payee.getBalance()).isEqualTo(payeesBalanceBefore.add(new BigDecimal(amount).setScale(Fee.SCALE,
-                                                                                                         RoundingMode.HALF_UP)));
+        verify(transferEngine).transfer(transactionCaptor.capture(), any(Money.class));
+        assertThat(transactionCaptor.getValue().getPayee()).isEqualTo(payee);
+        assertThat(transactionCaptor.getValue().getAmount())
+                .isEqualTo(Money.parse("100.00"));
     }
 
     @Test
     @DisplayName("Transaction is registered in both issuer and payee's transaction list.")
     void createTransaction_shouldUpdate_issuerAndPayeesTransactionList() {
-        when(connectionService.getUserConnections(issuer))
-                .thenReturn(List.of(UserService.userToViewModel(payee)));
-        amount = 100;
+        when(connectionService.areBuddies(issuer, payee)).thenReturn(true);
+        amount = Money.parse("100");
 
         transactionService.createTransaction(issuer,
                                              payee,
@@ -210,16 +226,115 @@ class TransactionServiceTest {
         assertThat(payee.getReceivedTransactions()).isNotNull();
     }
 
+    @Test
+    @DisplayName("Split payment debits the issuer once with the fee of every transaction")
+    void createSplitTransaction_shouldDebit_totalWithFees() {
+        User otherPayee = new User();
+        otherPayee.setId(3);
+        otherPayee.setEmail("gellerross@friends.com");
+        otherPayee.setBalance(Money.ZERO);
+        when(userService.getUsersByEmails(anyList())).thenReturn(List.of(payee, otherPayee));
+        when(connectionService.getBuddyIdsAmong(eq(issuer), anyList())).thenReturn(Set.of(2, 3));
+
+        List<Transaction> transactions = transactionService.createSplitTransaction(
+                issuer, "split test", List.of(new PaymentShareViewModel(payee.getEmail(), Money.parse("10.00")),
+                                              new PaymentShareViewModel(otherPayee.getEmail(), Money.parse("20.00"))));
+
+        verify(transferEngine).transferToMany(anyList(), eq(Money.parse("30.15")));
+        assertThat(transactions.size()).isEqualTo(2);
+        assertThat(transactions.get(1).getPayee()).isEqualTo(otherPayee);
+    }
+
+    @Test
+    @DisplayName("Split payment to someone who is not a buddy should throw exception")
+    void createSplitTransaction_whenPayee_notInIssuersBuddies() {
+        when(userService.getUsersByEmails(anyList())).thenReturn(List.of(payee));
+        when(connectionService.getBuddyIdsAmong(eq(issuer), anyList())).thenReturn(Collections.emptySet());
+
+        assertThrows(InvalidPayeeException.class,
+                     () -> transactionService.createSplitTransaction(
+                             issuer, "not a buddy", List.of(new PaymentShareViewModel(payee.getEmail(),
+                                                                                      Money.parse("10.00")))));
+    }
+
+    @Test
+    @DisplayName("Split payment to an unknown email should throw exception")
+    void createSplitTransaction_whenPayee_doesNotExist() {
+        when(userService.getUsersByEmails(anyList())).thenReturn(Collections.emptyList());
+
+        assertThrows(BuddyNotFoundException.class,
+                     () -> transactionService.createSplitTransaction(
+                             issuer, "unknown", List.of(new PaymentShareViewModel("nobody@friends.com",
+                                                                                  Money.parse("10.00")))));
+    }
+
+    @Test
+    @DisplayName("splitEqually gives the cents that can not be split to the first buddies")
+    void splitEqually() {
+        List<PaymentShareViewModel> shares = TransactionService.splitEqually(Money.parse("10.00"),
+                                                                             List.of("a@mail.com", "b@mail.com",
+                                                                                     "c@mail.com"));
+
+        assertThat(shares.get(0).getAmount()).isEqualTo(Money.parse("3.34"));
+        assertThat(shares.get(1).getAmount()).isEqualTo(Money.parse("3.33"));
+        assertThat(shares.get(2).getAmount()).isEqualTo(Money.parse("3.33"));
+    }
+
     @Test
     @DisplayName("getUserTransactions should return a connection")
     void getUserTransactions() {
-        when(transactionRepository.findByIssuerOrPayee(issuer, issuer)).thenReturn(List.of(transaction));
+        when(userActivityRepository.findTransactions(issuer.getId()))
+                .thenReturn(List.of(TransactionService.transactionToViewModel(transaction)));
         when(userService.getUserById(issuer.getId())).thenReturn(Optional.of(issuer));
         List<TransactionViewModel> result = transactionService.getUserTransactions(issuer.getId());
 
         assertTrue(result.contains(TransactionService.transactionToViewModel(transaction)));
     }
 
+    @Test
+    @DisplayName("A page is read from the activity feed and only counted when it is not the last one")
+    void getPaginatedUserTransactions_shouldRead_activityFeed() {
+        TransactionViewModel oldest = view(3, issuer, payee, LOCAL_DATE_NOW.minusDays(2));
+        when(userService.getUserById(issuer.getId())).thenReturn(Optional.of(issuer));
+        when(userActivityRepository.findLatestTransactions(issuer.getId(), PageRequest.of(1, 2)))
+                .thenReturn(List.of(oldest));
+
+        Page<TransactionViewModel> result = transactionService.getPaginatedUserTransactions(PageRequest.of(1, 2),
+                                                                                           issuer.getId());
+
+        // Last page is not full, so the total is known without counting
+        assertThat(result.getContent().size()).isEqualTo(1);
+        assertThat(result.getContent().get(0).getId()).isEqualTo(3);
+        assertThat(result.getTotalElements()).isEqualTo(3);
+        verify(userActivityRepository, never()).countTransactions(any());
+    }
+
+    @Test
+    @DisplayName("A cursor reads the transactions that come after it and gives the cursor of the next slice")
+    void getUserTransactionsAfter_shouldContinue_fromCursor() {
+        TransactionViewModel sameDate = view(6, issuer, payee, LOCAL_DATE_NOW);
+        TransactionViewModel older    = view(7, payee, issuer, LOCAL_DATE_NOW.minusDays(1));
+        String               cursor   = TransactionCursor.after(LOCAL_DATE_NOW, 9).encode();
+        when(userService.getUserById(issuer.getId())).thenReturn(Optional.of(issuer));
+        when(userActivityRepository.findTransactionsBefore(issuer.getId(), LOCAL_DATE_NOW, 9, PageRequest.of(0, 2)))
+                .thenReturn(List.of(sameDate, older));
+
+        Slice<TransactionViewModel> result = transactionService.getUserTransactionsAfter(issuer.getId(), cursor, 1);
+
+        assertThat(result.getContent().get(0).getId()).isEqualTo(6);
+        assertThat(result.hasNext()).isTrue();
+        assertThat(TransactionCursor.decode(TransactionService.nextCursor(result)))
+                .isEqualTo(TransactionCursor.after(LOCAL_DATE_NOW, 6));
+    }
+
+    @Test
+    @DisplayName("A cursor that was not produced by the application is rejected")
+    void getUserTransactionsAfter_whenCursorIsInvalid_shouldThrowException() {
+        when(userService.getUserById(issuer.getId())).thenReturn(Optional.of(issuer));
+        assertThrows(IllegalArgumentException.class,
+                     () -> transactionService.getUserTransactionsAfter(issuer.getId(), "not-a-cursor", 3));
+    }
+
     @Test
     @DisplayName("Id should not be null when calling getTransactionById")
     void getTransactionById_whenIDIsNull_shouldThrowException() {
@@ -247,8 +362,8 @@ class TransactionServiceTest {
         assertTrue(result.getDescription().equalsIgnoreCase(transaction.getDescription()));
     }
 
-    // TODO unit test for "calculateAmountWithFee()"
-	@Test
-	void calculateAmountWithFee() {
-	}
-}
\ No newline at end of file
+    private static TransactionViewModel view(Integer id, User issuer, User payee, LocalDateTime date) {
+        return TransactionService.transactionToViewModel(new Transaction(id, issuer, payee, date,
+                                                                         Money.parse("1.00"), "view"));
+    }
+}
@@ -0,0 +1,111 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+/**
+ * Runs createTransaction while the issuer's history grows from 10 to 100 000 transactions.
+ * The write path must not load the history. Latencies are only logged, TransactionWriteBenchmark measures them.
+ */
+@Slf4j
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class TransactionWriteBenchmarkIT {
+    private static final int[] HISTORY_SIZES     = {10, 1_000, 10_000, 100_000};
+    private static final int   WARMUP_PAYMENTS   = 50;
+    private static final int   MEASURED_PAYMENTS = 200;
+    private static final int   SEED_BATCH_SIZE   = 5_000;
+
+    @Autowired
+    TransactionService   transactionService;
+    @Autowired
+    ConnectionService    connectionService;
+    @Autowired
+    UserRepository       userRepository;
+    @Autowired
+    JdbcTemplate         jdbcTemplate;
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    private User issuer;
+    private User payee;
+
+    @BeforeAll
+    void initUsers() {
+        issuer = userRepository.save(new User(null, "bench-issuer@mail.com", "password", "Bench", "Issuer",
+                                              Money.parse("10000000.00"), new ArrayList<>(), new ArrayList<>(),
+                                              new ArrayList<>(), new ArrayList<>()));
+        payee = userRepository.save(new User(null, "bench-payee@mail.com", "password", "Bench", "Payee",
+                                             Money.ZERO, new ArrayList<>(), new ArrayList<>(),
+                                             new ArrayList<>(), new ArrayList<>()));
+        connectionService.saveConnection(new Connection(null, issuer, payee, LocalDateTime.now()));
+    }
+
+    @Test
+    @DisplayName("createTransaction loads no payment history from 10 to 100k prior transactions")
+    void createTransaction_shouldNotLoadHistory() {
+        Statistics           statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        Map<Integer, Double> meanMicros = new LinkedHashMap<>();
+        int                  seeded     = 0;
+
+        for (int historySize : HISTORY_SIZES) {
+            seedHistory(historySize - seeded);
+            seeded = historySize;
+            for (int i = 0; i < WARMUP_PAYMENTS; i++) {
+                pay();
+            }
+            statistics.clear();
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_PAYMENTS; i++) {
+                pay();
+            }
+            meanMicros.put(historySize, (System.nanoTime() - start) / 1_000.0 / MEASURED_PAYMENTS);
+            // No payment history may be loaded to write a single transaction
+            assertThat(statistics.getCollectionLoadCount()).isZero();
+        }
+
+        meanMicros.forEach((historySize, micros) ->
+                                   log.info(String.format("%,9d prior transactions: %8.1f µs per payment",
+                                                          historySize, micros)));
+    }
+
+    private void pay() {
+        transactionService.createTransaction(issuer, payee, "benchmark", Money.parse("1.00"));
+    }
+
+    private void seedHistory(int count) {
+        Timestamp      date  = Timestamp.valueOf(LocalDateTime.of(2022, 7, 18, 10, 0, 0));
+        List<Object[]> batch = new ArrayList<>(SEED_BATCH_SIZE);
+        for (int i = 0; i < count; i++) {
+            batch.add(new Object[]{issuer.getId(), payee.getId(), date, new BigDecimal("1.00"), "history"});
+            if (batch.size() == SEED_BATCH_SIZE || i == count - 1) {
+                jdbcTemplate.batchUpdate("insert into transaction (fk_issuer_id, fk_payee_id, date, amount, " +
+                                         "description) values (?, ?, ?, ?, ?)", batch);
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.constants.TransferStrategy;
+import com.paymybuddy.paymybuddy.event.PaymentCompleted;
+import com.paymybuddy.paymybuddy.exceptions.InsufficientBalanceException;
+import com.paymybuddy.paymybuddy.model.LedgerAccount;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.repository.TransactionRepository;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.collection.internal.PersistentBag;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.TypedQuery;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@Import({TransferEngine.class, SimpleMeterRegistry.class})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@RecordApplicationEvents
+class TransferEngineTest {
+    /**
+     * Class under test.
+     */
+    @Autowired
+    TransferEngine transferEngine;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    ApplicationEvents applicationEvents;
+
+    @MockBean
+    EntityManager              entityManager;
+    @MockBean
+    UserRepository             userRepository;
+    @MockBean
+    TransactionRepository      transactionRepository;
+    @MockBean
+    PlatformTransactionManager transactionManager;
+    @MockBean
+    JdbcTemplate               jdbcTemplate;
+    @MockBean
+    InMemoryTransferEngine     inMemoryTransferEngine;
+    @MockBean
+    HotAccountService          hotAccountService;
+    @MockBean
+    LedgerService              ledgerService;
+
+    private User issuer;
+    private User payee;
+
+    @BeforeEach
+    void initUsers() {
+        // issuer has the highest ID so that lock ordering is visible
+        issuer = user(2, "500.00");
+        payee = user(1, "0.00");
+        ReflectionTestUtils.setField(transferEngine, "backoffMillis", 0L);
+        when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @AfterEach
+    void resetStrategy() {
+        ReflectionTestUtils.setField(transferEngine, "strategy", TransferStrategy.PESSIMISTIC);
+    }
+
+    @Test
+    @DisplayName("Pessimistic transfer locks the lowest user ID first and moves both balances")
+    void transfer_pessimistic_locksLowestIdFirst() {
+        when(entityManager.find(User.class, 1, LockModeType.PESSIMISTIC_WRITE)).thenReturn(payee);
+        when(entityManager.find(User.class, 2, LockModeType.PESSIMISTIC_WRITE)).thenReturn(issuer);
+
+        Transaction saved = transferEngine.transfer(transaction("100.00"), Money.parse("100.50"));
+
+        InOrder lockOrder = inOrder(entityManager);
+        lockOrder.verify(entityManager).find(User.class, 1, LockModeType.PESSIMISTIC_WRITE);
+        lockOrder.verify(entityManager).find(User.class, 2, LockModeType.PESSIMISTIC_WRITE);
+        assertThat(saved.getIssuer().getBalance()).isEqualTo(Money.parse("399.50"));
+        assertThat(saved.getPayee().getBalance()).isEqualTo(Money.parse("100.00"));
+        assertTrue(applicationEvents.stream(PaymentCompleted.class)
+                                    .anyMatch(event -> event.transactions().equals(List.of(saved)) &&
+                                                       event.debit().equals(Money.parse("100.50"))));
+    }
+
+    @Test
+    @DisplayName("In-memory strategy hands the payment to the in-memory engine without touching the database")
+    void transfer_inMemory_delegatesToInMemoryEngine() {
+        ReflectionTestUtils.setField(transferEngine, "strategy", TransferStrategy.IN_MEMORY);
+        Transaction transaction = transaction("100.00");
+        when(inMemoryTransferEngine.transfer(List.of(transaction), Money.parse("100.50")))
+                .thenReturn(List.of(transaction));
+
+        assertThat(transferEngine.transfer(transaction, Money.parse("100.50"))).isEqualTo(transaction);
+        verify(transactionManager, never()).getTransaction(any());
+        assertThat(applicationEvents.stream(PaymentCompleted.class).count()).isEqualTo(0L);
+    }
+
+    @Test
+    @DisplayName("A hot payee is credited on a stripe without locking its row")
+    void transfer_toHotPayee_shouldCreditStripe() {
+        when(hotAccountService.isHot(1)).thenReturn(true);
+        when(hotAccountService.creditStripe(1, Money.parse("100.00"))).thenReturn(true);
+        when(entityManager.find(User.class, 2, LockModeType.PESSIMISTIC_WRITE)).thenReturn(issuer);
+        when(entityManager.find(User.class, 1, LockModeType.NONE)).thenReturn(payee);
+
+        Transaction saved = transferEngine.transfer(transaction("100.00"), Money.parse("100.50"));
+
+        verify(entityManager, never()).find(User.class, 1, LockModeType.PESSIMISTIC_WRITE);
+        assertThat(saved.getIssuer().getBalance()).isEqualTo(Money.parse("399.50"));
+        assertThat(saved.getPayee().getBalance()).isEqualTo(Money.parse("0.00"));
+        verify(hotAccountService).recordLockWait(eq(2), anyLong());
+    }
+
+    @Test
+    @DisplayName("Stripes of a hot issuer are folded when its row balance does not cover the payment")
+    void transfer_fromHotIssuer_shouldFoldStripes() {
+        issuer.setBalance(Money.parse("10.00"));
+        when(hotAccountService.isHot(2)).thenReturn(true);
+        when(hotAccountService.drainStripes(2)).thenReturn(Money.parse("95.00"));
+        when(entityManager.find(User.class, 1, LockModeType.PESSIMISTIC_WRITE)).thenReturn(payee);
+        when(entityManager.find(User.class, 2, LockModeType.PESSIMISTIC_WRITE)).thenReturn(issuer);
+
+        Transaction saved = transferEngine.transfer(transaction("100.00"), Money.parse("100.50"));
+
+        assertThat(saved.getIssuer().getBalance()).isEqualTo(Money.parse("4.50"));
+        assertThat(saved.getPayee().getBalance()).isEqualTo(Money.parse("100.00"));
+    }
+
+    @Test
+    @DisplayName("Balance is checked again once rows are locked")
+    void transfer_whenLockedBalanceIsInsufficient_shouldThrowException() {
+        issuer.setBalance(Money.parse("10.00"));
+        when(entityManager.find(User.class, 1, LockModeType.PESSIMISTIC_WRITE)).thenReturn(payee);
+        when(entityManager.find(User.class, 2, LockModeType.PESSIMISTIC_WRITE)).thenReturn(issuer);
+
+        assertThrows(InsufficientBalanceException.class,
+                     () -> transferEngine.transfer(transaction("100.00"), Money.parse("100.50")));
+        verify(transactionRepository, never()).save(any(Transaction.class));
+    }
+
+    @Test
+    @DisplayName("Payment history that is not loaded stays untouched when saving a transaction")
+    void transfer_shouldNotInitialize_lazyHistory() {
+        PersistentBag lazyHistory = new PersistentBag();
+        issuer.setInitiatedTransactions(lazyHistory);
+        when(entityManager.find(User.class, 1, LockModeType.PESSIMISTIC_WRITE)).thenReturn(payee);
+        when(entityManager.find(User.class, 2, LockModeType.PESSIMISTIC_WRITE)).thenReturn(issuer);
+
+        Transaction saved = transferEngine.transfer(transaction("100.00"), Money.parse("100.50"));
+
+        assertThat(lazyHistory.wasInitialized()).isFalse();
+        assertTrue(payee.getReceivedTransactions().contains(saved));
+        verify(transactionRepository).save(saved);
+    }
+
+    @Test
+    @DisplayName("Optimistic transfer is retried when another payment updated the same user")
+    void transfer_optimistic_retriesOnVersionConflict() {
+        ReflectionTestUtils.setField(transferEngine, "strategy", TransferStrategy.OPTIMISTIC);
+        // a new persistence context is used by each attempt
+        when(entityManager.find(User.class, 1, LockModeType.NONE)).thenAnswer(invocation -> user(1, "0.00"));
+        when(entityManager.find(User.class, 2, LockModeType.NONE)).thenAnswer(invocation -> user(2, "500.00"));
+        when(transactionRepository.save(any(Transaction.class)))
+                .thenThrow(new ObjectOptimisticLockingFailureException(User.class, 2))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        double retriesBefore = meterRegistry.counter("paymybuddy.transfer.retries").count();
+
+        Transaction saved = transferEngine.transfer(transaction("100.00"), Money.parse("100.50"));
+
+        assertThat(saved.getIssuer().getBalance()).isEqualTo(Money.parse("399.50"));
+        verify(transactionRepository, times(2)).save(any(Transaction.class));
+        assertThat(meterRegistry.counter("paymybuddy.transfer.retries").count())
+                .isEqualTo(retriesBefore + 1);
+    }
+
+    @Test
+    @DisplayName("Conditional update credits the lowest user ID first and fails when the debit is refused")
+    void transfer_conditionalUpdate_whenDebitRefused_shouldThrowException() {
+        ReflectionTestUtils.setField(transferEngine, "strategy", TransferStrategy.CONDITIONAL_UPDATE);
+        when(userRepository.credit(1, Money.parse("100.00"))).thenReturn(1);
+        when(userRepository.debitIfSufficient(2, Money.parse("100.50"))).thenReturn(0);
+
+        assertThrows(InsufficientBalanceException.class,
+                     () -> transferEngine.transfer(transaction("100.00"), Money.parse("100.50")));
+        InOrder updateOrder = inOrder(userRepository);
+        updateOrder.verify(userRepository).credit(eq(1), any(Money.class));
+        updateOrder.verify(userRepository).debitIfSufficient(eq(2), any(Money.class));
+        verify(transactionManager).rollback(any());
+    }
+
+    @Test
+    @DisplayName("Ledger transfer locks the issuer's ledger account only and writes no balance")
+    void transfer_ledger_shouldOnlyLockIssuerAccount() {
+        ReflectionTestUtils.setField(transferEngine, "strategy", TransferStrategy.LEDGER);
+        when(ledgerService.lockBalance(LedgerAccount.ofUser(2))).thenReturn(Money.parse("150.00"));
+        when(entityManager.find(User.class, 1, LockModeType.NONE)).thenReturn(payee);
+        when(entityManager.find(User.class, 2, LockModeType.NONE)).thenReturn(issuer);
+
+        Transaction saved = transferEngine.transfer(transaction("100.00"), Money.parse("100.50"));
+
+        verify(entityManager, never()).find(eq(User.class), any(), eq(LockModeType.PESSIMISTIC_WRITE));
+        verify(ledgerService, never()).lockBalance(LedgerAccount.ofUser(1));
+        assertThat(saved.getIssuer().getBalance()).isEqualTo(Money.parse("500.00"));
+        assertThat(saved.getPayee().getBalance()).isEqualTo(Money.parse("0.00"));
+        // The ledger writes the entries of the payment when it completes
+        assertTrue(applicationEvents.stream(PaymentCompleted.class)
+                                    .anyMatch(event -> event.transactions().equals(List.of(saved))));
+    }
+
+    @Test
+    @DisplayName("Ledger transfer fails when the locked ledger balance does not cover the payment")
+    void transfer_ledger_whenBalanceIsInsufficient_shouldThrowException() {
+        ReflectionTestUtils.setField(transferEngine, "strategy", TransferStrategy.LEDGER);
+        when(ledgerService.lockBalance(LedgerAccount.ofUser(2))).thenReturn(Money.parse("100.00"));
+
+        assertThrows(InsufficientBalanceException.class,
+                     () -> transferEngine.transfer(transaction("100.00"), Money.parse("100.50")));
+        verify(transactionRepository, never()).save(any(Transaction.class));
+    }
+
+    @Test
+    @DisplayName("Split payment reads all users in one locked query, debits the issuer once and batches inserts")
+    void transferToMany_pessimistic_debitsIssuerOnce() {
+        User otherPayee = user(3, "0.00");
+        TypedQuery<User> usersQuery = usersQuery(List.of(payee, issuer, otherPayee));
+        Transaction toPayee = transaction("10.00");
+        Transaction toOtherPayee = new Transaction(null, issuer, otherPayee, LocalDateTime.of(2022, 7, 18, 10, 0, 0),
+                                                   Money.parse("20.00"), "transfer engine test");
+
+        List<Transaction> saved = transferEngine.transferToMany(List.of(toPayee, toOtherPayee), Money.parse("30.15"));
+
+        verify(usersQuery).setLockMode(LockModeType.PESSIMISTIC_WRITE);
+        verify(jdbcTemplate, times(1)).execute(any(ConnectionCallback.class));
+        verify(transactionRepository, never()).save(any(Transaction.class));
+        assertThat(saved.size()).isEqualTo(2);
+        assertThat(issuer.getBalance()).isEqualTo(Money.parse("469.85"));
+        assertThat(payee.getBalance()).isEqualTo(Money.parse("10.00"));
+        assertThat(otherPayee.getBalance()).isEqualTo(Money.parse("20.00"));
+    }
+
+    @Test
+    @DisplayName("Split payment saves nothing when the issuer can not pay every buddy")
+    void transferToMany_whenBalanceIsInsufficient_shouldSaveNothing() {
+        issuer.setBalance(Money.parse("10.00"));
+        usersQuery(List.of(payee, issuer));
+
+        assertThrows(InsufficientBalanceException.class,
+                     () -> transferEngine.transferToMany(List.of(transaction("10.00")), Money.parse("10.05")));
+        verify(jdbcTemplate, never()).execute(any(ConnectionCallback.class));
+        assertThat(payee.getBalance()).isEqualTo(Money.ZERO);
+    }
+
+    @SuppressWarnings("unchecked")
+    private TypedQuery<User> usersQuery(List<User> users) {
+        TypedQuery<User> query = mock(TypedQuery.class);
+        when(entityManager.createQuery(anyString(), eq(User.class))).thenReturn(query);
+        when(query.setParameter(anyString(), any())).thenReturn(query);
+        when(query.setLockMode(any(LockModeType.class))).thenReturn(query);
+        when(query.getResultList()).thenReturn(users);
+        return query;
+    }
+
+    private Transaction transaction(String amount) {
+        return new Transaction(null, issuer, payee, LocalDateTime.of(2022, 7, 18, 10, 0, 0),
+                               Money.parse(amount), "transfer engine test");
+    }
+
+    private static User user(Integer id, String balance) {
+        return new User(id, "user" + id + "@friends.com", "password", "First" + id, "Last" + id,
+                        Money.parse(balance), new ArrayList<>(), new ArrayList<>(), new ArrayList<>(),
+                        new ArrayList<>());
+    }
+}
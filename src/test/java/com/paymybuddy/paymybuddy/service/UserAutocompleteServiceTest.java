@@ -0,0 +1,159 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.exceptions.TooManyRequestsException;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.viewmodel.BuddySuggestionViewModel;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+@Import({UserAutocompleteService.class, SimpleMeterRegistry.class})
+@TestPropertySource(properties = "paymybuddy.autocomplete.max-per-minute=50")
+class UserAutocompleteServiceTest {
+    /**
+     * Class under test.
+     */
+    @Autowired
+    UserAutocompleteService userAutocompleteService;
+
+    @MockBean
+    UserRepository userRepository;
+    @MockBean
+    BuddyGraph     buddyGraph;
+
+    private final User monica   = user(1, "gellermonica@friends.com", "Monica", "Geller");
+    private final User ross     = user(2, "gellerross@friends.com", "Ross", "Geller");
+    private final User rachel   = user(3, "greenrachel@friends.com", "Rachel", "Green");
+    private final User chandler = user(4, "bingchandler@friends.com", "Chandler", "Bing");
+    private final User gunther  = user(5, "gunther@centralperk.com", "Günther", "Centralperk");
+
+    private final Map<Integer, User> users = Stream.of(monica, ross, rachel, chandler, gunther)
+                                                   .collect(Collectors.toMap(User::getId, Function.identity()));
+
+    @BeforeEach
+    void index() {
+        when(userRepository.findViewsAfter(eq(0), any()))
+                .thenReturn(Stream.of(monica, ross, rachel, chandler).map(UserService::userToViewModel).toList());
+        when(userRepository.findAllById(anyIterable())).thenAnswer(invocation -> {
+            List<User> found = new ArrayList<>();
+            invocation.<Iterable<Integer>>getArgument(0).forEach(id -> found.add(users.get(id)));
+            return found;
+        });
+        // Every user shares a buddy with Monica, unless a test says otherwise
+        when(buddyGraph.mutualBuddies(eq(1), anyInt())).thenReturn(1);
+        userAutocompleteService.load();
+    }
+
+    @Test
+    @DisplayName("Prefixes of emails, firstnames, lastnames and full names match whatever their case")
+    void complete_shouldMatchPrefixOfEveryKey() {
+        assertThat(ids(userAutocompleteService.complete(monica, "GELLER", 10))).isEqualTo(List.of(2));
+        assertThat(ids(userAutocompleteService.complete(monica, "gre", 10))).isEqualTo(List.of(3));
+        assertThat(ids(userAutocompleteService.complete(monica, "rachel g", 10))).isEqualTo(List.of(3));
+        assertThat(ids(userAutocompleteService.complete(monica, "bing", 10))).isEqualTo(List.of(4));
+        assertThat(ids(userAutocompleteService.complete(monica, "xyz", 10))).isEqualTo(List.of());
+        assertThat(ids(userAutocompleteService.complete(monica, "gr", 10))).isEqualTo(List.of());
+        assertThat(ids(userAutocompleteService.complete(monica, " ", 10))).isEqualTo(List.of());
+    }
+
+    @Test
+    @DisplayName("Created users are found without accents and deleted ones are not suggested anymore")
+    void addAndRemove_shouldUpdateIndex() {
+        userAutocompleteService.add(gunther);
+        assertThat(ids(userAutocompleteService.complete(monica, "gün", 10))).isEqualTo(List.of(5));
+
+        userAutocompleteService.remove(ross);
+        assertThat(ids(userAutocompleteService.complete(monica, "geller", 10))).isEqualTo(List.of());
+        assertThat(userAutocompleteService.getKeyCount()).isEqualTo(20);
+    }
+
+    @Test
+    @DisplayName("Users with buddies in common come first, the user and their buddies are left out")
+    void complete_shouldRankByMutualBuddies() {
+        User jill = user(6, "greenjill@friends.com", "Jill", "Green");
+        users.put(6, jill);
+        userAutocompleteService.add(jill);
+        when(buddyGraph.isConnected(1, 2)).thenReturn(true);
+        when(buddyGraph.mutualBuddies(1, 6)).thenReturn(2);
+        when(buddyGraph.mutualBuddies(1, 3)).thenReturn(1);
+
+        List<BuddySuggestionViewModel> suggestions = userAutocompleteService.complete(monica, "green", 10);
+
+        assertThat(ids(suggestions)).isEqualTo(List.of(6, 3));
+        assertThat(suggestions.get(0).getMutualBuddies()).isEqualTo(2);
+        assertThat(ids(userAutocompleteService.complete(monica, "green", 1))).isEqualTo(List.of(6));
+        assertThat(ids(userAutocompleteService.complete(monica, "geller", 10))).isEqualTo(List.of());
+    }
+
+    @Test
+    @DisplayName("Users without buddies in common are only found from their whole email")
+    void complete_withoutMutualBuddies_shouldNeedWholeEmail() {
+        when(buddyGraph.mutualBuddies(1, 4)).thenReturn(0);
+
+        assertThat(ids(userAutocompleteService.complete(monica, "bing", 10))).isEqualTo(List.of());
+        assertThat(ids(userAutocompleteService.complete(monica, "bingchandler@", 10))).isEqualTo(List.of());
+        assertThat(ids(userAutocompleteService.complete(monica, "BingChandler@friends.com", 10)))
+                .isEqualTo(List.of(4));
+    }
+
+    @Test
+    @DisplayName("A user gets a limited number of completions a minute")
+    void complete_tooOften_shouldBeRefused() {
+        // Chandler completes nowhere else, the minute may only restart in between
+        for (int i = 0; i < 50; i++) {
+            userAutocompleteService.complete(chandler, "gel", 10);
+        }
+
+        assertThrows(TooManyRequestsException.class, () -> userAutocompleteService.complete(chandler, "gel", 10));
+    }
+
+    @Test
+    @DisplayName("Many created users are folded into the sorted keys without being lost")
+    void add_manyUsers_shouldBeFolded() {
+        for (int id = 100; id < 700; id++) {
+            User user = user(id, "joey" + id + "@friends.com", "Joey", "Tribbiani");
+            users.put(id, user);
+            userAutocompleteService.add(user);
+        }
+        userAutocompleteService.remove(rachel);
+
+        assertThat(ids(userAutocompleteService.complete(monica, "joey699", 10))).isEqualTo(List.of(699));
+        assertThat(userAutocompleteService.complete(monica, "tribbiani", 20).size()).isEqualTo(20);
+        assertThat(ids(userAutocompleteService.complete(monica, "gellerr", 10))).isEqualTo(List.of(2));
+        assertThat(ids(userAutocompleteService.complete(monica, "green", 10))).isEqualTo(List.of());
+    }
+
+    private static List<Integer> ids(List<BuddySuggestionViewModel> suggestions) {
+        return suggestions.stream().map(BuddySuggestionViewModel::getId).toList();
+    }
+
+    private static User user(int id, String email, String firstName, String lastName) {
+        return new User(id, email, "password", firstName, lastName, Money.ZERO, new ArrayList<>(), new ArrayList<>(),
+                        new ArrayList<>(), new ArrayList<>());
+    }
+}
@@ -1,6 +1,7 @@
 package com.paymybuddy.paymybuddy.service;
 
 import com.paymybuddy.paymybuddy.model.BankAccount;
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.User;
 import com.paymybuddy.paymybuddy.repository.UserRepository;
 import org.junit.jupiter.api.AfterEach;
@@ -11,7 +12,6 @@ import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
-import java.math.BigDecimal;
 import java.util.Optional;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
@@ -48,7 +48,7 @@ public class UserServiceIT {
         bankAccount = bankAccountService.createBankAccount(user,
                                                            "UserServiceIT Test Bank",
                                                            "FR7630001007941234567890185",
-                                                           new BigDecimal("250.00"));
+                                                           Money.parse("250.00"));
         accountId = bankAccount.getId();
     }
 
@@ -61,7 +61,7 @@ public class UserServiceIT {
     @Test
     @DisplayName("Deposit should add money to user's balance")
     void deposit() {
-        String amount = "50";
+        Money amount = Money.parse("50");
 
         userService.deposit(user, amount);
 
@@ -69,20 +69,20 @@ public class UserServiceIT {
         if (updatedUser.isEmpty()) {
             fail("User was not found.");
         } else {
-            assertThat(updatedUser.get().getBalance()).isEqualTo(new BigDecimal("50.00"));
+            assertThat(updatedUser.get().getBalance()).isEqualTo(Money.parse("50.00"));
         }
         Optional<BankAccount> updatedAccount = bankAccountService.getBankAccountById(accountId);
         if (updatedAccount.isEmpty()) {
             fail("Bank account was not well created");
         } else {
-            assertThat(updatedAccount.get().getBalance()).isEqualTo(new BigDecimal("200.00"));
+            assertThat(updatedAccount.get().getBalance()).isEqualTo(Money.parse("200.00"));
         }
     }
 
     @Test
     @DisplayName("Withdraw should subtract money to user's balance")
     void withdraw() {
-        String amount = "50";
+        Money amount = Money.parse("50");
 
         userService.withdraw(user, amount);
 
@@ -90,13 +90,13 @@ public class UserServiceIT {
         if (updatedUser.isEmpty()) {
             fail("User was not found.");
         } else {
-            assertThat(updatedUser.get().getBalance()).isEqualTo(new BigDecimal("-50.00"));
+            assertThat(updatedUser.get().getBalance()).isEqualTo(Money.parse("-50.00"));
         }
         Optional<BankAccount> updatedAccount = bankAccountService.getBankAccountById(accountId);
         if (updatedAccount.isEmpty()) {
             fail("Bank account was not well created");
         } else {
-            assertThat(updatedAccount.get().getBalance()).isEqualTo(new BigDecimal("300.00"));
+            assertThat(updatedAccount.get().getBalance()).isEqualTo(Money.parse("300.00"));
         }
     }
 }
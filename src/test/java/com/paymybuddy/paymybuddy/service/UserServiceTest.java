@@ -2,7 +2,10 @@ package com.paymybuddy.paymybuddy.service;
 
 import com.paymybuddy.paymybuddy.exceptions.EmailAlreadyUsedException;
 import com.paymybuddy.paymybuddy.model.BankAccount;
+import com.paymybuddy.paymybuddy.model.LedgerAccount;
+import com.paymybuddy.paymybuddy.model.Money;
 import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.UserFilter;
 import com.paymybuddy.paymybuddy.model.viewmodel.UserViewModel;
 import com.paymybuddy.paymybuddy.repository.BankAccountRepository;
 import com.paymybuddy.paymybuddy.repository.UserRepository;
@@ -14,10 +17,16 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
-import java.math.BigDecimal;
 import java.util.List;
 import java.util.Optional;
 
@@ -25,6 +34,7 @@ import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(SpringExtension.class)
@@ -43,6 +53,16 @@ class UserServiceTest {
     BCryptPasswordEncoder passwordEncoder;
     @MockBean
     BankAccountRepository bankAccountRepository;
+    @MockBean
+    LedgerService         ledgerService;
+    @MockBean
+    InMemoryTransferEngine inMemoryTransferEngine;
+    @MockBean
+    HotAccountService     hotAccountService;
+    @MockBean
+    ActivitySummaryService activitySummaryService;
+    @MockBean
+    EmailFilter           emailFilter;
 
     private User testUser;
     private User otherUser;
@@ -56,7 +76,7 @@ class UserServiceTest {
         testUser.setLastName("Bing");
         testUser.setPassword("CouldIBeAnyMoreBored");
         testUser.setEmail("bingchandler@friends.com");
-        testUser.setBalance(new BigDecimal("2509.56"));
+        testUser.setBalance(Money.parse("2509.56"));
 
         otherUser = new User();
         otherUser.setId(2);
@@ -64,9 +84,10 @@ class UserServiceTest {
         otherUser.setLastName("Tribbiani");
         otherUser.setPassword("HowUDoin");
         otherUser.setEmail("otheremail@mail.com");
-        otherUser.setBalance(new BigDecimal("09.56"));
+        otherUser.setBalance(Money.parse("9.56"));
 
-        bankAccount = new BankAccount(testUser, "Test Bank", "FR7630001007941234567890185", new BigDecimal("12648.62"));
+        bankAccount = new BankAccount(testUser, "Test Bank", "FR7630001007941234567890185", Money.parse("12648.62"));
+        when(emailFilter.mightExist(any(String.class))).thenReturn(true);
 
     }
 
@@ -127,6 +148,42 @@ class UserServiceTest {
         assertThrows(EmailAlreadyUsedException.class, () -> userService.createUser(testUser));
     }
 
+    @Test
+    @DisplayName("Saving a user whose email was just taken on another instance should throw exception")
+    void createUser_withDuplicateEmail_shouldThrow_exception() {
+        when(emailFilter.mightExist(any(String.class))).thenReturn(false);
+        when(passwordEncoder.encode(any(String.class))).thenReturn("encoded");
+        when(userRepository.save(any(User.class))).thenThrow(new DataIntegrityViolationException("email"));
+
+        assertThrows(EmailAlreadyUsedException.class, () -> userService.createUser(testUser));
+        verify(userRepository, never()).findByEmail(any(String.class));
+    }
+
+    @Test
+    @DisplayName("An email unknown to the email filter is not looked up")
+    void getUserByEmail_withUnknownEmail_shouldNotQuery() {
+        when(emailFilter.mightExist("unknown@mail.com")).thenReturn(false);
+
+        assertTrue(userService.getUserByEmail("unknown@mail.com").isEmpty());
+        verify(userRepository, never()).findByEmail(any(String.class));
+        verify(emailFilter, never()).recordLookup(anyBoolean());
+    }
+
+    @Test
+    @DisplayName("The authenticated user is read with one query, whatever the email filter knows")
+    void getAuthenticatedUser_shouldQueryOnce_withoutEmailFilter() {
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(testUser.getEmail(), null, List.of()));
+        when(userRepository.findByEmail(testUser.getEmail())).thenReturn(Optional.of(testUser));
+        try {
+            assertThat(userService.getAuthenticatedUser()).isEqualTo(testUser);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+        verify(userRepository, times(1)).findByEmail(testUser.getEmail());
+        verify(emailFilter, never()).mightExist(any(String.class));
+    }
+
     @Test
     @DisplayName("Id should not be null when calling getUserById")
     void getUserById_whenIDIsNull_shouldThrowException() {
@@ -159,7 +216,7 @@ class UserServiceTest {
     @DisplayName("User should not be null when calling deposit")
     void deposit_whenUserIsNull_shouldThrowException() {
         assertThrows(IllegalArgumentException.class,
-                     () -> userService.deposit(null, "30"));
+                     () -> userService.deposit(null, Money.parse("30")));
     }
 
     @Test
@@ -167,62 +224,77 @@ class UserServiceTest {
     void deposit_whenBankAccountDoesNotExist_shouldThrowException() {
         when(bankAccountRepository.findByUser(testUser)).thenReturn(Optional.empty());
         assertThrows(IllegalArgumentException.class,
-                     () -> userService.deposit(null, "30"));
+                     () -> userService.deposit(null, Money.parse("30")));
     }
 
     @Test
     @DisplayName("Deposit should add amount to user's balance")
     void deposit_shouldAdd_amountFrom_BuddyAccount() {
         when(bankAccountRepository.findByUser(testUser)).thenReturn(Optional.of(bankAccount));
-        String amount = "490.44";
+        Money amount = Money.parse("490.44");
         userService.deposit(testUser, amount);
         verify(userRepository, times(1)).save(testUser);
-        assertThat(testUser.getBalance()).isEqualTo(new BigDecimal("3000.00"));
+        assertThat(testUser.getBalance()).isEqualTo(Money.parse("3000.00"));
+        verify(ledgerService).recordDeposit(testUser, bankAccount, amount);
     }
 
     @Test
     @DisplayName("Deposit should subtract amount to user's bank account")
     void deposit_shouldSub_amountFrom_BankAccount() {
         when(bankAccountRepository.findByUser(testUser)).thenReturn(Optional.of(bankAccount));
-        String amount = "648.62";
+        Money amount = Money.parse("648.62");
         userService.deposit(testUser, amount);
         verify(userRepository, times(1)).save(testUser);
-        assertThat(bankAccount.getBalance()).isEqualTo(new BigDecimal("12000.00"));
+        assertThat(bankAccount.getBalance()).isEqualTo(Money.parse("12000.00"));
     }
 
     @Test
     @DisplayName("Deposit should replace any \"-\" in amount ")
     void deposit_shouldReplaceSign() {
         when(bankAccountRepository.findByUser(testUser)).thenReturn(Optional.of(bankAccount));
-        String amount = "-490.44";
+        Money amount = Money.parse("-490.44");
         userService.deposit(testUser, amount);
-        assertThat(testUser.getBalance()).isEqualTo(new BigDecimal("3000.00"));
+        assertThat(testUser.getBalance()).isEqualTo(Money.parse("3000.00"));
     }
 
     @Test
     @DisplayName("User should not be null when calling withdraw")
     void withdraw_whenUserIsNull_shouldThrowException() {
         assertThrows(IllegalArgumentException.class,
-                     () -> userService.withdraw(null, "30"));
+                     () -> userService.withdraw(null, Money.parse("30")));
     }
 
     @Test
     @DisplayName("Withdrawal should withdraw money from user's account")
     void withdraw_shouldWithdraw_amount() {
         when(bankAccountRepository.findByUser(testUser)).thenReturn(Optional.of(bankAccount));
-        String amount = "509.56";
+        Money amount = Money.parse("509.56");
         userService.withdraw(testUser, amount);
         verify(userRepository, times(1)).save(testUser);
-        assertThat(testUser.getBalance()).isEqualTo("2000.00");
+        assertThat(testUser.getBalance()).isEqualTo(Money.parse("2000.00"));
+        verify(ledgerService).recordWithdrawal(testUser, bankAccount, amount);
     }
 
     @Test
     @DisplayName("Withdrawal should replace any \"-\" in amount ")
     void withdraw_shouldReplaceSign() {
         when(bankAccountRepository.findByUser(testUser)).thenReturn(Optional.of(bankAccount));
-        String amount = "-509.56";
+        Money amount = Money.parse("-509.56");
+        userService.withdraw(testUser, amount);
+        assertThat(testUser.getBalance()).isEqualTo(Money.parse("2000.00"));
+    }
+
+    @Test
+    @DisplayName("Withdrawal only writes ledger entries when the ledger holds balances")
+    void withdraw_whenLedgerHoldsBalances_shouldOnlyWriteEntries() {
+        when(ledgerService.holdsBalances()).thenReturn(true);
+        when(bankAccountRepository.findByUser(testUser)).thenReturn(Optional.of(bankAccount));
+        Money amount = Money.parse("509.56");
         userService.withdraw(testUser, amount);
-        assertThat(testUser.getBalance()).isEqualTo(new BigDecimal("2000.00"));
+        verify(ledgerService).lockBalance(LedgerAccount.ofUser(testUser.getId()));
+        verify(ledgerService).recordWithdrawal(testUser, bankAccount, amount);
+        verify(userRepository, never()).save(any(User.class));
+        assertThat(testUser.getBalance()).isEqualTo(Money.parse("2509.56"));
     }
 
     @Test
@@ -230,29 +302,33 @@ class UserServiceTest {
     void withdraw_whenBankAccountDoesNotExist_shouldThrowException() {
         when(bankAccountRepository.findByUser(testUser)).thenReturn(Optional.empty());
         assertThrows(IllegalArgumentException.class,
-                     () -> userService.withdraw(null, "30"));
+                     () -> userService.withdraw(null, Money.parse("30")));
     }
 
     @Test
     @DisplayName("Withdrawal should add amount to user's bank account")
     void withdraw_shouldAdd_amountTo_BankAccount() {
         when(bankAccountRepository.findByUser(testUser)).thenReturn(Optional.of(bankAccount));
-        String amount = "351.38";
+        Money amount = Money.parse("351.38");
         userService.withdraw(testUser, amount);
         verify(userRepository, times(1)).save(testUser);
-        assertThat(bankAccount.getBalance()).isEqualTo(new BigDecimal("13000.00"));
+        assertThat(bankAccount.getBalance()).isEqualTo(Money.parse("13000.00"));
     }
 
     @Test
-    @DisplayName("getUsers should return a list of User with their email, first and last names, and balance " +
+    @DisplayName("getUsers should return a page of User with their email, first and last names, and balance " +
                  "information")
-    void getUsers_shouldReturn_listOfUserViewModels() {
-        when(userRepository.findAll()).thenReturn(List.of(testUser, otherUser));
+    void getUsers_shouldReturn_pageOfUserViewModels() {
+        Pageable pageable = PageRequest.of(0, 2);
+        when(userRepository.findViews(any(), eq(pageable))).thenReturn(new SliceImpl<>(
+                List.of(UserService.userToViewModel(testUser), UserService.userToViewModel(otherUser)), pageable,
+                true));
 
-        List<UserViewModel> result = userService.getUsers();
+        Slice<UserViewModel> result = userService.getUsers(new UserFilter(), pageable);
 
-        assertTrue(result.contains(UserService.userToViewModel(testUser)));
-        assertTrue(result.contains(UserService.userToViewModel(otherUser)));
+        assertTrue(result.getContent().contains(UserService.userToViewModel(testUser)));
+        assertTrue(result.getContent().contains(UserService.userToViewModel(otherUser)));
+        assertTrue(result.hasNext());
     }
 
     @Test
@@ -0,0 +1,128 @@
+package com.paymybuddy.paymybuddy.service;
+
+import com.paymybuddy.paymybuddy.constants.ActivityType;
+import com.paymybuddy.paymybuddy.model.Connection;
+import com.paymybuddy.paymybuddy.model.ConnectionFilter;
+import com.paymybuddy.paymybuddy.model.Money;
+import com.paymybuddy.paymybuddy.model.Transaction;
+import com.paymybuddy.paymybuddy.model.TransactionFilter;
+import com.paymybuddy.paymybuddy.model.User;
+import com.paymybuddy.paymybuddy.model.UserActivity;
+import com.paymybuddy.paymybuddy.model.UserActivityId;
+import com.paymybuddy.paymybuddy.repository.ConnectionRepository;
+import com.paymybuddy.paymybuddy.repository.TransactionRepository;
+import com.paymybuddy.paymybuddy.repository.UserActivityRepository;
+import com.paymybuddy.paymybuddy.repository.UserRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+/**
+ * View models are read with their users by the same query, so listing them costs the same number of queries
+ * whatever the number of rows.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class ViewModelQueryCountIT {
+    @Autowired
+    TransactionService    transactionService;
+    @Autowired
+    ConnectionService     connectionService;
+    @Autowired
+    UserRepository        userRepository;
+    @Autowired
+    ConnectionRepository  connectionRepository;
+    @Autowired
+    TransactionRepository  transactionRepository;
+    @Autowired
+    UserActivityRepository userActivityRepository;
+    @Autowired
+    EntityManagerFactory   entityManagerFactory;
+
+    /**
+     * A page holding every row, read without a count.
+     */
+    private static final Pageable ALL = PageRequest.of(0, 500, Sort.by("id"));
+
+    private Statistics statistics;
+
+    @BeforeAll
+    void initStatistics() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @ParameterizedTest(name = "{0} buddies")
+    @ValueSource(ints = {2, 40})
+    @DisplayName("Listing view models runs a fixed number of queries")
+    void listingViewModels_shouldRunFixedNumberOfQueries(int buddies) {
+        User owner = seed(buddies);
+
+        assertThat(queries(() -> assertThat(connectionService.getUserConnections(owner).size())
+                .isEqualTo(buddies))).isEqualTo(1);
+        assertThat(queries(() -> connectionService.getConnections(new ConnectionFilter(), ALL))).isEqualTo(1);
+        // User lookup, then the history
+        assertThat(queries(() -> assertThat(transactionService.getUserTransactions(owner.getId()).size())
+                .isEqualTo(2 * buddies))).isEqualTo(2);
+        assertThat(queries(() -> transactionService.getTransactions(new TransactionFilter(), ALL))).isEqualTo(1);
+        // User lookup, the page of the feed, and the count as the page is full
+        assertThat(queries(() -> transactionService.getPaginatedUserTransactions(PageRequest.of(0, 3),
+                                                                                 owner.getId())))
+                .isEqualTo(3);
+    }
+
+    private long queries(Runnable listing) {
+        statistics.clear();
+        listing.run();
+        return statistics.getPrepareStatementCount();
+    }
+
+    /**
+     * Creates a user with the given number of buddies, who each sent and received one transaction, and the
+     * activity feed rows of the owner.
+     */
+    private User seed(int buddies) {
+        LocalDateTime date  = LocalDateTime.of(2022, 7, 18, 10, 0, 0);
+        User          owner = userRepository.save(user("owner-" + buddies + "@mail.com"));
+        List<User>    users = new ArrayList<>();
+        for (int i = 0; i < buddies; i++) {
+            users.add(user("buddy-" + buddies + "-" + i + "@mail.com"));
+        }
+        List<Connection>  connections  = new ArrayList<>();
+        List<Transaction> transactions = new ArrayList<>();
+        for (User buddy : userRepository.saveAll(users)) {
+            connections.add(new Connection(null, owner, buddy, date));
+            transactions.add(new Transaction(null, owner, buddy, date, Money.parse("1.00"), "sent"));
+            transactions.add(new Transaction(null, buddy, owner, date, Money.parse("2.00"), "received"));
+        }
+        connectionRepository.saveAll(connections);
+        transactionRepository.saveAll(transactions);
+        List<UserActivity> feed = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            feed.add(new UserActivity(new UserActivityId(owner.getId(), transaction.getDate(), transaction.getId(),
+                                                         ActivityType.TRANSACTION)));
+        }
+        userActivityRepository.saveAll(feed);
+        return owner;
+    }
+
+    private static User user(String email) {
+        return new User(null, email, "password", "Query", "Count", Money.parse("100.00"), new ArrayList<>(),
+                        new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+}